@@ -94,6 +94,38 @@ public class FocusInfo
   }
 
 
+  /**
+   * Records which element of the {@link Renderer3d}'s scene is in focus, so
+   * that it can tell where that element is drawn, see
+   * {@link Renderer3d#getBounds(FocusInfo)}.
+   * 
+   * @param layout
+   *          Which arrangement of the scene the element belongs to, as its
+   *          elements are renumbered when meshes change.
+   **/
+  void setElement( final int element,
+	           final int layout )
+  {
+    this.element = element;
+    this.layout = layout;
+  }
+
+
+  /**
+   * @return -1 if not known.
+   **/
+  int getElement()
+  {
+    return element;
+  }
+
+
+  int getLayout()
+  {
+    return layout;
+  }
+
+
   // ----------------------------------------------------------------------
 
   private FocusInfo( final Mesh mesh,
@@ -147,4 +179,7 @@ public class FocusInfo
   private final Mesh.Face face;
   private final Mesh.Edge edge;
   private final Mesh.Point3d point;
+  // where the Renderer3d keeps the element, see setElement()
+  private int element = -1;
+  private int layout;
 }
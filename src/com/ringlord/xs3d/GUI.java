@@ -5,6 +5,9 @@ import java.awt.Color;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 
+import java.io.File;
+import java.io.IOException;
+
 import javax.swing.JFrame;
 import javax.swing.WindowConstants;
 
@@ -26,16 +29,28 @@ import javax.swing.WindowConstants;
 
 /**
  * The GUI component, launched by Main. It creates a {@link JFrame} and sets its
- * content pane to a {@link Viewer3d} object. Then it builds a {@link Mesh} (so
- * that something is displayed; you'd want to change that, maybe load a Mesh
- * from a 3D object file somehow, in order to make this a more useful program),
- * and adds that Mesh to the Viewer3d object.
+ * content pane to a {@link Viewer3d} object. Then it loads the meshes of the
+ * given {@link SceneFile}s, and imports the given OBJ, PLY, and STL files with
+ * a {@link MeshImporter} (showing them as they are read), or if there are no
+ * files builds a {@link Mesh} (so that something is displayed), and adds them
+ * to the Viewer3d object.
  * 
  * @author K. Udo Schuermann
  **/
 class GUI
   implements Runnable
 {
+  /**
+   * @param scenes
+   *          The scene files to display, if any.
+   **/
+  GUI( final File[] scenes )
+  {
+    super();
+    this.scenes = scenes;
+  }
+
+
   // ==============================
   // Runnable
   // ==============================
@@ -81,6 +96,35 @@ class GUI
 
     // ======================================================================
 
+    if( scenes.length > 0 )
+      {
+	final Mesh.Coloring importColoring = new Mesh.Coloring( Color.lightGray,
+	                                                        Color.lightGray,
+	                                                        Color.lightGray );
+	for( File scene : scenes )
+	  {
+	    if( MeshImporter.isSupported( scene ) )
+	      {
+		viewer3d.load( new MeshImporter( scene,
+		                                 importColoring,
+		                                 importColoring ) );
+		continue;
+	      }
+	    try
+	      {
+		for( IndexedMesh mesh : SceneFile.read( scene ) )
+		  {
+		    viewer3d.add( mesh );
+		  }
+	      }
+	    catch( final IOException x )
+	      {
+		System.err.println( x.getMessage() );
+	      }
+	  }
+	return;
+      }
+
     System.err.println( "GUI is building a simple cube to display.\n" );
 
     final Color focusColor = new Color( 191,
@@ -160,15 +204,15 @@ class GUI
 
     final Mesh.Edge e20 = new Mesh.Edge( null,
 	                                 p4,
-	                                 p5 );
+	                                 p7 );
     final Mesh.Edge e21 = new Mesh.Edge( null,
-	                                 p5,
+	                                 p7,
 	                                 p6 );
     final Mesh.Edge e22 = new Mesh.Edge( null,
 	                                 p6,
-	                                 p7 );
+	                                 p5 );
     final Mesh.Edge e23 = new Mesh.Edge( null,
-	                                 p7,
+	                                 p5,
 	                                 p4 );
 
     final Mesh.Edge e30 = new Mesh.Edge( null,
@@ -199,31 +243,32 @@ class GUI
 
     final Mesh.Edge e50 = new Mesh.Edge( null,
 	                                 p1,
-	                                 p2 );
+	                                 p5 );
     final Mesh.Edge e51 = new Mesh.Edge( null,
-	                                 p2,
+	                                 p5,
 	                                 p6 );
     final Mesh.Edge e52 = new Mesh.Edge( null,
 	                                 p6,
-	                                 p5 );
+	                                 p2 );
     final Mesh.Edge e53 = new Mesh.Edge( null,
-	                                 p5,
+	                                 p2,
 	                                 p1 );
 
     final Mesh.Edge e60 = new Mesh.Edge( null,
-	                                 p5,
-	                                 p4 );
-    final Mesh.Edge e61 = new Mesh.Edge( null,
-	                                 p4,
+	                                 p1,
 	                                 p0 );
-    final Mesh.Edge e62 = new Mesh.Edge( null,
+    final Mesh.Edge e61 = new Mesh.Edge( null,
 	                                 p0,
-	                                 p1 );
-    final Mesh.Edge e63 = new Mesh.Edge( null,
-	                                 p1,
+	                                 p4 );
+    final Mesh.Edge e62 = new Mesh.Edge( null,
+	                                 p4,
 	                                 p5 );
+    final Mesh.Edge e63 = new Mesh.Edge( null,
+	                                 p5,
+	                                 p1 );
 
-    // Collect the edges into faces
+    // Collect the edges into faces; seen from outside the cube, the
+    // edges of each face run counter-clockwise
     final Mesh.Face f0 = new Mesh.Face( faceColoring0,
 	                                e10,
 	                                e11,
@@ -272,30 +317,30 @@ class GUI
     // little spheres)
     if( true )
       {
-	mesh0.add( p0 );
-	mesh0.add( p1 );
-	mesh0.add( p2 );
-	mesh0.add( p3 );
-
-	mesh1.add( p4 );
-	mesh1.add( p5 );
-	mesh1.add( p6 );
-	mesh1.add( p7 );
+	mesh0.addAll( p0,
+	              p1,
+	              p2,
+	              p3 );
+
+	mesh1.addAll( p4,
+	              p5,
+	              p6,
+	              p7 );
       }
 
     // true: add the edges so that representations of edges are rendered (as
     // lines)
     if( true )
       {
-	mesh0.add( e10 );
-	mesh0.add( e11 );
-	mesh0.add( e12 );
-	mesh0.add( e13 );
-
-	mesh1.add( e20 );
-	mesh1.add( e21 );
-	mesh1.add( e22 );
-	mesh1.add( e23 );
+	mesh0.addAll( e10,
+	              e11,
+	              e12,
+	              e13 );
+
+	mesh1.addAll( e20,
+	              e21,
+	              e22,
+	              e23 );
       }
 
     // true: add the faces so that faces are rendered (filled with solid color)
@@ -339,5 +384,11 @@ class GUI
     // redundant as Meshes is focusable by default
     mesh0.setFocusable( true );
     // mesh1.setFocusable( false );
+
+    // The faces that point away from the viewer are hidden behind the
+    // others anyway, but culling them would also hide the inside of the
+    // cube while mesh4 blinks out of sight:
+    // mesh0.setBackFaceCulling( true );
   }
+  private final File[] scenes;
 }
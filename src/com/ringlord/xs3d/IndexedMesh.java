@@ -0,0 +1,510 @@
+package com.ringlord.xs3d;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+// This file is part of XS3D.
+//
+// XS3D is free software: you can redistribute it and/or modify it
+// under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// XS3D is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with XS3D. If not, see <http://www.gnu.org/licenses/>.
+
+/**
+ * <p>
+ * A mesh whose geometry is held in a few primitive arrays (or buffers) rather
+ * than in objects: the coordinates of all vertices in one float[], the edges as
+ * pairs of vertex indices in an int[], and the faces as the vertex indices of
+ * their corners in another int[], with the offset of each face's first corner
+ * in a third. Where a {@link Mesh} costs several objects per element, an
+ * IndexedMesh costs a few bytes, so large models (such as scanned surfaces of
+ * millions of triangles) fit into a fraction of the memory, and the
+ * {@link Renderer3d} projects their vertices straight from the array.
+ * </p>
+ * 
+ * <p>
+ * In exchange, the elements of an IndexedMesh cannot be added or removed,
+ * focused, or selected, and all edges (and all faces) share one
+ * {@link Mesh.Coloring}. The vertices may be moved, though, see
+ * {@link #setVertex(int,double,double,double)}.
+ * </p>
+ * 
+ * <p>
+ * The corners of a face run counter-clockwise when seen from its front, as do
+ * the edges of a {@link Mesh.Face}. For example, a unit square in the XY-plane
+ * that faces up the Z-axis, with its four sides drawn as edges:
+ * </p>
+ * 
+ * <pre>
+ *   IndexedMesh square = new IndexedMesh( edgeColoring,
+ *                                         faceColoring,
+ *                                         new float[] {0,0,0, 1,0,0, 1,1,0, 0,1,0},
+ *                                         new int[] {0,1, 1,2, 2,3, 3,0},
+ *                                         new int[] {0, 4},
+ *                                         new int[] {0,1,2,3} );
+ * </pre>
+ * 
+ * <p>
+ * The geometry may also live outside of the Java heap, in direct buffers,
+ * where the garbage collector never has to look at it. This suits point
+ * clouds of hundreds of millions of vertices, which are then shown as points:
+ * </p>
+ * 
+ * <pre>
+ *   FloatBuffer coordinates = ByteBuffer.allocateDirect( 12 * vertexCount )
+ *                                       .order( ByteOrder.nativeOrder() )
+ *                                       .asFloatBuffer();
+ *   &hellip; // put the x, y, and z of each vertex
+ *   coordinates.flip();
+ *   IndexedMesh cloud = new IndexedMesh( null,
+ *                                        null,
+ *                                        coordinates,
+ *                                        null,
+ *                                        null,
+ *                                        null );
+ *   cloud.setPointsShown( true );
+ * </pre>
+ * 
+ * <p>
+ * The Renderer3d still keeps the projection of each vertex on the heap, but
+ * in a few primitive arrays that it reuses from frame to frame.
+ * </p>
+ * 
+ * @author K. Udo Schuermann
+ **/
+public class IndexedMesh
+{
+  /**
+   * Constructs an IndexedMesh around the given arrays, which are not copied,
+   * see {@link #IndexedMesh(Mesh.Coloring,Mesh.Coloring,FloatBuffer,IntBuffer,IntBuffer,IntBuffer)}.
+   **/
+  public IndexedMesh( final Mesh.Coloring edgeColoring,
+	              final Mesh.Coloring faceColoring,
+	              final float[] coordinates,
+	              final int[] edges,
+	              final int[] faceStart,
+	              final int[] faceVertices )
+  {
+    this( edgeColoring,
+	  faceColoring,
+	  FloatBuffer.wrap( coordinates ),
+	  (edges == null
+	      ? null
+	      : IntBuffer.wrap( edges )),
+	  (faceStart == null
+	      ? null
+	      : IntBuffer.wrap( faceStart )),
+	  (faceVertices == null
+	      ? null
+	      : IntBuffer.wrap( faceVertices )) );
+  }
+
+
+  /**
+   * Constructs an IndexedMesh around what remains of the given buffers, which
+   * are not copied. They may be direct buffers (use the platform's native byte
+   * order for speed), or wrap arrays. They belong to the IndexedMesh afterwards
+   * and must not be changed other than through its methods; if the
+   * coordinates are read-only, so are the vertices.
+   * 
+   * @param edgeColoring
+   *          The coloring of all edges, or null to not draw them.
+   * @param faceColoring
+   *          The coloring of all faces, or null to not draw them.
+   * @param coordinates
+   *          The x, y, and z coordinate of each vertex in turn.
+   * @param edges
+   *          The index of the head and of the tail vertex of each edge in
+   *          turn, or null if there are no edges.
+   * @param faceStart
+   *          The index into faceVertices of the first corner of each face,
+   *          followed by the length of faceVertices, or null if there are no
+   *          faces.
+   * @param faceVertices
+   *          The vertex indices of the (three or more) corners of all faces,
+   *          or null if there are no faces.
+   * @throws IllegalArgumentException
+   *           If the arrays are inconsistent, or an index lies beyond the
+   *           vertices.
+   **/
+  public IndexedMesh( final Mesh.Coloring edgeColoring,
+	              final Mesh.Coloring faceColoring,
+	              final FloatBuffer coordinates,
+	              final IntBuffer edges,
+	              final IntBuffer faceStart,
+	              final IntBuffer faceVertices )
+  {
+    this( edgeColoring,
+	  faceColoring,
+	  coordinates,
+	  edges,
+	  faceStart,
+	  faceVertices,
+	  null );
+  }
+
+
+  /**
+   * Constructs an IndexedMesh around buffers whose bounds are known, as for
+   * a {@link SceneFile}. The indices are then not checked, so that none of the
+   * buffers needs to be read.
+   * 
+   * @param bounds
+   *          The bounds of the vertices, or null to check the indices and find
+   *          the bounds when first needed.
+   **/
+  IndexedMesh( final Mesh.Coloring edgeColoring,
+	       final Mesh.Coloring faceColoring,
+	       final FloatBuffer coordinates,
+	       final IntBuffer edges,
+	       final IntBuffer faceStart,
+	       final IntBuffer faceVertices,
+	       final Mesh.Bounds bounds )
+  {
+    super();
+    if( (coordinates.remaining() % 3) != 0 )
+      {
+	throw new IllegalArgumentException( "IndexedMesh coordinates must come in threes" );
+      }
+    this.edgeColoring = edgeColoring;
+    this.faceColoring = faceColoring;
+    // sliced, so that the elements are numbered from zero
+    this.coordinates = coordinates.slice();
+    this.edges = (edges == null
+	? IntBuffer.allocate( 0 )
+	: edges.slice());
+    this.faceStart = (faceStart == null
+	? IntBuffer.wrap( new int[] {0} )
+	: faceStart.slice());
+    this.faceVertices = (faceVertices == null
+	? IntBuffer.allocate( 0 )
+	: faceVertices.slice());
+
+    final int vertexCount = getVertexCount();
+    if( (this.edges.limit() % 2) != 0 )
+      {
+	throw new IllegalArgumentException( "IndexedMesh edges must come in pairs" );
+      }
+    final int faceCount = this.faceStart.limit() - 1;
+    if( (faceCount < 0) ||
+	(this.faceStart.get( 0 ) != 0) ||
+	(this.faceStart.get( faceCount ) != this.faceVertices.limit()) )
+      {
+	throw new IllegalArgumentException( "IndexedMesh faceStart must run from 0 to the number of face vertices" );
+      }
+    if( bounds != null )
+      {
+	if( !bounds.isEmpty() )
+	  {
+	    this.bounds.include( bounds.getMinX(),
+	                         bounds.getMinY(),
+	                         bounds.getMinZ() );
+	    this.bounds.include( bounds.getMaxX(),
+	                         bounds.getMaxY(),
+	                         bounds.getMaxZ() );
+	  }
+	this.isBoundsValid = true;
+	return;
+      }
+    checkIndices( this.edges,
+	          vertexCount );
+    for( int i = 1; i <= faceCount; i++ )
+      {
+	if( this.faceStart.get( i ) - this.faceStart.get( i - 1 ) < 3 )
+	  {
+	    throw new IllegalArgumentException( "IndexedMesh faces must have at least 3 corners" );
+	  }
+      }
+    checkIndices( this.faceVertices,
+	          vertexCount );
+  }
+
+
+  private static void checkIndices( final IntBuffer indices,
+	                            final int vertexCount )
+  {
+    for( int i = 0; i < indices.limit(); i++ )
+      {
+	final int v = indices.get( i );
+	if( (v < 0) || (v >= vertexCount) )
+	  {
+	    throw new IllegalArgumentException( "IndexedMesh vertex index " + v + " out of range" );
+	  }
+      }
+  }
+
+
+  public void setVisible( final boolean isVisible )
+  {
+    this.isVisible = isVisible;
+  }
+
+
+  public boolean isVisible()
+  {
+    return isVisible;
+  }
+
+
+  /**
+   * Controls whether the faces are drawn only when they face the viewer, which
+   * is off by default, see {@link Mesh#setBackFaceCulling(boolean)}.
+   **/
+  public void setBackFaceCulling( final boolean isBackFaceCulling )
+  {
+    this.isBackFaceCulling = isBackFaceCulling;
+  }
+
+
+  public boolean isBackFaceCulling()
+  {
+    return isBackFaceCulling;
+  }
+
+
+  /**
+   * Controls whether the vertices are drawn as points (little spheres), which
+   * is off by default; otherwise only the edges and faces are drawn.
+   **/
+  public void setPointsShown( final boolean isPointsShown )
+  {
+    if( this.isPointsShown != isPointsShown )
+      {
+	this.isPointsShown = isPointsShown;
+	structureVersion++;
+      }
+  }
+
+
+  public boolean isPointsShown()
+  {
+    return isPointsShown;
+  }
+
+
+  public void setEdgeColoring( final Mesh.Coloring edgeColoring )
+  {
+    this.edgeColoring = edgeColoring;
+  }
+
+
+  public Mesh.Coloring getEdgeColoring()
+  {
+    return edgeColoring;
+  }
+
+
+  public void setFaceColoring( final Mesh.Coloring faceColoring )
+  {
+    this.faceColoring = faceColoring;
+  }
+
+
+  public Mesh.Coloring getFaceColoring()
+  {
+    return faceColoring;
+  }
+
+
+  public int getVertexCount()
+  {
+    return coordinates.limit() / 3;
+  }
+
+
+  public int getEdgeCount()
+  {
+    return edges.limit() / 2;
+  }
+
+
+  public int getFaceCount()
+  {
+    return faceStart.limit() - 1;
+  }
+
+
+  public double getX( final int vertex )
+  {
+    return coordinates.get( 3 * vertex );
+  }
+
+
+  public double getY( final int vertex )
+  {
+    return coordinates.get( 3 * vertex + 1 );
+  }
+
+
+  public double getZ( final int vertex )
+  {
+    return coordinates.get( 3 * vertex + 2 );
+  }
+
+
+  /**
+   * Moves a vertex, and with it the edges and faces that it is part of. Like
+   * moving a {@link Mesh.Point3d}, this does not notify anyone; the change
+   * shows in the next frame that is rendered.
+   * 
+   * @param vertex
+   *          The index of the vertex.
+   * @throws java.nio.ReadOnlyBufferException
+   *           If the coordinates are read-only.
+   **/
+  public synchronized void setVertex( final int vertex,
+	                              final double x,
+	                              final double y,
+	                              final double z )
+  {
+    final int i = 3 * vertex;
+    final double oldX = coordinates.get( i );
+    final double oldY = coordinates.get( i + 1 );
+    final double oldZ = coordinates.get( i + 2 );
+    coordinates.put( i,
+	             (float)x );
+    coordinates.put( i + 1,
+	             (float)y );
+    coordinates.put( i + 2,
+	             (float)z );
+
+    shapeVersion++;
+    if( isBoundsValid )
+      {
+	if( bounds.touches( oldX,
+	                    oldY,
+	                    oldZ ) )
+	  {
+	    // the box may have to shrink
+	    isBoundsValid = false;
+	  }
+	else
+	  {
+	    bounds.include( coordinates.get( i ),
+	                    coordinates.get( i + 1 ),
+	                    coordinates.get( i + 2 ) );
+	  }
+      }
+  }
+
+
+  /**
+   * Obtains the axis-aligned box that bounds every vertex, see
+   * {@link Mesh#getBounds()}. It is computed when first needed, and again only
+   * after a vertex that may have touched its boundary has been moved inward.
+   * Like those of a Mesh, the returned Bounds do not change.
+   **/
+  public synchronized Mesh.Bounds getBounds()
+  {
+    validateBounds();
+    if( (boundsCopy == null) || !boundsCopy.isSame( bounds ) )
+      {
+	boundsCopy = new Mesh.Bounds( bounds );
+      }
+    return boundsCopy;
+  }
+
+
+  /**
+   * Copies the box that bounds every vertex into the given Bounds, see
+   * {@link Mesh#getBounds(Mesh.Bounds)}.
+   **/
+  synchronized void getBounds( final Mesh.Bounds b )
+  {
+    validateBounds();
+    b.set( bounds );
+  }
+
+
+  private void validateBounds()
+  {
+    if( !isBoundsValid )
+      {
+	bounds.clear();
+	for( int i = 0; i < coordinates.limit(); i += 3 )
+	  {
+	    bounds.include( coordinates.get( i ),
+	                    coordinates.get( i + 1 ),
+	                    coordinates.get( i + 2 ) );
+	  }
+	isBoundsValid = true;
+      }
+  }
+
+
+  /**
+   * @return A number that changes whenever a vertex is moved, see
+   *         {@link Mesh#getShapeVersion()}.
+   **/
+  int getShapeVersion()
+  {
+    return shapeVersion;
+  }
+
+
+  /**
+   * @return A number that changes whenever the elements to render change,
+   *         which (as edges and faces are fixed) is only when points are
+   *         shown or hidden, see {@link Mesh#getStructureVersion()}.
+   **/
+  int getStructureVersion()
+  {
+    return structureVersion;
+  }
+
+
+  // the buffers, for the Renderer3d to read directly; their elements
+  // are read by index only, so that the buffer positions never change
+  FloatBuffer coordinates()
+  {
+    return coordinates;
+  }
+
+
+  IntBuffer edges()
+  {
+    return edges;
+  }
+
+
+  IntBuffer faceStart()
+  {
+    return faceStart;
+  }
+
+
+  IntBuffer faceVertices()
+  {
+    return faceVertices;
+  }
+
+  // x, y, z of each vertex
+  private final FloatBuffer coordinates;
+  // head, tail of each edge
+  private final IntBuffer edges;
+  // face i has the corners faceVertices[faceStart[i]] to
+  // faceVertices[faceStart[i+1]-1]
+  private final IntBuffer faceStart;
+  private final IntBuffer faceVertices;
+
+  private Mesh.Coloring edgeColoring;
+  private Mesh.Coloring faceColoring;
+
+  private final Mesh.Bounds bounds = new Mesh.Bounds();
+  private Mesh.Bounds boundsCopy; // see getBounds()
+  private boolean isBoundsValid; // computed when first needed
+  private volatile int shapeVersion; // see getShapeVersion()
+  private volatile int structureVersion; // see getStructureVersion()
+
+  private boolean isVisible = true;
+  private boolean isBackFaceCulling;
+  private boolean isPointsShown;
+}
@@ -1,16 +1,23 @@
 package com.ringlord.xs3d;
 
+import java.awt.Rectangle;
+import java.awt.Shape;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseWheelListener;
 import java.awt.event.MouseWheelEvent;
+import java.awt.geom.Path2D;
 
+import java.util.Collections;
+import java.util.List;
+import java.util.ArrayList;
 import java.util.Set;
 import java.util.HashSet;
 
 import javax.swing.JComponent;
 import javax.swing.KeyStroke;
+import javax.swing.SwingUtilities;
 
 
 /**
@@ -22,8 +29,17 @@ import javax.swing.KeyStroke;
  * <li>ctrl-L resets the view to its initial settings
  * <li>(any) mouse drag (press and move) rotates the view
  * <li>mouse wheel zooms in/out
+ * <li>a mouse click selects the element in focus, or deselects it
  * </ol>
  * 
+ * <p>
+ * In the {@link DragMode#RECTANGLE} and {@link DragMode#LASSO} modes, a drag
+ * with the left button rather selects all the elements within the band that
+ * it drags out (or deselects them, while ctrl is held down), at once: the
+ * display is repainted once, and the {@link MeshSelectionListener}S are told
+ * once.
+ * </p>
+ * 
  * @author K. Udo Schuermann
  **/
 public class InputHandler
@@ -55,6 +71,34 @@ public class InputHandler
   }
 
 
+  public void addMeshSelectionListener( final MeshSelectionListener l )
+  {
+    meshSelectionListeners.add( l );
+  }
+
+
+  public void removeMeshSelectionListener( final MeshSelectionListener l )
+  {
+    meshSelectionListeners.remove( l );
+  }
+
+
+  /**
+   * Sets what a drag with the left mouse button does; it rotates the view by
+   * default.
+   **/
+  public void setDragMode( final DragMode dragMode )
+  {
+    this.dragMode = dragMode;
+  }
+
+
+  public DragMode getDragMode()
+  {
+    return dragMode;
+  }
+
+
   // ======================================================================
   // MouseListener
   // ======================================================================
@@ -72,12 +116,38 @@ public class InputHandler
   {
     mouseX = e.getX();
     mouseY = e.getY();
+
+    if( (dragMode != DragMode.ROTATE) && SwingUtilities.isLeftMouseButton( e ) )
+      {
+	if( dragMode == DragMode.LASSO )
+	  {
+	    final Path2D lasso = new Path2D.Float();
+	    lasso.moveTo( mouseX,
+	                  mouseY );
+	    band = lasso;
+	  }
+	else
+	  {
+	    band = new Rectangle( mouseX,
+	                          mouseY,
+	                          0,
+	                          0 );
+	  }
+      }
   }
 
 
   public void mouseReleased( final MouseEvent e )
   {
-    testFocus();
+    if( band != null )
+      {
+	final Shape area = band;
+	band = null;
+	view.setSelectionArea( null );
+	select( view.getElementsWithin( area ),
+	        !e.isControlDown() );
+      }
+    requestFocusTest();
   }
 
 
@@ -85,23 +155,8 @@ public class InputHandler
   {
     if( curFocus != null )
       {
-	switch (curFocus.getType())
-	  {
-	  case FACE:
-	    Mesh.Face f = curFocus.getFace();
-	    f.setSelected( !f.isSelected() );
-	    break;
-
-	  case EDGE:
-	    Mesh.Edge e = curFocus.getEdge();
-	    e.setSelected( !e.isSelected() );
-	    break;
-
-	  case POINT:
-	    Mesh.Point3d p = curFocus.getPoint();
-	    p.setSelected( !p.isSelected() );
-	  }
-	view.repaint();
+	select( Collections.singletonList( curFocus ),
+	        !isSelected( curFocus ) );
       }
   }
 
@@ -114,7 +169,7 @@ public class InputHandler
     mouseX = e.getX();
     mouseY = e.getY();
 
-    testFocus();
+    requestFocusTest();
   }
 
 
@@ -123,6 +178,25 @@ public class InputHandler
     final int curX = e.getX();
     final int curY = e.getY();
 
+    // the band grows from where the mouse was pressed
+    if( band != null )
+      {
+	if( band instanceof Rectangle )
+	  {
+	    ((Rectangle)band).setFrameFromDiagonal( mouseX,
+	                                            mouseY,
+	                                            curX,
+	                                            curY );
+	  }
+	else
+	  {
+	    ((Path2D)band).lineTo( curX,
+	                           curY );
+	  }
+	view.setSelectionArea( band );
+	return;
+      }
+
     // Alter the view angle to affect the rotation of the view; 0.01
     // controls the mouse sensitivity: a smaller value requires more
     // motion to effect a change, a larger value makes the mouse more
@@ -165,6 +239,21 @@ public class InputHandler
 
   // ----------------------------------------------------------------------
 
+  /**
+   * Tests the focus at the mouse location once the events that are queued
+   * right now have been handled, so that when the mouse moves faster than
+   * the focus can be found, only where it went last is tested.
+   **/
+  private void requestFocusTest()
+  {
+    if( !isFocusTestPending )
+      {
+	isFocusTestPending = true;
+	SwingUtilities.invokeLater( focusTest );
+      }
+  }
+
+
   private void testFocus()
   {
     // don't check focus if nobody is listening
@@ -221,15 +310,17 @@ public class InputHandler
 
 	if( prev != cur )
 	  {
+	    // only where the elements are drawn needs to be repainted
 	    if( prev != null )
 	      {
 		notifyMeshFocusLost( curFocus );
+		view.repaintFocus( curFocus );
 	      }
 	    if( cur != null )
 	      {
 		notifyMeshFocusGained( focus );
+		view.repaintFocus( focus );
 	      }
-	    view.repaint();
 	  }
 
 	curFocus = focus;
@@ -237,6 +328,107 @@ public class InputHandler
   }
 
 
+  /**
+   * Selects or deselects the elements, and repaints where those that changed
+   * are drawn, in one go.
+   **/
+  private void select( final List<FocusInfo> elements,
+	               final boolean isSelected )
+  {
+    final List<FocusInfo> changed = new ArrayList<FocusInfo>();
+    Rectangle damage = null;
+    boolean isAllDamaged = false;
+    for( FocusInfo info : elements )
+      {
+	if( isSelected( info ) == isSelected )
+	  {
+	    continue;
+	  }
+	switch (info.getType())
+	  {
+	  case FACE:
+	    info.getFace().setSelected( isSelected );
+	    break;
+	  case EDGE:
+	    info.getEdge().setSelected( isSelected );
+	    break;
+	  case POINT:
+	    info.getPoint().setSelected( isSelected );
+	    break;
+	  }
+	changed.add( info );
+
+	if( !isAllDamaged )
+	  {
+	    final Rectangle r = view.getRenderer().getBounds( info );
+	    if( r == null )
+	      {
+		isAllDamaged = true;
+	      }
+	    else if( damage == null )
+	      {
+		damage = r;
+	      }
+	    else
+	      {
+		damage.add( r );
+	      }
+	  }
+      }
+    if( changed.isEmpty() )
+      {
+	return;
+      }
+
+    if( isAllDamaged )
+      {
+	view.repaint();
+      }
+    else
+      {
+	view.repaint( damage );
+      }
+    final List<FocusInfo> none = Collections.emptyList();
+    if( isSelected )
+      {
+	notifyMeshSelectionChanged( changed,
+	                            none );
+      }
+    else
+      {
+	notifyMeshSelectionChanged( none,
+	                            changed );
+      }
+  }
+
+
+  private static boolean isSelected( final FocusInfo info )
+  {
+    switch (info.getType())
+      {
+      case FACE:
+	return info.getFace().isSelected();
+      case EDGE:
+	return info.getEdge().isSelected();
+      default:
+	return info.getPoint().isSelected();
+      }
+  }
+
+
+  private void notifyMeshSelectionChanged( final List<FocusInfo> selected,
+	                                   final List<FocusInfo> deselected )
+  {
+    final MeshSelectionEvent e = new MeshSelectionEvent( view,
+	                                                 selected,
+	                                                 deselected );
+    for( MeshSelectionListener l : meshSelectionListeners )
+      {
+	l.meshSelectionChanged( e );
+      }
+  }
+
+
   private void notifyMeshFocusGained( final FocusInfo info )
   {
     final MeshFocusEvent e = new MeshFocusEvent( view,
@@ -266,5 +458,41 @@ public class InputHandler
   private int mouseX, mouseY;
   private final Viewer3d view;
   private FocusInfo curFocus;
+  // whether focusTest is queued, see requestFocusTest()
+  private boolean isFocusTestPending;
+  private final Runnable focusTest = new Runnable()
+    {
+      public void run()
+      {
+	isFocusTestPending = false;
+	testFocus();
+      }
+    };
   private final Set<MeshFocusListener> meshFocusListeners = new HashSet<MeshFocusListener>();
+  private final Set<MeshSelectionListener> meshSelectionListeners = new HashSet<MeshSelectionListener>();
+  private DragMode dragMode = DragMode.ROTATE;
+  // the rectangle or lasso being dragged out, see mousePressed()
+  private Shape band;
+
+
+  /**
+   * What a drag with the left mouse button does, see
+   * {@link InputHandler#setDragMode(DragMode)}.
+   **/
+  public enum DragMode
+  {
+    /**
+     * Rotates the view.
+     **/
+    ROTATE,
+    /**
+     * Selects the elements within the rectangle spanned from where the drag
+     * started to where it ends.
+     **/
+    RECTANGLE,
+    /**
+     * Selects the elements within the outline traced by the mouse.
+     **/
+    LASSO;
+  }
 }
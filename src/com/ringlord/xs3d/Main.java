@@ -2,6 +2,8 @@ package com.ringlord.xs3d;
 
 import java.awt.HeadlessException;
 
+import java.io.File;
+
 import javax.swing.SwingUtilities;
 
 
@@ -22,7 +24,7 @@ import javax.swing.SwingUtilities;
 
 /**
  * Entry point of the software, launches the {@link GUI}. Command line arguments
- * are ignored.
+ * name {@link SceneFile}s for the GUI to display.
  * 
  * @author K. Udo Schuermann
  **/
@@ -32,7 +34,8 @@ final class Main
    * Entry point for XS3D.
    * 
    * @param args
-   *          The command line arguments, currently ignored.
+   *          The command line arguments: the names of scene files, or of OBJ,
+   *          PLY, or STL files, to display, if any.
    **/
   public static void main( final String[] args )
   {
@@ -42,7 +45,12 @@ final class Main
 
     try
       {
-	SwingUtilities.invokeLater( new GUI() );
+	final File[] scenes = new File[args.length];
+	for( int i = 0; i < args.length; i++ )
+	  {
+	    scenes[i] = new File( args[i] );
+	  }
+	SwingUtilities.invokeLater( new GUI( scenes ) );
       }
     catch( final HeadlessException noGUI )
       {
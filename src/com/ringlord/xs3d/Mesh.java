@@ -2,11 +2,20 @@ package com.ringlord.xs3d;
 
 import java.awt.Color;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.IdentityHashMap;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.swing.event.ChangeListener;
-import javax.swing.event.ChangeEvent;
 
 
 // This file is part of XS3D.
@@ -38,7 +47,7 @@ import javax.swing.event.ChangeEvent;
  * <p>
  * Edges and Faces have color. Points do not (currently) define a color.
  * Exercise for the aspiring programmer: Add a fourth class that (maybe extends
- * Point) but is rendered with a custom drawing routine (in Viewer3d).
+ * Point) but is rendered with a custom drawing routine (in Renderer3d).
  * </p>
  * 
  * <p>
@@ -46,6 +55,20 @@ import javax.swing.event.ChangeEvent;
  * can be controlled with {@link #setFocusable(boolean)}.
  * </p>
  * 
+ * <p>
+ * The Mesh keeps track of the axis-aligned box that bounds all of its vertices
+ * (and of the sphere around that box, see {@link #getBounds()}), which lets the
+ * {@link Renderer3d} skip a Mesh that lies entirely out of view without looking
+ * at its elements.
+ * </p>
+ * 
+ * <p>
+ * A Mesh may be changed on any thread, one thread at a time (see
+ * {@link #beginEdit()}). What is drawn is a {@link Snapshot} of it, so that
+ * the {@link Renderer3d} neither waits for a change to be done nor shows a
+ * part of one.
+ * </p>
+ * 
  * @author K. Udo Schuermann
  **/
 public class Mesh
@@ -86,15 +109,53 @@ public class Mesh
   }
 
 
+  /**
+   * <p>
+   * Controls whether the {@link Face}S of the Mesh are drawn only when they
+   * face the viewer, which is off by default. For a closed solid, whose faces
+   * all have their front on the outside, about half of the faces point away
+   * from the viewer and would only be overdrawn by the others, so culling
+   * them saves much of the work of drawing the solid.
+   * </p>
+   * 
+   * <p>
+   * The front of a Face is the side from which its edges run
+   * counter-clockwise (see {@link Face}).
+   * </p>
+   **/
+  public void setBackFaceCulling( final boolean isBackFaceCulling )
+  {
+    this.isBackFaceCulling = isBackFaceCulling;
+  }
+
+
+  public boolean isBackFaceCulling()
+  {
+    return isBackFaceCulling;
+  }
+
+
   /**
    * <p>
    * Add a {@link ChangeListener} to be notified when any Mesh element (point,
-   * edge, or face) is added to or removed from the Mesh.
+   * edge, or face) is added to or removed from the Mesh, and when its vertices
+   * are given new positions with
+   * {@link #setPositions(Point3d[],double[],int)}.
    * </p>
    * 
    * <p>
    * The {@link Viewer3d} registers itself as a ChangeListener so that it can
    * redraw the display when the Mesh contents change.
+   * </p>
+   * 
+   * <p>
+   * The ChangeListeners are notified once for all the changes made by
+   * {@link #addAll(Point3d...)} and its kin, or within
+   * {@link #edit(Runnable)}, rather than for each of them. They are passed a
+   * {@link MeshEvent} that lists these changes, as well as the edges and faces
+   * given another coloring with {@link #setColoring(Edge,Coloring)} and
+   * {@link #setColoring(Face,Coloring)}.
+   * </p>
    **/
   public void addChangeListener( final ChangeListener l )
   {
@@ -117,69 +178,74 @@ public class Mesh
    **/
   public void add( final Point3d p )
   {
-    points.add( p );
-    notifyChangeListeners();
+    beginEdit();
+    try
+      {
+	points.add( p );
+	use( p );
+	pointArray = null;
+	final Changes c = recording();
+	if( c != null )
+	  {
+	    c.add( p );
+	  }
+	changed();
+      }
+    finally
+      {
+	endEdit();
+      }
   }
 
 
   /**
-   * Remove a single Point3d from the Mesh.
+   * Remove a single Point3d from the Mesh, together with the edges of the Mesh
+   * that end in it (see {@link #remove(Edge)}). This takes time in proportion
+   * to the number of those edges, and of their faces, not to the size of the
+   * Mesh.
    **/
   public void remove( final Point3d p )
   {
-    points.remove( p );
-    pointArray = null;
-
-    List<Edge> destroyedEdges = null;
-    List<Face> destroyedFaces = null;
-    for( Edge e : edges )
+    beginEdit();
+    try
       {
-	if( (p == e.getHead()) || (p == e.getTail()) )
+	final Changes c = recording();
+	if( points.remove( p ) )
 	  {
-	    if( destroyedEdges == null )
+	    release( p );
+	    if( c != null )
 	      {
-		destroyedEdges = new ArrayList<Edge>();
+		c.remove( p );
 	      }
-	    destroyedEdges.add( e );
+	  }
+	pointArray = null;
 
-	    for( Face s : faces )
+	final List<Edge> destroyedEdges = pointEdges.get( p );
+	if( destroyedEdges != null )
+	  {
+	    for( Edge e : destroyedEdges.toArray( new Edge[destroyedEdges.size()] ) )
 	      {
-		if( s.contains( e ) )
+		if( edges.remove( e ) )
 		  {
-		    if( s.size() > 3 )
-		      {
-			s.remove( e );
-		      }
-		    else
+		    release( e.getHead() );
+		    release( e.getTail() );
+		    unlink( e );
+		    if( c != null )
 		      {
-			if( destroyedFaces == null )
-			  {
-			    destroyedFaces = new ArrayList<Face>();
-			  }
-			destroyedFaces.add( s );
+			c.remove( e,
+			          !edges.contains( e ) );
 		      }
 		  }
+		cut( e );
 	      }
+	    edgeArray = null;
 	  }
+	changed();
       }
-
-    if( destroyedEdges != null )
-      {
-	for( Edge e : destroyedEdges )
-	  {
-	    edges.remove( e );
-	  }
-	edgeArray = null;
-      }
-    if( destroyedFaces != null )
+    finally
       {
-	for( Face s : destroyedFaces )
-	  {
-	    faces.remove( s );
-	  }
-	faceArray = null;
+	endEdit();
       }
-    notifyChangeListeners();
   }
 
 
@@ -188,46 +254,57 @@ public class Mesh
    **/
   public void add( final Edge e )
   {
-    edges.add( e );
-    notifyChangeListeners();
+    beginEdit();
+    try
+      {
+	edges.add( e );
+	use( e.getHead() );
+	use( e.getTail() );
+	link( e );
+	edgeArray = null;
+	final Changes c = recording();
+	if( c != null )
+	  {
+	    c.add( e );
+	  }
+	changed();
+      }
+    finally
+      {
+	endEdit();
+      }
   }
 
 
   /**
-   * Remove an Edge from the Mesh.
+   * Remove an Edge from the Mesh. The faces of the Mesh that it bounds lose
+   * it, and those that would be left with fewer than three edges are removed.
    **/
   public void remove( final Edge e )
   {
-    edges.remove( e );
-
-    List<Face> destroyedFaces = null;
-    for( Face s : faces )
+    beginEdit();
+    try
       {
-	if( s.contains( e ) )
+	if( edges.remove( e ) )
 	  {
-	    if( s.size() > 3 )
+	    release( e.getHead() );
+	    release( e.getTail() );
+	    unlink( e );
+	    final Changes c = recording();
+	    if( c != null )
 	      {
-		s.remove( e );
-	      }
-	    else
-	      {
-		if( destroyedFaces == null )
-		  {
-		    destroyedFaces = new ArrayList<Face>();
-		  }
-		destroyedFaces.add( s );
+		c.remove( e,
+		          !edges.contains( e ) );
 	      }
 	  }
+	edgeArray = null;
+	cut( e );
+	changed();
       }
-
-    if( destroyedFaces != null )
+    finally
       {
-	for( Face s : destroyedFaces )
-	  {
-	    faces.remove( s );
-	  }
+	endEdit();
       }
-    notifyChangeListeners();
   }
 
 
@@ -236,8 +313,27 @@ public class Mesh
    **/
   public void add( final Face s )
   {
-    faces.add( s );
-    notifyChangeListeners();
+    beginEdit();
+    try
+      {
+	faces.add( s );
+	for( Edge e : s.edges() )
+	  {
+	    use( e.getHead() );
+	  }
+	link( s );
+	faceArray = null;
+	final Changes c = recording();
+	if( c != null )
+	  {
+	    c.add( s );
+	  }
+	changed();
+      }
+    finally
+      {
+	endEdit();
+      }
   }
 
 
@@ -246,148 +342,1729 @@ public class Mesh
    **/
   public void remove( final Face s )
   {
-    faces.remove( s );
-    notifyChangeListeners();
+    beginEdit();
+    try
+      {
+	if( faces.remove( s ) )
+	  {
+	    releaseCorners( s );
+	    unlink( s );
+	    final Changes c = recording();
+	    if( c != null )
+	      {
+		c.remove( s,
+		          !faces.contains( s ) );
+	      }
+	  }
+	faceArray = null;
+	changed();
+      }
+    finally
+      {
+	endEdit();
+      }
   }
 
 
-  public Point3d[] points()
+  /**
+   * Add several Point3dS to the Mesh, notifying the {@link ChangeListener}S
+   * once.
+   **/
+  public void addAll( final Point3d... points )
   {
-    if( pointArray == null )
+    beginEdit();
+    try
+      {
+	for( Point3d p : points )
+	  {
+	    add( p );
+	  }
+      }
+    finally
       {
-	pointArray = new Point3d[points.size()];
-	points.toArray( pointArray );
+	endEdit();
       }
-    return pointArray;
   }
 
 
-  public Edge[] edges()
+  /**
+   * Add several EdgeS to the Mesh, notifying the {@link ChangeListener}S once.
+   **/
+  public void addAll( final Edge... edges )
   {
-    if( edgeArray == null )
+    beginEdit();
+    try
+      {
+	for( Edge e : edges )
+	  {
+	    add( e );
+	  }
+      }
+    finally
       {
-	edgeArray = new Edge[edges.size()];
-	edges.toArray( edgeArray );
+	endEdit();
       }
-    return edgeArray;
   }
 
 
-  public Face[] faces()
+  /**
+   * Add several FaceS to the Mesh, notifying the {@link ChangeListener}S once.
+   **/
+  public void addAll( final Face... faces )
   {
-    if( faceArray == null )
+    beginEdit();
+    try
+      {
+	for( Face s : faces )
+	  {
+	    add( s );
+	  }
+      }
+    finally
       {
-	faceArray = new Face[faces.size()];
-	faces.toArray( faceArray );
+	endEdit();
       }
-    return faceArray;
   }
 
 
-  private void notifyChangeListeners()
+  /**
+   * Remove several Point3dS from the Mesh, notifying the
+   * {@link ChangeListener}S once.
+   **/
+  public void removeAll( final Point3d... points )
   {
-    final ChangeEvent e = new ChangeEvent( this );
-    for( ChangeListener l : changeListeners )
+    beginEdit();
+    try
       {
-	l.stateChanged( e );
+	for( Point3d p : points )
+	  {
+	    remove( p );
+	  }
+      }
+    finally
+      {
+	endEdit();
       }
   }
 
 
-  public static final class Coloring
+  /**
+   * Remove several EdgeS from the Mesh, notifying the {@link ChangeListener}S
+   * once.
+   **/
+  public void removeAll( final Edge... edges )
   {
-    public Coloring( final Color normal,
-	             final Color focused,
-	             final Color selected )
-    {
-      this.normal = normal;
-      this.focused = (focused == null
-	  ? normal
-	  : focused);
-      this.selected = (selected == null
-	  ? focused
-	  : selected);
-    }
+    beginEdit();
+    try
+      {
+	for( Edge e : edges )
+	  {
+	    remove( e );
+	  }
+      }
+    finally
+      {
+	endEdit();
+      }
+  }
 
 
-    public Color normal()
-    {
-      return normal;
-    }
+  /**
+   * Remove several FaceS from the Mesh, notifying the {@link ChangeListener}S
+   * once.
+   **/
+  public void removeAll( final Face... faces )
+  {
+    beginEdit();
+    try
+      {
+	for( Face s : faces )
+	  {
+	    remove( s );
+	  }
+      }
+    finally
+      {
+	endEdit();
+      }
+  }
 
 
-    public Color focused()
-    {
-      return focused;
-    }
+  /**
+   * Gives an Edge of the Mesh another coloring, which it is drawn with from
+   * the next frame on.
+   **/
+  public void setColoring( final Edge e,
+	                   final Coloring coloring )
+  {
+    beginEdit();
+    try
+      {
+	e.setColoring( coloring );
+	if( edges.contains( e ) )
+	  {
+	    final Changes c = recording();
+	    if( c != null )
+	      {
+		c.restyle( e );
+	      }
+	    isChangePending = true;
+	  }
+      }
+    finally
+      {
+	endEdit();
+      }
+  }
 
 
-    public Color selected()
-    {
-      return selected;
-    }
-    private Color normal, focused, selected;
+  /**
+   * Gives a Face of the Mesh another coloring, which it is drawn with from the
+   * next frame on.
+   **/
+  public void setColoring( final Face s,
+	                   final Coloring coloring )
+  {
+    beginEdit();
+    try
+      {
+	s.setColoring( coloring );
+	if( faces.contains( s ) )
+	  {
+	    final Changes c = recording();
+	    if( c != null )
+	      {
+		c.restyle( s );
+	      }
+	    isChangePending = true;
+	  }
+      }
+    finally
+      {
+	endEdit();
+      }
   }
 
 
-  // ======================================================================
-  // Nested classes (Point3d, Edge, Face)
-  // ======================================================================
-
   /**
-   * A point in 3D space. It has no color (at this time), but the Viewer3d
-   * renders it as a little sphere.
+   * <p>
+   * Selects (or deselects) every point, edge, and face of the Mesh within one
+   * edit, as for "select all" or "select none", and then notifies the
+   * {@link ChangeListener}S once (if that changed anything) so that the
+   * display is drawn again once rather than for each element.
+   * </p>
    * 
-   * @author K. Udo Schuermann
+   * <p>
+   * The Mesh keeps the state of its elements in words of 32 elements each, so
+   * this sets a word at a time. An element that other meshes share keeps its
+   * state there.
+   * </p>
+   * 
+   * @return true if that selected (or deselected) any element that was not
+   *         already
    **/
-  public static final class Point3d
+  public boolean setAllSelected( final boolean isSelected )
   {
-    public Point3d( final double x,
-	            final double y,
-	            final double z )
-    {
-      super();
-      setXYZ( x,
-	      y,
-	      z );
-    }
-
-
-    public void setFocused( final boolean isFocused )
-    {
-      this.isFocused = isFocused;
-    }
-
-
-    public boolean isFocused()
-    {
-      return isFocused;
-    }
+    beginEdit();
+    try
+      {
+	final boolean isChanged = table.setAll( SELECTED,
+	                                        isSelected );
+	if( isChanged )
+	  {
+	    isChangePending = true;
+	  }
+	return isChanged;
+      }
+    finally
+      {
+	endEdit();
+      }
+  }
 
 
-    public void setSelected( final boolean isSelected )
-    {
-      this.isSelected = isSelected;
-      System.err.println( "Selected (" + x + ", " + y + ", " + z + ")" );
-    }
+  /**
+   * <p>
+   * Makes all the changes of the given edit to the Mesh, and then notifies the
+   * {@link ChangeListener}S once (if anything was added or removed at all),
+   * rather than after each change:
+   * </p>
+   * 
+   * <pre>
+   *   mesh.edit( new Runnable()
+   *     {
+   *       public void run()
+   *       {
+   *         for( &hellip; )
+   *           {
+   *             mesh.add( &hellip; );
+   *           }
+   *       }
+   *     } );
+   * </pre>
+   * 
+   * <p>
+   * Edits may be nested; the ChangeListeners are notified when the outermost
+   * edit is done, even if it throws an exception.
+   * </p>
+   * 
+   * @see #beginEdit()
+   **/
+  public void edit( final Runnable edit )
+  {
+    beginEdit();
+    try
+      {
+	edit.run();
+      }
+    finally
+      {
+	endEdit();
+      }
+  }
 
 
-    public boolean isSelected()
-    {
-      return isSelected;
-    }
+  /**
+   * <p>
+   * Holds back the notification of the {@link ChangeListener}S until the
+   * matching {@link #endEdit()}, for when a Runnable does not suit, see
+   * {@link #edit(Runnable)}. Calls of beginEdit() and endEdit() must be
+   * balanced, and made on the same thread, so call endEdit() in a finally
+   * block.
+   * </p>
+   * 
+   * <p>
+   * Only one thread at a time edits a Mesh, so this waits while another
+   * thread does. Those that look at the Mesh meanwhile, such as the
+   * {@link Renderer3d}, do not wait but see the {@link Snapshot} from before
+   * the edit.
+   * </p>
+   **/
+  public void beginEdit()
+  {
+    editLock.lock();
+  }
 
 
-    public double getX()
-    {
-      return x;
-    }
+  /**
+   * Ends the edit begun with the matching {@link #beginEdit()}, notifying the
+   * {@link ChangeListener}S once if the Mesh was changed and no other edit
+   * remains open.
+   **/
+  public void endEdit()
+  {
+    if( !editLock.isHeldByCurrentThread() )
+      {
+	throw new IllegalStateException( "Mesh.endEdit() without beginEdit()" );
+      }
+    MeshEvent event = null;
+    if( (editLock.getHoldCount() == 1) && isChangePending )
+      {
+	event = (changes != null ? changes.toEvent( this ) : new Changes().toEvent( this ));
+	changes = null;
+	isChangePending = false;
+      }
+    editLock.unlock();
+    if( event != null )
+      {
+	fireStateChanged( event );
+      }
+  }
 
 
-    public double getY()
-    {
-      return y;
-    }
+  /**
+   * <p>
+   * Obtains the elements of the Mesh as of its latest version, or if another
+   * thread is editing the Mesh right now (see {@link #beginEdit()}), as of the
+   * version before: this never waits for an edit to finish, and never shows
+   * part of one.
+   * </p>
+   * 
+   * <p>
+   * A Snapshot does not change. The next one is only made when it is asked
+   * for after the Mesh has changed, and shares the arrays of the elements
+   * that have not changed with the one before.
+   * </p>
+   **/
+  public Snapshot snapshot()
+  {
+    final Snapshot last = snapshot;
+    if( (last.version != structureVersion) && editLock.tryLock() )
+      {
+	try
+	  {
+	    if( pointArray == null )
+	      {
+		pointArray = points.toArray( new Point3d[points.size()] );
+		pointIds = points.ids( pointArray );
+	      }
+	    if( edgeArray == null )
+	      {
+		edgeArray = edges.toArray( new Edge[edges.size()] );
+		edgeIds = edges.ids( edgeArray );
+	      }
+	    if( faceArray == null )
+	      {
+		faceArray = faces.toArray( new Face[faces.size()] );
+		faceIds = faces.ids( faceArray );
+	      }
+	    snapshot = new Snapshot( structureVersion,
+		                     pointArray,
+		                     pointIds,
+		                     edgeArray,
+		                     edgeIds,
+		                     faceArray,
+		                     faceIds );
+	  }
+	finally
+	  {
+	    editLock.unlock();
+	  }
+      }
+    return snapshot;
+  }
+
+
+  /**
+   * @return The points of the latest {@link #snapshot()}, which must not be
+   *         changed.
+   **/
+  public Point3d[] points()
+  {
+    return snapshot().points();
+  }
+
+
+  /**
+   * @return The edges of the latest {@link #snapshot()}, which must not be
+   *         changed.
+   **/
+  public Edge[] edges()
+  {
+    return snapshot().edges();
+  }
+
+
+  /**
+   * @return The faces of the latest {@link #snapshot()}, which must not be
+   *         changed.
+   **/
+  public Face[] faces()
+  {
+    return snapshot().faces();
+  }
+
+
+  /**
+   * <p>
+   * Obtains the axis-aligned box that bounds every vertex of the Mesh: its
+   * points, the end points of its edges, and the corners of its faces. The
+   * box grows as vertices are added or moved outward; it is recomputed (on the
+   * next call) only when a vertex that may have touched its boundary is moved
+   * inward or removed.
+   * </p>
+   * 
+   * <p>
+   * The returned Bounds do not change, so they may be kept, and read on any
+   * thread, while the Mesh is being changed. They are a copy of the box that
+   * the Mesh updates in place, which is made anew only once the box has
+   * changed.
+   * </p>
+   **/
+  public synchronized Bounds getBounds()
+  {
+    validateBounds();
+    if( (boundsCopy == null) || !boundsCopy.isSame( bounds ) )
+      {
+	boundsCopy = new Bounds( bounds );
+      }
+    return boundsCopy;
+  }
+
+
+  /**
+   * Copies the box that bounds every vertex (see {@link #getBounds()}) into
+   * the given Bounds, as the {@link Renderer3d} does for every frame, which
+   * for a Mesh whose vertices move makes no copy that is used only once.
+   **/
+  synchronized void getBounds( final Bounds b )
+  {
+    validateBounds();
+    b.set( bounds );
+  }
+
+
+  /**
+   * Finds the box anew if a vertex that may have touched its boundary has
+   * been moved inward or removed.
+   **/
+  private void validateBounds()
+  {
+    if( !isBoundsValid )
+      {
+	// an array, unlike the key set, is gone through without allocating
+	if( vertexArray == null )
+	  {
+	    vertexArray = vertexUses.keySet().toArray( new Point3d[vertexUses.size()] );
+	  }
+	bounds.clear();
+	for( Point3d p : vertexArray )
+	  {
+	    bounds.include( p.getX(),
+	                    p.getY(),
+	                    p.getZ() );
+	  }
+	isBoundsValid = true;
+      }
+  }
+
+
+  /**
+   * Gives an element that the Mesh has come to hold an id, by which the Mesh
+   * keeps its state and coloring until it no longer holds it.
+   **/
+  private int enter( final Element element )
+  {
+    final int id = table.allocate();
+    element.join( this,
+	          id );
+    return id;
+  }
+
+
+  private void leave( final Element element,
+	              final int id )
+  {
+    element.leave( this );
+    table.release( id );
+  }
+
+
+  /**
+   * Gives the element of the given id the colors of the given coloring (or
+   * none), adding them to the palette if they are new to it. This may be
+   * called on any thread, for another Mesh that shares the element.
+   **/
+  private void recolor( final int id,
+	                final Coloring coloring )
+  {
+    synchronized( paletteLock )
+      {
+	int index = 0;
+	if( coloring != null )
+	  {
+	    final Integer known = paletteIndex.get( coloring );
+	    if( known == null )
+	      {
+		index = paletteIndex.size() + 1;
+		int[] colors = palette;
+		if( colors.length < 4 * (index + 1) )
+		  {
+		    colors = Arrays.copyOf( colors,
+		                            2 * colors.length );
+		  }
+		// by state, as getColor() reads them
+		for( int state = 0; state < 4; state++ )
+		  {
+		    colors[(4 * index) + state] = coloring.argb( state );
+		  }
+		palette = colors;
+		paletteIndex.put( coloring,
+		                  index );
+	      }
+	    else
+	      {
+		index = known;
+	      }
+	  }
+	table.setColoring( id,
+	                   index );
+      }
+  }
+
+
+  /**
+   * Counts one more use of the vertex by an element of the Mesh, so that the
+   * vertex is included in the bounds.
+   **/
+  private synchronized void use( final Point3d p )
+  {
+    final Integer n = vertexUses.get( p );
+    if( n == null )
+      {
+	vertexUses.put( p,
+	                Integer.valueOf( 1 ) );
+	p.addOwner( this );
+	vertexArray = null;
+	if( isBoundsValid )
+	  {
+	    bounds.include( p.getX(),
+	                    p.getY(),
+	                    p.getZ() );
+	  }
+      }
+    else
+      {
+	vertexUses.put( p,
+	                Integer.valueOf( n.intValue() + 1 ) );
+      }
+  }
+
+
+  /**
+   * Counts one less use of the vertex by an element of the Mesh, dropping it
+   * from the bounds when no element uses it any longer.
+   **/
+  private synchronized void release( final Point3d p )
+  {
+    final Integer n = vertexUses.get( p );
+    if( n == null )
+      {
+	return;
+      }
+    if( n.intValue() > 1 )
+      {
+	vertexUses.put( p,
+	                Integer.valueOf( n.intValue() - 1 ) );
+      }
+    else
+      {
+	vertexUses.remove( p );
+	p.removeOwner( this );
+	vertexArray = null;
+	if( bounds.touches( p.getX(),
+	                    p.getY(),
+	                    p.getZ() ) )
+	  {
+	    isBoundsValid = false;
+	  }
+      }
+  }
+
+
+  private void releaseCorners( final Face s )
+  {
+    for( Edge e : s.edges() )
+      {
+	release( e.getHead() );
+      }
+  }
+
+
+  /**
+   * Takes the Edge out of the faces of the Mesh that it bounds: a face of
+   * more than three edges loses it (and the corner at its head), while a
+   * triangle is removed from the Mesh.
+   **/
+  private void cut( final Edge e )
+  {
+    final List<Face> adjacent = edgeFaces.get( e );
+    if( adjacent == null )
+      {
+	return;
+      }
+    final Changes c = recording();
+    for( Face s : adjacent.toArray( new Face[adjacent.size()] ) )
+      {
+	// the face may have lost the edge since it was listed, as a Face
+	// may belong to more than one Mesh
+	if( !s.contains( e ) )
+	  {
+	    continue;
+	  }
+	if( s.size() > 3 )
+	  {
+	    s.remove( e );
+	    // the face loses the corner at the head of the edge
+	    release( e.getHead() );
+	    if( !s.contains( e ) )
+	      {
+		while (detach( edgeFaces,
+		               e,
+		               s ))
+		  {
+		    // every time that the face was added
+		  }
+	      }
+	    if( c != null )
+	      {
+		c.reshape( s );
+	      }
+	  }
+	else if( faces.remove( s ) )
+	  {
+	    releaseCorners( s );
+	    unlink( s );
+	    faceArray = null;
+	    if( c != null )
+	      {
+		c.remove( s,
+		          !faces.contains( s ) );
+	      }
+	  }
+      }
+  }
+
+
+  /**
+   * Lists the Edge at each of its end points.
+   **/
+  private void link( final Edge e )
+  {
+    attach( pointEdges,
+	    e.getHead(),
+	    e );
+    if( e.getTail() != e.getHead() )
+      {
+	attach( pointEdges,
+	        e.getTail(),
+	        e );
+      }
+  }
+
+
+  private void unlink( final Edge e )
+  {
+    detach( pointEdges,
+	    e.getHead(),
+	    e );
+    if( e.getTail() != e.getHead() )
+      {
+	detach( pointEdges,
+	        e.getTail(),
+	        e );
+      }
+  }
+
+
+  /**
+   * Lists the Face at each of its edges.
+   **/
+  private void link( final Face s )
+  {
+    final Edge[] sides = s.edges();
+    for( int i = 0; i < sides.length; i++ )
+      {
+	if( isFirst( sides,
+	             i ) )
+	  {
+	    attach( edgeFaces,
+		    sides[i],
+		    s );
+	  }
+      }
+  }
+
+
+  private void unlink( final Face s )
+  {
+    final Edge[] sides = s.edges();
+    for( int i = 0; i < sides.length; i++ )
+      {
+	if( isFirst( sides,
+	             i ) )
+	  {
+	    detach( edgeFaces,
+		    sides[i],
+		    s );
+	  }
+      }
+  }
+
+
+  /**
+   * @return true unless the edge at the given index also comes earlier.
+   **/
+  private static boolean isFirst( final Edge[] sides,
+	                          final int index )
+  {
+    for( int i = 0; i < index; i++ )
+      {
+	if( sides[i] == sides[index] )
+	  {
+	    return false;
+	  }
+      }
+    return true;
+  }
+
+
+  private static <K, V> void attach( final Map<K,List<V>> adjacency,
+	                             final K key,
+	                             final V value )
+  {
+    List<V> list = adjacency.get( key );
+    if( list == null )
+      {
+	list = new ArrayList<V>( 2 );
+	adjacency.put( key,
+	               list );
+      }
+    list.add( value );
+  }
+
+
+  /**
+   * Removes the value from the list of the key once.
+   * 
+   * @return false if it was not listed.
+   **/
+  private static <K, V> boolean detach( final Map<K,List<V>> adjacency,
+	                                final K key,
+	                                final V value )
+  {
+    final List<V> list = adjacency.get( key );
+    if( (list == null) || !list.remove( value ) )
+      {
+	return false;
+      }
+    if( list.isEmpty() )
+      {
+	adjacency.remove( key );
+      }
+    return true;
+  }
+
+
+  /**
+   * <p>
+   * Gives many vertices new positions at once, for animating them. They do
+   * not move right away, but when the next frame that shows the Mesh is
+   * rendered, or {@link #applyPositions()} is called: so a simulation may
+   * compute the positions of frame N+1, and hand them over, while the
+   * {@link Renderer3d} draws frame N, and each frame shows the vertices of one
+   * call. If positions are set again before they took effect, only the latest
+   * ones do. The {@link ChangeListener}S are notified once (when the edit is
+   * done if one is open).
+   * </p>
+   * 
+   * <p>
+   * The positions are copied, so the array may be filled with the next ones
+   * as soon as this returns. Moving a vertex this way costs a few array
+   * accesses, far less than {@link Point3d#setXYZ(double,double,double)}
+   * does.
+   * </p>
+   * 
+   * @param vertices
+   *          The vertices to move, usually of this Mesh; their array is not
+   *          copied and must not be changed until the positions took effect.
+   * @param coordinates
+   *          The new x, y, and z of each of the vertices in turn, starting at
+   *          the offset.
+   * @throws IndexOutOfBoundsException
+   *           If the coordinates end before those of the last vertex.
+   **/
+  public void setPositions( final Point3d[] vertices,
+	                    final double[] coordinates,
+	                    final int offset )
+  {
+    final int length = 3 * vertices.length;
+    if( (offset < 0) || (offset > coordinates.length - length) )
+      {
+	throw new IndexOutOfBoundsException( "Mesh.setPositions() needs " +
+	                                     length +
+	                                     " coordinates from " +
+	                                     offset +
+	                                     " of " +
+	                                     coordinates.length );
+      }
+    synchronized( positionWriteLock )
+      {
+	final Positions back = backPositions;
+	if( back.coordinates.length < length )
+	  {
+	    back.coordinates = new double[length];
+	  }
+	System.arraycopy( coordinates,
+	                  offset,
+	                  back.coordinates,
+	                  0,
+	                  length );
+	back.vertices = vertices;
+	synchronized( positionSwapLock )
+	  {
+	    backPositions = readyPositions;
+	    readyPositions = back;
+	    positionsGiven++;
+	  }
+      }
+
+    if( editLock.isHeldByCurrentThread() )
+      {
+	final Changes c = recording();
+	if( c != null )
+	  {
+	    c.move( vertices );
+	  }
+	isChangePending = true;
+      }
+    else if( !changeListeners.isEmpty() )
+      {
+	// like recording(), only for those who listen
+	final Changes c = new Changes();
+	c.move( vertices );
+	fireStateChanged( c.toEvent( this ) );
+      }
+  }
+
+
+  /**
+   * Moves the vertices to the positions last given to
+   * {@link #setPositions(Point3d[],double[],int)}, if they have not yet been
+   * applied. While a {@link Renderer3d} is reading the vertices for a frame
+   * they are left where they are, and moved once it is done.
+   **/
+  public void applyPositions()
+  {
+    synchronized( positionSwapLock )
+      {
+	if( positionReaders == 0 )
+	  {
+	    applyGivenPositions();
+	  }
+      }
+  }
+
+
+  /**
+   * Marks the start of a frame that reads the locations of the vertices.
+   * Until the matching {@link #endFrame()}, the positions given to
+   * {@link #setPositions(Point3d[],double[],int)} are not applied, so that
+   * every frame (of every {@link Renderer3d} that shows the Mesh) sees those
+   * of one call. They are applied before the first of the frames that read
+   * the vertices at the same time begins, and after the last ends.
+   **/
+  void beginFrame()
+  {
+    synchronized( positionSwapLock )
+      {
+	if( positionReaders++ == 0 )
+	  {
+	    applyGivenPositions();
+	  }
+      }
+  }
+
+
+  /**
+   * Marks the end of a frame begun with {@link #beginFrame()}.
+   **/
+  void endFrame()
+  {
+    synchronized( positionSwapLock )
+      {
+	if( --positionReaders == 0 )
+	  {
+	    applyGivenPositions();
+	  }
+      }
+  }
+
+
+  /**
+   * Moves the vertices to the positions last given, unless they have been
+   * applied already. This is done holding the positionSwapLock, so that
+   * neither a writer nor a frame can come in between.
+   **/
+  private void applyGivenPositions()
+  {
+    if( positionsApplied == positionsGiven )
+      {
+	return;
+      }
+    positionsApplied = positionsGiven;
+    final Positions front = readyPositions;
+    readyPositions = frontPositions;
+    frontPositions = front;
+
+    // Other meshes that use some of the vertices find their bounds anew,
+    // once, after this Mesh is done with them
+    Map<Mesh,Mesh> others = null;
+    final Point3d[] vertices = front.vertices;
+    final double[] coordinates = front.coordinates;
+    synchronized( this )
+      {
+	for( int i = 0; i < vertices.length; i++ )
+	  {
+	    final Point3d p = vertices[i];
+	    final double oldX = p.x;
+	    final double oldY = p.y;
+	    final double oldZ = p.z;
+	    p.x = coordinates[3 * i];
+	    p.y = coordinates[3 * i + 1];
+	    p.z = coordinates[3 * i + 2];
+	    for( Mesh owner : p.owners )
+	      {
+		if( owner == this )
+		  {
+		    if( isBoundsValid )
+		      {
+			if( bounds.touches( oldX,
+			                    oldY,
+			                    oldZ ) )
+			  {
+			    isBoundsValid = false;
+			  }
+			else
+			  {
+			    bounds.include( p.x,
+			                    p.y,
+			                    p.z );
+			  }
+		      }
+		  }
+		else
+		  {
+		    if( others == null )
+		      {
+			others = new IdentityHashMap<Mesh,Mesh>();
+		      }
+		    others.put( owner,
+		                owner );
+		  }
+	      }
+	  }
+	shapeVersion++;
+      }
+    // let go of the vertices, which may belong to a Mesh that is gone
+    front.vertices = null;
+
+    if( others != null )
+      {
+	for( Mesh other : others.keySet() )
+	  {
+	    other.shapeChanged();
+	  }
+      }
+  }
+
+
+  /**
+   * Called when vertices of the Mesh have been moved in a way that does not
+   * tell where from.
+   **/
+  private synchronized void shapeChanged()
+  {
+    shapeVersion++;
+    isBoundsValid = false;
+  }
+
+
+  /**
+   * Called by a vertex of the Mesh when it has been moved away from the given
+   * location.
+   **/
+  synchronized void pointMoved( final Point3d p,
+	                        final double oldX,
+	                        final double oldY,
+	                        final double oldZ )
+  {
+    shapeVersion++;
+    if( isBoundsValid )
+      {
+	if( bounds.touches( oldX,
+	                    oldY,
+	                    oldZ ) )
+	  {
+	    // the box may have to shrink
+	    isBoundsValid = false;
+	  }
+	else
+	  {
+	    bounds.include( p.getX(),
+	                    p.getY(),
+	                    p.getZ() );
+	  }
+      }
+  }
+
+
+  /**
+   * @return The {@link #FOCUSED} and {@link #SELECTED} bits of the element of
+   *         the given id (see {@link Snapshot#pointIds()}), which may be read
+   *         on any thread.
+   **/
+  int getState( final int id )
+  {
+    return table.getState( id );
+  }
+
+
+  /**
+   * @return The color (as ARGB) in which to draw the edge or face of the
+   *         given id in the given state, or 0 if it is not to be drawn.
+   **/
+  int getColor( final int id,
+	        final int state )
+  {
+    final int[] colors = palette;
+    final int k = (4 * table.getColoring( id )) + state;
+    // (a palette grown on another thread may not be seen here yet)
+    return ((k < colors.length)
+	? colors[k]
+	: 0);
+  }
+
+
+  /**
+   * @return A number that changes whenever a vertex of the Mesh is moved, so
+   *         that what has been derived from their locations (such as the
+   *         normals of the faces) can be kept until then. It may be read on
+   *         any thread.
+   **/
+  int getShapeVersion()
+  {
+    return shapeVersion;
+  }
+
+
+  /**
+   * @return A number that changes whenever an element is added to or removed
+   *         from the Mesh, before the {@link ChangeListener}S are notified
+   *         (at the end of the edit), see {@link Snapshot#getVersion()}.
+   **/
+  int getStructureVersion()
+  {
+    return structureVersion;
+  }
+
+
+  /**
+   * Counts an element added to or removed from the Mesh, within an edit.
+   **/
+  private void changed()
+  {
+    structureVersion++;
+    isChangePending = true;
+  }
+
+
+  /**
+   * @return The record of the changes made within the open edit, or null if
+   *         no {@link ChangeListener} would hear of them.
+   **/
+  private Changes recording()
+  {
+    if( (changes == null) && !changeListeners.isEmpty() )
+      {
+	changes = new Changes();
+      }
+    return changes;
+  }
+
+
+  private void fireStateChanged( final MeshEvent e )
+  {
+    for( ChangeListener l : changeListeners )
+      {
+	l.stateChanged( e );
+      }
+  }
+
+
+  /**
+   * <p>
+   * The elements of a {@link Mesh} as they were at one version of it, see
+   * {@link Mesh#snapshot()}. Its arrays must not be changed, as they may be
+   * shared with other Snapshots of the Mesh.
+   * </p>
+   * 
+   * <p>
+   * The Snapshot holds the elements, not copies of them: the locations of its
+   * vertices are those of the moment, and a {@link Face} that has lost an
+   * edge (since an edge of it was removed) has lost it in every Snapshot.
+   * </p>
+   **/
+  public static final class Snapshot
+  {
+    Snapshot( final int version,
+	      final Point3d[] points,
+	      final int[] pointIds,
+	      final Edge[] edges,
+	      final int[] edgeIds,
+	      final Face[] faces,
+	      final int[] faceIds )
+    {
+      super();
+      this.version = version;
+      this.points = points;
+      this.pointIds = pointIds;
+      this.edges = edges;
+      this.edgeIds = edgeIds;
+      this.faces = faces;
+      this.faceIds = faceIds;
+    }
+
+
+    /**
+     * @return The version of the Mesh that this is a Snapshot of. It changes
+     *         whenever an element is added to or removed from the Mesh.
+     **/
+    public int getVersion()
+    {
+      return version;
+    }
+
+
+    public Point3d[] points()
+    {
+      return points;
+    }
+
+
+    public Edge[] edges()
+    {
+      return edges;
+    }
+
+
+    public Face[] faces()
+    {
+      return faces;
+    }
+
+
+    /**
+     * @return The id of each of the points, by which the Mesh keeps its state
+     *         and coloring, see {@link Mesh#getState(int)}.
+     **/
+    int[] pointIds()
+    {
+      return pointIds;
+    }
+
+
+    int[] edgeIds()
+    {
+      return edgeIds;
+    }
+
+
+    int[] faceIds()
+    {
+      return faceIds;
+    }
+
+    private final int version;
+    private final Point3d[] points;
+    private final int[] pointIds;
+    private final Edge[] edges;
+    private final int[] edgeIds;
+    private final Face[] faces;
+    private final int[] faceIds;
+  }
+
+
+  /**
+   * The vertices given to {@link Mesh#setPositions(Point3d[],double[],int)},
+   * and a copy of their positions.
+   **/
+  private static final class Positions
+  {
+    Point3d[] vertices;
+    double[] coordinates = new double[0];
+  }
+
+
+  /**
+   * The bits of the state of a point, edge, or face, see
+   * {@link Mesh#getState(int)}.
+   **/
+  static final int FOCUSED = 1;
+  static final int SELECTED = 2;
+
+
+  /**
+   * <p>
+   * The colors of an edge or face when it is drawn normally, focused, and
+   * selected. A Coloring does not change, and two are equal if they have the
+   * same colors, so that Meshes made in great numbers (such as those read by
+   * {@link SceneFile}) may share one for each set of colors.
+   * </p>
+   * 
+   * <p>
+   * The colors are kept as ARGB values, with 0 (transparent black) for none:
+   * an element without a color is not drawn.
+   * </p>
+   **/
+  public static final class Coloring
+  {
+    public Coloring( final Color normal,
+	             final Color focused,
+	             final Color selected )
+    {
+      this.normal = argb( normal );
+      this.focused = argb( (focused == null) ? normal : focused );
+      this.selected = argb( (selected == null) ? focused : selected );
+    }
+
+
+    public Color normal()
+    {
+      return color( normal );
+    }
+
+
+    public Color focused()
+    {
+      return color( focused );
+    }
+
+
+    public Color selected()
+    {
+      return color( selected );
+    }
+
+
+    /**
+     * @return The color (as ARGB) in which to draw an element of the given
+     *         state (see {@link Mesh#getState(int)}), the selected color
+     *         taking precedence over the focused one, or 0 for none.
+     **/
+    int argb( final int state )
+    {
+      if( (state & SELECTED) != 0 )
+	{
+	  return selected;
+	}
+      return (((state & FOCUSED) != 0)
+	  ? focused
+	  : normal);
+    }
+
+
+    @Override
+    public boolean equals( final Object o )
+    {
+      if( o instanceof Coloring )
+	{
+	  final Coloring c = (Coloring)o;
+	  return (normal == c.normal) && (focused == c.focused) && (selected == c.selected);
+	}
+      return false;
+    }
+
+
+    @Override
+    public int hashCode()
+    {
+      return (31 * ((31 * normal) + focused)) + selected;
+    }
+
+
+    private static int argb( final Color color )
+    {
+      return ((color == null)
+	  ? 0
+	  : color.getRGB());
+    }
+
+
+    private static Color color( final int argb )
+    {
+      return ((argb == 0)
+	  ? null
+	  : new Color( argb,
+	               true ));
+    }
+    private final int normal, focused, selected;
+  }
+
+
+  /**
+   * An axis-aligned box in 3D space, see {@link Mesh#getBounds()}.
+   * 
+   * @author K. Udo Schuermann
+   **/
+  public static final class Bounds
+  {
+    Bounds()
+    {
+      super();
+      clear();
+    }
+
+
+    Bounds( final Bounds b )
+    {
+      super();
+      set( b );
+    }
+
+
+    /**
+     * @return true if the box contains nothing at all, in which case the
+     *         minimum values exceed the maximum values.
+     **/
+    public boolean isEmpty()
+    {
+      return minX > maxX;
+    }
+
+
+    public double getMinX()
+    {
+      return minX;
+    }
+
+
+    public double getMinY()
+    {
+      return minY;
+    }
+
+
+    public double getMinZ()
+    {
+      return minZ;
+    }
+
+
+    public double getMaxX()
+    {
+      return maxX;
+    }
+
+
+    public double getMaxY()
+    {
+      return maxY;
+    }
+
+
+    public double getMaxZ()
+    {
+      return maxZ;
+    }
+
+
+    public double getCenterX()
+    {
+      return (minX + maxX) / 2.0d;
+    }
+
+
+    public double getCenterY()
+    {
+      return (minY + maxY) / 2.0d;
+    }
+
+
+    public double getCenterZ()
+    {
+      return (minZ + maxZ) / 2.0d;
+    }
+
+
+    /**
+     * @return The radius of the sphere around the center of the box that
+     *         passes through its corners, and so encloses the box.
+     **/
+    public double getRadius()
+    {
+      final double dx = maxX - minX;
+      final double dy = maxY - minY;
+      final double dz = maxZ - minZ;
+      return Math.sqrt( (dx * dx) + (dy * dy) + (dz * dz) ) / 2.0d;
+    }
+
+
+    void set( final Bounds b )
+    {
+      minX = b.minX;
+      minY = b.minY;
+      minZ = b.minZ;
+      maxX = b.maxX;
+      maxY = b.maxY;
+      maxZ = b.maxZ;
+    }
+
+
+    void clear()
+    {
+      minX = minY = minZ = Double.POSITIVE_INFINITY;
+      maxX = maxY = maxZ = Double.NEGATIVE_INFINITY;
+    }
+
+
+    /**
+     * Grows the box, if necessary, to include the given location.
+     **/
+    void include( final double x,
+	          final double y,
+	          final double z )
+    {
+      minX = Math.min( minX,
+	               x );
+      minY = Math.min( minY,
+	               y );
+      minZ = Math.min( minZ,
+	               z );
+      maxX = Math.max( maxX,
+	               x );
+      maxY = Math.max( maxY,
+	               y );
+      maxZ = Math.max( maxZ,
+	               z );
+    }
+
+
+    /**
+     * @return true if the given location lies on (or beyond) a side of the
+     *         box, so that the box might shrink without it.
+     **/
+    boolean touches( final double x,
+	             final double y,
+	             final double z )
+    {
+      return ((x <= minX) || (x >= maxX) || (y <= minY) || (y >= maxY) || (z <= minZ) || (z >= maxZ));
+    }
+
+
+    /**
+     * @return true if the other box has the same sides as this one.
+     **/
+    boolean isSame( final Bounds b )
+    {
+      return (minX == b.minX) && (minY == b.minY) && (minZ == b.minZ) && (maxX == b.maxX) && (maxY == b.maxY) && (maxZ == b.maxZ);
+    }
+    private double minX, minY, minZ;
+    private double maxX, maxY, maxZ;
+  }
+
+
+  // ======================================================================
+  // Nested classes (Point3d, Edge, Face)
+  // ======================================================================
+
+  /**
+   * <p>
+   * What a {@link Point3d}, an {@link Edge}, and a {@link Face} have in
+   * common: each may be focused and selected. That state is not kept by the
+   * element but by each Mesh that holds it, by the id that the Mesh gives it
+   * (see {@link Mesh#getState(int)}), along with its coloring. The element
+   * knows these meshes and its ids there, so that focusing or selecting it
+   * does so in all of them; it keeps its state itself only while no Mesh
+   * holds it.
+   * </p>
+   * 
+   * @author K. Udo Schuermann
+   **/
+  abstract static class Element
+  {
+    public void setFocused( final boolean isFocused )
+    {
+      setState( FOCUSED,
+	        isFocused );
+    }
+
+
+    /**
+     * @return true if the element is focused in the first Mesh that holds it.
+     **/
+    public boolean isFocused()
+    {
+      return (getState() & FOCUSED) != 0;
+    }
+
+
+    public void setSelected( final boolean isSelected )
+    {
+      setState( SELECTED,
+	        isSelected );
+    }
+
+
+    /**
+     * @return true if the element is selected in the first Mesh that holds
+     *         it.
+     **/
+    public boolean isSelected()
+    {
+      return (getState() & SELECTED) != 0;
+    }
+
+
+    /**
+     * @return The coloring of the element, or null (as for a point) if it has
+     *         none.
+     **/
+    Coloring getColoring()
+    {
+      return null;
+    }
+
+
+    /**
+     * @return The {@link Mesh#FOCUSED} and {@link Mesh#SELECTED} bits of the
+     *         element in the first Mesh that holds it.
+     **/
+    synchronized int getState()
+    {
+      return ((home == null)
+	  ? state
+	  : home.table.getState( homeId ));
+    }
+
+
+    /**
+     * Sets or clears one bit of the state in every Mesh that holds the
+     * element.
+     * 
+     * @return true if that changed the state
+     **/
+    synchronized boolean setState( final int bit,
+	                           final boolean isSet )
+    {
+      if( home == null )
+	{
+	  final int old = state;
+	  state = (isSet
+	      ? (old | bit)
+	      : (old & ~bit));
+	  return state != old;
+	}
+      boolean isChanged = home.table.setState( homeId,
+	                                       bit,
+	                                       isSet );
+      for( int i = 0; i < others.length; i++ )
+	{
+	  isChanged |= others[i].table.setState( otherIds[i],
+	                                         bit,
+	                                         isSet );
+	}
+      return isChanged;
+    }
+
+
+    /**
+     * Tells the element that a Mesh has come to hold it under the given id.
+     * There it takes on its coloring, and the state it has in the meshes
+     * that already hold it.
+     **/
+    synchronized void join( final Mesh mesh,
+	                    final int id )
+    {
+      mesh.table.setState( id,
+	                   getState(),
+	                   true );
+      if( home == null )
+	{
+	  home = mesh;
+	  homeId = id;
+	}
+      else
+	{
+	  others = Arrays.copyOf( others,
+	                          others.length + 1 );
+	  others[others.length - 1] = mesh;
+	  otherIds = Arrays.copyOf( otherIds,
+	                            otherIds.length + 1 );
+	  otherIds[otherIds.length - 1] = id;
+	}
+      mesh.recolor( id,
+	            getColoring() );
+    }
+
+
+    /**
+     * Tells the element that the Mesh no longer holds it.
+     **/
+    synchronized void leave( final Mesh mesh )
+    {
+      int i = others.length - 1;
+      if( home == mesh )
+	{
+	  if( i < 0 )
+	    {
+	      state = home.table.getState( homeId );
+	      home = null;
+	      return;
+	    }
+	  // the last of the others takes its place
+	  home = others[i];
+	  homeId = otherIds[i];
+	}
+      else
+	{
+	  while ((i >= 0) && (others[i] != mesh))
+	    {
+	      i--;
+	    }
+	  if( i < 0 )
+	    {
+	      return;
+	    }
+	  others[i] = others[others.length - 1];
+	  otherIds[i] = otherIds[otherIds.length - 1];
+	}
+      others = Arrays.copyOf( others,
+	                      others.length - 1 );
+      otherIds = Arrays.copyOf( otherIds,
+	                        otherIds.length - 1 );
+    }
+
+
+    /**
+     * Passes the coloring of the element on to every Mesh that holds it.
+     **/
+    synchronized void recolor()
+    {
+      if( home != null )
+	{
+	  home.recolor( homeId,
+	                getColoring() );
+	  for( int i = 0; i < others.length; i++ )
+	    {
+	      others[i].recolor( otherIds[i],
+	                         getColoring() );
+	    }
+	}
+    }
+    // the first Mesh that holds the element and its id there, and those
+    // that hold it besides; the state while none does; guarded by the
+    // element
+    private int state;
+    private Mesh home;
+    private int homeId;
+    private Mesh[] others = NO_MESHES;
+    private int[] otherIds = NO_IDS;
+    private static final Mesh[] NO_MESHES = new Mesh[0];
+    private static final int[] NO_IDS = new int[0];
+  }
+
+
+  /**
+   * A point in 3D space. It has no color (at this time), but the Renderer3d
+   * renders it as a little sphere.
+   * 
+   * @author K. Udo Schuermann
+   **/
+  public static final class Point3d
+    extends Element
+  {
+    public Point3d( final double x,
+	            final double y,
+	            final double z )
+    {
+      super();
+      setXYZ( x,
+	      y,
+	      z );
+    }
+
+
+    public double getX()
+    {
+      return x;
+    }
+
+
+    public double getY()
+    {
+      return y;
+    }
 
 
     public double getZ()
@@ -400,31 +2077,98 @@ public class Mesh
 	                final double y,
 	                final double z )
     {
-      this.x = x;
-      this.y = y;
+      final double oldX = this.x;
+      final double oldY = this.y;
+      final double oldZ = this.z;
+      this.x = x;
+      this.y = y;
+      this.z = z;
+      moved( oldX,
+	     oldY,
+	     oldZ );
+    }
+
+
+    public void setX( final double x )
+    {
+      final double oldX = this.x;
+      this.x = x;
+      moved( oldX,
+	     y,
+	     z );
+    }
+
+
+    public void setY( final double y )
+    {
+      final double oldY = this.y;
+      this.y = y;
+      moved( x,
+	     oldY,
+	     z );
+    }
+
+
+    public void setZ( final double z )
+    {
+      final double oldZ = this.z;
       this.z = z;
+      moved( x,
+	     y,
+	     oldZ );
     }
 
 
-    public void setX( final double x )
+    /**
+     * Lets the meshes that use this point update their bounds.
+     **/
+    private void moved( final double oldX,
+	                final double oldY,
+	                final double oldZ )
     {
-      this.x = x;
+      for( Mesh owner : owners )
+	{
+	  owner.pointMoved( this,
+	                    oldX,
+	                    oldY,
+	                    oldZ );
+	}
     }
 
 
-    public void setY( final double y )
+    /**
+     * The owners are replaced rather than changed, as the point may be moved
+     * on another thread than that of the Mesh.
+     **/
+    synchronized void addOwner( final Mesh mesh )
     {
-      this.y = y;
+      final Mesh[] added = Arrays.copyOf( owners,
+	                                  owners.length + 1 );
+      added[owners.length] = mesh;
+      owners = added;
     }
 
 
-    public void setZ( final double z )
+    synchronized void removeOwner( final Mesh mesh )
     {
-      this.z = z;
+      for( int i = 0; i < owners.length; i++ )
+	{
+	  if( owners[i] == mesh )
+	    {
+	      final Mesh[] removed = Arrays.copyOf( owners,
+		                                    owners.length - 1 );
+	      if( i < removed.length )
+		{
+		  removed[i] = owners[owners.length - 1];
+		}
+	      owners = removed;
+	      return;
+	    }
+	}
     }
-    private boolean isFocused;
-    private boolean isSelected;
     private double x, y, z;
+    // the meshes whose elements use this point, see Mesh.use()
+    private volatile Mesh[] owners = new Mesh[0];
   }
 
 
@@ -434,6 +2178,7 @@ public class Mesh
    * @author K. Udo Schuermann
    **/
   public static final class Edge
+    extends Element
   {
     public Edge( final Coloring coloring,
 	         final Point3d head,
@@ -446,30 +2191,6 @@ public class Mesh
     }
 
 
-    public void setFocused( final boolean isFocused )
-    {
-      this.isFocused = isFocused;
-    }
-
-
-    public boolean isFocused()
-    {
-      return isFocused;
-    }
-
-
-    public void setSelected( final boolean isSelected )
-    {
-      this.isSelected = isSelected;
-    }
-
-
-    public boolean isSelected()
-    {
-      return isSelected;
-    }
-
-
     public Point3d getHead()
     {
       return head;
@@ -482,29 +2203,39 @@ public class Mesh
     }
 
 
+    @Override
     public Coloring getColoring()
     {
       return coloring;
     }
 
 
-    void setColor( final Coloring coloring )
+    void setColoring( final Coloring coloring )
     {
       this.coloring = coloring;
+      recolor();
     }
-    private boolean isFocused;
-    private boolean isSelected;
-    private Coloring coloring;
+    private volatile Coloring coloring;
     private final Point3d head, tail;
   }
 
 
   /**
-   * A colored face in 3D space defined by 3 or more {@link Edge}S.
+   * <p>
+   * A colored face in 3D space defined by 3 or more {@link Edge}S, each of
+   * which starts where the previous one ends.
+   * </p>
+   * 
+   * <p>
+   * Seen from the front of the face, its edges run counter-clockwise (the
+   * right-hand rule). This only matters for meshes that cull back faces, see
+   * {@link Mesh#setBackFaceCulling(boolean)}.
+   * </p>
    * 
    * @author K. Udo Schuermann
    **/
   public static class Face
+    extends Element
   {
     public Face( final Coloring coloring,
 	         final Edge... edges )
@@ -538,113 +2269,693 @@ public class Mesh
     }
 
 
-    public void setFocused( final boolean isFocused )
+    void add( final Edge edge )
     {
-      this.isFocused = isFocused;
+      final Edge[] edges = edgeArray;
+      if( (edges.length == 0) || (edges[edges.length - 1].getTail() == edge.getHead()) )
+	{
+	  final Edge[] added = Arrays.copyOf( edges,
+	                                      edges.length + 1 );
+	  added[edges.length] = edge;
+	  edgeArray = added;
+	}
+      else
+	{
+	  throw new IllegalArgumentException( "Edge head must match last edge's tail" );
+	}
     }
 
 
-    public boolean isFocused()
+    /**
+     * Removes the first occurrence of the edge. The edges are replaced rather
+     * than changed, so that those who look at them meanwhile (on another
+     * thread) see them as they were before, or after.
+     **/
+    void remove( final Edge edge )
     {
-      return isFocused;
+      final Edge[] edges = edgeArray;
+      if( edges.length > 3 )
+	{
+	  for( int i = 0; i < edges.length; i++ )
+	    {
+	      if( edges[i] == edge )
+		{
+		  final Edge[] removed = new Edge[edges.length - 1];
+		  System.arraycopy( edges,
+		                    0,
+		                    removed,
+		                    0,
+		                    i );
+		  System.arraycopy( edges,
+		                    i + 1,
+		                    removed,
+		                    i,
+		                    removed.length - i );
+		  edgeArray = removed;
+		  return;
+		}
+	    }
+	}
+      else
+	{
+	  throw new IllegalArgumentException( "Cannot reduce edge count to less than 3" );
+	}
     }
 
 
-    public void setSelected( final boolean isSelected )
+    @Override
+    public Coloring getColoring()
     {
-      this.isSelected = isSelected;
+      return coloring;
     }
 
 
-    public boolean isSelected()
+    void setColoring( final Coloring coloring )
     {
-      return isSelected;
+      this.coloring = coloring;
+      recolor();
     }
 
 
-    void add( final Edge edge )
+    public boolean contains( final Edge edge )
+    {
+      for( Edge e : edgeArray )
+	{
+	  if( e == edge )
+	    {
+	      return true;
+	    }
+	}
+      return false;
+    }
+
+
+    public int size()
+    {
+      return edgeArray.length;
+    }
+
+
+    /**
+     * @return The edges of the face, which must not be changed.
+     **/
+    public Edge[] edges()
+    {
+      return edgeArray;
+    }
+    private volatile Coloring coloring;
+    private volatile Edge[] edgeArray = new Edge[0];
+  }
+
+
+  /**
+   * The elements of one kind in the order in which they were added (the same
+   * element may be added more than once). Removing one takes constant time:
+   * it is merely counted as gone, and the list is compacted in one pass when
+   * it is next turned into an array (or once half of it is gone), keeping the
+   * order of the others. The elements of a Mesh are given an id by it while
+   * they are present (see {@link Mesh#getState(int)}).
+   **/
+  private static final class Elements<T extends Element>
+  {
+    Elements()
+    {
+      this( null );
+    }
+
+
+    /**
+     * @param mesh The Mesh that gives the elements their ids, or null if they
+     *          are not to be given any.
+     **/
+    Elements( final Mesh mesh )
     {
-      if( edges.isEmpty() || (edges.get( edges.size() - 1 ).getTail() == edge.getHead()) )
+      this.mesh = mesh;
+    }
+
+
+    void add( final T t )
+    {
+      items.add( t );
+      final int[] n = counts.get( t );
+      if( n == null )
 	{
-	  edges.add( edge );
-	  edgeArray = null;
+	  counts.put( t,
+	              new int[] {1, 0, enter( t )} );
 	}
       else
 	{
-	  throw new IllegalArgumentException( "Edge head must match last edge's tail" );
+	  if( n[PRESENT] == 0 )
+	    {
+	      n[ID] = enter( t );
+	    }
+	  n[PRESENT]++;
 	}
     }
 
 
-    void remove( final Edge edge )
+    /**
+     * Removes the earliest of the times that the element was added.
+     * 
+     * @return false if it was not present.
+     **/
+    boolean remove( final T t )
+    {
+      final int[] n = counts.get( t );
+      if( (n == null) || (n[PRESENT] == 0) )
+	{
+	  return false;
+	}
+      n[PRESENT]--;
+      n[GONE]++;
+      if( (n[PRESENT] == 0) && (mesh != null) )
+	{
+	  mesh.leave( t,
+	              n[ID] );
+	}
+      goneCount++;
+      if( goneCount > (items.size() / 2) )
+	{
+	  compact();
+	}
+      return true;
+    }
+
+
+    boolean contains( final T t )
+    {
+      final int[] n = counts.get( t );
+      return (n != null) && (n[PRESENT] > 0);
+    }
+
+
+    int size()
+    {
+      return items.size() - goneCount;
+    }
+
+
+    T[] toArray( final T[] array )
+    {
+      compact();
+      return items.toArray( array );
+    }
+
+
+    /**
+     * @return The ids of the elements of the given array, as made by
+     *         {@link #toArray(Element[])}.
+     **/
+    int[] ids( final T[] array )
+    {
+      final int[] ids = new int[array.length];
+      for( int i = 0; i < array.length; i++ )
+	{
+	  ids[i] = counts.get( array[i] )[ID];
+	}
+      return ids;
+    }
+
+
+    private int enter( final T t )
+    {
+      return ((mesh == null)
+	  ? -1
+	  : mesh.enter( t ));
+    }
+
+
+    private void compact()
+    {
+      if( goneCount == 0 )
+	{
+	  return;
+	}
+      int kept = 0;
+      for( int i = 0; i < items.size(); i++ )
+	{
+	  final T t = items.get( i );
+	  final int[] n = counts.get( t );
+	  if( n[GONE] > 0 )
+	    {
+	      n[GONE]--;
+	      if( (n[GONE] == 0) && (n[PRESENT] == 0) )
+		{
+		  counts.remove( t );
+		}
+	    }
+	  else
+	    {
+	      items.set( kept++,
+		         t );
+	    }
+	}
+      items.subList( kept,
+	             items.size() ).clear();
+      goneCount = 0;
+    }
+
+    private final Mesh mesh;
+    private final ArrayList<T> items = new ArrayList<T>();
+    // how often each element is present, how often it is gone but not yet
+    // compacted away, and its id while it is present
+    private final Map<T,int[]> counts = new IdentityHashMap<T,int[]>();
+    private int goneCount;
+    private static final int PRESENT = 0;
+    private static final int GONE = 1;
+    private static final int ID = 2;
+  }
+
+
+  /**
+   * <p>
+   * The state and coloring of the elements of a Mesh by their ids. The
+   * {@link Mesh#FOCUSED} and {@link Mesh#SELECTED} bits of 32 elements make up
+   * one word, so that all of them are selected (or deselected) a word at a
+   * time. A word is compared and set, so that the focus and the selection,
+   * changed on different threads, cannot undo each other's bit. The coloring
+   * of an element is the index of its {@link Coloring} in the palette of the
+   * Mesh (0 for none).
+   * </p>
+   * 
+   * <p>
+   * The table grows by pages, each twice the size of the one before, so that
+   * a page, once made, stays where it is and may be read on any thread. Ids
+   * are only given out and taken back by the thread that holds the edit lock;
+   * those taken back are given out again first.
+   * </p>
+   **/
+  private static final class ElementTable
+  {
+    int allocate()
     {
-      if( edges.size() > 3 )
+      final int id;
+      if( freeCount > 0 )
 	{
-	  edges.remove( edge );
-	  edgeArray = null;
+	  id = free[--freeCount];
 	}
       else
 	{
-	  throw new IllegalArgumentException( "Cannot reduce edge count to less than 3" );
+	  id = count++;
+	  if( page( id >>> 5 ) == states.length )
+	    {
+	      grow();
+	    }
 	}
+      used[id >>> 5] |= (3L << shift( id ));
+      return id;
     }
 
 
-    public Coloring getColoring()
+    void release( final int id )
     {
-      return coloring;
+      setState( id,
+	        FOCUSED | SELECTED,
+	        false );
+      setColoring( id,
+	           0 );
+      used[id >>> 5] &= ~(3L << shift( id ));
+      if( freeCount == free.length )
+	{
+	  free = Arrays.copyOf( free,
+	                        Math.max( 16,
+	                                  2 * freeCount ) );
+	}
+      free[freeCount++] = id;
     }
 
 
-    void setColoring( final Coloring coloring )
+    int getState( final int id )
     {
-      this.coloring = coloring;
+      final int word = id >>> 5;
+      final int page = page( word );
+      return (int) (states[page].get( offset( word,
+	                                      page ) ) >>> shift( id )) & 3;
     }
 
 
-    public boolean contains( final Edge edge )
+    /**
+     * Sets or clears the given bits of the state of the element.
+     * 
+     * @return true if that changed the state
+     **/
+    boolean setState( final int id,
+	              final int bits,
+	              final boolean isSet )
     {
-      return edges.contains( edge );
+      final int word = id >>> 5;
+      final int page = page( word );
+      return update( states[page],
+	             offset( word,
+	                     page ),
+	             (long) bits << shift( id ),
+	             isSet );
     }
 
 
-    public int size()
+    /**
+     * Sets or clears the given bit of the state of every element.
+     * 
+     * @return true if that changed the state of any
+     **/
+    boolean setAll( final int bit,
+	            final boolean isSet )
     {
-      return edges.size();
+      final AtomicLongArray[] pages = states;
+      boolean isChanged = false;
+      for( int word = 0; word < used.length; word++ )
+	{
+	  final long mask = (0x5555555555555555L * bit) & used[word];
+	  if( mask != 0 )
+	    {
+	      final int page = page( word );
+	      isChanged |= update( pages[page],
+	                           offset( word,
+	                                   page ),
+	                           mask,
+	                           isSet );
+	    }
+	}
+      return isChanged;
     }
 
 
-    public Edge[] edges()
+    int getColoring( final int id )
+    {
+      final int page = page( id >>> 5 );
+      return colorings[page][(id + 32) - (32 << page)];
+    }
+
+
+    void setColoring( final int id,
+	              final int coloring )
     {
-      if( edgeArray == null )
+      final int page = page( id >>> 5 );
+      colorings[page][(id + 32) - (32 << page)] = coloring;
+    }
+
+
+    private void grow()
+    {
+      final int page = states.length;
+      final AtomicLongArray[] pages = Arrays.copyOf( states,
+	                                             page + 1 );
+      pages[page] = new AtomicLongArray( 1 << page );
+      final int[][] colors = Arrays.copyOf( colorings,
+	                                    page + 1 );
+      colors[page] = new int[32 << page];
+      used = Arrays.copyOf( used,
+	                    (2 << page) - 1 );
+      colorings = colors;
+      states = pages;
+    }
+
+
+    private static boolean update( final AtomicLongArray words,
+	                           final int i,
+	                           final long mask,
+	                           final boolean isSet )
+    {
+      long old;
+      long now;
+      do
 	{
-	  edgeArray = new Edge[edges.size()];
-	  edges.toArray( edgeArray );
+	  old = words.get( i );
+	  now = (isSet
+	      ? (old | mask)
+	      : (old & ~mask));
+	  if( now == old )
+	    {
+	      return false;
+	    }
 	}
-      return edgeArray;
+      while (!words.compareAndSet( i,
+	                           old,
+	                           now ));
+      return true;
+    }
+
+
+    /**
+     * @return The page of the given word: page p holds words 2<sup>p</sup>-1
+     *         up to 2<sup>p+1</sup>-2.
+     **/
+    private static int page( final int word )
+    {
+      return 31 - Integer.numberOfLeadingZeros( word + 1 );
+    }
+
+
+    private static int offset( final int word,
+	                       final int page )
+    {
+      return (word + 1) - (1 << page);
+    }
+
+
+    private static int shift( final int id )
+    {
+      return (id & 31) << 1;
+    }
+
+    // the pages of the states and of the colorings, which are only grown by
+    // the thread that holds the edit lock
+    private volatile AtomicLongArray[] states = new AtomicLongArray[0];
+    private volatile int[][] colorings = new int[0][];
+    // guarded by the edit lock: both bits set for every id given out, how
+    // many ids were ever given out, and those taken back
+    private long[] used = new long[0];
+    private int count;
+    private int[] free = new int[0];
+    private int freeCount;
+  }
+
+
+  /**
+   * The changes made to a Mesh within an edit, of which its
+   * {@link ChangeListener}S are told with a {@link MeshEvent} at the end. An
+   * element added and removed again within the edit cancels out.
+   **/
+  private static final class Changes
+  {
+    void add( final Point3d p )
+    {
+      addedPoints.add( p );
+    }
+
+
+    void remove( final Point3d p )
+    {
+      if( !addedPoints.remove( p ) )
+	{
+	  removedPoints.add( p );
+	}
+    }
+
+
+    void add( final Edge e )
+    {
+      addedEdges.add( e );
+    }
+
+
+    /**
+     * @param isGone
+     *          Whether the Edge is no longer part of the Mesh at all (rather
+     *          than having been added more than once).
+     **/
+    void remove( final Edge e,
+	         final boolean isGone )
+    {
+      if( !addedEdges.remove( e ) )
+	{
+	  removedEdges.add( e );
+	}
+      if( isGone )
+	{
+	  restyledEdges.remove( e );
+	}
+    }
+
+
+    void add( final Face s )
+    {
+      addedFaces.add( s );
+    }
+
+
+    /**
+     * @param isGone
+     *          Whether the Face is no longer part of the Mesh at all (rather
+     *          than having been added more than once).
+     **/
+    void remove( final Face s,
+	         final boolean isGone )
+    {
+      if( !addedFaces.remove( s ) )
+	{
+	  removedFaces.add( s );
+	}
+      if( isGone )
+	{
+	  reshapedFaces.remove( s );
+	  restyledFaces.remove( s );
+	}
+    }
+
+
+    void reshape( final Face s )
+    {
+      // a face added within the edit is told of as it is now
+      if( !addedFaces.contains( s ) )
+	{
+	  reshapedFaces.add( s );
+	}
+    }
+
+
+    void restyle( final Edge e )
+    {
+      if( !addedEdges.contains( e ) )
+	{
+	  restyledEdges.add( e );
+	}
+    }
+
+
+    void restyle( final Face s )
+    {
+      if( !addedFaces.contains( s ) )
+	{
+	  restyledFaces.add( s );
+	}
+    }
+
+
+    void move( final Point3d[] vertices )
+    {
+      movedPoints.add( vertices );
+    }
+
+
+    MeshEvent toEvent( final Mesh mesh )
+    {
+      final Point3d[] moved;
+      if( movedPoints.size() == 1 )
+	{
+	  moved = movedPoints.get( 0 );
+	}
+      else
+	{
+	  // the vertices of several calls of setPositions(), each once
+	  final Set<Point3d> union = newSet();
+	  for( Point3d[] vertices : movedPoints )
+	    {
+	      union.addAll( Arrays.asList( vertices ) );
+	    }
+	  moved = union.toArray( new Point3d[union.size()] );
+	}
+      return new MeshEvent( mesh,
+	                    addedPoints.toArray( new Point3d[addedPoints.size()] ),
+	                    removedPoints.toArray( new Point3d[removedPoints.size()] ),
+	                    addedEdges.toArray( new Edge[addedEdges.size()] ),
+	                    removedEdges.toArray( new Edge[removedEdges.size()] ),
+	                    addedFaces.toArray( new Face[addedFaces.size()] ),
+	                    removedFaces.toArray( new Face[removedFaces.size()] ),
+	                    reshapedFaces.toArray( new Face[reshapedFaces.size()] ),
+	                    moved,
+	                    restyledEdges.toArray( new Edge[restyledEdges.size()] ),
+	                    restyledFaces.toArray( new Face[restyledFaces.size()] ) );
+    }
+
+
+    private static <T> Set<T> newSet()
+    {
+      return Collections.newSetFromMap( new IdentityHashMap<T,Boolean>() );
     }
-    private boolean isFocused;
-    private boolean isSelected;
-    private Coloring coloring;
-    private Edge[] edgeArray;
-    private final List<Edge> edges = new ArrayList<Edge>();
+
+    private final Elements<Point3d> addedPoints = new Elements<Point3d>();
+    private final Elements<Edge> addedEdges = new Elements<Edge>();
+    private final Elements<Face> addedFaces = new Elements<Face>();
+    private final List<Point3d> removedPoints = new ArrayList<Point3d>();
+    private final List<Edge> removedEdges = new ArrayList<Edge>();
+    private final List<Face> removedFaces = new ArrayList<Face>();
+    private final Set<Face> reshapedFaces = newSet();
+    private final Set<Edge> restyledEdges = newSet();
+    private final Set<Face> restyledFaces = newSet();
+    private final List<Point3d[]> movedPoints = new ArrayList<Point3d[]>();
   }
 
-  // The structures (points, edges, faces) contained by the Mesh
+  // The structures (points, edges, faces) contained by the Mesh, which
+  // only the thread that holds the edit lock may touch; the arrays are
+  // those of the next Snapshot, null for a kind of element that changed
   //
-  private Point3d[] pointArray;
-  private Edge[] edgeArray;
-  private Face[] faceArray;
+  private final ReentrantLock editLock = new ReentrantLock();
+  private Point3d[] pointArray = new Point3d[0];
+  private Edge[] edgeArray = new Edge[0];
+  private Face[] faceArray = new Face[0];
+  private int[] pointIds = new int[0];
+  private int[] edgeIds = new int[0];
+  private int[] faceIds = new int[0];
+  private volatile Snapshot snapshot = new Snapshot( 0,
+	                                             pointArray,
+	                                             pointIds,
+	                                             edgeArray,
+	                                             edgeIds,
+	                                             faceArray,
+	                                             faceIds );
   //
-  private final List<Point3d> points = new ArrayList<Point3d>();
-  private final List<Edge> edges = new ArrayList<Edge>();
-  private final List<Face> faces = new ArrayList<Face>();
+  private final Elements<Point3d> points = new Elements<Point3d>( this );
+  private final Elements<Edge> edges = new Elements<Edge>( this );
+  private final Elements<Face> faces = new Elements<Face>( this );
+  // The state and coloring of these by their ids, and the palette of the
+  // colorings (by index, then state; index 0 is none), which grows when
+  // an element with a new coloring is added or recolored on any thread
+  private final ElementTable table = new ElementTable();
+  private final Object paletteLock = new Object();
+  private volatile int[] palette = new int[8];
+  private final Map<Coloring,Integer> paletteIndex = new HashMap<Coloring,Integer>();
+  // The edges of the Mesh at each of their end points, and the faces of the
+  // Mesh at each of their edges (once for each time they were added), so
+  // that removing an element finds those that go with it at once
+  private final Map<Point3d,List<Edge>> pointEdges = new IdentityHashMap<Point3d,List<Edge>>();
+  private final Map<Edge,List<Face>> edgeFaces = new IdentityHashMap<Edge,List<Face>>();
+  // How many elements use each vertex (as a point, an end of an edge, or
+  // a corner of a face), and the box that bounds these vertices
+  private final Map<Point3d,Integer> vertexUses = new IdentityHashMap<Point3d,Integer>();
+  private Point3d[] vertexArray; // the keys of vertexUses, see getBounds()
+  private final Bounds bounds = new Bounds();
+  private Bounds boundsCopy; // see getBounds()
+  private boolean isBoundsValid = true;
+  private volatile int shapeVersion; // see getShapeVersion()
+  private volatile int structureVersion; // see getStructureVersion()
   //
-  private boolean isFocusable = true;
-  private boolean isSelectable = true;
-  private boolean isVisible = true;
+  // may be set on any thread
+  private volatile boolean isFocusable = true;
+  private volatile boolean isSelectable = true;
+  private volatile boolean isVisible = true;
+  private volatile boolean isBackFaceCulling;
+  // whether the ChangeListeners are to be notified at the end of the edit,
+  // and of what
+  private boolean isChangePending;
+  private Changes changes;
+  // The positions given to setPositions(): the writer fills the back ones,
+  // which then take the place of the ready ones, which are applied as the
+  // front ones when no frame is reading the vertices (see beginFrame()).
+  // The writer waits for the swap lock only while they are swapped or
+  // applied. Guarded by the swap lock: how many times positions were
+  // given, the number of the last ones applied, and how many frames are
+  // reading the vertices right now.
+  private final Object positionWriteLock = new Object();
+  private final Object positionSwapLock = new Object();
+  private Positions backPositions = new Positions();
+  private Positions readyPositions = new Positions();
+  private Positions frontPositions = new Positions();
+  private int positionsGiven;
+  private int positionsApplied;
+  private int positionReaders;
   // The ChangeListenerS that registered their interest to be informed
   // when the contents of the Mesh are changed (elements are added or
-  // removed)
-  private final List<ChangeListener> changeListeners = new ArrayList<ChangeListener>();
+  // removed); viewers on different threads may come and go at any time
+  private final List<ChangeListener> changeListeners = new CopyOnWriteArrayList<ChangeListener>();
 }
@@ -0,0 +1,188 @@
+package com.ringlord.xs3d;
+
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+
+
+// This file is part of XS3D.
+//
+// XS3D is free software: you can redistribute it and/or modify it
+// under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// XS3D is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with XS3D. If not, see <http://www.gnu.org/licenses/>.
+
+/**
+ * <p>
+ * The {@link ChangeEvent} that a {@link Mesh} sends its {@link ChangeListener}S,
+ * which tells what changed, so that a listener that keeps something derived
+ * from the Mesh (such as an index of its elements) can update just that.
+ * </p>
+ *
+ * <p>
+ * The changes are those of one edit (see {@link Mesh#edit(Runnable)}), in
+ * which an element that was added and then removed again is not listed at
+ * all. An element that was removed and then added again is listed as both, so
+ * apply the removals before the additions. A removed element is not listed as
+ * reshaped or restyled.
+ * </p>
+ *
+ * <p>
+ * The arrays belong to the MeshEvent and must not be changed.
+ * </p>
+ *
+ * @author K. Udo Schuermann
+ **/
+public class MeshEvent
+  extends ChangeEvent
+{
+  private static final long serialVersionUID = 3790525718432695716L;
+
+
+  MeshEvent( final Mesh mesh,
+	     final Mesh.Point3d[] addedPoints,
+	     final Mesh.Point3d[] removedPoints,
+	     final Mesh.Edge[] addedEdges,
+	     final Mesh.Edge[] removedEdges,
+	     final Mesh.Face[] addedFaces,
+	     final Mesh.Face[] removedFaces,
+	     final Mesh.Face[] reshapedFaces,
+	     final Mesh.Point3d[] movedPoints,
+	     final Mesh.Edge[] restyledEdges,
+	     final Mesh.Face[] restyledFaces )
+  {
+    super( mesh );
+    this.addedPoints = addedPoints;
+    this.removedPoints = removedPoints;
+    this.addedEdges = addedEdges;
+    this.removedEdges = removedEdges;
+    this.addedFaces = addedFaces;
+    this.removedFaces = removedFaces;
+    this.reshapedFaces = reshapedFaces;
+    this.movedPoints = movedPoints;
+    this.restyledEdges = restyledEdges;
+    this.restyledFaces = restyledFaces;
+  }
+
+
+  public Mesh getMesh()
+  {
+    return (Mesh)getSource();
+  }
+
+
+  /**
+   * @return true if elements were added to or removed from the Mesh, or a
+   *         face lost an edge; false if vertices were merely moved, or
+   *         elements restyled.
+   **/
+  public boolean isStructural()
+  {
+    return (addedPoints.length > 0) ||
+	   (removedPoints.length > 0) ||
+	   (addedEdges.length > 0) ||
+	   (removedEdges.length > 0) ||
+	   (addedFaces.length > 0) ||
+	   (removedFaces.length > 0) ||
+	   (reshapedFaces.length > 0);
+  }
+
+
+  public Mesh.Point3d[] getAddedPoints()
+  {
+    return addedPoints;
+  }
+
+
+  public Mesh.Point3d[] getRemovedPoints()
+  {
+    return removedPoints;
+  }
+
+
+  public Mesh.Edge[] getAddedEdges()
+  {
+    return addedEdges;
+  }
+
+
+  /**
+   * @return The edges removed from the Mesh, including those that went with
+   *         a removed point.
+   **/
+  public Mesh.Edge[] getRemovedEdges()
+  {
+    return removedEdges;
+  }
+
+
+  public Mesh.Face[] getAddedFaces()
+  {
+    return addedFaces;
+  }
+
+
+  /**
+   * @return The faces removed from the Mesh, including the triangles that went
+   *         with a removed edge.
+   **/
+  public Mesh.Face[] getRemovedFaces()
+  {
+    return removedFaces;
+  }
+
+
+  /**
+   * @return The faces of the Mesh that lost an edge (and a corner) as an edge
+   *         was removed.
+   **/
+  public Mesh.Face[] getReshapedFaces()
+  {
+    return reshapedFaces;
+  }
+
+
+  /**
+   * @return The vertices given new positions with
+   *         {@link Mesh#setPositions(Mesh.Point3d[],double[],int)}, which they
+   *         take when the next frame is rendered.
+   **/
+  public Mesh.Point3d[] getMovedPoints()
+  {
+    return movedPoints;
+  }
+
+
+  /**
+   * @return The edges given another coloring, see
+   *         {@link Mesh#setColoring(Mesh.Edge,Mesh.Coloring)}.
+   **/
+  public Mesh.Edge[] getRestyledEdges()
+  {
+    return restyledEdges;
+  }
+
+
+  /**
+   * @return The faces given another coloring, see
+   *         {@link Mesh#setColoring(Mesh.Face,Mesh.Coloring)}.
+   **/
+  public Mesh.Face[] getRestyledFaces()
+  {
+    return restyledFaces;
+  }
+
+  private final Mesh.Point3d[] addedPoints, removedPoints;
+  private final Mesh.Edge[] addedEdges, removedEdges;
+  private final Mesh.Face[] addedFaces, removedFaces, reshapedFaces;
+  private final Mesh.Point3d[] movedPoints;
+  private final Mesh.Edge[] restyledEdges;
+  private final Mesh.Face[] restyledFaces;
+}
@@ -0,0 +1,1511 @@
+package com.ringlord.xs3d;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.ArrayList;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+
+// This file is part of XS3D.
+//
+// XS3D is free software: you can redistribute it and/or modify it
+// under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// XS3D is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with XS3D. If not, see <http://www.gnu.org/licenses/>.
+
+/**
+ * <p>
+ * Imports a Wavefront OBJ, PLY (ASCII or binary), or STL (ASCII or binary)
+ * file on a background thread, and hands its geometry over in chunks: each
+ * chunk is an {@link IndexedMesh} of at most a given number of elements (and
+ * vertices), which can be shown while the rest of the file is still being
+ * read. {@link Viewer3d#load(MeshImporter)} does just that.
+ * </p>
+ * 
+ * <p>
+ * At most {@link #QUEUE_SIZE} chunks wait to be taken with {@link #poll()};
+ * the parser waits for room beyond that, so the memory that importing takes
+ * (other than that of the chunks taken) is proportional to the chunk size,
+ * not to the size of the file. The exception are the vertices of an OBJ or
+ * PLY file with faces or edges, which may be shared by elements anywhere in
+ * the file and are therefore kept (as floats) until the end.
+ * </p>
+ * 
+ * <p>
+ * The vertices of a file without faces or edges are shown as points. Those of
+ * an OBJ file are handed over as points while they are read, until a face or
+ * line shows that they are corners after all; the chunks of points are then
+ * withdrawn again, see {@link #pollWithdrawn()}. Texture coordinates,
+ * normals, materials, and other properties are ignored.
+ * </p>
+ * 
+ * @author K. Udo Schuermann
+ **/
+public final class MeshImporter
+  implements Runnable
+{
+  /**
+   * Constructs a MeshImporter of chunks of {@link #DEFAULT_CHUNK_SIZE}
+   * elements.
+   **/
+  public MeshImporter( final File file,
+	               final Mesh.Coloring edgeColoring,
+	               final Mesh.Coloring faceColoring )
+  {
+    this( file,
+	  edgeColoring,
+	  faceColoring,
+	  DEFAULT_CHUNK_SIZE );
+  }
+
+
+  /**
+   * @param file
+   *          The file to import; its name must end in ".obj", ".ply", or
+   *          ".stl" (in any case), see {@link #isSupported(File)}.
+   * @param edgeColoring
+   *          The coloring of the edges (the lines of an OBJ file, or the
+   *          edge elements of a PLY file), or null to not draw them.
+   * @param faceColoring
+   *          The coloring of the faces, or null to not draw them.
+   * @param chunkSize
+   *          The most elements and vertices of each chunk, at least 16. Faces
+   *          with more corners than that make a chunk of their own.
+   **/
+  public MeshImporter( final File file,
+	               final Mesh.Coloring edgeColoring,
+	               final Mesh.Coloring faceColoring,
+	               final int chunkSize )
+  {
+    super();
+    if( !isSupported( file ) )
+      {
+	throw new IllegalArgumentException( "MeshImporter does not know the format of " + file );
+      }
+    if( chunkSize < 16 )
+      {
+	throw new IllegalArgumentException( "MeshImporter chunk size must be at least 16" );
+      }
+    this.file = file;
+    this.edgeColoring = edgeColoring;
+    this.faceColoring = faceColoring;
+    this.chunkSize = chunkSize;
+  }
+
+
+  /**
+   * @return true if the name of the file tells a format that a MeshImporter
+   *         can read.
+   **/
+  public static boolean isSupported( final File file )
+  {
+    final String name = file.getName().toLowerCase();
+    return name.endsWith( ".obj" ) || name.endsWith( ".ply" ) || name.endsWith( ".stl" );
+  }
+
+
+  public File getFile()
+  {
+    return file;
+  }
+
+
+  /**
+   * Starts reading the file on a background thread, unless that has already
+   * been done.
+   **/
+  public synchronized void start()
+  {
+    if( thread == null )
+      {
+	thread = new Thread( this,
+	                     "MeshImporter " + file.getName() );
+	thread.setDaemon( true );
+	// leave the painting of what has been read so far the upper hand
+	thread.setPriority( Thread.NORM_PRIORITY - 1 );
+	thread.start();
+      }
+  }
+
+
+  /**
+   * Stops reading the file. The chunks that have not yet been taken are
+   * dropped.
+   **/
+  public synchronized void cancel()
+  {
+    isCancelled = true;
+    if( thread != null )
+      {
+	thread.interrupt();
+      }
+    chunks.clear();
+  }
+
+
+  /**
+   * @return The next chunk of the file, or null if none is ready (yet).
+   **/
+  public IndexedMesh poll()
+  {
+    return chunks.poll();
+  }
+
+
+  /**
+   * @return A chunk that was taken with {@link #poll()} but is to be removed
+   *         again, as its points turned out to be the corners of faces or
+   *         lines that follow, or null if there is none.
+   **/
+  public IndexedMesh pollWithdrawn()
+  {
+    return withdrawn.poll();
+  }
+
+
+  /**
+   * @return true once the file has been read (or failed to be read), and all
+   *         of its chunks have been taken (and those withdrawn taken away).
+   **/
+  public boolean isFinished()
+  {
+    return isDone && chunks.isEmpty() && withdrawn.isEmpty();
+  }
+
+
+  /**
+   * @return Why the file could not be read (completely), or null. An
+   *         unexpected exception or error (such as running out of memory) is
+   *         the cause of the IOException given.
+   **/
+  public IOException getFailure()
+  {
+    return failure;
+  }
+
+
+  // ======================================================================
+  // Runnable
+  // ======================================================================
+  /**
+   * Reads the file on the calling thread, see {@link #start()}.
+   **/
+  public void run()
+  {
+    try
+      {
+	final FileInputStream in = new FileInputStream( file );
+	try
+	  {
+	    final Input input = new Input( in.getChannel() );
+	    final Chunk chunk = new Chunk();
+	    final String name = file.getName().toLowerCase();
+	    if( name.endsWith( ".obj" ) )
+	      {
+		readOBJ( input,
+		         chunk );
+	      }
+	    else if( name.endsWith( ".ply" ) )
+	      {
+		readPLY( input,
+		         chunk );
+	      }
+	    else
+	      {
+		readSTL( input,
+		         chunk,
+		         in.getChannel().size() );
+	      }
+	    chunk.flush();
+	  }
+	finally
+	  {
+	    in.close();
+	  }
+      }
+    catch( final Throwable x )
+      {
+	// whatever ended the import early fails it, lest what was read so
+	// far be taken for the whole file
+	if( !isCancelled )
+	  {
+	    failure = ((x instanceof IOException)
+		? (IOException)x
+		: new IOException( file + " could not be read: " + x,
+		                   x ));
+	  }
+      }
+    finally
+      {
+	isDone = true;
+      }
+  }
+
+
+  // ----------------------------------------------------------------------
+
+  private void readOBJ( final Input input,
+	                final Chunk chunk )
+    throws IOException
+  {
+    // Until a face or line turns up, the vertices are handed on as points
+    // as they are read, rather than kept until the end; if one does, the
+    // points are withdrawn and kept as the vertices that it refers to.
+    Vertices vertices = null;
+    chunk.handedOn = new ArrayList<IndexedMesh>();
+    final Tokens tokens = new Tokens();
+    int[] corners = new int[16];
+    int lineNumber = 0;
+    String line;
+    while ((line = input.readLine()) != null)
+      {
+	lineNumber++;
+	tokens.split( line );
+	if( tokens.count == 0 )
+	  {
+	    continue;
+	  }
+	final String keyword = tokens.get( 0 );
+	if( keyword.equals( "v" ) )
+	  {
+	    if( tokens.count < 4 )
+	      {
+		throw new IOException( file + ":" + lineNumber + ": vertex lacks coordinates" );
+	      }
+	    final float x = parseFloat( tokens.get( 1 ),
+		                        lineNumber );
+	    final float y = parseFloat( tokens.get( 2 ),
+		                        lineNumber );
+	    final float z = parseFloat( tokens.get( 3 ),
+		                        lineNumber );
+	    if( vertices == null )
+	      {
+		chunk.point( x,
+		             y,
+		             z );
+	      }
+	    else
+	      {
+		vertices.add( x,
+		              y,
+		              z );
+	      }
+	  }
+	else if( keyword.equals( "f" ) || keyword.equals( "l" ) )
+	  {
+	    if( vertices == null )
+	      {
+		vertices = withdrawPoints( chunk );
+	      }
+	    final int n = tokens.count - 1;
+	    if( corners.length < n )
+	      {
+		corners = new int[n];
+	      }
+	    for( int i = 0; i < n; i++ )
+	      {
+		corners[i] = parseIndex( tokens.get( i + 1 ),
+		                         vertices.count,
+		                         lineNumber );
+	      }
+	    if( keyword.equals( "f" ) )
+	      {
+		if( n < 3 )
+		  {
+		    throw new IOException( file + ":" + lineNumber + ": face has fewer than three corners" );
+		  }
+		chunk.face( vertices.coordinates,
+		            corners,
+		            n );
+	      }
+	    else
+	      {
+		// a polyline, made of an edge between each pair of neighbors
+		for( int i = 1; i < n; i++ )
+		  {
+		    chunk.edge( vertices.coordinates,
+		                corners[i - 1],
+		                corners[i] );
+		  }
+	      }
+	  }
+      }
+    chunk.handedOn = null;
+  }
+
+
+  /**
+   * Withdraws the points of an OBJ file that have been handed on so far,
+   * and gathers them as the vertices that the faces and lines that follow
+   * refer to.
+   **/
+  private Vertices withdrawPoints( final Chunk chunk )
+    throws IOException
+  {
+    chunk.flush();
+    int count = 0;
+    for( IndexedMesh mesh : chunk.handedOn )
+      {
+	count += mesh.getVertexCount();
+      }
+    final Vertices vertices = new Vertices( Math.max( count,
+	                                              1024 ) );
+    for( IndexedMesh mesh : chunk.handedOn )
+      {
+	vertices.add( mesh.coordinates() );
+	// taken back before anyone took it, or else by whoever did
+	if( !chunks.remove( mesh ) )
+	  {
+	    withdrawn.add( mesh );
+	  }
+      }
+    chunk.handedOn = null;
+    return vertices;
+  }
+
+
+  /**
+   * @return The (zero-based) vertex that an OBJ file refers to as the first
+   *         number of the token, which is counted from one, or backwards from
+   *         the latest vertex if negative.
+   **/
+  private int parseIndex( final String token,
+	                  final int vertexCount,
+	                  final int lineNumber )
+    throws IOException
+  {
+    final int slash = token.indexOf( '/' );
+    int index;
+    try
+      {
+	index = Integer.parseInt( (slash < 0)
+	    ? token
+	    : token.substring( 0,
+	                       slash ) );
+      }
+    catch( final NumberFormatException x )
+      {
+	throw new IOException( file + ":" + lineNumber + ": bad vertex index " + token );
+      }
+    index = ((index < 0)
+	? vertexCount + index
+	: index - 1);
+    if( (index < 0) || (index >= vertexCount) )
+      {
+	throw new IOException( file + ":" + lineNumber + ": no vertex " + token );
+      }
+    return index;
+  }
+
+
+  private float parseFloat( final String token,
+	                    final int lineNumber )
+    throws IOException
+  {
+    try
+      {
+	return Float.parseFloat( token );
+      }
+    catch( final NumberFormatException x )
+      {
+	throw new IOException( file + ":" + lineNumber + ": bad number " + token );
+      }
+  }
+
+
+  // ----------------------------------------------------------------------
+
+  private void readPLY( final Input input,
+	                final Chunk chunk )
+    throws IOException
+  {
+    // The header describes the elements of the file, and their properties
+    if( !"ply".equals( input.readLine() ) )
+      {
+	throw new IOException( file + " is not a PLY file" );
+      }
+    final List<Element> elements = new ArrayList<Element>();
+    final Tokens tokens = new Tokens();
+    boolean isASCII = false;
+    while (true)
+      {
+	final String line = input.readLine();
+	if( line == null )
+	  {
+	    throw new IOException( file + " has no end_header" );
+	  }
+	tokens.split( line );
+	if( tokens.count == 0 )
+	  {
+	    continue;
+	  }
+	final String keyword = tokens.get( 0 );
+	if( keyword.equals( "end_header" ) )
+	  {
+	    break;
+	  }
+	else if( keyword.equals( "format" ) && (tokens.count >= 2) )
+	  {
+	    final String format = tokens.get( 1 );
+	    if( format.equals( "ascii" ) )
+	      {
+		isASCII = true;
+	      }
+	    else if( format.equals( "binary_little_endian" ) )
+	      {
+		input.order( ByteOrder.LITTLE_ENDIAN );
+	      }
+	    else if( format.equals( "binary_big_endian" ) )
+	      {
+		input.order( ByteOrder.BIG_ENDIAN );
+	      }
+	    else
+	      {
+		throw new IOException( file + " is of unknown PLY format " + format );
+	      }
+	  }
+	else if( keyword.equals( "element" ) && (tokens.count >= 3) )
+	  {
+	    final int count;
+	    try
+	      {
+		count = Integer.parseInt( tokens.get( 2 ) );
+	      }
+	    catch( final NumberFormatException x )
+	      {
+		throw new IOException( file + " has a bad element count: " + line );
+	      }
+	    elements.add( new Element( tokens.get( 1 ),
+		                       count ) );
+	  }
+	else if( keyword.equals( "property" ) && !elements.isEmpty() )
+	  {
+	    final Element element = elements.get( elements.size() - 1 );
+	    if( (tokens.count >= 5) && tokens.get( 1 ).equals( "list" ) )
+	      {
+		element.add( new Property( tokens.get( 4 ),
+		                           plyType( tokens.get( 3 ) ),
+		                           plyType( tokens.get( 2 ) ) ) );
+	      }
+	    else if( tokens.count >= 3 )
+	      {
+		element.add( new Property( tokens.get( 2 ),
+		                           plyType( tokens.get( 1 ) ),
+		                           NONE ) );
+	      }
+	  }
+      }
+
+    boolean hasElements = false;
+    for( Element element : elements )
+      {
+	if( (element.name.equals( "face" ) || element.name.equals( "edge" )) && (element.count > 0) )
+	  {
+	    hasElements = true;
+	  }
+      }
+
+    // Then come the elements, one after the other
+    final PLYReader reader = new PLYReader( input,
+	                                    isASCII );
+    Vertices vertices = null;
+    int[] corners = new int[16];
+    for( Element element : elements )
+      {
+	final Property[] properties = element.properties.toArray( new Property[element.properties.size()] );
+	final double[] values = new double[properties.length];
+	final boolean isVertex = element.name.equals( "vertex" );
+	final boolean isFace = element.name.equals( "face" );
+	final boolean isEdge = element.name.equals( "edge" );
+	final int x = element.indexOf( "x" );
+	final int y = element.indexOf( "y" );
+	final int z = element.indexOf( "z" );
+	int list = element.indexOf( "vertex_indices" );
+	if( list < 0 )
+	  {
+	    list = element.indexOf( "vertex_index" );
+	  }
+	final int head = element.indexOf( "vertex1" );
+	final int tail = element.indexOf( "vertex2" );
+	if( isVertex )
+	  {
+	    if( (x < 0) || (y < 0) || (z < 0) )
+	      {
+		throw new IOException( file + " has vertices without x, y, and z" );
+	      }
+	    if( hasElements )
+	      {
+		vertices = new Vertices( element.count );
+	      }
+	  }
+	if( (isFace || isEdge) && (element.count > 0) )
+	  {
+	    if( vertices == null )
+	      {
+		throw new IOException( file + " has " + element.name + "s before its vertices" );
+	      }
+	    if( (isFace && (list < 0)) || (isEdge && ((head < 0) || (tail < 0))) )
+	      {
+		throw new IOException( file + " has " + element.name + "s without vertices" );
+	      }
+	  }
+
+	for( int n = 0; n < element.count; n++ )
+	  {
+	    reader.beginItem();
+	    for( int p = 0; p < properties.length; p++ )
+	      {
+		final Property property = properties[p];
+		if( property.countType == NONE )
+		  {
+		    values[p] = reader.read( property.type );
+		  }
+		else
+		  {
+		    final int size = (int)reader.read( property.countType );
+		    if( size < 0 )
+		      {
+			throw new IOException( file + " has a list of negative length" );
+		      }
+		    if( isFace && (p == list) )
+		      {
+			if( corners.length < size )
+			  {
+			    corners = new int[size];
+			  }
+			for( int i = 0; i < size; i++ )
+			  {
+			    corners[i] = vertices.check( (int)reader.read( property.type ),
+				                         file );
+			  }
+			values[p] = size;
+		      }
+		    else
+		      {
+			for( int i = 0; i < size; i++ )
+			  {
+			    reader.read( property.type );
+			  }
+		      }
+		  }
+	      }
+
+	    if( isVertex )
+	      {
+		if( vertices == null )
+		  {
+		    chunk.point( (float)values[x],
+		                 (float)values[y],
+		                 (float)values[z] );
+		  }
+		else
+		  {
+		    vertices.add( (float)values[x],
+		                  (float)values[y],
+		                  (float)values[z] );
+		  }
+	      }
+	    else if( isFace )
+	      {
+		final int size = (int)values[list];
+		if( size >= 3 )
+		  {
+		    chunk.face( vertices.coordinates,
+		                corners,
+		                size );
+		  }
+	      }
+	    else if( isEdge )
+	      {
+		chunk.edge( vertices.coordinates,
+		            vertices.check( (int)values[head],
+		                            file ),
+		            vertices.check( (int)values[tail],
+		                            file ) );
+	      }
+	  }
+      }
+  }
+
+
+  private int plyType( final String name )
+    throws IOException
+  {
+    if( name.equals( "char" ) || name.equals( "int8" ) )
+      {
+	return CHAR;
+      }
+    if( name.equals( "uchar" ) || name.equals( "uint8" ) )
+      {
+	return UCHAR;
+      }
+    if( name.equals( "short" ) || name.equals( "int16" ) )
+      {
+	return SHORT;
+      }
+    if( name.equals( "ushort" ) || name.equals( "uint16" ) )
+      {
+	return USHORT;
+      }
+    if( name.equals( "int" ) || name.equals( "int32" ) )
+      {
+	return INT;
+      }
+    if( name.equals( "uint" ) || name.equals( "uint32" ) )
+      {
+	return UINT;
+      }
+    if( name.equals( "float" ) || name.equals( "float32" ) )
+      {
+	return FLOAT;
+      }
+    if( name.equals( "double" ) || name.equals( "float64" ) )
+      {
+	return DOUBLE;
+      }
+    throw new IOException( file + " has a property of unknown type " + name );
+  }
+
+
+  // ----------------------------------------------------------------------
+
+  private void readSTL( final Input input,
+	                final Chunk chunk,
+	                final long size )
+    throws IOException
+  {
+    final float[] corners = new float[9];
+
+    // A binary STL file may also begin with "solid", so tell them apart by
+    // whether the triangle count of the binary header matches the size
+    input.order( ByteOrder.LITTLE_ENDIAN );
+    if( size >= 84 )
+      {
+	input.skip( 80 );
+	final long triangleCount = input.getInt() & 0xffffffffL;
+	if( size == (84 + 50 * triangleCount) )
+	  {
+	    for( long t = 0; t < triangleCount; t++ )
+	      {
+		input.skip( 12 ); // the normal
+		for( int i = 0; i < 9; i++ )
+		  {
+		    corners[i] = input.getFloat();
+		  }
+		input.skip( 2 ); // the attributes
+		chunk.face( corners,
+		            3 );
+	      }
+	    return;
+	  }
+	input.rewind();
+      }
+
+    // Each facet of an ASCII STL file is an "outer loop" of vertices
+    final Tokens tokens = new Tokens();
+    float[] loop = new float[9];
+    int loopSize = 0;
+    int lineNumber = 0;
+    String line;
+    while ((line = input.readLine()) != null)
+      {
+	lineNumber++;
+	tokens.split( line );
+	if( tokens.count == 0 )
+	  {
+	    continue;
+	  }
+	final String keyword = tokens.get( 0 );
+	if( keyword.equals( "vertex" ) )
+	  {
+	    if( tokens.count < 4 )
+	      {
+		throw new IOException( file + ":" + lineNumber + ": vertex lacks coordinates" );
+	      }
+	    if( loop.length < 3 * (loopSize + 1) )
+	      {
+		loop = Arrays.copyOf( loop,
+		                      2 * loop.length );
+	      }
+	    for( int i = 0; i < 3; i++ )
+	      {
+		loop[3 * loopSize + i] = parseFloat( tokens.get( i + 1 ),
+		                                     lineNumber );
+	      }
+	    loopSize++;
+	  }
+	else if( keyword.equals( "endloop" ) )
+	  {
+	    if( loopSize >= 3 )
+	      {
+		chunk.face( loop,
+		            loopSize );
+	      }
+	    loopSize = 0;
+	  }
+      }
+  }
+
+
+  // ----------------------------------------------------------------------
+
+  /**
+   * Hands the chunk to whoever polls, waiting for room if too many chunks
+   * have not yet been taken.
+   **/
+  private void emit( final IndexedMesh mesh )
+    throws IOException
+  {
+    try
+      {
+	chunks.put( mesh );
+      }
+    catch( final InterruptedException x )
+      {
+	throw new InterruptedIOException( "MeshImporter cancelled" );
+      }
+  }
+
+
+  /**
+   * Collects the elements of the next chunk, and the vertices that they use,
+   * in arrays that are reused from chunk to chunk.
+   **/
+  private final class Chunk
+  {
+    Chunk()
+    {
+      super();
+      Arrays.fill( keys,
+	           -1 );
+    }
+
+
+    /**
+     * Adds a vertex that is shown as a point.
+     **/
+    void point( final float x,
+	        final float y,
+	        final float z )
+      throws IOException
+    {
+      reserve( 1 );
+      addVertex( x,
+	         y,
+	         z );
+      pointCount++;
+    }
+
+
+    /**
+     * Adds an edge between two of the given vertices.
+     **/
+    void edge( final float[] vertices,
+	       final int head,
+	       final int tail )
+      throws IOException
+    {
+      reserve( 2 );
+      if( edges.length < 2 * (edgeCount + 1) )
+	{
+	  edges = Arrays.copyOf( edges,
+	                         2 * edges.length );
+	}
+      edges[2 * edgeCount] = vertex( vertices,
+	                             head );
+      edges[2 * edgeCount + 1] = vertex( vertices,
+	                                 tail );
+      edgeCount++;
+    }
+
+
+    /**
+     * Adds a face whose corners are the first size of the given vertices.
+     **/
+    void face( final float[] vertices,
+	       final int[] corners,
+	       final int size )
+      throws IOException
+    {
+      reserve( size );
+      beginFace( size );
+      for( int i = 0; i < size; i++ )
+	{
+	  faceVertices[cornerCount++] = vertex( vertices,
+	                                        corners[i] );
+	}
+      endFace();
+    }
+
+
+    /**
+     * Adds a face whose corners are vertices of their own, whose x, y, and z
+     * are given in turn.
+     **/
+    void face( final float[] corners,
+	       final int size )
+      throws IOException
+    {
+      reserve( size );
+      beginFace( size );
+      for( int i = 0; i < size; i++ )
+	{
+	  faceVertices[cornerCount++] = addVertex( corners[3 * i],
+	                                           corners[3 * i + 1],
+	                                           corners[3 * i + 2] );
+	}
+      endFace();
+    }
+
+
+    private void beginFace( final int size )
+    {
+      if( faceStart.length < faceCount + 2 )
+	{
+	  faceStart = Arrays.copyOf( faceStart,
+	                             2 * faceStart.length );
+	}
+      if( faceVertices.length < cornerCount + size )
+	{
+	  faceVertices = Arrays.copyOf( faceVertices,
+	                                Math.max( 2 * faceVertices.length,
+	                                          cornerCount + size ) );
+	}
+      faceStart[faceCount] = cornerCount;
+    }
+
+
+    private void endFace()
+    {
+      faceCount++;
+      faceStart[faceCount] = cornerCount;
+    }
+
+
+    /**
+     * Makes room for an element of the given number of vertices, handing on
+     * the chunk first if that would make it too large.
+     **/
+    private void reserve( final int vertices )
+      throws IOException
+    {
+      if( ((pointCount + edgeCount + faceCount) >= chunkSize) || (vertexCount + vertices > chunkSize) )
+	{
+	  flush();
+	}
+      if( coordinates.length < 3 * (vertexCount + vertices) )
+	{
+	  coordinates = Arrays.copyOf( coordinates,
+	                               Math.max( 2 * coordinates.length,
+	                                         3 * (vertexCount + vertices) ) );
+	}
+      if( keys.length < 2 * (vertexCount + vertices) )
+	{
+	  rehash( 4 * (vertexCount + vertices) );
+	}
+    }
+
+
+    private int addVertex( final float x,
+	                   final float y,
+	                   final float z )
+    {
+      coordinates[3 * vertexCount] = x;
+      coordinates[3 * vertexCount + 1] = y;
+      coordinates[3 * vertexCount + 2] = z;
+      return vertexCount++;
+    }
+
+
+    /**
+     * @return The index within the chunk of the given one of the vertices,
+     *         which is copied into the chunk when it is first used.
+     **/
+    private int vertex( final float[] vertices,
+	                final int index )
+    {
+      final int mask = keys.length - 1;
+      int slot = hash( index ) & mask;
+      while (keys[slot] >= 0)
+	{
+	  if( keys[slot] == index )
+	    {
+	      return values[slot];
+	    }
+	  slot = (slot + 1) & mask;
+	}
+      keys[slot] = index;
+      values[slot] = addVertex( vertices[3 * index],
+	                        vertices[3 * index + 1],
+	                        vertices[3 * index + 2] );
+      return values[slot];
+    }
+
+
+    private void rehash( final int minimumSize )
+    {
+      int size = keys.length;
+      while (size < minimumSize)
+	{
+	  size *= 2;
+	}
+      final int[] oldKeys = keys;
+      final int[] oldValues = values;
+      keys = new int[size];
+      values = new int[size];
+      Arrays.fill( keys,
+	           -1 );
+      for( int i = 0; i < oldKeys.length; i++ )
+	{
+	  if( oldKeys[i] >= 0 )
+	    {
+	      int slot = hash( oldKeys[i] ) & (size - 1);
+	      while (keys[slot] >= 0)
+		{
+		  slot = (slot + 1) & (size - 1);
+		}
+	      keys[slot] = oldKeys[i];
+	      values[slot] = oldValues[i];
+	    }
+	}
+    }
+
+
+    /**
+     * Hands on the chunk (if it is not empty) as an IndexedMesh of its own,
+     * and starts the next one.
+     **/
+    void flush()
+      throws IOException
+    {
+      if( vertexCount == 0 )
+	{
+	  return;
+	}
+      final IndexedMesh mesh = new IndexedMesh( edgeColoring,
+	                                        faceColoring,
+	                                        Arrays.copyOf( coordinates,
+	                                                       3 * vertexCount ),
+	                                        ((edgeCount == 0)
+	                                            ? null
+	                                            : Arrays.copyOf( edges,
+	                                                             2 * edgeCount )),
+	                                        ((faceCount == 0)
+	                                            ? null
+	                                            : Arrays.copyOf( faceStart,
+	                                                             faceCount + 1 )),
+	                                        ((faceCount == 0)
+	                                            ? null
+	                                            : Arrays.copyOf( faceVertices,
+	                                                             cornerCount )) );
+      mesh.setPointsShown( pointCount > 0 );
+      if( handedOn != null )
+	{
+	  handedOn.add( mesh );
+	}
+      vertexCount = 0;
+      pointCount = 0;
+      edgeCount = 0;
+      faceCount = 0;
+      cornerCount = 0;
+      Arrays.fill( keys,
+	           -1 );
+      emit( mesh );
+    }
+
+    private float[] coordinates = new float[3 * 64];
+    private int[] edges = new int[2 * 64];
+    private int[] faceStart = new int[64];
+    private int[] faceVertices = new int[256];
+    private int vertexCount, pointCount, edgeCount, faceCount, cornerCount;
+    // the chunks handed on so far, if they are wanted (see readOBJ())
+    List<IndexedMesh> handedOn;
+    // which of the given vertices (key) are which of the chunk (value); an
+    // open-addressed table whose free slots hold -1
+    private int[] keys = new int[256];
+    private int[] values = new int[256];
+  }
+
+
+  private static int hash( final int i )
+  {
+    final int h = i * 0x9e3779b9;
+    return h ^ (h >>> 16);
+  }
+
+
+  /**
+   * The vertices of a file, which elements may refer to by their index.
+   **/
+  private static final class Vertices
+  {
+    Vertices()
+    {
+      this( 1024 );
+    }
+
+
+    Vertices( final int capacity )
+    {
+      super();
+      coordinates = new float[3 * Math.max( capacity,
+	                                    1 )];
+    }
+
+
+    void add( final float x,
+	      final float y,
+	      final float z )
+    {
+      if( coordinates.length < 3 * (count + 1) )
+	{
+	  coordinates = Arrays.copyOf( coordinates,
+	                               2 * coordinates.length );
+	}
+      coordinates[3 * count] = x;
+      coordinates[3 * count + 1] = y;
+      coordinates[3 * count + 2] = z;
+      count++;
+    }
+
+
+    /**
+     * Adds the vertices whose x, y, and z are given in turn.
+     **/
+    void add( final FloatBuffer buffer )
+    {
+      final int n = buffer.remaining() / 3;
+      if( coordinates.length < 3 * (count + n) )
+	{
+	  coordinates = Arrays.copyOf( coordinates,
+	                               Math.max( 2 * coordinates.length,
+	                                         3 * (count + n) ) );
+	}
+      buffer.duplicate().get( coordinates,
+	                      3 * count,
+	                      3 * n );
+      count += n;
+    }
+
+
+    int check( final int index,
+	       final File file )
+      throws IOException
+    {
+      if( (index < 0) || (index >= count) )
+	{
+	  throw new IOException( file + " refers to no vertex " + index );
+	}
+      return index;
+    }
+
+    private float[] coordinates;
+    private int count;
+  }
+
+
+  /**
+   * Splits a line at white space, reusing its array from line to line.
+   **/
+  private static final class Tokens
+  {
+    void split( final String line )
+    {
+      count = 0;
+      final int length = line.length();
+      int i = 0;
+      while (true)
+	{
+	  while ((i < length) && (line.charAt( i ) <= ' '))
+	    {
+	      i++;
+	    }
+	  if( (i == length) || (line.charAt( i ) == '#') )
+	    {
+	      return;
+	    }
+	  final int start = i;
+	  while ((i < length) && (line.charAt( i ) > ' '))
+	    {
+	      i++;
+	    }
+	  if( count == tokens.length )
+	    {
+	      tokens = Arrays.copyOf( tokens,
+	                              2 * tokens.length );
+	    }
+	  tokens[count++] = line.substring( start,
+	                                    i );
+	}
+    }
+
+
+    String get( final int i )
+    {
+      return tokens[i];
+    }
+
+    private String[] tokens = new String[16];
+    private int count;
+  }
+
+
+  /**
+   * An element of a PLY file, such as "vertex" or "face", and its properties.
+   **/
+  private static final class Element
+  {
+    Element( final String name,
+	     final int count )
+    {
+      super();
+      this.name = name;
+      this.count = count;
+    }
+
+
+    void add( final Property property )
+    {
+      properties.add( property );
+    }
+
+
+    int indexOf( final String name )
+    {
+      for( int i = 0; i < properties.size(); i++ )
+	{
+	  if( properties.get( i ).name.equals( name ) )
+	    {
+	      return i;
+	    }
+	}
+      return -1;
+    }
+
+    private final String name;
+    private final int count;
+    private final List<Property> properties = new ArrayList<Property>();
+  }
+
+
+  /**
+   * A property of a PLY element: a number of the given type, or a list of
+   * them preceded by their count.
+   **/
+  private static final class Property
+  {
+    Property( final String name,
+	      final int type,
+	      final int countType )
+    {
+      super();
+      this.name = name;
+      this.type = type;
+      this.countType = countType;
+    }
+
+    private final String name;
+    private final int type;
+    private final int countType; // NONE unless a list
+  }
+
+
+  /**
+   * Reads the values of the properties of PLY elements, from a line per
+   * element or in binary.
+   **/
+  private final class PLYReader
+  {
+    PLYReader( final Input input,
+	       final boolean isASCII )
+    {
+      super();
+      this.input = input;
+      this.isASCII = isASCII;
+    }
+
+
+    void beginItem()
+      throws IOException
+    {
+      if( isASCII )
+	{
+	  do
+	    {
+	      final String line = input.readLine();
+	      if( line == null )
+		{
+		  throw new EOFException( file + " ends early" );
+		}
+	      tokens.split( line );
+	    }
+	  while (tokens.count == 0);
+	  next = 0;
+	}
+    }
+
+
+    double read( final int type )
+      throws IOException
+    {
+      if( isASCII )
+	{
+	  if( next == tokens.count )
+	    {
+	      throw new IOException( file + " has an element with too few values" );
+	    }
+	  try
+	    {
+	      return Double.parseDouble( tokens.get( next++ ) );
+	    }
+	  catch( final NumberFormatException x )
+	    {
+	      throw new IOException( file + " has a bad number " + tokens.get( next - 1 ) );
+	    }
+	}
+      switch( type )
+	{
+	case CHAR:
+	  return input.getByte();
+	case UCHAR:
+	  return input.getByte() & 0xff;
+	case SHORT:
+	  return input.getShort();
+	case USHORT:
+	  return input.getShort() & 0xffff;
+	case INT:
+	  return input.getInt();
+	case UINT:
+	  return input.getInt() & 0xffffffffL;
+	case FLOAT:
+	  return input.getFloat();
+	default:
+	  return input.getDouble();
+	}
+    }
+
+    private final Input input;
+    private final boolean isASCII;
+    private final Tokens tokens = new Tokens();
+    private int next;
+  }
+
+
+  /**
+   * Reads a file through a buffer of 64 KB, as lines of text or as binary
+   * numbers.
+   **/
+  private static final class Input
+  {
+    Input( final FileChannel channel )
+    {
+      super();
+      this.channel = channel;
+      buffer.limit( 0 );
+    }
+
+
+    void order( final ByteOrder order )
+    {
+      buffer.order( order );
+    }
+
+
+    /**
+     * Starts over at the beginning of the file.
+     **/
+    void rewind()
+      throws IOException
+    {
+      channel.position( 0 );
+      buffer.clear();
+      buffer.limit( 0 );
+    }
+
+
+    /**
+     * @return The next line, without its line terminator, or null at the end
+     *         of the file.
+     **/
+    String readLine()
+      throws IOException
+    {
+      int length = 0;
+      while (true)
+	{
+	  if( !buffer.hasRemaining() && !fill( 1 ) )
+	    {
+	      if( length == 0 )
+		{
+		  return null;
+		}
+	      break;
+	    }
+	  final byte b = buffer.get();
+	  if( b == '\n' )
+	    {
+	      break;
+	    }
+	  if( length == line.length )
+	    {
+	      line = Arrays.copyOf( line,
+		                    2 * line.length );
+	    }
+	  line[length++] = b;
+	}
+      if( (length > 0) && (line[length - 1] == '\r') )
+	{
+	  length--;
+	}
+      return new String( line,
+	                 0,
+	                 length,
+	                 "ISO-8859-1" );
+    }
+
+
+    void skip( final int n )
+      throws IOException
+    {
+      require( n );
+      buffer.position( buffer.position() + n );
+    }
+
+
+    byte getByte()
+      throws IOException
+    {
+      require( 1 );
+      return buffer.get();
+    }
+
+
+    short getShort()
+      throws IOException
+    {
+      require( 2 );
+      return buffer.getShort();
+    }
+
+
+    int getInt()
+      throws IOException
+    {
+      require( 4 );
+      return buffer.getInt();
+    }
+
+
+    float getFloat()
+      throws IOException
+    {
+      require( 4 );
+      return buffer.getFloat();
+    }
+
+
+    double getDouble()
+      throws IOException
+    {
+      require( 8 );
+      return buffer.getDouble();
+    }
+
+
+    private void require( final int size )
+      throws IOException
+    {
+      if( (buffer.remaining() < size) && !fill( size ) )
+	{
+	  throw new EOFException( "Unexpected end of file" );
+	}
+    }
+
+
+    /**
+     * Reads more of the file until at least the given number of bytes are
+     * buffered.
+     * 
+     * @return false if the file ends before then.
+     **/
+    private boolean fill( final int size )
+      throws IOException
+    {
+      buffer.compact();
+      try
+	{
+	  while (buffer.position() < size)
+	    {
+	      if( channel.read( buffer ) < 0 )
+		{
+		  return false;
+		}
+	    }
+	}
+      finally
+	{
+	  buffer.flip();
+	}
+      return true;
+    }
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate( 65536 );
+    private byte[] line = new byte[256];
+  }
+
+
+  // ----------------------------------------------------------------------
+
+  /**
+   * The number of elements of each chunk unless given otherwise.
+   **/
+  public static final int DEFAULT_CHUNK_SIZE = 65536;
+  /**
+   * The most chunks that are read ahead of being taken.
+   **/
+  public static final int QUEUE_SIZE = 8;
+
+  // the types of PLY properties
+  private static final int NONE = 0;
+  private static final int CHAR = 1;
+  private static final int UCHAR = 2;
+  private static final int SHORT = 3;
+  private static final int USHORT = 4;
+  private static final int INT = 5;
+  private static final int UINT = 6;
+  private static final int FLOAT = 7;
+  private static final int DOUBLE = 8;
+
+  private final File file;
+  private final Mesh.Coloring edgeColoring, faceColoring;
+  private final int chunkSize;
+  private final BlockingQueue<IndexedMesh> chunks = new ArrayBlockingQueue<IndexedMesh>( QUEUE_SIZE );
+  private final ConcurrentLinkedQueue<IndexedMesh> withdrawn = new ConcurrentLinkedQueue<IndexedMesh>();
+  private Thread thread;
+  private volatile boolean isCancelled;
+  private volatile boolean isDone;
+  private volatile IOException failure;
+}
@@ -0,0 +1,45 @@
+package com.ringlord.xs3d;
+
+import java.util.EventObject;
+import java.util.List;
+
+
+/**
+ * Tells of the elements whose selection was changed all at once, such as
+ * those within a band dragged out with the mouse, see {@link InputHandler}.
+ **/
+public class MeshSelectionEvent
+  extends EventObject
+{
+  private static final long serialVersionUID = 6137730212094358571L;
+
+
+  public MeshSelectionEvent( final Viewer3d viewer,
+	                     final List<FocusInfo> selected,
+	                     final List<FocusInfo> deselected )
+  {
+    super( viewer );
+    this.selected = selected;
+    this.deselected = deselected;
+  }
+
+
+  /**
+   * @return The elements that have been selected, which were not before.
+   **/
+  public List<FocusInfo> getSelected()
+  {
+    return selected;
+  }
+
+
+  /**
+   * @return The elements that are no longer selected.
+   **/
+  public List<FocusInfo> getDeselected()
+  {
+    return deselected;
+  }
+  private final List<FocusInfo> selected;
+  private final List<FocusInfo> deselected;
+}
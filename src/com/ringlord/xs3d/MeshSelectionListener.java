@@ -0,0 +1,6 @@
+package com.ringlord.xs3d;
+
+public interface MeshSelectionListener
+{
+  void meshSelectionChanged( final MeshSelectionEvent meshSelectionEvent );
+}
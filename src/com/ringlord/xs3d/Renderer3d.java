@@ -0,0 +1,4554 @@
+package com.ringlord.xs3d;
+
+import java.awt.Graphics2D;
+import java.awt.Color;
+import java.awt.RenderingHints;
+import java.awt.Stroke;
+import java.awt.BasicStroke;
+import java.awt.Rectangle;
+import java.awt.Shape;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.IdentityHashMap;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+
+
+// This file is part of XS3D.
+//
+// XS3D is free software: you can redistribute it and/or modify it
+// under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// XS3D is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with XS3D. If not, see <http://www.gnu.org/licenses/>.
+
+/**
+ * <p>
+ * Renders the elements defined by a set of {@link Mesh}es as seen by a camera,
+ * into any {@link Graphics2D} or {@link BufferedImage}. It does all the work of
+ * the {@link Viewer3d} (which merely shows what a Renderer3d draws), but needs
+ * no display, so it works just as well under <code>java.awt.headless=true</code>,
+ * for instance to render thumbnails on a server:
+ * </p>
+ * 
+ * <pre>
+ *   Renderer3d r = new Renderer3d();
+ *   r.add( mesh );
+ *   r.setViewAngle( &hellip; );
+ *   BufferedImage image = new BufferedImage( 160, 100, BufferedImage.TYPE_INT_RGB );
+ *   r.render( image );
+ * </pre>
+ * 
+ * <p>
+ * A Renderer3d holds the camera and the buffers of the frame it renders, so it
+ * must be used by only one thread at a time. Any number of Renderer3dS may
+ * render the same meshes at the same time, each from its own camera, as long
+ * as the meshes are not changed meanwhile. A Renderer3d notices by itself when
+ * a mesh has changed; it does not register with the meshes, so one that is no
+ * longer used is simply left to the garbage collector.
+ * </p>
+ * 
+ * @author K. Udo Schuermann
+ **/
+public class Renderer3d
+{
+  /**
+   * Indicates whether to render a numeric count (starting at 1) near points,
+   * edges, and faces as they are being rendered from the rear-most to the
+   * front, to help identify the drawing order of {@link Mesh} elements.
+   **/
+  public static final boolean RENDER_DRAWING_DEPTH = false;
+
+  /**
+   * Indicates whether to use anti-aliased rendering, which creates the illusion
+   * of smoother lines at the cost of filling pixels with a blend of color where
+   * the displayed element would only occupy a part of a pixel. Anti-aliased
+   * rendering is generally slower than non-AA rendering, but on modern 3D
+   * hardware the difference may be small enough that the gain in smoothness is
+   * worth it.
+   **/
+  public static final boolean RENDER_ANTI_ALIASED = true;
+
+  /**
+   * Indicates whether points are drawn as little spheres (true) or not at all
+   * (false). Setting this value to true makes for a less "realistic" visual
+   * representation but certainly has its uses.
+   **/
+  public static final boolean RENDER_POINTS = true;
+
+  /**
+   * The number of vertices or elements below which a stage of rendering is not
+   * split up to run on the {@link ForkJoinPool}, see
+   * {@link #setForkJoinPool(ForkJoinPool)}.
+   **/
+  public static final int PARALLEL_THRESHOLD = 32768;
+
+
+  /**
+   * Construct a Renderer3d whose camera has been {@link #reset()}.
+   **/
+  public Renderer3d()
+  {
+    super();
+    reset();
+  }
+
+
+  /**
+   * Resets the camera to an initial viewing angle of
+   * (192&frac12;&deg;,&nbsp;30&deg;,&nbsp;&pi;) and screen position of
+   * (0,&nbsp;0,&nbsp;50), which provides an oblique view at the scene.
+   **/
+  public void reset()
+  {
+    // a fudge factor to control distortion
+    this.modelScale = 1000;
+
+    worldCenterX = 0.0d;
+    worldCenterY = 0.0d;
+    worldCenterZ = 0.0d;
+
+    screenPositionX = 0.0d;
+    screenPositionY = 0.0d;
+    screenPositionZ = 50.d;
+
+    setViewAngle( Math.toRadians( 192.5d ), // View toward 192½°
+	          Math.toRadians( 30.0d ), // Positioned 30° above the "equator"
+	          Math.PI ); // Z-axis perfectly straight
+  }
+
+
+  /**
+   * Add a {@link Mesh} to the scene. Changes to the Mesh are picked up by the
+   * next frame that is rendered.
+   * 
+   * @param mesh
+   *          The Mesh to add. It must not be null.
+   **/
+  public void add( final Mesh mesh )
+  {
+    meshes.add( mesh );
+    meshArray = null;
+    sceneChanged = true;
+  }
+
+
+  /**
+   * Remove a previously added {@link Mesh} from the scene.
+   * 
+   * @param mesh
+   *          The Mesh to remove. It must not be null. Removing a Mesh that was
+   *          not previously added (or removing it multiple times will not cause
+   *          a problem).
+   **/
+  public void remove( final Mesh mesh )
+  {
+    meshes.remove( mesh );
+    meshArray = null;
+    sceneChanged = true;
+  }
+
+
+  public Mesh[] meshes()
+  {
+    if( meshArray == null )
+      {
+	meshArray = new Mesh[meshes.size()];
+	meshes.toArray( meshArray );
+      }
+    return meshArray;
+  }
+
+
+  /**
+   * Add an {@link IndexedMesh} to the scene, whose elements are drawn (and
+   * depth sorted) together with those of the {@link Mesh}es.
+   * 
+   * @param mesh
+   *          The IndexedMesh to add. It must not be null.
+   **/
+  public void add( final IndexedMesh mesh )
+  {
+    indexedMeshes.add( mesh );
+    indexedMeshArray = null;
+    sceneChanged = true;
+  }
+
+
+  /**
+   * Remove a previously added {@link IndexedMesh} from the scene.
+   **/
+  public void remove( final IndexedMesh mesh )
+  {
+    indexedMeshes.remove( mesh );
+    indexedMeshArray = null;
+    sceneChanged = true;
+  }
+
+
+  public IndexedMesh[] indexedMeshes()
+  {
+    if( indexedMeshArray == null )
+      {
+	indexedMeshArray = new IndexedMesh[indexedMeshes.size()];
+	indexedMeshes.toArray( indexedMeshArray );
+      }
+    return indexedMeshArray;
+  }
+
+
+  /**
+   * <p>
+   * Finds the front-most element that the last frame rendered at the given
+   * location. The elements of {@link IndexedMesh}es cannot be focused, and
+   * are passed over. Only the elements drawn in the cell of the
+   * {@link #buildPickGrid() pick grid} at that location are looked at.
+   * </p>
+   * 
+   * <p>
+   * With the {@link #setPickBuffer(boolean) pick buffer}, it is rather the
+   * element whose pixel was drawn last at that location, exactly as shown,
+   * which may also be an element of an IndexedMesh that hides those behind it.
+   * </p>
+   * 
+   * @return The element and its {@link Mesh}, or null if there is none, or if
+   *         that Mesh is not focusable.
+   **/
+  public FocusInfo getFocusedMesh( final int focusX,
+	                           final int focusY )
+  {
+    if( zbuf == null )
+      {
+	return null;
+      }
+    if( (focusX >= 0) && (focusY >= 0) && (focusX < frameWidth) && (focusY < frameHeight) )
+      {
+	if( (pickPixels != null) && (pickLayout == layoutVersion) )
+	  {
+	    // a pixel holds one more than the element drawn there last
+	    final int id = (pickPixels[(focusY * frameWidth) + focusX] & PICK_MASK) - 1;
+	    if( (id < 0) || (id >= elementCount) )
+	      {
+		return null;
+	      }
+	    final FocusInfo n = zbuf[id].getFocusInfo();
+	    n.setElement( id,
+	                  layoutVersion );
+	    return (n.getMesh().isFocusable()
+		? n
+		: null);
+	  }
+
+	if( pickFrame != frameCount )
+	  {
+	    buildPickGrid();
+	  }
+	// The elements of the cell are in drawing order, so move
+	// backwards, checking front-most items before checking ones in
+	// the back
+	final int cell = ((focusY / PICK_CELL) * pickColumns) + (focusX / PICK_CELL);
+	for( int k = pickCellStart[cell + 1] - 1; k >= pickCellStart[cell]; k-- )
+	  {
+	    final FocusInfo n = getAt( pickItems[k],
+	                               focusX,
+	                               focusY );
+	    if( n != null )
+	      {
+		return (n.getMesh().isFocusable()
+		    ? n
+		    : null);
+	      }
+	  }
+	return null;
+      }
+
+    // Move backwards through the zbuffer, checking front-most items
+    // before checking ones in the back (if we actually culled items
+    // that are totally obscured, we could do this quicker)
+    for( int i = zcount - 1; i >= 0; i-- )
+      {
+	final FocusInfo n = getAt( i,
+	                           focusX,
+	                           focusY );
+	if( n != null )
+	  {
+	    // We have a mesh that would be focused, but if this mesh
+	    // is not focusable we will return null, as anything else
+	    // would be obscured by this one and should not be
+	    // selected until it would be above the current one.
+	    return (n.getMesh().isFocusable()
+		? n
+		: null);
+	  }
+      }
+    return null;
+  }
+
+
+  /**
+   * <p>
+   * Sets whether each frame also records, for every pixel, which element
+   * was drawn there last: {@link #getFocusedMesh(int,int)} then merely looks
+   * that up, at a cost that does not depend on the size of the scene, and
+   * finds exactly what is shown, but drawing a frame takes longer.
+   * </p>
+   * 
+   * <p>
+   * A point, edge, or face is then only focused where it was drawn, without
+   * the few pixels of leeway that finding it by its shape allows around
+   * points and edges. A scene of 16,777,215 or more elements has no pick
+   * buffer, as a pixel cannot tell them apart.
+   * </p>
+   **/
+  public void setPickBuffer( final boolean isPickBuffer )
+  {
+    this.isPickBuffer = isPickBuffer;
+    if( !isPickBuffer )
+      {
+	dropPickImage();
+      }
+  }
+
+
+  public boolean isPickBuffer()
+  {
+    return isPickBuffer;
+  }
+
+
+  /**
+   * @param i
+   *          The place of the element in the drawing order of the last frame.
+   * @return The element if it was drawn at the given location, otherwise (or
+   *         if it belongs to an {@link IndexedMesh}) null.
+   **/
+  private FocusInfo getAt( final int i,
+	                   final int focusX,
+	                   final int focusY )
+  {
+    final int id = (int)zkeys[i];
+    if( id >= elementCount )
+      {
+	return null;
+      }
+    final FocusInfo n = zbuf[id].getAt( focusX,
+	                                focusY,
+	                                projectedX,
+	                                projectedY );
+    if( n != null )
+      {
+	n.setElement( id,
+	              layoutVersion );
+      }
+    return n;
+  }
+
+
+  /**
+   * <p>
+   * Sorts the elements of the last frame into a grid of cells over the
+   * display, by where they are drawn (see {@link #measureVisible()}), so that
+   * {@link #getFocusedMesh(int,int)} need only look at the few elements in
+   * the cell under the mouse, not at all of them. An element is listed in
+   * every cell that it touches, in drawing order.
+   * </p>
+   * 
+   * <p>
+   * The grid is built when it is first needed after the frame has changed.
+   * </p>
+   **/
+  private void buildPickGrid()
+  {
+    if( extentsFrame != frameCount )
+      {
+	measureVisible();
+      }
+    pickColumns = (frameWidth + PICK_CELL - 1) / PICK_CELL;
+    pickRows = (frameHeight + PICK_CELL - 1) / PICK_CELL;
+    final int cells = pickColumns * pickRows;
+    if( pickCellStart.length < cells + 1 )
+      {
+	pickCellStart = new int[cells + 1];
+	pickCursor = new int[cells];
+      }
+    Arrays.fill( pickCellStart,
+	         0 );
+
+    // Count the elements of each cell (in the slot after its own), sum
+    // these up into where each cell's elements start, and then list
+    // them there.
+    for( int pass = 0; pass < 2; pass++ )
+      {
+	for( int i = 0; i < zcount; i++ )
+	  {
+	    if( ((int)zkeys[i] >= elementCount) || !pickCells( i ) )
+	      {
+		continue;
+	      }
+	    for( int row = pickRow1; row <= pickRow2; row++ )
+	      {
+		for( int column = pickColumn1; column <= pickColumn2; column++ )
+		  {
+		    final int cell = (row * pickColumns) + column;
+		    if( pass == 0 )
+		      {
+			pickCellStart[cell + 1]++;
+		      }
+		    else
+		      {
+			pickItems[pickCursor[cell]++] = i;
+		      }
+		  }
+	      }
+	  }
+	if( pass == 0 )
+	  {
+	    for( int cell = 0; cell < cells; cell++ )
+	      {
+		pickCellStart[cell + 1] += pickCellStart[cell];
+		pickCursor[cell] = pickCellStart[cell];
+	      }
+	    if( mustResize( pickItems.length,
+		            pickCellStart[cells] ) )
+	      {
+		pickItems = new int[pickCellStart[cells]];
+	      }
+	  }
+      }
+    pickFrame = frameCount;
+  }
+
+
+  /**
+   * Finds the cells of the pick grid in which the element at the given place
+   * in the drawing order can be focused, in {@link #pickColumn1},
+   * {@link #pickRow1}, {@link #pickColumn2}, and {@link #pickRow2}.
+   * 
+   * @return false if it lies beyond the display.
+   **/
+  private boolean pickCells( final int i )
+  {
+    final int x1 = Math.max( zextents[4 * i] - PICK_MARGIN,
+	                     0 );
+    final int y1 = Math.max( zextents[4 * i + 1] - PICK_MARGIN,
+	                     0 );
+    final int x2 = Math.min( zextents[4 * i + 2] + PICK_MARGIN,
+	                     frameWidth - 1 );
+    final int y2 = Math.min( zextents[4 * i + 3] + PICK_MARGIN,
+	                     frameHeight - 1 );
+    if( (x1 > x2) || (y1 > y2) )
+      {
+	return false;
+      }
+    pickColumn1 = x1 / PICK_CELL;
+    pickRow1 = y1 / PICK_CELL;
+    pickColumn2 = x2 / PICK_CELL;
+    pickRow2 = y2 / PICK_CELL;
+    return true;
+  }
+
+
+  /**
+   * <p>
+   * Finds the elements that the last frame drew within an area of the display
+   * (such as a band dragged out with the mouse): those whose vertices all lie
+   * within it. The elements of {@link IndexedMesh}es, and of meshes that are
+   * not selectable, are passed over.
+   * </p>
+   * 
+   * <p>
+   * Only the elements in the cells of the {@link #buildPickGrid() pick grid}
+   * that the area touches are looked at, each of them once. Whether a cell
+   * lies entirely within the area, entirely beyond it, or across its edge is
+   * found first, so that only the vertices in cells of the last kind need be
+   * tested against the area one by one.
+   * </p>
+   * 
+   * @return The elements, in no particular order.
+   **/
+  public List<FocusInfo> getElementsWithin( final Shape area )
+  {
+    final List<FocusInfo> found = new ArrayList<FocusInfo>();
+    if( (zbuf == null) || (frameWidth <= 0) || (frameHeight <= 0) )
+      {
+	return found;
+      }
+    final Rectangle bounds = area.getBounds();
+    if( bounds.isEmpty() )
+      {
+	return found;
+      }
+    if( pickFrame != frameCount )
+      {
+	buildPickGrid();
+      }
+
+    // The cells at the sides of the grid also list what is drawn
+    // beyond the display (within the cull margin), so an area that lies
+    // beyond the display covers those next to it.
+    coverColumn1 = toCell( bounds.x,
+	                   pickColumns );
+    coverRow1 = toCell( bounds.y,
+	                pickRows );
+    coverColumn2 = toCell( bounds.x + bounds.width - 1,
+	                   pickColumns );
+    coverRow2 = toCell( bounds.y + bounds.height - 1,
+	                pickRows );
+    if( pickCover.length < pickColumns * pickRows )
+      {
+	pickCover = new byte[pickColumns * pickRows];
+      }
+    final Rectangle r = new Rectangle( PICK_CELL,
+	                               PICK_CELL );
+    for( int row = coverRow1; row <= coverRow2; row++ )
+      {
+	for( int column = coverColumn1; column <= coverColumn2; column++ )
+	  {
+	    r.setLocation( column * PICK_CELL,
+	                   row * PICK_CELL );
+	    // either test may err toward PARTLY_INSIDE
+	    pickCover[(row * pickColumns) + column] = (byte)(area.contains( r )
+		? INSIDE
+		: (area.intersects( r )
+		    ? PARTLY_INSIDE
+		    : CULLED));
+	  }
+      }
+
+    for( int row = coverRow1; row <= coverRow2; row++ )
+      {
+	for( int column = coverColumn1; column <= coverColumn2; column++ )
+	  {
+	    // an element is looked at even in a cell that lies beyond the
+	    // area, as the area may contain all of its vertices yet not
+	    // the first cell that it touches
+	    final int cell = (row * pickColumns) + column;
+	    for( int k = pickCellStart[cell]; k < pickCellStart[cell + 1]; k++ )
+	      {
+		final int i = pickItems[k];
+		// an element listed in several of the cells is looked at
+		// in the first of them that the area touches
+		pickCells( i );
+		if( (Math.max( pickColumn1,
+		               coverColumn1 ) != column) || (Math.max( pickRow1,
+		                                                       coverRow1 ) != row) )
+		  {
+		    continue;
+		  }
+		final int id = (int)zkeys[i];
+		final ZRef z = zbuf[id];
+		if( !z.getMesh().isSelectable() )
+		  {
+		    continue;
+		  }
+		final int[] slots = z.getSlots();
+		boolean isWithin = true;
+		for( int v = z.getFirst(); isWithin && (v < z.getFirst() + z.getCount()); v++ )
+		  {
+		    isWithin = isWithin( area,
+		                         projectedX[slots[v]],
+		                         projectedY[slots[v]] );
+		  }
+		if( isWithin )
+		  {
+		    final FocusInfo n = z.getFocusInfo();
+		    n.setElement( id,
+		                  layoutVersion );
+		    found.add( n );
+		  }
+	      }
+	  }
+      }
+    return found;
+  }
+
+
+  /**
+   * @return The column (or row) of the pick grid at the given x (or y),
+   *         or the nearest one if it lies beyond the display.
+   **/
+  private static int toCell( final int location,
+	                     final int cells )
+  {
+    return ((location < 0)
+	? 0
+	: Math.min( location / PICK_CELL,
+	            cells - 1 ));
+  }
+
+
+  /**
+   * @return true if the location lies within the area, as told by the cell of
+   *         the pick grid that it lies in, as classified by
+   *         {@link #getElementsWithin(Shape)}, or else by the area itself.
+   **/
+  private boolean isWithin( final Shape area,
+	                    final double x,
+	                    final double y )
+  {
+    if( (x < 0) || (y < 0) || (x >= frameWidth) || (y >= frameHeight) )
+      {
+	return area.contains( x,
+	                      y );
+      }
+    final int column = (int)x / PICK_CELL;
+    final int row = (int)y / PICK_CELL;
+    if( (column < coverColumn1) || (column > coverColumn2) || (row < coverRow1) || (row > coverRow2) )
+      {
+	return false;
+      }
+    switch (pickCover[(row * pickColumns) + column])
+      {
+      case INSIDE:
+	return true;
+      case CULLED:
+	return false;
+      default:
+	return area.contains( x,
+	                      y );
+      }
+  }
+
+
+  /**
+   * Finds the area of the display in which the last frame drew the element
+   * that is in focus, so that a change of its focus or selection need only
+   * repaint that area.
+   * 
+   * @return null if that is no longer known, as the scene has changed since
+   *         the element was focused.
+   **/
+  public Rectangle getBounds( final FocusInfo info )
+  {
+    final int id = info.getElement();
+    if( (info.getLayout() != layoutVersion) || (id < 0) || (id >= elementCount) )
+      {
+	return null;
+      }
+    final ZRef z = zbuf[id];
+    measure( z.getSlots(),
+	     z.getFirst(),
+	     z.getCount() );
+    return new Rectangle( extentX1,
+	                  extentY1,
+	                  extentX2 - extentX1 + 1,
+	                  extentY2 - extentY1 + 1 );
+  }
+
+
+  /**
+   * Set the view angle which controls rotation around the vertical. It is the
+   * primary means of affecting the view.
+   * 
+   * @param x
+   *          The x-component of the view angle (in radians): which direction
+   *          along the "equator" are we looking. It defaults to 347½°
+   * @param y
+   *          The y-component of the view angle (in radians): How far above or
+   *          below the "equator" the camera is located. -180° is looking
+   *          straight up from the south pole, 0° is looking straight along the
+   *          flat of the equator, 180° is looking straight down from the north
+   *          pole. It defaults to 30° (above) the equator.
+   * @param z
+   *          The z-component of the view angle: How far is the Z-axis tilted.
+   *          It defaults to 180°, pointing the Z-Axis is perfectly straight up.
+   **/
+  public void setViewAngle( final double x,
+	                    final double y,
+	                    final double z )
+  {
+    // precalculate the values needed by the 'project' method
+    this.cosTheta = Math.cos( x );
+    this.sinTheta = Math.sin( x );
+    this.cosPhi = Math.cos( y );
+    this.sinPhi = Math.sin( y );
+
+    this.sinThetaSinPhi = sinTheta * sinPhi;
+    this.cosThetaSinPhi = cosTheta * sinPhi;
+    this.sinThetaCosPhi = sinTheta * cosPhi;
+    this.cosThetaCosPhi = cosTheta * cosPhi;
+
+    this.viewAngleX = x;
+    this.viewAngleY = y;
+    this.viewAngleZ = z;
+    cameraVersion++;
+  }
+
+
+  /**
+   * Obtains the angle of rotation around the Z-axis.
+   * 
+   * @return The x-component of the view angle (in radians): which direction
+   *         along the "equator" are we looking.
+   */
+  public double getViewAngleX()
+  {
+    return viewAngleX;
+  }
+
+
+  /**
+   * Obtains the angle of rotation above or below the XY-plane
+   * 
+   * @return The y-component view angle (in radians): How far above or below the
+   *         "equator" the camera is located. -180° is looking straight up from
+   *         the south pole, 0° is looking straight along the flat of the
+   *         equator, 180° is looking straight down from the north pole.
+   */
+  public double getViewAngleY()
+  {
+    return viewAngleY;
+  }
+
+
+  /**
+   * Obtains the angle of rotation/tilt of the Z-axis.
+   * 
+   * @return The z-component of the view angle: How far is the Z-axis tilted. A
+   *         value of 180° points the Z axis straight up.
+   */
+  public double getViewAngleZ()
+  {
+    return viewAngleZ;
+  }
+
+
+  public void setWorldCenterXYZ( final double x,
+	                         final double y,
+	                         final double z )
+  {
+    this.worldCenterX = x;
+    this.worldCenterY = y;
+    this.worldCenterZ = z;
+    cameraVersion++;
+  }
+
+
+  /**
+   * Sets the position of the screen that is mapped to the display, onto which
+   * the 3D scene is projected. Changing the z-coordinate controls the zoom
+   * level. The x and y coordinates control panning.
+   * 
+   * The x and y coordinate should be centered at (0,&nbsp;0), whereas the
+   * z-coordinate should be a positive value (it defaults to 50).
+   **/
+  public void setScreenPosition( final double x,
+	                         final double y,
+	                         final double z )
+  {
+    this.screenPositionX = x;
+    this.screenPositionY = y;
+    this.screenPositionZ = z;
+    cameraVersion++;
+  }
+
+
+  public double getScreenPositionZ()
+  {
+    return screenPositionZ;
+  }
+
+
+  public void setScreenPositionZ( final double screenPositionZ )
+  {
+    this.screenPositionZ = screenPositionZ;
+    cameraVersion++;
+  }
+
+
+  /**
+   * <p>
+   * Obtains the planes that bound what a display of the given size shows, for
+   * finding the elements that may be seen with
+   * {@link SpatialIndex#findInFrustum(double[],java.util.Collection)}: the plane through
+   * the viewer, and one through each side of the display (at the margin
+   * beyond which nothing is drawn), which meet at the viewer.
+   * </p>
+   * 
+   * <p>
+   * Each plane is given by four numbers a, b, c, and d, by which a location
+   * (x,y,z) lies on its inner side if a*x + b*y + c*z + d >= 0.
+   * </p>
+   * 
+   * @return The four numbers of each of the 5 planes in turn.
+   **/
+  public double[] getFrustum( final int width,
+	                      final int height )
+  {
+    // the planes in view coordinates (see project), where a location
+    // is in front of the viewer if z > 0, and lies beyond a side of
+    // the display if its projection does, as x and y grow with z
+    final double scale = modelScale * viewAngleZ;
+    final double xCenter = width / 2.0d;
+    final double yCenter = height / 2.0d;
+    final double[] view = new double[] {0, 0, 1, // in front
+	                                scale, 0, xCenter + CULL_MARGIN, // left
+	                                -scale, 0, xCenter + CULL_MARGIN, // right
+	                                0, -scale, yCenter + CULL_MARGIN, // top
+	                                0, scale, yCenter + CULL_MARGIN}; // bottom
+
+    // the view coordinates of the origin of the scene
+    final double originX = screenPositionX - ((worldCenterX * cosTheta) - (worldCenterY * sinTheta));
+    final double originY = screenPositionY - ((worldCenterX * sinThetaSinPhi) + (worldCenterY * cosThetaSinPhi) + (worldCenterZ * cosPhi));
+    final double originZ = screenPositionZ - ((worldCenterX * sinThetaCosPhi) + (worldCenterY * cosThetaCosPhi) - (worldCenterZ * sinPhi));
+    final double[] planes = new double[20];
+    for( int i = 0; i < 5; i++ )
+      {
+	final double a = view[3 * i];
+	final double b = view[3 * i + 1];
+	final double c = view[3 * i + 2];
+	planes[4 * i] = (a * cosTheta) + (b * sinThetaSinPhi) + (c * sinThetaCosPhi);
+	planes[4 * i + 1] = (b * cosThetaSinPhi) + (c * cosThetaCosPhi) - (a * sinTheta);
+	planes[4 * i + 2] = (b * cosPhi) - (c * sinPhi);
+	planes[4 * i + 3] = (a * originX) + (b * originY) + (c * originZ);
+      }
+    return planes;
+  }
+
+
+  /**
+   * Project the given point in 3D space to a 2D coordinate on the screen. This
+   * is affected by the given screen center coordinate, the
+   * {@link #setViewAngle(double,double,double)} and the
+   * {@link #setScreenPosition(double,double,double)}.
+   * 
+   * @param xScreenCenter
+   *          The horizontal center offset of the physical screen, which should
+   *          be the horizontal bounds divided by 2.
+   * 
+   * @param yScreenCenter
+   *          The vertical center offset of the physical screen, which should be
+   *          the vertical bounds divided by 2.
+   * 
+   * @param point
+   *          The point in 3D space to project.
+   * 
+   * @param slot
+   *          The index into {@link #projectedX}, {@link #projectedY}, and
+   *          {@link #projectedDepth} that receives the (x,y) location of the 3D
+   *          coordinate on the current display (it may be off-screen, though)
+   *          and its depth (distance from the viewer, where a positive depth
+   *          means that "in front of" and a negative depth means "behind the
+   *          viewer". This depth value is used to determine visibility as well
+   *          as drawing order. {@link #projectedOutcode} receives the sides of
+   *          the display that the (x,y) location lies beyond.
+   **/
+  private void project( final double xScreenCenter,
+	                final double yScreenCenter,
+	                final Mesh.Point3d point,
+	                final int slot )
+  {
+    project( xScreenCenter,
+	     yScreenCenter,
+	     point.getX(),
+	     point.getY(),
+	     point.getZ(),
+	     slot );
+  }
+
+
+  /**
+   * Like {@link #project(double,double,Mesh.Point3d,int)}, but for a point
+   * given by its coordinates, as for the vertices of an {@link IndexedMesh}.
+   **/
+  private void project( final double xScreenCenter,
+	                final double yScreenCenter,
+	                final double pointX,
+	                final double pointY,
+	                final double pointZ,
+	                final int slot )
+  {
+    final double px = pointX - worldCenterX;
+    final double py = pointY - worldCenterY;
+    final double pz = pointZ - worldCenterZ;
+
+    final double x = (screenPositionX + (px * cosTheta) - (py * sinTheta));
+    final double y = (screenPositionY + (px * sinThetaSinPhi) + (py * cosThetaSinPhi) + (pz * cosPhi));
+    final double z = ((screenPositionZ + (px * sinThetaCosPhi) + (py * cosThetaCosPhi) - (pz * sinPhi)));
+    final double temp = modelScale * (viewAngleZ / z);
+
+    // z is the distance from the viewer
+    final double screenX = xScreenCenter + (temp * x);
+    final double screenY = yScreenCenter - (temp * y);
+    projectedX[slot] = screenX;
+    projectedY[slot] = screenY;
+    projectedDepth[slot] = z;
+    projectedOutcode[slot] = outcode( screenX,
+	                              screenY );
+  }
+
+
+  /**
+   * <p>
+   * Rebuilds the table of distinct {@link Mesh.Point3d}S referenced by the
+   * points, edges, and faces of all meshes, and the {@link MeshIndex} of each
+   * mesh that refers to these vertices by their slot in the table.
+   * </p>
+   * 
+   * <p>
+   * Meshes commonly share vertices (the GUI's cube shares each corner among
+   * points, edges, and several faces), so projecting each distinct vertex only
+   * once per frame and letting all elements read the result saves most of the
+   * projection work. The table only changes when meshes are added, removed, or
+   * changed, so this is not done for every frame.
+   * </p>
+   * 
+   * <p>
+   * The vertices of each {@link IndexedMesh} are given the slots following
+   * these, in their own order, and its elements the indices following those
+   * that have a ZRef; its arrays need no table of their own.
+   * </p>
+   **/
+  private void rebuildVertexTable()
+  {
+    final Map<Mesh.Point3d,Integer> slots = new IdentityHashMap<Mesh.Point3d,Integer>();
+    final List<Mesh.Point3d> distinct = new ArrayList<Mesh.Point3d>();
+
+    final Mesh[] meshes = meshes();
+    final MeshIndex[] index = new MeshIndex[meshes.length];
+    elementCount = 0;
+    int maxFaceSize = 0;
+    int[] sharedMark = new int[0];
+    for( int m = 0; m < meshes.length; m++ )
+      {
+	final Mesh mesh = meshes[m];
+	// one consistent version of the elements, even while another
+	// thread edits the mesh
+	final Mesh.Snapshot snapshot = mesh.snapshot();
+	final int vertexLo = distinct.size();
+	final Mesh.Point3d[] points = snapshot.points();
+	final Mesh.Edge[] edges = snapshot.edges();
+	final Mesh.Face[] faces = snapshot.faces();
+
+	final int[] pointSlots = new int[points.length];
+	for( int i = 0; i < points.length; i++ )
+	  {
+	    pointSlots[i] = slotOf( points[i],
+		                    slots,
+		                    distinct );
+	  }
+
+	final int[] edgeSlots = new int[edges.length * 2];
+	for( int i = 0; i < edges.length; i++ )
+	  {
+	    edgeSlots[2 * i] = slotOf( edges[i].getHead(),
+		                       slots,
+		                       distinct );
+	    edgeSlots[2 * i + 1] = slotOf( edges[i].getTail(),
+		                           slots,
+		                           distinct );
+	  }
+
+	// As our edges should be defining a CLOSED series of points, we
+	// simply capture the first point of each edge; the edges of each
+	// face are taken once, as an edit may replace them meanwhile
+	final Mesh.Edge[][] faceEdges = new Mesh.Edge[faces.length][];
+	final int[] faceStart = new int[faces.length + 1];
+	int n = 0;
+	for( int i = 0; i < faces.length; i++ )
+	  {
+	    faceEdges[i] = faces[i].edges();
+	    faceStart[i] = n;
+	    n += faceEdges[i].length;
+	    maxFaceSize = Math.max( maxFaceSize,
+	                            faceEdges[i].length );
+	  }
+	faceStart[faces.length] = n;
+	final int[] faceSlots = new int[n];
+	for( int i = 0; i < faces.length; i++ )
+	  {
+	    int k = faceStart[i];
+	    for( Mesh.Edge e : faceEdges[i] )
+	      {
+		faceSlots[k++] = slotOf( e.getHead(),
+		                         slots,
+		                         distinct );
+	      }
+	  }
+
+	// The vertices first used by this mesh are projected only when
+	// it is in view; those it shares with earlier meshes are listed
+	// so that they can be projected for it when their own mesh is
+	// not (see projectShared).
+	if( sharedMark.length < vertexLo )
+	  {
+	    sharedMark = Arrays.copyOf( sharedMark,
+	                                Math.max( vertexLo,
+	                                          2 * sharedMark.length ) );
+	  }
+	int sharedCount = 0;
+	int[] shared = new int[0];
+	for( int[] meshSlots : new int[][] {pointSlots, edgeSlots, faceSlots} )
+	  {
+	    for( int slot : meshSlots )
+	      {
+		if( (slot < vertexLo) && (sharedMark[slot] != m + 1) )
+		  {
+		    sharedMark[slot] = m + 1;
+		    if( sharedCount == shared.length )
+		      {
+			shared = Arrays.copyOf( shared,
+			                        Math.max( 8,
+			                                  2 * sharedCount ) );
+		      }
+		    shared[sharedCount++] = slot;
+		  }
+	      }
+	  }
+	final int[] sharedSlots = Arrays.copyOf( shared,
+	                                         sharedCount );
+	final int[] sharedOwners = new int[sharedCount];
+	for( int i = 0; i < sharedCount; i++ )
+	  {
+	    sharedOwners[i] = findVertexOwner( index,
+	                                       m,
+	                                       sharedSlots[i] );
+	  }
+
+	index[m] = new MeshIndex( mesh,
+	                          snapshot.getVersion(),
+	                          elementCount,
+	                          vertexLo,
+	                          distinct.size(),
+	                          sharedSlots,
+	                          sharedOwners,
+	                          points,
+	                          snapshot.pointIds(),
+	                          pointSlots,
+	                          edges,
+	                          snapshot.edgeIds(),
+	                          edgeSlots,
+	                          faces,
+	                          snapshot.faceIds(),
+	                          faceStart,
+	                          faceSlots );
+	elementCount += points.length + edges.length + faces.length;
+      }
+
+    vertexCount = distinct.size();
+    vertices = distinct.toArray( new Mesh.Point3d[vertexCount] );
+
+    // The vertices and elements of the IndexedMeshes follow all others,
+    // in ranges of their own, as they share none of them.
+    final IndexedMesh[] indexedMeshes = indexedMeshes();
+    final IndexedMeshIndex[] indexed = new IndexedMeshIndex[indexedMeshes.length];
+    projectedCount = vertexCount;
+    sceneElementCount = elementCount;
+    for( int m = 0; m < indexedMeshes.length; m++ )
+      {
+	final IndexedMesh mesh = indexedMeshes[m];
+	final int structureVersion = mesh.getStructureVersion();
+	indexed[m] = new IndexedMeshIndex( mesh,
+	                                   structureVersion,
+	                                   sceneElementCount,
+	                                   projectedCount,
+	                                   (mesh.isPointsShown()
+	                                       ? mesh.getVertexCount()
+	                                       : 0) );
+	projectedCount += mesh.getVertexCount();
+	sceneElementCount += indexed[m].pointCount + indexed[m].edgeCount + indexed[m].faceCount;
+	for( int i = 0; i < indexed[m].faceCount; i++ )
+	  {
+	    maxFaceSize = Math.max( maxFaceSize,
+	                            indexed[m].faceStart.get( i + 1 ) - indexed[m].faceStart.get( i ) );
+	  }
+      }
+
+    if( mustResize( projectedX.length,
+	            projectedCount ) )
+      {
+	projectedX = new double[projectedCount];
+	projectedY = new double[projectedCount];
+	projectedDepth = new double[projectedCount];
+	projectedOutcode = new byte[projectedCount];
+      }
+    if( mustResize( zvisible.length,
+	            sceneElementCount ) )
+      {
+	zvisible = new int[sceneElementCount];
+	zkeys = new long[sceneElementCount];
+	zkeysScratch = new long[sceneElementCount];
+      }
+    final int indexedElementCount = sceneElementCount - elementCount;
+    if( mustResize( indexedDepth.length,
+	            indexedElementCount ) )
+      {
+	indexedDepth = new float[indexedElementCount];
+	indexedVisibleFrame = new int[indexedElementCount];
+	indexedOrderedFrame = new int[indexedElementCount];
+      }
+    else
+      {
+	// the frames recorded for the previous scene mean nothing now
+	Arrays.fill( indexedVisibleFrame,
+	             0 );
+	Arrays.fill( indexedOrderedFrame,
+	             0 );
+      }
+    if( mustResize( zbuf.length,
+	            elementCount ) )
+      {
+	zbuf = new ZRef[elementCount];
+	for( int i = 0; i < elementCount; i++ )
+	  {
+	    zbuf[i] = new ZRef();
+	  }
+      }
+    else
+      {
+	// don't let pooled ZRefs that go unused keep removed meshes alive
+	for( int i = elementCount; i < zbuf.length; i++ )
+	  {
+	    zbuf[i].clear();
+	  }
+      }
+
+    // Each element of the scene keeps the same ZRef (and therefore the
+    // same index into zbuf) until the table is next rebuilt, which is
+    // what lets sortZBuffer() repair the previous frame's order.
+    for( MeshIndex mi : index )
+      {
+	int id = mi.firstElement;
+	for( int i = 0; i < mi.points.length; i++ )
+	  {
+	    zbuf[id++].set( mi.mesh,
+	                    mi.points[i],
+	                    mi.pointIds[i],
+	                    mi.pointSlots,
+	                    i );
+	  }
+	for( int i = 0; i < mi.edges.length; i++ )
+	  {
+	    zbuf[id++].set( mi.mesh,
+	                    mi.edges[i],
+	                    mi.edgeIds[i],
+	                    mi.edgeSlots,
+	                    2 * i );
+	  }
+	for( int i = 0; i < mi.faces.length; i++ )
+	  {
+	    zbuf[id++].set( mi.mesh,
+	                    mi.faces[i],
+	                    mi.faceIds[i],
+	                    mi.faceSlots,
+	                    mi.faceStart[i],
+	                    mi.faceStart[i + 1] - mi.faceStart[i] );
+	  }
+      }
+    zcount = 0;
+    zorderCount = 0;
+    if( polygonX.length < Math.max( maxFaceSize,
+	                            4 ) )
+      {
+	// (at least four for the outline of a wide line, see pickLine())
+	polygonX = new int[Math.max( maxFaceSize,
+	                             4 )];
+	polygonY = new int[Math.max( maxFaceSize,
+	                             4 )];
+      }
+    if( faceCorners.length < Math.max( maxFaceSize,
+	                               2 ) )
+      {
+	// (at least two for an edge, see indexedCorners())
+	faceCorners = new int[Math.max( maxFaceSize,
+	                                2 )];
+      }
+    meshIndex = index;
+    indexedMeshIndex = indexed;
+  }
+
+
+  /**
+   * Decides whether a reusable frame buffer must be reallocated: when it is too
+   * small to hold what is needed, or when the scene has gotten so much smaller
+   * that keeping the buffer would waste most of it.
+   **/
+  private static boolean mustResize( final int capacity,
+	                             final int needed )
+  {
+    return ((capacity < needed) || ((capacity > MIN_SHRINK_CAPACITY) && (capacity / 4 > needed)));
+  }
+
+
+  private static int slotOf( final Mesh.Point3d p,
+	                     final Map<Mesh.Point3d,Integer> slots,
+	                     final List<Mesh.Point3d> distinct )
+  {
+    final Integer slot = slots.get( p );
+    if( slot != null )
+      {
+	return slot.intValue();
+      }
+    final int newSlot = distinct.size();
+    slots.put( p,
+	       Integer.valueOf( newSlot ) );
+    distinct.add( p );
+    return newSlot;
+  }
+
+
+  /**
+   * Renders a frame into an image, which is first cleared to black.
+   **/
+  public void render( final BufferedImage image )
+  {
+    final Graphics2D g2 = image.createGraphics();
+    try
+      {
+	g2.setColor( Color.black );
+	g2.fillRect( 0,
+	             0,
+	             image.getWidth(),
+	             image.getHeight() );
+	render( g2,
+	        image.getWidth(),
+	        image.getHeight() );
+      }
+    finally
+      {
+	g2.dispose();
+      }
+  }
+
+
+  /**
+   * Renders a frame on top of whatever the given graphics already show.
+   * 
+   * @param g2
+   *          The graphics object into which to render
+   * @param width
+   *          The width of the display in pixels, centered on the screen
+   *          position
+   * @param height
+   *          The height of the display in pixels
+   **/
+  public void render( final Graphics2D g2,
+	              final int width,
+	              final int height )
+  {
+    update( width,
+	    height );
+    draw( g2 );
+  }
+
+
+  /**
+   * Brings the frame up to date for a display of the given size: where the
+   * elements lie on the display, and the order in which to draw them. This is
+   * the first half of {@link #render(Graphics2D,int,int)}, for those that
+   * keep the image of the last frame and need to know whether it still holds.
+   * 
+   * @return true if the frame has changed, false if it is the same as the one
+   *         last drawn (except for the focus or selection of its elements).
+   **/
+  public boolean update( final int width,
+	                 final int height )
+  {
+    // Project every distinct vertex of the scene exactly once; the
+    // points, edges, and faces below merely look up the results by
+    // their vertex slot. Large scenes are projected in chunks on the
+    // ForkJoinPool (see setForkJoinPool).
+    final boolean isRebuilt = sceneChanged || isSceneOutdated();
+    if( isRebuilt )
+      {
+	sceneChanged = false;
+	rebuildVertexTable();
+	layoutVersion++;
+      }
+    xScreenCenter = width / 2.0d;
+    yScreenCenter = height / 2.0d;
+    // Anything beyond the cull bounds is not visible; the margin keeps
+    // the spheres of points and wide lines from being cut off. Edges
+    // and faces are only clipped where they extend beyond the clip
+    // bounds, which lie one display size farther out, so that the
+    // (integer) clipped coordinates do not visibly bend them.
+    cullLeft = -CULL_MARGIN;
+    cullTop = -CULL_MARGIN;
+    cullRight = width + CULL_MARGIN;
+    cullBottom = height + CULL_MARGIN;
+    clipLeft = cullLeft - width;
+    clipTop = cullTop - height;
+    clipRight = cullRight + width;
+    clipBottom = cullBottom + height;
+
+    // Where the viewer is in the scene: the location that projects to
+    // the origin of the view coordinates (see project), which is what
+    // back faces are turned away from.
+    eyeX = worldCenterX - ((screenPositionX * cosTheta) + (screenPositionY * sinThetaSinPhi) + (screenPositionZ * sinThetaCosPhi));
+    eyeY = worldCenterY - ((screenPositionY * cosThetaSinPhi) + (screenPositionZ * cosThetaCosPhi) - (screenPositionX * sinTheta));
+    eyeZ = worldCenterZ - ((screenPositionY * cosPhi) - (screenPositionZ * sinPhi));
+
+    // The vertices are only read here, and each Mesh holds off moving
+    // them to the positions given with Mesh.setPositions() until this
+    // frame is done with them (see Mesh.beginFrame), so that it shows one
+    // set of them even if another renderer is drawing the Mesh as well.
+    for( MeshIndex mi : meshIndex )
+      {
+	mi.mesh.beginFrame();
+      }
+    try
+      {
+	return updateFrame( width,
+	                    height,
+	                    isRebuilt );
+      }
+    finally
+      {
+	for( MeshIndex mi : meshIndex )
+	  {
+	    mi.mesh.endFrame();
+	  }
+      }
+  }
+
+
+  /**
+   * Does the part of {@link #update(int,int)} that reads the vertices of the
+   * meshes.
+   **/
+  private boolean updateFrame( final int width,
+	                       final int height,
+	                       final boolean isRebuilt )
+  {
+    // When neither the camera, the display, nor any mesh has changed
+    // since the last frame (say, only the focus or the selection has),
+    // its projections and drawing order still hold, and the elements are
+    // merely drawn again.
+    if( !isRebuilt && isFrameCurrent( width,
+	                              height ) )
+      {
+	return false;
+      }
+    rememberFrame( width,
+	           height );
+    // Meshes whose bounds lie entirely behind the viewer or beyond the
+    // display are skipped altogether, and so are the vertices that only
+    // they use.
+    meshesCulled = 0;
+    for( MeshIndex mi : meshIndex )
+      {
+	cull( mi );
+	if( !mi.isVisible )
+	  {
+	    meshesCulled++;
+	  }
+	else
+	  {
+	    // ask only once, like for the visibility
+	    mi.isBackFaceCulling = mi.mesh.isBackFaceCulling();
+	    if( mi.isBackFaceCulling &&
+		((mi.facePlanes == null) || (mi.facePlanesVersion != mi.mesh.getShapeVersion())) )
+	      {
+		updateFacePlanes( mi );
+	      }
+	  }
+      }
+    for( IndexedMeshIndex ii : indexedMeshIndex )
+      {
+	cull( ii );
+	if( ii.isVisible )
+	  {
+	    ii.isBackFaceCulling = ii.mesh.isBackFaceCulling();
+	    if( ii.isBackFaceCulling &&
+		((ii.facePlanes == null) || (ii.facePlanesVersion != ii.mesh.getShapeVersion())) )
+	      {
+		updateFacePlanes( ii );
+	      }
+	  }
+      }
+    if( !forkJoin( PROJECT,
+	           projectedCount ) )
+      {
+	project( 0,
+	         projectedCount );
+      }
+    if( meshesCulled > 0 )
+      {
+	projectShared();
+      }
+
+    // Collect ZRef objects which we can sort to ensure drawing from
+    // back to front, and therefore effect proper depth perception,
+    // especially when it comes to faces. Every element of the scene
+    // already has its ZRef in zbuf (see rebuildVertexTable), so we
+    // only update its depth and record its index in zvisible. In
+    // parallel, each chunk first counts its visible elements so that
+    // it knows where in zvisible to record them afterwards.
+    final int frame = ++frameCount;
+    int count;
+    if( forkJoin( COLLECT,
+	          sceneElementCount ) )
+      {
+	count = 0;
+	for( int c = 0; c < chunkCounts.length; c++ )
+	  {
+	    final int n = chunkCounts[c];
+	    chunkCounts[c] = count;
+	    count += n;
+	  }
+	forkJoin( COMPACT,
+	          sceneElementCount );
+      }
+    else
+      {
+	count = collect( 0,
+	                 sceneElementCount,
+	                 frame,
+	                 zvisible );
+      }
+
+    // Time to sort the ZRef: zkeys receives the indices into zbuf
+    // ordered such that the elements farthest away come first. We
+    // work with arrays rather than a List as it is generally much
+    // faster to process an array than a List (it has been observed to
+    // be about 3× faster, actually, but that may vary).
+    zcount = count;
+    sortZBuffer( frame );
+    return true;
+  }
+
+
+  /**
+   * Draws the frame last brought up to date with {@link #update(int,int)} on
+   * top of whatever the given graphics already show, as the second half of
+   * {@link #render(Graphics2D,int,int)}. Only the elements that lie within the
+   * clip of the graphics are drawn.
+   **/
+  public void draw( final Graphics2D g2 )
+  {
+    // use anti-aliased drawing? (tends to be slower)
+    if( RENDER_ANTI_ALIASED )
+      {
+	g2.setRenderingHint( RenderingHints.KEY_ANTIALIASING,
+	                     RenderingHints.VALUE_ANTIALIAS_ON );
+      }
+    originalStroke = g2.getStroke();
+
+    if( RENDER_DRAWING_DEPTH )
+      {
+	_counter = 0;
+      }
+
+    // When only part of the display is repainted, such as where the
+    // focus changed (see getBounds), only the elements drawn there are
+    // drawn again, still in order from back to front.
+    final Rectangle clip = g2.getClipBounds();
+    final boolean isPartial = (clip != null) &&
+	                      ((clip.x > 0) || (clip.y > 0) || (clip.x + clip.width < frameWidth) || (clip.y + clip.height < frameHeight));
+    if( isPartial && (extentsFrame != frameCount) )
+      {
+	measureVisible();
+      }
+
+    // The pick buffer receives the same shapes as the display, in the
+    // "color" of one more than the index of their element (so that zero
+    // is left for none), which the 24 bits of an opaque color must hold.
+    // It is only begun anew by a frame drawn in full.
+    if( sceneElementCount >= PICK_MASK )
+      {
+	dropPickImage();
+      }
+    else if( isPickBuffer && !isPartial &&
+	((pickImage == null) || (pickImage.getWidth() != frameWidth) || (pickImage.getHeight() != frameHeight)) &&
+	(frameWidth > 0) && (frameHeight > 0) )
+      {
+	dropPickImage();
+	pickImage = new BufferedImage( frameWidth,
+	                               frameHeight,
+	                               BufferedImage.TYPE_INT_RGB );
+	pickPixels = ((DataBufferInt)pickImage.getRaster().getDataBuffer()).getData();
+      }
+    if( isPickBuffer && (pickImage != null) && (!isPartial || (pickLayout == layoutVersion)) )
+      {
+	// The pick buffer is drawn within the bounds of the clip; the
+	// pixels within are cleared.
+	final int x1 = (clip == null) ? 0 : Math.max( 0,
+	                                              clip.x );
+	final int y1 = (clip == null) ? 0 : Math.max( 0,
+	                                              clip.y );
+	final int x2 = (clip == null) ? pickImage.getWidth() : Math.min( pickImage.getWidth(),
+	                                                                 clip.x + clip.width );
+	final int y2 = (clip == null) ? pickImage.getHeight() : Math.min( pickImage.getHeight(),
+	                                                                  clip.y + clip.height );
+	pickX1 = x1;
+	pickY1 = y1;
+	pickX2 = x2;
+	pickY2 = y2;
+	for( int row = y1; row < y2; row++ )
+	  {
+	    Arrays.fill( pickPixels,
+	                 (row * pickImage.getWidth()) + x1,
+	                 (row * pickImage.getWidth()) + x2,
+	                 0 );
+	  }
+	isPicking = true;
+	pickLayout = layoutVersion;
+      }
+
+    try
+      {
+	drawElements( g2,
+	              isPartial,
+	              clip );
+      }
+    finally
+      {
+	isPicking = false;
+      }
+  }
+
+
+  private void dropPickImage()
+  {
+    pickImage = null;
+    pickPixels = null;
+  }
+
+
+  /**
+   * Writes the pixels that the outer ring of a point covers into the pick
+   * buffer, as fillOval() would fill them, but without what Java2D
+   * allocates to fill an oval.
+   **/
+  private void pickPoint( final int x,
+	                  final int y )
+  {
+    final int width = pickImage.getWidth();
+    for( int i = 0; i < PICK_POINT.length; i += 3 )
+      {
+	final int row = y + PICK_POINT[i];
+	if( (row < pickY1) || (row >= pickY2) )
+	  {
+	    continue;
+	  }
+	final int from = Math.max( pickX1,
+	                           x + PICK_POINT[i + 1] );
+	final int to = Math.min( pickX2,
+	                         x + PICK_POINT[i + 2] );
+	for( int column = from; column < to; column++ )
+	  {
+	    pickPixels[(row * width) + column] = pickRGB;
+	  }
+      }
+  }
+
+
+  /**
+   * Writes the pixels that the face in {@link #polygonX} and
+   * {@link #polygonY} covers into the pick buffer, row by row, without what
+   * Java2D allocates to fill a polygon. As with fillPolygon(), a pixel is
+   * covered when its center lies inside by the even-odd rule, once the
+   * vertices have been moved by a quarter of a pixel (as Java2D moves them).
+   **/
+  private void pickFace( final int n )
+  {
+    final int width = pickImage.getWidth();
+    int top = Integer.MAX_VALUE;
+    int bottom = Integer.MIN_VALUE;
+    for( int i = 0; i < n; i++ )
+      {
+	top = Math.min( top,
+	                polygonY[i] );
+	bottom = Math.max( bottom,
+	                   polygonY[i] );
+      }
+    if( pickCrossings.length < n )
+      {
+	pickCrossings = new double[n];
+      }
+
+    final int last = Math.min( pickY2,
+	                       bottom );
+    for( int row = Math.max( pickY1,
+	                     top ); row < last; row++ )
+      {
+	// where the edges cross the center of the row, in order
+	final double center = row + 0.25;
+	int count = 0;
+	for( int i = 0, j = n - 1; i < n; j = i++ )
+	  {
+	    final int y0 = polygonY[j];
+	    final int y1 = polygonY[i];
+	    if( (y0 <= center) != (y1 <= center) )
+	      {
+		final double x = polygonX[j] + (((center - y0) * (polygonX[i] - polygonX[j])) / (y1 - y0));
+		int k = count++;
+		while ((k > 0) && (pickCrossings[k - 1] > x))
+		  {
+		    pickCrossings[k] = pickCrossings[k - 1];
+		    k--;
+		  }
+		pickCrossings[k] = x;
+	      }
+	  }
+
+	for( int k = 0; k + 1 < count; k += 2 )
+	  {
+	    final int from = Math.max( pickX1,
+	                               (int)Math.ceil( pickCrossings[k] - 0.25 ) );
+	    final int to = Math.min( pickX2,
+	                             (int)Math.ceil( pickCrossings[k + 1] - 0.25 ) );
+	    for( int column = from; column < to; column++ )
+	      {
+		pickPixels[(row * width) + column] = pickRGB;
+	      }
+	  }
+      }
+  }
+
+
+  /**
+   * Writes the pixels of a line into the pick buffer, without what Java2D
+   * allocates to draw one: a line of the default width pixel by pixel, as
+   * Bresenham steps from one end to the other, and a wider one as the
+   * quadrilateral that its stroke covers.
+   **/
+  private void pickLine( final Stroke stroke,
+	                 final int x1,
+	                 final int y1,
+	                 final int x2,
+	                 final int y2 )
+  {
+    final float lineWidth = ((stroke instanceof BasicStroke)
+	? ((BasicStroke)stroke).getLineWidth()
+	: 1);
+    if( (lineWidth > 1) && ((x1 != x2) || (y1 != y2)) )
+      {
+	// half the width, square to the line
+	final double length = Math.hypot( x2 - x1,
+	                                  y2 - y1 );
+	final double dx = ((y1 - y2) * lineWidth) / (2 * length);
+	final double dy = ((x2 - x1) * lineWidth) / (2 * length);
+	polygonX[0] = (int)Math.round( x1 + dx );
+	polygonY[0] = (int)Math.round( y1 + dy );
+	polygonX[1] = (int)Math.round( x2 + dx );
+	polygonY[1] = (int)Math.round( y2 + dy );
+	polygonX[2] = (int)Math.round( x2 - dx );
+	polygonY[2] = (int)Math.round( y2 - dy );
+	polygonX[3] = (int)Math.round( x1 - dx );
+	polygonY[3] = (int)Math.round( y1 - dy );
+	pickFace( 4 );
+	return;
+      }
+
+    final int width = pickImage.getWidth();
+    final int dx = Math.abs( x2 - x1 );
+    final int dy = -Math.abs( y2 - y1 );
+    final int stepX = (x1 < x2) ? 1 : -1;
+    final int stepY = (y1 < y2) ? 1 : -1;
+    int error = dx + dy;
+    int x = x1;
+    int y = y1;
+    while (true)
+      {
+	if( (x >= pickX1) && (x < pickX2) && (y >= pickY1) && (y < pickY2) )
+	  {
+	    pickPixels[(y * width) + x] = pickRGB;
+	  }
+	if( (x == x2) && (y == y2) )
+	  {
+	    break;
+	  }
+	final int e2 = 2 * error;
+	if( e2 >= dy )
+	  {
+	    error += dy;
+	    x += stepX;
+	  }
+	if( e2 <= dx )
+	  {
+	    error += dx;
+	    y += stepY;
+	  }
+      }
+  }
+
+
+  private void drawElements( final Graphics2D g2,
+	                     final boolean isPartial,
+	                     final Rectangle clip )
+  {
+    // Render each of the elements in the ZRef structure. The number
+    // of points referenced determines whether it's a point (1), an
+    // edge (2), or a face (3+).
+    for( int i = 0; i < zcount; i++ )
+      {
+	final int id = (int)zkeys[i];
+	if( isPartial &&
+	    ((zextents[4 * i + 2] < clip.x) ||
+	     (zextents[4 * i + 3] < clip.y) ||
+	     (zextents[4 * i] >= clip.x + clip.width) ||
+	     (zextents[4 * i + 1] >= clip.y + clip.height)) )
+	  {
+	    continue;
+	  }
+	pickRGB = id + 1;
+	if( id >= elementCount )
+	  {
+	    paintIndexed( g2,
+	                  id );
+	    continue;
+	  }
+	final ZRef z = zbuf[id];
+	final int[] slots = z.getSlots();
+	final int first = z.getFirst();
+	if( z.getCount() == 1 )
+	  {
+	    // We have a single point
+	    if( RENDER_POINTS )
+	      {
+		final int p = slots[first];
+		paintPoint( g2,
+		            z.getMesh(),
+		            z.getElementId(),
+		            (int)projectedX[p],
+		            (int)projectedY[p] );
+	      }
+	  }
+	else if( z.getCount() == 2 )
+	  {
+	    // We have an edge, which may extend beyond the display
+	    if( clipEdge( slots[first],
+		          slots[first + 1] ) )
+	      {
+		paintEdge( g2,
+		           z.getMesh(),
+		           z.getElementId(),
+		           clipX1,
+		           clipY1,
+		           clipX2,
+		           clipY2 );
+	      }
+	  }
+	else
+	  {
+	    // We have 3+ so it's a face
+	    paintFace( g2,
+		       z.getMesh(),
+		       z.getElementId(),
+		       slots,
+		       first,
+		       z.getCount() );
+	  }
+      }
+  }
+
+
+  /**
+   * @return true if the projections, culling, and drawing order of the last
+   *         frame hold for the next one of the given size: neither the
+   *         camera nor any mesh has changed since (vertices moved, or a mesh
+   *         shown or hidden, or its back faces culled or not).
+   **/
+  private boolean isFrameCurrent( final int width,
+	                          final int height )
+  {
+    if( (frameCameraVersion != cameraVersion) || (frameWidth != width) || (frameHeight != height) )
+      {
+	return false;
+      }
+    for( MeshIndex mi : meshIndex )
+      {
+	if( (mi.frameShapeVersion != mi.mesh.getShapeVersion()) ||
+	    (mi.isFrameVisible != mi.mesh.isVisible()) ||
+	    (mi.isFrameBackFaceCulling != mi.mesh.isBackFaceCulling()) )
+	  {
+	    return false;
+	  }
+      }
+    for( IndexedMeshIndex ii : indexedMeshIndex )
+      {
+	if( (ii.frameShapeVersion != ii.mesh.getShapeVersion()) ||
+	    (ii.isFrameVisible != ii.mesh.isVisible()) ||
+	    (ii.isFrameBackFaceCulling != ii.mesh.isBackFaceCulling()) )
+	  {
+	    return false;
+	  }
+      }
+    return true;
+  }
+
+
+  /**
+   * Notes what the frame about to be computed depends on, see
+   * {@link #isFrameCurrent(int,int)}. This is done before, not after, so
+   * that a change made meanwhile (on another thread) is seen by the next
+   * frame.
+   **/
+  private void rememberFrame( final int width,
+	                      final int height )
+  {
+    frameCameraVersion = cameraVersion;
+    frameWidth = width;
+    frameHeight = height;
+    for( MeshIndex mi : meshIndex )
+      {
+	mi.frameShapeVersion = mi.mesh.getShapeVersion();
+	mi.isFrameVisible = mi.mesh.isVisible();
+	mi.isFrameBackFaceCulling = mi.mesh.isBackFaceCulling();
+      }
+    for( IndexedMeshIndex ii : indexedMeshIndex )
+      {
+	ii.frameShapeVersion = ii.mesh.getShapeVersion();
+	ii.isFrameVisible = ii.mesh.isVisible();
+	ii.isFrameBackFaceCulling = ii.mesh.isBackFaceCulling();
+      }
+  }
+
+
+  /**
+   * Finds the area of the display that an element covers, given by the slots
+   * of its vertices, with room for the size of a point and the width of a
+   * selected edge, and limited to the clip bounds. The area is left in
+   * {@link #extentX1}, {@link #extentY1}, {@link #extentX2}, and
+   * {@link #extentY2}.
+   **/
+  private void measure( final int[] slots,
+	                final int first,
+	                final int count )
+  {
+    double x1 = Double.POSITIVE_INFINITY;
+    double y1 = Double.POSITIVE_INFINITY;
+    double x2 = Double.NEGATIVE_INFINITY;
+    double y2 = Double.NEGATIVE_INFINITY;
+    for( int k = first; k < first + count; k++ )
+      {
+	final int slot = slots[k];
+	x1 = Math.min( x1,
+	               projectedX[slot] );
+	y1 = Math.min( y1,
+	               projectedY[slot] );
+	x2 = Math.max( x2,
+	               projectedX[slot] );
+	y2 = Math.max( y2,
+	               projectedY[slot] );
+      }
+    extentX1 = (int)Math.max( x1 - EXTENT_MARGIN,
+	                      clipLeft );
+    extentY1 = (int)Math.max( y1 - EXTENT_MARGIN,
+	                      clipTop );
+    extentX2 = (int)Math.min( x2 + EXTENT_MARGIN,
+	                      clipRight );
+    extentY2 = (int)Math.min( y2 + EXTENT_MARGIN,
+	                      clipBottom );
+  }
+
+
+  /**
+   * Records the area of the display that each element of the frame covers
+   * in {@link #zextents}, in drawing order, so that repainting part of the
+   * display passes over the others at the cost of a glance.
+   **/
+  private void measureVisible()
+  {
+    if( mustResize( zextents.length,
+	            4 * zcount ) )
+      {
+	zextents = new int[4 * zcount];
+      }
+    for( int i = 0; i < zcount; i++ )
+      {
+	final int id = (int)zkeys[i];
+	if( id >= elementCount )
+	  {
+	    final IndexedMeshIndex ii = indexedMeshIndex[findIndexedMesh( id )];
+	    measure( faceCorners,
+	             0,
+	             indexedCorners( ii,
+	                             id - ii.firstElement ) );
+	  }
+	else
+	  {
+	    final ZRef z = zbuf[id];
+	    measure( z.getSlots(),
+	             z.getFirst(),
+	             z.getCount() );
+	  }
+	zextents[4 * i] = extentX1;
+	zextents[4 * i + 1] = extentY1;
+	zextents[4 * i + 2] = extentX2;
+	zextents[4 * i + 3] = extentY2;
+      }
+    extentsFrame = frameCount;
+  }
+
+
+  /**
+   * @return true if a mesh has gained or lost elements since the vertex table
+   *         was last rebuilt. A Mesh that another thread is editing right now
+   *         is taken as it was before the edit, see {@link Mesh#snapshot()}.
+   **/
+  private boolean isSceneOutdated()
+  {
+    for( MeshIndex mi : meshIndex )
+      {
+	if( mi.structureVersion != mi.mesh.snapshot().getVersion() )
+	  {
+	    return true;
+	  }
+      }
+    for( IndexedMeshIndex ii : indexedMeshIndex )
+      {
+	if( ii.structureVersion != ii.mesh.getStructureVersion() )
+	  {
+	    return true;
+	  }
+      }
+    return false;
+  }
+
+
+  /**
+   * Computes where a location on the display lies with respect to the cull
+   * bounds, as in the Cohen-Sutherland algorithm.
+   * 
+   * @return Zero if the location is within the bounds, otherwise some
+   *         combination of {@link #OUT_LEFT}, {@link #OUT_RIGHT},
+   *         {@link #OUT_TOP}, and {@link #OUT_BOTTOM}.
+   **/
+  private byte outcode( final double x,
+	                final double y )
+  {
+    return outcode( x,
+	            y,
+	            cullLeft,
+	            cullTop,
+	            cullRight,
+	            cullBottom );
+  }
+
+
+  /**
+   * Like {@link #outcode(double,double)}, but with respect to the clip
+   * bounds.
+   **/
+  private int clipcode( final double x,
+	                final double y )
+  {
+    return outcode( x,
+	            y,
+	            clipLeft,
+	            clipTop,
+	            clipRight,
+	            clipBottom );
+  }
+
+
+  private static byte outcode( final double x,
+	                       final double y,
+	                       final double left,
+	                       final double top,
+	                       final double right,
+	                       final double bottom )
+  {
+    int code = 0;
+    if( x < left )
+      {
+	code |= OUT_LEFT;
+      }
+    else if( x > right )
+      {
+	code |= OUT_RIGHT;
+      }
+    if( y < top )
+      {
+	code |= OUT_TOP;
+      }
+    else if( y > bottom )
+      {
+	code |= OUT_BOTTOM;
+      }
+    return (byte)code;
+  }
+
+
+  /**
+   * Clips the edge between two projected vertices to the clip bounds, using
+   * the Cohen-Sutherland algorithm. A vertex just in front of the viewer can
+   * project to coordinates far beyond the display, which Java2D would be slow
+   * (and, once truncated to int, wrong) to draw. The edge must not lie
+   * entirely beyond one side of the cull bounds.
+   * 
+   * @return false if no part of the edge is visible; otherwise the visible
+   *         part of the edge runs from (clipX1, clipY1) to (clipX2, clipY2).
+   **/
+  private boolean clipEdge( final int head,
+	                    final int tail )
+  {
+    double x1 = projectedX[head];
+    double y1 = projectedY[head];
+    double x2 = projectedX[tail];
+    double y2 = projectedY[tail];
+    int code1 = 0;
+    int code2 = 0;
+    if( (projectedOutcode[head] | projectedOutcode[tail]) != 0 )
+      {
+	code1 = clipcode( x1,
+	                  y1 );
+	code2 = clipcode( x2,
+	                  y2 );
+      }
+    while ((code1 | code2) != 0)
+      {
+	if( (code1 & code2) != 0 )
+	  {
+	    return false;
+	  }
+	// move the end that lies outside onto the side it lies beyond
+	final int code = (code1 != 0
+	    ? code1
+	    : code2);
+	final double x;
+	final double y;
+	if( (code & OUT_TOP) != 0 )
+	  {
+	    x = x1 + ((x2 - x1) * (clipTop - y1)) / (y2 - y1);
+	    y = clipTop;
+	  }
+	else if( (code & OUT_BOTTOM) != 0 )
+	  {
+	    x = x1 + ((x2 - x1) * (clipBottom - y1)) / (y2 - y1);
+	    y = clipBottom;
+	  }
+	else if( (code & OUT_RIGHT) != 0 )
+	  {
+	    x = clipRight;
+	    y = y1 + ((y2 - y1) * (clipRight - x1)) / (x2 - x1);
+	  }
+	else
+	  {
+	    x = clipLeft;
+	    y = y1 + ((y2 - y1) * (clipLeft - x1)) / (x2 - x1);
+	  }
+	if( code == code1 )
+	  {
+	    x1 = x;
+	    y1 = y;
+	    code1 = clipcode( x1,
+		              y1 );
+	  }
+	else
+	  {
+	    x2 = x;
+	    y2 = y;
+	    code2 = clipcode( x2,
+		              y2 );
+	  }
+      }
+    clipX1 = (int)x1;
+    clipY1 = (int)y1;
+    clipX2 = (int)x2;
+    clipY2 = (int)y2;
+    return true;
+  }
+
+
+  /**
+   * Places the corners of a face, clipped to the clip bounds, in
+   * {@link #polygonX} and {@link #polygonY}. Faces that lie entirely within
+   * the bounds are copied as they are; the others are clipped against each
+   * side they extend beyond in turn (the Sutherland-Hodgman algorithm).
+   * 
+   * @return The number of corners of the clipped face, which is less than 3
+   *         if nothing of it remains.
+   **/
+  private int clipFace( final int[] slots,
+	                final int first,
+	                final int size )
+  {
+    int code = 0;
+    for( int i = first; i < first + size; i++ )
+      {
+	code |= projectedOutcode[slots[i]];
+      }
+    if( code != 0 )
+      {
+	code = 0;
+	for( int i = first; i < first + size; i++ )
+	  {
+	    code |= clipcode( projectedX[slots[i]],
+		              projectedY[slots[i]] );
+	  }
+      }
+    if( code == 0 )
+      {
+	for( int i = 0; i < size; i++ )
+	  {
+	    polygonX[i] = (int)projectedX[slots[first + i]];
+	    polygonY[i] = (int)projectedY[slots[first + i]];
+	  }
+	return size;
+      }
+
+    ensureClipCapacity( size );
+    for( int i = 0; i < size; i++ )
+      {
+	clipSrcX[i] = projectedX[slots[first + i]];
+	clipSrcY[i] = projectedY[slots[first + i]];
+      }
+    int n = size;
+    for( int side = OUT_LEFT; (side <= OUT_BOTTOM) && (n >= 3); side <<= 1 )
+      {
+	if( (code & side) != 0 )
+	  {
+	    n = clipPolygon( side,
+		             n );
+	  }
+      }
+
+    if( polygonX.length < n )
+      {
+	polygonX = new int[n];
+	polygonY = new int[n];
+      }
+    for( int i = 0; i < n; i++ )
+      {
+	polygonX[i] = (int)clipSrcX[i];
+	polygonY[i] = (int)clipSrcY[i];
+      }
+    return n;
+  }
+
+
+  /**
+   * Clips the polygon with the given number of corners in clipSrcX/clipSrcY
+   * against one side of the clip bounds, leaving the result in
+   * clipSrcX/clipSrcY, too.
+   * 
+   * @return The number of corners of the clipped polygon.
+   **/
+  private int clipPolygon( final int side,
+	                   final int size )
+  {
+    // each corner contributes at most two corners to the result
+    ensureClipCapacity( 2 * size );
+    final double[] srcX = clipSrcX;
+    final double[] srcY = clipSrcY;
+    final double[] dstX = clipDstX;
+    final double[] dstY = clipDstY;
+    int n = 0;
+    double x0 = srcX[size - 1];
+    double y0 = srcY[size - 1];
+    boolean isInside0 = isInside( side,
+	                          x0,
+	                          y0 );
+    for( int i = 0; i < size; i++ )
+      {
+	final double x1 = srcX[i];
+	final double y1 = srcY[i];
+	final boolean isInside1 = isInside( side,
+	                                    x1,
+	                                    y1 );
+	if( isInside0 != isInside1 )
+	  {
+	    // the side of the polygon from (x0,y0) to (x1,y1) crosses
+	    // the side of the clip bounds
+	    if( (side == OUT_LEFT) || (side == OUT_RIGHT) )
+	      {
+		final double x = (side == OUT_LEFT
+		    ? clipLeft
+		    : clipRight);
+		dstX[n] = x;
+		dstY[n] = y0 + ((y1 - y0) * (x - x0)) / (x1 - x0);
+	      }
+	    else
+	      {
+		final double y = (side == OUT_TOP
+		    ? clipTop
+		    : clipBottom);
+		dstX[n] = x0 + ((x1 - x0) * (y - y0)) / (y1 - y0);
+		dstY[n] = y;
+	      }
+	    n++;
+	  }
+	if( isInside1 )
+	  {
+	    dstX[n] = x1;
+	    dstY[n] = y1;
+	    n++;
+	  }
+	x0 = x1;
+	y0 = y1;
+	isInside0 = isInside1;
+      }
+    clipDstX = srcX;
+    clipDstY = srcY;
+    clipSrcX = dstX;
+    clipSrcY = dstY;
+    return n;
+  }
+
+
+  private boolean isInside( final int side,
+	                    final double x,
+	                    final double y )
+  {
+    switch (side)
+      {
+      case OUT_LEFT:
+	return x >= clipLeft;
+      case OUT_RIGHT:
+	return x <= clipRight;
+      case OUT_TOP:
+	return y >= clipTop;
+      default:
+	return y <= clipBottom;
+      }
+  }
+
+
+  /**
+   * Grows the polygon clipping buffers to hold the given number of corners.
+   * They only grow when a face is clipped to more corners than ever before.
+   **/
+  private void ensureClipCapacity( final int size )
+  {
+    if( clipSrcX.length < size )
+      {
+	clipSrcX = Arrays.copyOf( clipSrcX,
+	                          size );
+	clipSrcY = Arrays.copyOf( clipSrcY,
+	                          size );
+	clipDstX = new double[size];
+	clipDstY = new double[size];
+      }
+  }
+
+
+  /**
+   * Projects the distinct vertices in the given range of slots, except for
+   * those first used by a mesh that has been culled (see
+   * {@link #cull(MeshIndex)}).
+   **/
+  private void project( final int lo,
+	                final int hi )
+  {
+    if( hi > vertexCount )
+      {
+	projectIndexed( Math.max( lo,
+	                          vertexCount ),
+	                hi );
+      }
+    if( lo < vertexCount )
+      {
+	projectMeshes( lo,
+	               Math.min( hi,
+	                         vertexCount ) );
+      }
+  }
+
+
+  /**
+   * Projects the vertices of the {@link IndexedMesh}es that lie in the given
+   * range of slots, straight from their coordinates (whether on or off the
+   * heap), skipping the meshes that have been culled.
+   **/
+  private void projectIndexed( final int lo,
+	                       final int hi )
+  {
+    final IndexedMeshIndex[] index = indexedMeshIndex;
+    for( int m = findIndexedVertexOwner( lo ); (m < index.length) && (index[m].vertexBase < hi); m++ )
+      {
+	final IndexedMeshIndex ii = index[m];
+	if( ii.isVisible )
+	  {
+	    final FloatBuffer c = ii.coordinates;
+	    final int to = Math.min( hi,
+	                             ii.vertexBase + ii.vertexCount );
+	    for( int i = Math.max( lo,
+	                           ii.vertexBase ); i < to; i++ )
+	      {
+		final int k = 3 * (i - ii.vertexBase);
+		project( xScreenCenter,
+		         yScreenCenter,
+		         c.get( k ),
+		         c.get( k + 1 ),
+		         c.get( k + 2 ),
+		         i );
+	      }
+	  }
+      }
+  }
+
+
+  /**
+   * Like {@link #project(int,int)}, for a range of the slots of the
+   * {@link Mesh.Point3d}S.
+   **/
+  private void projectMeshes( final int lo,
+	                      final int hi )
+  {
+    if( meshesCulled == 0 )
+      {
+	for( int i = lo; i < hi; i++ )
+	  {
+	    project( xScreenCenter,
+	             yScreenCenter,
+	             vertices[i],
+	             i );
+	  }
+	return;
+      }
+
+    final MeshIndex[] index = meshIndex;
+    for( int m = findVertexOwner( index,
+	                          index.length,
+	                          lo ); (m < index.length) && (index[m].vertexLo < hi); m++ )
+      {
+	final MeshIndex mi = index[m];
+	if( mi.isVisible )
+	  {
+	    for( int i = Math.max( lo,
+	                           mi.vertexLo ); i < Math.min( hi,
+	                                                        mi.vertexHi ); i++ )
+	      {
+		project( xScreenCenter,
+		         yScreenCenter,
+		         vertices[i],
+		         i );
+	      }
+	  }
+      }
+  }
+
+
+  /**
+   * Projects the vertices that meshes in view share with earlier meshes that
+   * have been culled, which {@link #project(int,int)} has skipped.
+   **/
+  private void projectShared()
+  {
+    final MeshIndex[] index = meshIndex;
+    for( MeshIndex mi : index )
+      {
+	if( mi.isVisible )
+	  {
+	    for( int i = 0; i < mi.sharedSlots.length; i++ )
+	      {
+		if( !index[mi.sharedOwners[i]].isVisible )
+		  {
+		    final int slot = mi.sharedSlots[i];
+		    project( xScreenCenter,
+		             yScreenCenter,
+		             vertices[slot],
+		             slot );
+		  }
+	      }
+	  }
+      }
+  }
+
+
+  /**
+   * <p>
+   * Decides from its bounds whether a mesh can be seen in the current frame,
+   * before any of its vertices are projected. A mesh that is hidden, empty, or
+   * whose bounds lie entirely behind the viewer or entirely beyond one side
+   * of the display is culled; one whose bounds lie entirely in front of the
+   * viewer and within the display is trivially accepted, so that its elements
+   * need not be tested one by one.
+   * </p>
+   * 
+   * <p>
+   * Meshes are often small, so rather than projecting all 8 corners of the
+   * bounds, only the center of the sphere around them is projected (see
+   * {@link #project(double,double,Mesh.Point3d,int)}). As the view rotation
+   * preserves distances, the sphere keeps its radius in view coordinates, and
+   * its projection lies within the rectangle spanned by the nearest and the
+   * farthest depth of the sphere.
+   * </p>
+   **/
+  private void cull( final MeshIndex mi )
+  {
+    mi.isInside = false;
+    // ask only once, as the visibility may change at any time
+    mi.isVisible = mi.mesh.isVisible();
+    if( mi.isVisible )
+      {
+	mi.mesh.getBounds( cullBounds );
+	final int view = cull( cullBounds );
+	mi.isVisible = (view != CULLED);
+	mi.isInside = (view == INSIDE);
+      }
+  }
+
+
+  /**
+   * Like {@link #cull(MeshIndex)}, for an {@link IndexedMesh}.
+   **/
+  private void cull( final IndexedMeshIndex ii )
+  {
+    ii.isInside = false;
+    ii.isVisible = ii.mesh.isVisible();
+    if( ii.isVisible )
+      {
+	ii.mesh.getBounds( cullBounds );
+	final int view = cull( cullBounds );
+	ii.isVisible = (view != CULLED);
+	ii.isInside = (view == INSIDE);
+      }
+  }
+
+
+  /**
+   * Tests the bounds of a mesh against the view, see {@link #cull(MeshIndex)}.
+   * 
+   * @return {@link #CULLED}, {@link #PARTLY_INSIDE}, or {@link #INSIDE}.
+   **/
+  private int cull( final Mesh.Bounds b )
+  {
+    if( b.isEmpty() )
+      {
+	return CULLED;
+      }
+
+    final double px = b.getCenterX() - worldCenterX;
+    final double py = b.getCenterY() - worldCenterY;
+    final double pz = b.getCenterZ() - worldCenterZ;
+    final double r = b.getRadius();
+
+    final double x = (screenPositionX + (px * cosTheta) - (py * sinTheta));
+    final double y = (screenPositionY + (px * sinThetaSinPhi) + (py * cosThetaSinPhi) + (pz * cosPhi));
+    final double z = ((screenPositionZ + (px * sinThetaCosPhi) + (py * cosThetaCosPhi) - (pz * sinPhi)));
+    if( z + r <= 0 )
+      {
+	// all of it lies behind the viewer
+	return CULLED;
+      }
+    if( z - r <= 0 )
+      {
+	// the viewer is (nearly) within the sphere, so the mesh may
+	// extend across the whole display
+	return PARTLY_INSIDE;
+      }
+
+    // the mesh lies within the rectangle spanned by the projections of
+    // the sphere's extremes at its nearest and at its farthest depth
+    final double scale = modelScale * viewAngleZ;
+    final double near = scale / (z - r);
+    final double far = scale / (z + r);
+    final double left = Math.min( Math.min( near * (x - r),
+	                                    far * (x - r) ),
+	                          Math.min( near * (x + r),
+	                                    far * (x + r) ) );
+    final double right = Math.max( Math.max( near * (x - r),
+	                                     far * (x - r) ),
+	                           Math.max( near * (x + r),
+	                                     far * (x + r) ) );
+    final double bottom = Math.min( Math.min( near * (y - r),
+	                                      far * (y - r) ),
+	                            Math.min( near * (y + r),
+	                                      far * (y + r) ) );
+    final double top = Math.max( Math.max( near * (y - r),
+	                                   far * (y - r) ),
+	                         Math.max( near * (y + r),
+	                                   far * (y + r) ) );
+    final int code1 = outcode( xScreenCenter + left,
+	                       yScreenCenter - top );
+    final int code2 = outcode( xScreenCenter + right,
+	                       yScreenCenter - bottom );
+    if( (code1 & code2) != 0 )
+      {
+	return CULLED;
+      }
+    return (((code1 | code2) == 0)
+	? INSIDE
+	: PARTLY_INSIDE);
+  }
+
+
+  /**
+   * <p>
+   * Computes the plane of each face of a mesh that culls its back faces, as
+   * needed by {@link #collect(int,int,int,int[])}. The planes are kept until a
+   * vertex of the mesh is moved, or the vertex table is rebuilt.
+   * </p>
+   * 
+   * <p>
+   * The normal of each face follows from its corners with Newell's method,
+   * which holds up for faces whose corners do not quite lie in one plane, and
+   * points toward the side from which the corners run counter-clockwise. The
+   * plane passes through the average of the corners.
+   * </p>
+   **/
+  private void updateFacePlanes( final MeshIndex mi )
+  {
+    // read the version first, so that moves made while this runs will
+    // bring us here again for the next frame
+    mi.facePlanesVersion = mi.mesh.getShapeVersion();
+    if( mi.facePlanes == null )
+      {
+	mi.facePlanes = new double[4 * mi.faces.length];
+      }
+    final double[] planes = mi.facePlanes;
+    for( int i = 0; i < mi.faces.length; i++ )
+      {
+	final int first = mi.faceStart[i];
+	final int last = mi.faceStart[i + 1];
+	double nx = 0.0d;
+	double ny = 0.0d;
+	double nz = 0.0d;
+	double cx = 0.0d;
+	double cy = 0.0d;
+	double cz = 0.0d;
+	Mesh.Point3d p = vertices[mi.faceSlots[last - 1]];
+	for( int k = first; k < last; k++ )
+	  {
+	    final Mesh.Point3d q = vertices[mi.faceSlots[k]];
+	    nx += (p.getY() - q.getY()) * (p.getZ() + q.getZ());
+	    ny += (p.getZ() - q.getZ()) * (p.getX() + q.getX());
+	    nz += (p.getX() - q.getX()) * (p.getY() + q.getY());
+	    cx += q.getX();
+	    cy += q.getY();
+	    cz += q.getZ();
+	    p = q;
+	  }
+	final int n = last - first;
+	planes[4 * i] = nx;
+	planes[4 * i + 1] = ny;
+	planes[4 * i + 2] = nz;
+	planes[4 * i + 3] = ((nx * cx) + (ny * cy) + (nz * cz)) / n;
+      }
+  }
+
+
+  /**
+   * Like {@link #updateFacePlanes(MeshIndex)}, for an {@link IndexedMesh}.
+   **/
+  private void updateFacePlanes( final IndexedMeshIndex ii )
+  {
+    ii.facePlanesVersion = ii.mesh.getShapeVersion();
+    if( ii.facePlanes == null )
+      {
+	ii.facePlanes = new double[4 * ii.faceCount];
+      }
+    final double[] planes = ii.facePlanes;
+    final FloatBuffer c = ii.coordinates;
+    for( int i = 0; i < ii.faceCount; i++ )
+      {
+	final int first = ii.faceStart.get( i );
+	final int last = ii.faceStart.get( i + 1 );
+	double nx = 0.0d;
+	double ny = 0.0d;
+	double nz = 0.0d;
+	double cx = 0.0d;
+	double cy = 0.0d;
+	double cz = 0.0d;
+	int p = 3 * ii.faceVertices.get( last - 1 );
+	double px = c.get( p );
+	double py = c.get( p + 1 );
+	double pz = c.get( p + 2 );
+	for( int k = first; k < last; k++ )
+	  {
+	    final int q = 3 * ii.faceVertices.get( k );
+	    final double qx = c.get( q );
+	    final double qy = c.get( q + 1 );
+	    final double qz = c.get( q + 2 );
+	    nx += (py - qy) * (pz + qz);
+	    ny += (pz - qz) * (px + qx);
+	    nz += (px - qx) * (py + qy);
+	    cx += qx;
+	    cy += qy;
+	    cz += qz;
+	    px = qx;
+	    py = qy;
+	    pz = qz;
+	  }
+	final int n = last - first;
+	planes[4 * i] = nx;
+	planes[4 * i + 1] = ny;
+	planes[4 * i + 2] = nz;
+	planes[4 * i + 3] = ((nx * cx) + (ny * cy) + (nz * cz)) / n;
+      }
+  }
+
+
+  /**
+   * <p>
+   * Collects the visible elements whose index into zbuf lies in the given
+   * range. It doesn't matter in which order we process the points, edges, and
+   * faces of a Mesh (in the loop below) but we'll do it in a "natural" order,
+   * points first, edges next, and faces last, which is the order of their
+   * indices.
+   * </p>
+   * 
+   * @param visible
+   *          Receives the indices of the collected elements, starting at 0; if
+   *          this is null, the elements are only counted.
+   * @return The number of collected elements.
+   **/
+  private int collect( final int lo,
+	               final int hi,
+	               final int frame,
+	               final int[] visible )
+  {
+    int count = 0;
+    if( lo < elementCount )
+      {
+	count = collectMeshes( lo,
+	                       Math.min( hi,
+	                                 elementCount ),
+	                       frame,
+	                       visible,
+	                       count );
+      }
+    if( hi > elementCount )
+      {
+	count = collectIndexed( Math.max( lo,
+	                                  elementCount ),
+	                        hi,
+	                        frame,
+	                        visible,
+	                        count );
+      }
+    return count;
+  }
+
+
+  /**
+   * Like {@link #collect(int,int,int,int[])}, for a range of the elements
+   * that have a ZRef in zbuf.
+   * 
+   * @param count
+   *          The number of elements collected so far.
+   * @return The number of elements collected so far, including these.
+   **/
+  private int collectMeshes( final int lo,
+	                     final int hi,
+	                     final int frame,
+	                     final int[] visible,
+	                     final int counted )
+  {
+    final MeshIndex[] index = meshIndex;
+    int count = counted;
+    for( int m = findMesh( lo ); (m < index.length) && (index[m].firstElement < hi); m++ )
+      {
+	final MeshIndex mi = index[m];
+	if( !mi.isVisible )
+	  {
+	    continue;
+	  }
+	// the part of the range that falls on this mesh, as offsets
+	// from its first element, and where its edges and faces begin
+	final int base = mi.firstElement;
+	final int from = Math.max( lo - base,
+	                           0 );
+	final int to = Math.min( hi - base,
+	                         mi.points.length + mi.edges.length + mi.faces.length );
+	final int edgeBase = mi.points.length;
+	final int faceBase = edgeBase + mi.edges.length;
+	// all elements of a mesh within the display are visible
+	final boolean isInside = mi.isInside;
+
+	// Points
+	for( int i = from; i < Math.min( to,
+	                                 edgeBase ); i++ )
+	  {
+	    final int slot = mi.pointSlots[i];
+	    final double depth = projectedDepth[slot];
+	    if( isInside || ((depth > 0) && (projectedOutcode[slot] == 0)) )
+	      {
+		// The ZRef will take the vertex's depth to determine
+		// the distance from the viewer.
+		zbuf[base + i].setDepth( depth,
+		                         frame );
+		if( visible != null )
+		  {
+		    visible[count] = base + i;
+		  }
+		count++;
+	      }
+	  }
+
+	// Edges
+	for( int i = Math.max( from,
+	                       edgeBase ) - edgeBase; i < Math.min( to,
+	                                                            faceBase ) - edgeBase; i++ )
+	  {
+	    final int head = mi.edgeSlots[2 * i];
+	    final int tail = mi.edgeSlots[2 * i + 1];
+	    final double depth1 = projectedDepth[head];
+	    final double depth2 = projectedDepth[tail];
+	    if( isInside )
+	      {
+		zbuf[base + edgeBase + i].setDepth( (depth1 + depth2) / 2.0d,
+		                                    frame );
+		if( visible != null )
+		  {
+		    visible[count] = base + edgeBase + i;
+		  }
+		count++;
+	      }
+	    else if( depth1 > 0 )
+	      {
+		if( depth2 > 0 )
+		  {
+		    if( (projectedOutcode[head] & projectedOutcode[tail]) != 0 )
+		      {
+			// Both ends lie beyond the same side of the
+			// display, so no part of the line can be seen
+			continue;
+		      }
+		    // The line is fully in front of the viewer; the
+		    // average distance of each point's z-coordinate
+		    // will determine how far this line is from the
+		    // viewer.
+		    zbuf[base + edgeBase + i].setDepth( (depth1 + depth2) / 2.0d,
+		                                        frame );
+		    if( visible != null )
+		      {
+			visible[count] = base + edgeBase + i;
+		      }
+		    count++;
+		  }
+		else
+		  {
+		    // The start of the line is in FRONT of the
+		    // viewer, but the end of it is BEHIND
+
+		    // @@@ find intersection in x,y space, construct a
+		    // new vertex and store that as the END point,
+		    // instead (i.e. compute a clipped line)
+		  }
+	      }
+	    else if( depth2 > 0 )
+	      {
+		// The start of the line is BEHIND the viewer, the end
+		// of it is in FRONT
+
+		// @@@ find intersection in x,y space, construct a new
+		// vertex and store that as the START point, instead
+		// (i.e. compute a clipped line)
+	      }
+	  }
+
+	// Faces
+	nextFace: for( int i = Math.max( from,
+	                                 faceBase ) - faceBase; i < to - faceBase; i++ )
+	  {
+	    if( mi.isBackFaceCulling )
+	      {
+		// Faces whose front is turned away from the viewer would
+		// only be overdrawn by the front of the solid.
+		final double[] planes = mi.facePlanes;
+		if( ((planes[4 * i] * eyeX) + (planes[4 * i + 1] * eyeY) + (planes[4 * i + 2] * eyeZ)) <= planes[4 * i + 3] )
+		  {
+		    continue;
+		  }
+	      }
+	    final int first = mi.faceStart[i];
+	    final int last = mi.faceStart[i + 1];
+	    if( !isInside )
+	      {
+		int outside = OUT_LEFT | OUT_RIGHT | OUT_TOP | OUT_BOTTOM;
+		for( int k = first; k < last; k++ )
+		  {
+		    final int slot = mi.faceSlots[k];
+		    if( projectedDepth[slot] <= 0 )
+		      {
+			// One or more points of this face lie behind the
+			// viewer (or right at it, where it projects to
+			// infinity), so let's not render any part of the
+			// face because it gets really complicated
+			// trying to determine intersection points, and
+			// render only subsections of the face.
+			continue nextFace;
+		      }
+		    outside &= projectedOutcode[slot];
+		  }
+		if( outside != 0 )
+		  {
+		    // All points of the face lie beyond the same side of
+		    // the display
+		    continue;
+		  }
+	      }
+	    // If we got here then we didn't do a 'continue nextFace'
+	    // in the loop above, meaning that we have a full set of
+	    // at least 3 points now to enclose the face.
+	    zbuf[base + faceBase + i].fixDepth( projectedDepth,
+	                                        frame );
+	    if( visible != null )
+	      {
+		visible[count] = base + faceBase + i;
+	      }
+	    count++;
+	  }
+      }
+    return count;
+  }
+
+
+  /**
+   * Like {@link #collectMeshes(int,int,int,int[],int)}, for a range of the
+   * elements of the {@link IndexedMesh}es. Their depths are recorded in
+   * {@link #indexedDepth}, as they have no ZRef.
+   **/
+  private int collectIndexed( final int lo,
+	                      final int hi,
+	                      final int frame,
+	                      final int[] visible,
+	                      final int counted )
+  {
+    final IndexedMeshIndex[] index = indexedMeshIndex;
+    int count = counted;
+    for( int m = findIndexedMesh( lo ); (m < index.length) && (index[m].firstElement < hi); m++ )
+      {
+	final IndexedMeshIndex ii = index[m];
+	if( !ii.isVisible )
+	  {
+	    continue;
+	  }
+	final int base = ii.firstElement;
+	final int vertexBase = ii.vertexBase;
+	final int from = Math.max( lo - base,
+	                           0 );
+	final int to = Math.min( hi - base,
+	                         ii.pointCount + ii.edgeCount + ii.faceCount );
+	final int edgeBase = ii.pointCount;
+	final int faceBase = edgeBase + ii.edgeCount;
+	final boolean isInside = ii.isInside;
+	// where the depths of this mesh's elements are kept
+	final int depthBase = base - elementCount;
+
+	// Points
+	for( int i = from; i < Math.min( to,
+	                                 edgeBase ); i++ )
+	  {
+	    final int slot = vertexBase + i;
+	    final double depth = projectedDepth[slot];
+	    if( isInside || ((depth > 0) && (projectedOutcode[slot] == 0)) )
+	      {
+		indexedDepth[depthBase + i] = (float)depth;
+		indexedVisibleFrame[depthBase + i] = frame;
+		if( visible != null )
+		  {
+		    visible[count] = base + i;
+		  }
+		count++;
+	      }
+	  }
+
+	// Edges; those that reach behind the viewer are left out, as
+	// they are for a Mesh
+	final IntBuffer edges = ii.edges;
+	for( int i = Math.max( from,
+	                       edgeBase ) - edgeBase; i < Math.min( to,
+	                                                            faceBase ) - edgeBase; i++ )
+	  {
+	    final int head = vertexBase + edges.get( 2 * i );
+	    final int tail = vertexBase + edges.get( 2 * i + 1 );
+	    final double depth1 = projectedDepth[head];
+	    final double depth2 = projectedDepth[tail];
+	    if( isInside ||
+		((depth1 > 0) && (depth2 > 0) && ((projectedOutcode[head] & projectedOutcode[tail]) == 0)) )
+	      {
+		indexedDepth[depthBase + edgeBase + i] = (float)((depth1 + depth2) / 2.0d);
+		indexedVisibleFrame[depthBase + edgeBase + i] = frame;
+		if( visible != null )
+		  {
+		    visible[count] = base + edgeBase + i;
+		  }
+		count++;
+	      }
+	  }
+
+	// Faces
+	final IntBuffer faceStart = ii.faceStart;
+	final IntBuffer faceVertices = ii.faceVertices;
+	nextFace: for( int i = Math.max( from,
+	                                 faceBase ) - faceBase; i < to - faceBase; i++ )
+	  {
+	    if( ii.isBackFaceCulling )
+	      {
+		final double[] planes = ii.facePlanes;
+		if( ((planes[4 * i] * eyeX) + (planes[4 * i + 1] * eyeY) + (planes[4 * i + 2] * eyeZ)) <= planes[4 * i + 3] )
+		  {
+		    continue;
+		  }
+	      }
+	    final int first = faceStart.get( i );
+	    final int last = faceStart.get( i + 1 );
+	    double depth = 0.0d;
+	    int outside = OUT_LEFT | OUT_RIGHT | OUT_TOP | OUT_BOTTOM;
+	    for( int k = first; k < last; k++ )
+	      {
+		final int slot = vertexBase + faceVertices.get( k );
+		final double d = projectedDepth[slot];
+		if( !isInside && (d <= 0) )
+		  {
+		    // a corner lies behind the viewer
+		    continue nextFace;
+		  }
+		outside &= projectedOutcode[slot];
+		depth += d;
+	      }
+	    if( !isInside && (outside != 0) )
+	      {
+		// all corners lie beyond the same side of the display
+		continue;
+	      }
+	    indexedDepth[depthBase + faceBase + i] = (float)(depth / (last - first));
+	    indexedVisibleFrame[depthBase + faceBase + i] = frame;
+	    if( visible != null )
+	      {
+		visible[count] = base + faceBase + i;
+	      }
+	    count++;
+	  }
+      }
+    return count;
+  }
+
+
+  /**
+   * @return The index into {@link #meshIndex} of the mesh that the element
+   *         with the given index into zbuf belongs to, or (for an index beyond
+   *         the last element) the number of meshes.
+   **/
+  private int findMesh( final int element )
+  {
+    final MeshIndex[] index = meshIndex;
+    int lo = 0;
+    int hi = index.length - 1;
+    while (lo <= hi)
+      {
+	final int mid = (lo + hi) >>> 1;
+	final MeshIndex mi = index[mid];
+	if( element < mi.firstElement )
+	  {
+	    hi = mid - 1;
+	  }
+	else if( element >= mi.firstElement + mi.points.length + mi.edges.length + mi.faces.length )
+	  {
+	    lo = mid + 1;
+	  }
+	else
+	  {
+	    return mid;
+	  }
+      }
+    return lo;
+  }
+
+
+  /**
+   * @return The index of the first of the given number of meshes whose
+   *         vertices (as first used by it) end beyond the given vertex slot;
+   *         this is the mesh that first used the vertex, or (for a slot
+   *         beyond all of them) the number of meshes.
+   **/
+  private static int findVertexOwner( final MeshIndex[] index,
+	                              final int count,
+	                              final int slot )
+  {
+    int lo = 0;
+    int hi = count - 1;
+    while (lo <= hi)
+      {
+	final int mid = (lo + hi) >>> 1;
+	if( index[mid].vertexHi <= slot )
+	  {
+	    lo = mid + 1;
+	  }
+	else
+	  {
+	    hi = mid - 1;
+	  }
+      }
+    return lo;
+  }
+
+
+  /**
+   * @return The index into {@link #indexedMeshIndex} of the IndexedMesh that
+   *         the element with the given index belongs to, or (for an index
+   *         beyond the last element) the number of IndexedMeshes.
+   **/
+  private int findIndexedMesh( final int element )
+  {
+    final IndexedMeshIndex[] index = indexedMeshIndex;
+    int lo = 0;
+    int hi = index.length - 1;
+    while (lo <= hi)
+      {
+	final int mid = (lo + hi) >>> 1;
+	final IndexedMeshIndex ii = index[mid];
+	if( element < ii.firstElement )
+	  {
+	    hi = mid - 1;
+	  }
+	else if( element >= ii.firstElement + ii.pointCount + ii.edgeCount + ii.faceCount )
+	  {
+	    lo = mid + 1;
+	  }
+	else
+	  {
+	    return mid;
+	  }
+      }
+    return lo;
+  }
+
+
+  /**
+   * @return The index into {@link #indexedMeshIndex} of the IndexedMesh whose
+   *         vertices end beyond the given vertex slot, or (for a slot beyond
+   *         all of them) the number of IndexedMeshes.
+   **/
+  private int findIndexedVertexOwner( final int slot )
+  {
+    final IndexedMeshIndex[] index = indexedMeshIndex;
+    int lo = 0;
+    int hi = index.length - 1;
+    while (lo <= hi)
+      {
+	final int mid = (lo + hi) >>> 1;
+	if( index[mid].vertexBase + index[mid].vertexCount <= slot )
+	  {
+	    lo = mid + 1;
+	  }
+	else
+	  {
+	    hi = mid - 1;
+	  }
+      }
+    return lo;
+  }
+
+
+  /**
+   * @return The depth recorded for the element with the given index in the
+   *         current frame, whether it has a ZRef or belongs to an IndexedMesh.
+   **/
+  private double getDepth( final int id )
+  {
+    return ((id < elementCount)
+	? zbuf[id].getDepth()
+	: indexedDepth[id - elementCount]);
+  }
+
+
+  // ======================================================================
+  // Parallel rendering
+  // ======================================================================
+  /**
+   * <p>
+   * Sets the {@link ForkJoinPool} on which large scenes are projected and
+   * their elements collected and depth sorted, leaving only the drawing itself
+   * on the thread that renders (for the Viewer3d, normally the event dispatch
+   * thread). Scenes with fewer than {@link #PARALLEL_THRESHOLD} vertices or
+   * elements are always handled on the painting thread, as for them the
+   * overhead of forking outweighs its benefits.
+   * </p>
+   * 
+   * <p>
+   * By default, all Renderer3dS share one pool with one thread per processor.
+   * </p>
+   * 
+   * @param pool
+   *          The pool to use, or null to do all work on the painting thread.
+   **/
+  public void setForkJoinPool( final ForkJoinPool pool )
+  {
+    this.pool = pool;
+  }
+
+
+  public ForkJoinPool getForkJoinPool()
+  {
+    return pool;
+  }
+
+
+  /**
+   * <p>
+   * Runs one stage of the frame in chunks on the {@link ForkJoinPool}, unless
+   * there is no pool or the stage is too small to be worth forking.
+   * </p>
+   * 
+   * <p>
+   * The chunks are split the same way for all stages of the same size, so a
+   * later stage can rely on per-chunk results of an earlier one. The tasks are
+   * reused (reinitialized) from frame to frame.
+   * </p>
+   * 
+   * @param stage
+   *          The stage to run, see {@link #runChunk(int,int,int)}.
+   * @param size
+   *          The size of the range to split into chunks.
+   * @return false if the caller must run the stage itself, true if it has
+   *         been completed already.
+   **/
+  private boolean forkJoin( final int stage,
+	                    final int size )
+  {
+    final ForkJoinPool p = pool;
+    if( (p == null) || (size < PARALLEL_THRESHOLD) )
+      {
+	return false;
+      }
+    if( (chunks == null) || (chunksPool != p) )
+      {
+	createChunks( p );
+      }
+    this.stage = stage;
+    this.stageSize = size;
+    for( Chunk c : chunks )
+      {
+	c.reinitialize();
+      }
+    allChunks.reinitialize();
+    p.invoke( allChunks );
+    return true;
+  }
+
+
+  private void createChunks( final ForkJoinPool p )
+  {
+    // more chunks than threads, so that fast threads pick up the
+    // slack of slow ones
+    final int n = p.getParallelism() * 4;
+    chunks = new Chunk[n];
+    for( int i = 0; i < n; i++ )
+      {
+	chunks[i] = new Chunk( i );
+      }
+    chunkCounts = new int[n];
+    radixChunkCounts = new int[n][1 << RADIX_BITS];
+    allChunks = new RecursiveAction()
+    {
+      private static final long serialVersionUID = 5106183870329524171L;
+
+
+      protected void compute()
+      {
+	invokeAll( chunks );
+      }
+    };
+    chunksPool = p;
+  }
+
+
+  /**
+   * Does the work of one chunk of a stage of the frame, see
+   * {@link #forkJoin(int,int)}.
+   **/
+  private void runChunk( final int chunk,
+	                 final int lo,
+	                 final int hi )
+  {
+    switch (stage)
+      {
+      case PROJECT:
+	project( lo,
+	         hi );
+	break;
+
+      case COLLECT:
+	chunkCounts[chunk] = collect( lo,
+	                              hi,
+	                              frameCount,
+	                              null );
+	break;
+
+      case COMPACT:
+	{
+	  // collect() has marked the visible elements, and paintComponent
+	  // has turned the counts into where each chunk's elements start
+	  final int frame = frameCount;
+	  int n = chunkCounts[chunk];
+	  for( int id = lo; id < Math.min( hi,
+	                                   elementCount ); id++ )
+	    {
+	      if( zbuf[id].visibleFrame == frame )
+		{
+		  zvisible[n++] = id;
+		}
+	    }
+	  for( int id = Math.max( lo,
+	                          elementCount ); id < hi; id++ )
+	    {
+	      if( indexedVisibleFrame[id - elementCount] == frame )
+		{
+		  zvisible[n++] = id;
+		}
+	    }
+	}
+	break;
+
+      case KEYS:
+	for( int i = lo; i < hi; i++ )
+	  {
+	    final int id = zvisible[i];
+	    zkeys[i] = ((long)depthKey( getDepth( id ) ) << 32) | id;
+	  }
+	break;
+
+      case RADIX_COUNT:
+	{
+	  final int[] counts = radixChunkCounts[chunk];
+	  Arrays.fill( counts,
+	               0 );
+	  for( int i = lo; i < hi; i++ )
+	    {
+	      counts[(int)(radixSrc[i] >>> radixShift) & RADIX_MASK]++;
+	    }
+	}
+	break;
+
+      case RADIX_SCATTER:
+	{
+	  final int[] offsets = radixChunkCounts[chunk];
+	  for( int i = lo; i < hi; i++ )
+	    {
+	      final long key = radixSrc[i];
+	      radixDst[offsets[(int)(key >>> radixShift) & RADIX_MASK]++] = key;
+	    }
+	}
+	break;
+      }
+  }
+
+
+  /**
+   * One chunk of a stage of the frame, see {@link Renderer3d#forkJoin(int,int)}.
+   **/
+  final class Chunk
+    extends RecursiveAction
+  {
+    private static final long serialVersionUID = -4393386591096806339L;
+
+
+    Chunk( final int chunk )
+    {
+      super();
+      this.chunk = chunk;
+    }
+
+
+    protected void compute()
+    {
+      final int n = chunks.length;
+      runChunk( chunk,
+	        (int)(((long)stageSize * chunk) / n),
+	        (int)(((long)stageSize * (chunk + 1)) / n) );
+    }
+    private final int chunk;
+  }
+
+
+  /**
+   * <p>
+   * Orders the {@link #zcount} elements listed in {@link #zvisible} so that the
+   * elements farthest away come first, leaving the result in {@link #zkeys}.
+   * </p>
+   * 
+   * <p>
+   * While the user drags the view around, the camera turns by only a fraction
+   * of a radian between frames, and the previous frame's order is very nearly
+   * correct still. We then merely repair that order (see
+   * {@link #repairOrder(int)}), and only sort from scratch when there is no
+   * previous order for this scene, when the camera jumped, or when repairing
+   * the order turns out to be more work than sorting it.
+   * </p>
+   **/
+  private void sortZBuffer( final int frame )
+  {
+    final boolean isCoherent = ((zorderCount > 0) &&
+	                        (Math.abs( viewAngleX - sortedViewAngleX ) <= MAX_COHERENT_ROTATION) &&
+	                        (Math.abs( viewAngleY - sortedViewAngleY ) <= MAX_COHERENT_ROTATION) &&
+	                        (worldCenterX == sortedWorldCenterX) &&
+	                        (worldCenterY == sortedWorldCenterY) && (worldCenterZ == sortedWorldCenterZ));
+    sortedViewAngleX = viewAngleX;
+    sortedViewAngleY = viewAngleY;
+    sortedWorldCenterX = worldCenterX;
+    sortedWorldCenterY = worldCenterY;
+    sortedWorldCenterZ = worldCenterZ;
+
+    if( !isCoherent || !repairOrder( frame ) )
+      {
+	radixSort();
+      }
+    zorderCount = zcount;
+  }
+
+
+  /**
+   * <p>
+   * Repairs the previous frame's order in {@link #zkeys} with an insertion
+   * sort, which takes time proportional to the number of elements plus the
+   * number of places they have moved. Elements that are no longer visible are
+   * dropped, and ones that have become visible are appended before sorting.
+   * </p>
+   * 
+   * <p>
+   * Keys are compared in full, depth first and index second. As indices follow
+   * the order in which elements are collected, the result is exactly the one
+   * {@link #radixSort()} would have produced.
+   * </p>
+   * 
+   * @return false if the previous order was too far off to be worth
+   *         repairing, leaving zkeys in no particular state.
+   **/
+  private boolean repairOrder( final int frame )
+  {
+    final long[] keys = zkeys;
+    int n = 0;
+    for( int i = 0; i < zorderCount; i++ )
+      {
+	final int id = (int)keys[i];
+	if( id < elementCount )
+	  {
+	    final ZRef z = zbuf[id];
+	    if( z.visibleFrame == frame )
+	      {
+		z.orderedFrame = frame;
+		keys[n++] = ((long)depthKey( z.getDepth() ) << 32) | id;
+	      }
+	  }
+	else if( indexedVisibleFrame[id - elementCount] == frame )
+	  {
+	    indexedOrderedFrame[id - elementCount] = frame;
+	    keys[n++] = ((long)depthKey( indexedDepth[id - elementCount] ) << 32) | id;
+	  }
+      }
+    for( int i = 0; i < zcount; i++ )
+      {
+	final int id = zvisible[i];
+	if( (id < elementCount
+	    ? zbuf[id].orderedFrame
+	    : indexedOrderedFrame[id - elementCount]) != frame )
+	  {
+	    keys[n++] = ((long)depthKey( getDepth( id ) ) << 32) | id;
+	  }
+      }
+
+    long budget = (long)MAX_COHERENT_SHIFTS * n;
+    for( int i = 1; i < n; i++ )
+      {
+	final long key = keys[i];
+	int j = i - 1;
+	while ((j >= 0) && (keys[j] > key))
+	  {
+	    if( --budget < 0 )
+	      {
+		return false;
+	      }
+	    keys[j + 1] = keys[j];
+	    j--;
+	  }
+	keys[j + 1] = key;
+      }
+    return true;
+  }
+
+
+  /**
+   * <p>
+   * Sorts the elements listed in {@link #zvisible} from scratch.
+   * </p>
+   * 
+   * <p>
+   * Each key packs an element's quantized depth into the upper 32 bits and its
+   * index into zbuf into the lower 32 bits. An LSD radix sort over the depth
+   * bits then takes linear time, works on primitive arrays only, and (being
+   * stable) keeps elements of equal depth in the order they were collected.
+   * The element index is recovered as the lower 32 bits of each key.
+   * </p>
+   **/
+  private void radixSort()
+  {
+    if( zcount == 0 )
+      {
+	return;
+      }
+    if( !forkJoin( KEYS,
+	           zcount ) )
+      {
+	for( int i = 0; i < zcount; i++ )
+	  {
+	    final int id = zvisible[i];
+	    zkeys[i] = ((long)depthKey( getDepth( id ) ) << 32) | id;
+	  }
+      }
+
+    long[] src = zkeys;
+    long[] dst = zkeysScratch;
+    for( int shift = 32; shift < 64; shift += RADIX_BITS )
+      {
+	radixSrc = src;
+	radixDst = dst;
+	radixShift = shift;
+	if( forkJoin( RADIX_COUNT,
+	              zcount ) )
+	  {
+	    // turn the per-chunk counts into where each chunk's keys of
+	    // each digit go: all keys of a smaller digit go first, and
+	    // keys of the same digit stay in chunk order
+	    final int[][] counts = radixChunkCounts;
+	    final int digit0 = (int)(src[0] >>> shift) & RADIX_MASK;
+	    int total0 = 0;
+	    for( int[] c : counts )
+	      {
+		total0 += c[digit0];
+	      }
+	    if( total0 == zcount )
+	      {
+		continue;
+	      }
+	    int sum = 0;
+	    for( int d = 0; d <= RADIX_MASK; d++ )
+	      {
+		for( int[] c : counts )
+		  {
+		    final int n = c[d];
+		    c[d] = sum;
+		    sum += n;
+		  }
+	      }
+	    forkJoin( RADIX_SCATTER,
+	              zcount );
+	  }
+	else if( !radixPass( src,
+	                     dst,
+	                     shift ) )
+	  {
+	    continue;
+	  }
+
+	final long[] t = src;
+	src = dst;
+	dst = t;
+      }
+    radixSrc = null;
+    radixDst = null;
+    zkeys = src;
+    zkeysScratch = dst;
+  }
+
+
+  /**
+   * One pass of {@link #radixSort()} on the painting thread.
+   * 
+   * @return false if all keys share the digit at the given shift, in which
+   *         case the pass would not have changed anything and dst was left
+   *         alone.
+   **/
+  private boolean radixPass( final long[] src,
+	                     final long[] dst,
+	                     final int shift )
+  {
+    final int[] counts = radixCounts;
+    Arrays.fill( counts,
+	         0 );
+    for( int i = 0; i < zcount; i++ )
+      {
+	counts[(int)(src[i] >>> shift) & RADIX_MASK]++;
+      }
+    // when all keys share this digit (often the case for the
+    // exponent bits) the pass would not change anything
+    if( counts[(int)(src[0] >>> shift) & RADIX_MASK] == zcount )
+      {
+	return false;
+      }
+
+    int sum = 0;
+    for( int d = 0; d < counts.length; d++ )
+      {
+	final int c = counts[d];
+	counts[d] = sum;
+	sum += c;
+      }
+    for( int i = 0; i < zcount; i++ )
+      {
+	final long key = src[i];
+	dst[counts[(int)(key >>> shift) & RADIX_MASK]++] = key;
+      }
+    return true;
+  }
+
+
+  /**
+   * Quantizes a (non-negative) depth to a sort key that is smaller for
+   * elements that are farther away. The bits of a non-negative float order
+   * the same way as its value, so it suffices to invert them.
+   **/
+  private static int depthKey( final double depth )
+  {
+    // adding 0.0f turns -0.0f into 0.0f, whose sign bit is clear
+    return 0x7FFFFFFF - Float.floatToIntBits( (float)depth + 0.0f );
+  }
+
+
+  /**
+   * Paints a point at the indicated (x,y) screen coordinate. Points are
+   * rendered to appear like small spheres using concentric rings of color from
+   * dark on the outer edge to white in the center.
+   * 
+   * @param g2
+   *          The graphics object into which to render
+   * @param mesh
+   *          The mesh of the point
+   * @param id
+   *          The id of the point in the mesh, by which its state is kept
+   * @param x
+   *          The horizontal screen coordinate where to render the point
+   * @param y
+   *          The vertical screen coordinate where to render the point
+   **/
+  private void paintPoint( final Graphics2D g2,
+	                   final Mesh mesh,
+	                   final int id,
+	                   final int x,
+	                   final int y )
+  {
+    paintPoint( g2,
+	        POINT_COLORS[mesh.getState( id )],
+	        x,
+	        y );
+  }
+
+
+  /**
+   * Paints a point in the given colors, from the outer edge to the center.
+   **/
+  private void paintPoint( final Graphics2D g2,
+	                   final Color[] colors,
+	                   final int x,
+	                   final int y )
+  {
+    g2.setColor( colors[0] );
+    g2.fillOval( x - 3,
+	         y - 3,
+	         7,
+	         7 );
+    if( isPicking )
+      {
+	pickPoint( x,
+	           y );
+      }
+
+    g2.setColor( colors[1] );
+    g2.fillOval( x - 2,
+	         y - 2,
+	         5,
+	         5 );
+
+    g2.setColor( colors[2] );
+    g2.fillOval( x - 1,
+	         y - 1,
+	         3,
+	         3 );
+
+    if( RENDER_DRAWING_DEPTH )
+      {
+	g2.drawString( String.valueOf( ++_counter ),
+	               x + 5,
+	               y );
+      }
+  }
+
+
+  /**
+   * Paints a colored edge (a line between two coordinates).
+   * 
+   * @param g2
+   *          The graphics object into which to render
+   * @param mesh
+   *          The mesh of the edge
+   * @param id
+   *          The id of the edge in the mesh, by which its state and coloring
+   *          are kept
+   * @param x1
+   *          The horizontal screen coordinate of the edge's starting point
+   * @param y1
+   *          The vertical screen coordinate of the edge's starting point
+   * @param x2
+   *          The horizontal screen coordinate of the edge's ending point
+   * @param y2
+   *          The vertical screen coordinate of the edge's ending point
+   **/
+  private void paintEdge( final Graphics2D g2,
+	                  final Mesh mesh,
+	                  final int id,
+	                  final int x1,
+	                  final int y1,
+	                  final int x2,
+	                  final int y2 )
+  {
+    final int state = mesh.getState( id );
+    final int argb = mesh.getColor( id,
+	                            state );
+
+    // no color, no rendering
+    if( argb != 0 )
+      {
+	paintLine( g2,
+	           argb,
+	           ((state & Mesh.SELECTED) != 0
+	               ? selectedStroke
+	               : originalStroke),
+	           x1,
+	           y1,
+	           x2,
+	           y2 );
+      }
+  }
+
+
+  private void paintLine( final Graphics2D g2,
+	                  final int argb,
+	                  final Stroke stroke,
+	                  final int x1,
+	                  final int y1,
+	                  final int x2,
+	                  final int y2 )
+  {
+    g2.setColor( color( argb ) );
+    g2.setStroke( stroke );
+    g2.drawLine( x1,
+	         y1,
+	         x2,
+	         y2 );
+    g2.setStroke( originalStroke );
+    if( isPicking )
+      {
+	pickLine( stroke,
+	          x1,
+	          y1,
+	          x2,
+	          y2 );
+      }
+    if( RENDER_DRAWING_DEPTH )
+      {
+	g2.drawString( String.valueOf( ++_counter ),
+	               (x1 + x2) / 2 + 5,
+	               (y1 + y2) / 2 + 5 );
+      }
+  }
+
+
+  /**
+   * Paints a color-filled face using three or more points in 3D space.
+   * 
+   * @param g2
+   *          The graphics object into which to render
+   * @param mesh
+   *          The mesh of the face
+   * @param id
+   *          The id of the face in the mesh, by which its state and coloring
+   *          are kept
+   * @param slots
+   *          The vertex slots of the face corners.
+   * @param first
+   *          The index of the first corner in slots.
+   * @param size
+   *          The number (three or more) of corners that define the face.
+   **/
+  private void paintFace( final Graphics2D g2,
+	                  final Mesh mesh,
+	                  final int id,
+	                  final int[] slots,
+	                  final int first,
+	                  final int size )
+  {
+    final int argb = mesh.getColor( id,
+	                            mesh.getState( id ) );
+    if( argb != 0 )
+      {
+	fillFace( g2,
+	          argb,
+	          slots,
+	          first,
+	          size );
+      }
+  }
+
+
+  private void fillFace( final Graphics2D g2,
+	                 final int argb,
+	                 final int[] slots,
+	                 final int first,
+	                 final int size )
+  {
+    g2.setColor( color( argb ) );
+
+    final int n = clipFace( slots,
+	                    first,
+	                    size );
+    if( n < 3 )
+      {
+	// nothing of the face remains on the display
+	return;
+      }
+    g2.fillPolygon( polygonX,
+	            polygonY,
+	            n );
+    if( isPicking )
+      {
+	pickFace( n );
+      }
+
+    if( RENDER_DRAWING_DEPTH )
+      {
+	// find the center of the face, drawString ++_counter there
+	// (as in paintPoint and paintEdge above)
+      }
+  }
+
+
+  /**
+   * Paints an element of an {@link IndexedMesh}, given by its index, in the
+   * normal color of the mesh's edges or faces. Points are painted like those
+   * of a Mesh.
+   **/
+  private void paintIndexed( final Graphics2D g2,
+	                     final int id )
+  {
+    final IndexedMeshIndex ii = indexedMeshIndex[findIndexedMesh( id )];
+    final int i = id - ii.firstElement;
+    if( i < ii.pointCount )
+      {
+	if( RENDER_POINTS )
+	  {
+	    final int p = ii.vertexBase + i;
+	    paintPoint( g2,
+	                NORMAL,
+	                (int)projectedX[p],
+	                (int)projectedY[p] );
+	  }
+      }
+    else if( i < ii.pointCount + ii.edgeCount )
+      {
+	final Mesh.Coloring coloring = ii.mesh.getEdgeColoring();
+	final int argb = (coloring == null
+	    ? 0
+	    : coloring.argb( 0 ));
+	final int e = 2 * (i - ii.pointCount);
+	if( (argb != 0) &&
+	    clipEdge( ii.vertexBase + ii.edges.get( e ),
+	              ii.vertexBase + ii.edges.get( e + 1 ) ) )
+	  {
+	    paintLine( g2,
+	               argb,
+	               originalStroke,
+	               clipX1,
+	               clipY1,
+	               clipX2,
+	               clipY2 );
+	  }
+      }
+    else
+      {
+	final Mesh.Coloring coloring = ii.mesh.getFaceColoring();
+	final int argb = (coloring == null
+	    ? 0
+	    : coloring.argb( 0 ));
+	if( argb != 0 )
+	  {
+	    fillFace( g2,
+	              argb,
+	              faceCorners,
+	              0,
+	              indexedCorners( ii,
+	                              i ) );
+	  }
+      }
+  }
+
+
+  /**
+   * @return The Color of the given ARGB value (not 0), which is made only the
+   *         first time that it is asked for, rather than for every element
+   *         of every frame.
+   **/
+  private Color color( final int argb )
+  {
+    int i = (argb ^ (argb >>> 16)) & (colorKeys.length - 1);
+    while (colorKeys[i] != argb)
+      {
+	if( colorKeys[i] == 0 )
+	  {
+	    if( 2 * (colorCount + 1) > colorKeys.length )
+	      {
+		growColors();
+		return color( argb );
+	      }
+	    colorKeys[i] = argb;
+	    colorValues[i] = new Color( argb,
+	                                true );
+	    colorCount++;
+	    break;
+	  }
+	i = (i + 1) & (colorKeys.length - 1);
+      }
+    return colorValues[i];
+  }
+
+
+  private void growColors()
+  {
+    final int[] keys = colorKeys;
+    final Color[] values = colorValues;
+    colorKeys = new int[2 * keys.length];
+    colorValues = new Color[2 * keys.length];
+    for( int k = 0; k < keys.length; k++ )
+      {
+	if( keys[k] != 0 )
+	  {
+	    int i = (keys[k] ^ (keys[k] >>> 16)) & (colorKeys.length - 1);
+	    while (colorKeys[i] != 0)
+	      {
+		i = (i + 1) & (colorKeys.length - 1);
+	      }
+	    colorKeys[i] = keys[k];
+	    colorValues[i] = values[k];
+	  }
+      }
+  }
+
+
+  /**
+   * Places the vertex slots of an element of an {@link IndexedMesh}, given by
+   * its index within the mesh, into {@link #faceCorners}, in the way that
+   * {@link #clipFace(int[],int,int)} and {@link #measure(int[],int,int)} read
+   * them.
+   * 
+   * @return The number of slots: one for a point, two for an edge, or three
+   *         or more for a face.
+   **/
+  private int indexedCorners( final IndexedMeshIndex ii,
+	                      final int i )
+  {
+    if( i < ii.pointCount )
+      {
+	faceCorners[0] = ii.vertexBase + i;
+	return 1;
+      }
+    if( i < ii.pointCount + ii.edgeCount )
+      {
+	final int e = 2 * (i - ii.pointCount);
+	faceCorners[0] = ii.vertexBase + ii.edges.get( e );
+	faceCorners[1] = ii.vertexBase + ii.edges.get( e + 1 );
+	return 2;
+      }
+    final int f = i - ii.pointCount - ii.edgeCount;
+    final int first = ii.faceStart.get( f );
+    final int size = ii.faceStart.get( f + 1 ) - first;
+    for( int k = 0; k < size; k++ )
+      {
+	faceCorners[k] = ii.vertexBase + ii.faceVertices.get( first + k );
+      }
+    return size;
+  }
+
+
+  /**
+   * The vertex slots referenced by the points, edges, and faces of one
+   * {@link Mesh}, captured together with the element arrays they belong to so
+   * that both remain consistent until the vertex table is next rebuilt.
+   **/
+  static final class MeshIndex
+  {
+    MeshIndex( final Mesh mesh,
+	       final int structureVersion,
+	       final int firstElement,
+	       final int vertexLo,
+	       final int vertexHi,
+	       final int[] sharedSlots,
+	       final int[] sharedOwners,
+	       final Mesh.Point3d[] points,
+	       final int[] pointIds,
+	       final int[] pointSlots,
+	       final Mesh.Edge[] edges,
+	       final int[] edgeIds,
+	       final int[] edgeSlots,
+	       final Mesh.Face[] faces,
+	       final int[] faceIds,
+	       final int[] faceStart,
+	       final int[] faceSlots )
+    {
+      this.mesh = mesh;
+      this.structureVersion = structureVersion;
+      this.firstElement = firstElement;
+      this.vertexLo = vertexLo;
+      this.vertexHi = vertexHi;
+      this.sharedSlots = sharedSlots;
+      this.sharedOwners = sharedOwners;
+      this.points = points;
+      this.pointIds = pointIds;
+      this.pointSlots = pointSlots;
+      this.edges = edges;
+      this.edgeIds = edgeIds;
+      this.edgeSlots = edgeSlots;
+      this.faces = faces;
+      this.faceIds = faceIds;
+      this.faceStart = faceStart;
+      this.faceSlots = faceSlots;
+    }
+    final Mesh mesh;
+    // the version of the mesh's Snapshot the index was built from
+    final int structureVersion;
+    // whether the mesh is visible (and not culled) in the current frame,
+    // and whether all of it lies within the display, see Renderer3d.cull
+    boolean isVisible;
+    boolean isInside;
+    // whether its back faces are culled in the current frame, and the
+    // plane of each face (normal x, y, z, and offset) for doing so, as of
+    // the given shape version of the mesh, see Renderer3d.updateFacePlanes
+    boolean isBackFaceCulling;
+    double[] facePlanes;
+    int facePlanesVersion;
+    // the shape version and flags of the mesh that the last frame was
+    // computed for, see Renderer3d.isFrameCurrent
+    int frameShapeVersion;
+    boolean isFrameVisible;
+    boolean isFrameBackFaceCulling;
+    // the index into zbuf of the ZRef for the first point; those for
+    // the edges and faces follow the ones for the points
+    final int firstElement;
+    // the vertex slots first used by this mesh, and the slots of earlier
+    // meshes it uses as well, along with the index of these meshes
+    final int vertexLo, vertexHi;
+    final int[] sharedSlots;
+    final int[] sharedOwners;
+    // one slot per point; the ids of the elements in the mesh are those
+    // by which it keeps their state, see Mesh.getState(int)
+    final Mesh.Point3d[] points;
+    final int[] pointIds;
+    final int[] pointSlots;
+    // two slots (head, tail) per edge
+    final Mesh.Edge[] edges;
+    final int[] edgeIds;
+    final int[] edgeSlots;
+    // face i uses faceSlots[faceStart[i]] to faceSlots[faceStart[i+1]-1]
+    final Mesh.Face[] faces;
+    final int[] faceIds;
+    final int[] faceStart;
+    final int[] faceSlots;
+  }
+
+
+  /**
+   * The arrays of one {@link IndexedMesh}, captured along with where its
+   * vertices and elements lie among those of the scene.
+   **/
+  static final class IndexedMeshIndex
+  {
+    IndexedMeshIndex( final IndexedMesh mesh,
+	              final int structureVersion,
+	              final int firstElement,
+	              final int vertexBase,
+	              final int pointCount )
+    {
+      this.mesh = mesh;
+      this.structureVersion = structureVersion;
+      this.firstElement = firstElement;
+      this.vertexBase = vertexBase;
+      this.coordinates = mesh.coordinates();
+      this.edges = mesh.edges();
+      this.faceStart = mesh.faceStart();
+      this.faceVertices = mesh.faceVertices();
+      this.vertexCount = mesh.getVertexCount();
+      this.pointCount = pointCount;
+      this.edgeCount = mesh.getEdgeCount();
+      this.faceCount = mesh.getFaceCount();
+    }
+    final IndexedMesh mesh;
+    // the structure version of the mesh the index was built from
+    final int structureVersion;
+    // as for a MeshIndex, see there
+    boolean isVisible;
+    boolean isInside;
+    boolean isBackFaceCulling;
+    double[] facePlanes;
+    int facePlanesVersion;
+    int frameShapeVersion;
+    boolean isFrameVisible;
+    boolean isFrameBackFaceCulling;
+    // the index of the first point (if any are shown); those of the
+    // edges and faces follow
+    final int firstElement;
+    // the slot of the mesh's first vertex; the others follow in order
+    final int vertexBase;
+    final FloatBuffer coordinates;
+    final IntBuffer edges;
+    final IntBuffer faceStart;
+    final IntBuffer faceVertices;
+    final int vertexCount, pointCount, edgeCount, faceCount;
+  }
+
+
+  /**
+   * A ZRef references one or more vertex slots for points, edges, and faces.
+   * The important feature here is that we've already calculated where on the
+   * screen these vertices are to be displayed, so we don't need to recalculate
+   * that information. If our Mesh elements (Point, Edge, Face) had more
+   * attributes, then we might want to reference them directly here, but for
+   * now capturing their color is all we need here.
+   **/
+  static class ZRef
+  {
+    void set( final Mesh mesh,
+	      final Mesh.Point3d point,
+	      final int elementId,
+	      final int[] slots,
+	      final int first )
+    {
+      set( mesh,
+	   null,
+	   null,
+	   point,
+	   elementId,
+	   slots,
+	   first,
+	   1 );
+    }
+
+
+    void set( final Mesh mesh,
+	      final Mesh.Edge edge,
+	      final int elementId,
+	      final int[] slots,
+	      final int first )
+    {
+      set( mesh,
+	   null,
+	   edge,
+	   null,
+	   elementId,
+	   slots,
+	   first,
+	   2 );
+    }
+
+
+    void set( final Mesh mesh,
+	      final Mesh.Face face,
+	      final int elementId,
+	      final int[] slots,
+	      final int first,
+	      final int count )
+    {
+      set( mesh,
+	   face,
+	   null,
+	   null,
+	   elementId,
+	   slots,
+	   first,
+	   count );
+    }
+
+
+    private void set( final Mesh mesh,
+	              final Mesh.Face face,
+	              final Mesh.Edge edge,
+	              final Mesh.Point3d point,
+	              final int elementId,
+	              final int[] slots,
+	              final int first,
+	              final int count )
+    {
+      this.slots = slots;
+      this.first = first;
+      this.count = count;
+      this.visibleFrame = 0;
+      this.orderedFrame = 0;
+      //
+      this.mesh = mesh;
+      this.face = face;
+      this.edge = edge;
+      this.point = point;
+      this.elementId = elementId;
+    }
+
+
+    /**
+     * Records the distance from the viewer of a point or edge that is visible
+     * in the given frame.
+     **/
+    void setDepth( final double depth,
+	           final int frame )
+    {
+      this.avgDepth = depth;
+      this.visibleFrame = frame;
+    }
+
+
+    /**
+     * Drops all references held by this (pooled) ZRef.
+     **/
+    void clear()
+    {
+      this.slots = null;
+      this.count = 0;
+      this.mesh = null;
+      this.face = null;
+      this.edge = null;
+      this.point = null;
+    }
+
+
+    int[] getSlots()
+    {
+      return slots;
+    }
+
+
+    int getFirst()
+    {
+      return first;
+    }
+
+
+    int getCount()
+    {
+      return count;
+    }
+
+
+    public Mesh getMesh()
+    {
+      return mesh;
+    }
+
+
+    public Mesh.Face getFace()
+    {
+      return face;
+    }
+
+
+    public Mesh.Edge getEdge()
+    {
+      return edge;
+    }
+
+
+    public Mesh.Point3d getPoint()
+    {
+      return point;
+    }
+
+
+    /**
+     * @return The id by which the Mesh keeps the state of the element, see
+     *         {@link Mesh#getState(int)}.
+     **/
+    int getElementId()
+    {
+      return elementId;
+    }
+
+
+    /**
+     * @return The element, as focused.
+     **/
+    FocusInfo getFocusInfo()
+    {
+      if( face != null )
+	{
+	  return new FocusInfo( mesh,
+	                        face );
+	}
+      else if( edge != null )
+	{
+	  return new FocusInfo( mesh,
+	                        edge );
+	}
+      else
+	{
+	  return new FocusInfo( mesh,
+	                        point );
+	}
+    }
+
+
+    public FocusInfo getAt( final int focusX,
+	                    final int focusY,
+	                    final double[] projectedX,
+	                    final double[] projectedY )
+    {
+      if( face != null )
+	{
+	  boolean isInside = false;
+	  // last/previous one
+	  int p = slots[first + count - 1];
+	  for( int i = first; i < first + count; i++ )
+	    {
+	      final int v = slots[i];
+	      // the pixel coordinates, but as doubles, because the
+	      // products below can overflow an int for vertices far
+	      // beyond the display
+	      final double x0 = (int)projectedX[p];
+	      final double y0 = (int)projectedY[p];
+
+	      final double x1 = (int)projectedX[v];
+	      final double y1 = (int)projectedY[v];
+
+	      if( (((y0 <= focusY) && (focusY < y1)) || ((y1 <= focusY) && (focusY < y0))) &&
+		  (focusX < (((x0 - x1) * (focusY - y1)) / (y0 - y1)) + x1) )
+		{
+		  isInside = !isInside;
+		}
+	      p = v;
+	    }
+	  if( isInside )
+	    {
+	      return new FocusInfo( mesh,
+		                    face );
+	    }
+	}
+      else if( edge != null )
+	{
+	  final int p1 = slots[first];
+	  final int p2 = slots[first + 1];
+
+	  final double x1 = (int)projectedX[p1];
+	  final double y1 = (int)projectedY[p1];
+
+	  final double x2 = (int)projectedX[p2];
+	  final double y2 = (int)projectedY[p2];
+
+	  final double dX = x2 - x1;
+	  final double dY = y2 - y1;
+	  final double du = (dX * dX + dY * dY);
+	  if( du != 0.0d )
+	    {
+	      final double u = (((dX * (focusX - x1)) + (dY * (focusY - y1))) / du);
+
+	      // Check whether we have no perpendicular line through
+	      // the segment, i.e. we have something like the left
+	      // side vertical line that misses the segment ("whoops")
+	      // rather than crossing it ("yay")
+	      //
+	      // p + p +
+	      // | |
+	      // | p1 +-------+-----------+ p2
+	      // | |
+	      // : whoops |
+	      // + yay
+	      //
+	      // For what it's worth, the following holds:
+	      //
+	      // u < 0 : it misses on the x1/y1 side of the segment
+	      // u > 1 : it misses on the x2/y2 side of the segment
+	      //
+	      // But we don't care about that; all we really need to
+	      // know here is that we do NOT intercept the line
+	      // segment:
+	      if( (u >= 0.0d) && (u <= 1.0d) )
+		{
+		  // The perpendicular line intercepts the line segment
+		  // somewhere,
+		  // so let's find out the distance. if it's less than our
+		  // fuzziness
+		  // value, then the point is close enough to the line to be
+		  // considered "on" it:
+		  final double x3 = x1 + u * dX;
+		  final double y3 = y1 + u * dY;
+
+		  final double dist = Math.hypot( (x3 - focusX),
+			                          (y3 - focusY) );
+		  if( dist <= 5.0d )
+		    {
+		      return new FocusInfo( mesh,
+			                    edge );
+		    }
+		}
+	    }
+	}
+      else if( point != null )
+	{
+	  final int p = slots[first];
+
+	  if( (Math.abs( (int)projectedX[p] - focusX ) < 6) && (Math.abs( (int)projectedY[p] - focusY ) < 6) )
+	    {
+	      return new FocusInfo( mesh,
+		                    point );
+	    }
+	}
+      return null;
+    }
+
+
+    double getDepth()
+    {
+      return avgDepth;
+    }
+
+
+    /**
+     * Convenience method for calculating the average depth of the referenced
+     * vertices of a face that is visible in the given frame. We call this only
+     * when we have 3 or more, as it's easy enough with 1 or 2 vertices to
+     * calculate the average directly.
+     **/
+    void fixDepth( final double[] depth,
+	           final int frame )
+    {
+      double d = 0.0d;
+      for( int i = first; i < first + count; i++ )
+	{
+	  d += depth[slots[i]];
+	}
+      avgDepth = d / count;
+      visibleFrame = frame;
+    }
+    private int[] slots;
+    private int first, count;
+    private double avgDepth;
+    // the frames in which the element was last visible, and last taken
+    // from the previous frame's order by Renderer3d.repairOrder
+    private int visibleFrame, orderedFrame;
+    //
+    private Mesh mesh;
+    private Mesh.Face face;
+    private Mesh.Edge edge;
+    private Mesh.Point3d point;
+    private int elementId; // see Mesh.getState(int)
+  }
+
+  // values controlling the 3D projection
+  private double screenPositionX, screenPositionY, screenPositionZ;
+  private double viewAngleX, viewAngleY, viewAngleZ;
+  private double worldCenterX, worldCenterY, worldCenterZ;
+  private int modelScale;
+  // values that are changed only when the viewangle is altered, and
+  // are therefore pre-computed and cached for optimal performance
+  private double cosTheta, sinTheta, cosPhi, sinPhi;
+  private double sinThetaSinPhi, cosThetaSinPhi, sinThetaCosPhi, cosThetaCosPhi;
+  // when RENDER_DRAWING_DEPTH is set to true, this counter is reset
+  // during each drawing cycle, incremented for each Mesh element that
+  // is drawn, and its value painted next to that element to provide
+  // visual feedback for the drawing order
+  private int _counter;
+  //
+  /**
+   * The distinct vertices of all meshes and their projection in the current
+   * frame, indexed by vertex slot.
+   **/
+  private Mesh.Point3d[] vertices = new Mesh.Point3d[0];
+  private int vertexCount; // how many in vertices are actually used
+  private double[] projectedX = new double[0];
+  private double[] projectedY = new double[0];
+  private double[] projectedDepth = new double[0];
+  private byte[] projectedOutcode = new byte[0]; // see outcode()
+  // the vertices of the IndexedMeshes follow those in vertices
+  private int projectedCount; // how many in projectedX etc. are used
+  private MeshIndex[] meshIndex = new MeshIndex[0];
+  private int meshesCulled; // how many in meshIndex are culled this frame
+  private final Mesh.Bounds cullBounds = new Mesh.Bounds(); // see cull()
+  private IndexedMeshIndex[] indexedMeshIndex = new IndexedMeshIndex[0];
+  // set when meshes are added or removed, so that the next frame
+  // rebuilds the vertex table (as it does when a mesh changes)
+  private boolean sceneChanged = true;
+  // counts the rebuilds of the vertex table, which renumber the elements
+  // (see getBounds)
+  private int layoutVersion;
+  // The camera and display that the last frame was computed for; its
+  // projections and drawing order are reused until these or the meshes
+  // change, see isFrameCurrent()
+  private int cameraVersion;
+  private int frameCameraVersion = -1;
+  private int frameWidth, frameHeight;
+  /**
+   * The {@link Mesh}es to be rendered.
+   **/
+  private Mesh[] meshArray;
+  /**
+   * The {@link IndexedMesh}es to be rendered.
+   **/
+  private IndexedMesh[] indexedMeshArray;
+  private int elementCount; // how many in zbuf belong to the scene
+  private int zcount; // how many elements are visible in this frame
+  private ZRef[] zbuf = new ZRef[0]; // quicker than a List<ZBuf>, pooled
+  // The elements of the IndexedMeshes have no ZRef; their indices
+  // follow those in zbuf, and their depths and frames are kept here
+  private int sceneElementCount; // elementCount plus those
+  private float[] indexedDepth = new float[0];
+  private int[] indexedVisibleFrame = new int[0];
+  private int[] indexedOrderedFrame = new int[0];
+  private int[] zvisible = new int[0]; // element indices collected this frame
+  // element indices in drawing order (lower 32 bits), see sortZBuffer()
+  private long[] zkeys = new long[0];
+  private int zorderCount; // how many in zkeys the previous frame used
+  private long[] zkeysScratch = new long[0];
+  private final int[] radixCounts = new int[1 << RADIX_BITS];
+  // reused by paintFace for the corners of a face
+  private int[] polygonX = new int[0];
+  private int[] polygonY = new int[0];
+  // reused by paintIndexed for the slots of the corners of a face
+  private int[] faceCorners = new int[0];
+  // the Colors of the ARGB values painted so far, see color(): open
+  // addressing, with 0 for a free key
+  private int[] colorKeys = new int[16];
+  private Color[] colorValues = new Color[16];
+  private int colorCount;
+  //
+  // Clipping to the display, see outcode(), clipEdge() and clipFace()
+  private double cullLeft, cullTop, cullRight, cullBottom;
+  private double clipLeft, clipTop, clipRight, clipBottom;
+  private int clipX1, clipY1, clipX2, clipY2; // the clipped edge
+  private int extentX1, extentY1, extentX2, extentY2; // see measure()
+  // the area of each element in zkeys, see measureVisible(), as of the
+  // given frame
+  private int[] zextents = new int[0];
+  private int extentsFrame = -1;
+  // The elements of the given frame in each cell of the pick grid: cell c
+  // lists those in pickItems[pickCellStart[c]] to
+  // pickItems[pickCellStart[c+1]-1], see buildPickGrid()
+  private int[] pickCellStart = new int[1];
+  private int[] pickCursor = new int[0];
+  private int[] pickItems = new int[0];
+  private int pickColumns, pickRows;
+  private int pickFrame = -1;
+  private int pickColumn1, pickRow1, pickColumn2, pickRow2; // see pickCells()
+  // which cells of the pick grid lie within the area given to
+  // getElementsWithin(), by INSIDE, PARTLY_INSIDE, or CULLED, for those
+  // that its bounds cover
+  private byte[] pickCover = new byte[0];
+  private int coverColumn1, coverRow1, coverColumn2, coverRow2;
+  // The pick buffer, see setPickBuffer(): the index (plus one) of the
+  // element drawn last at each pixel, of the elements as numbered in the
+  // given layout; and while a frame is drawn, the graphics that draw into
+  // it and the color of the element being drawn
+  private boolean isPickBuffer;
+  private BufferedImage pickImage;
+  private int[] pickPixels;
+  private int pickLayout = -1;
+  private boolean isPicking; // while the pick buffer is drawn
+  private int pickRGB; // one more than the index of the element being drawn
+  private int pickX1, pickY1, pickX2, pickY2; // the clip of the pick buffer
+  private double[] pickCrossings = new double[0]; // see pickFace()
+  private double[] clipSrcX = new double[0];
+  private double[] clipSrcY = new double[0];
+  private double[] clipDstX = new double[0];
+  private double[] clipDstY = new double[0];
+  // the sides of the display (in this order) a location may lie beyond
+  private static final int OUT_LEFT = 1;
+  private static final int OUT_RIGHT = 2;
+  private static final int OUT_TOP = 4;
+  private static final int OUT_BOTTOM = 8;
+  // how many pixels beyond the display something must lie to be culled
+  private static final double CULL_MARGIN = 4.0d;
+  // how many pixels beyond its vertices a point or selected edge is drawn
+  private static final double EXTENT_MARGIN = 4.0d;
+  // the width and height of a cell of the pick grid in pixels, and how far
+  // beyond the area in which it is drawn an element can still be focused
+  private static final int PICK_CELL = 32;
+  private static final int PICK_MARGIN = 2;
+  // the bits of a pixel of the pick buffer that hold an element
+  private static final int PICK_MASK = 0xffffff;
+  // the pixels of a point in the pick buffer, as fillOval(x-3,y-3,7,7)
+  // covers them: for each row (from y) the columns (from x) of its first
+  // pixel, and of the one after its last
+  private static final int[] PICK_POINT = new int[] {-2, -1, 3, -1, -2, 4, 0, -2, 4, 1, -2, 4, 2, -2, 4, 3, -1, 3};
+  // where the bounds of a mesh lie, see cull()
+  private static final int CULLED = 0;
+  private static final int PARTLY_INSIDE = 1;
+  private static final int INSIDE = 2;
+  // counts the frames, see ZRef.setDepth
+  private int frameCount;
+  // the center of the screen in the current frame
+  private double xScreenCenter, yScreenCenter;
+  // the location of the viewer in the scene in the current frame
+  private double eyeX, eyeY, eyeZ;
+  //
+  // Parallel rendering, see forkJoin()
+  private ForkJoinPool pool = SHARED_POOL;
+  private ForkJoinPool chunksPool; // the pool the chunks were made for
+  private Chunk[] chunks;
+  private RecursiveAction allChunks; // invokes all chunks
+  private int stage, stageSize; // what the chunks are working on
+  private int[] chunkCounts; // per chunk, for COLLECT and COMPACT
+  private int[][] radixChunkCounts; // per chunk and digit
+  private long[] radixSrc, radixDst; // for RADIX_COUNT and RADIX_SCATTER
+  private int radixShift;
+  // the stages of the frame that forkJoin() runs in parallel
+  private static final int PROJECT = 0;
+  private static final int COLLECT = 1;
+  private static final int COMPACT = 2;
+  private static final int KEYS = 3;
+  private static final int RADIX_COUNT = 4;
+  private static final int RADIX_SCATTER = 5;
+  private static final ForkJoinPool SHARED_POOL = new ForkJoinPool();
+  // the camera for which zkeys was last sorted; the depth order depends
+  // only on the rotation and the world center
+  private double sortedViewAngleX, sortedViewAngleY;
+  private double sortedWorldCenterX, sortedWorldCenterY, sortedWorldCenterZ;
+  // the largest change of view angle (in radians) for which the previous
+  // frame's order is repaired rather than sorted from scratch
+  private static final double MAX_COHERENT_ROTATION = 0.1d;
+  // how many places the repair may move each element, on average,
+  // before sorting from scratch is deemed cheaper
+  private static final int MAX_COHERENT_SHIFTS = 8;
+  // the depth keys are radix sorted in digits of this many bits
+  private static final int RADIX_BITS = 11;
+  private static final int RADIX_MASK = (1 << RADIX_BITS) - 1;
+  // frame buffers are not shrunk below this capacity
+  private static final int MIN_SHRINK_CAPACITY = 1024;
+  private final List<Mesh> meshes = new ArrayList<Mesh>();
+  private final List<IndexedMesh> indexedMeshes = new ArrayList<IndexedMesh>();
+  //
+  // colors for drawing the little spheres to represent points
+  private static final Color GRAY = new Color( 127,
+	                                       127,
+	                                       127 );
+  private static final Color LGRAY = new Color( 191,
+	                                        191,
+	                                        191 );
+  private static final Color WHITE = new Color( 255,
+	                                        255,
+	                                        255 );
+  //
+  private static final Color BROWN = new Color( 127,
+	                                        127,
+	                                        0 );
+  private static final Color YELLOW = new Color( 191,
+	                                         191,
+	                                         0 );
+  private static final Color BRIGHT_YELLOW = new Color( 255,
+	                                                255,
+	                                                0 );
+  //
+  private static final Color DARK_RED = new Color( 127,
+	                                           0,
+	                                           0 );
+  private static final Color RED = new Color( 191,
+	                                      0,
+	                                      0 );
+  private static final Color BRIGHT_RED = new Color( 255,
+	                                             0,
+	                                             0 );
+  //
+  private static final Color[] NORMAL = new Color[] {GRAY, LGRAY, WHITE};
+  private static final Color[] FOCUSED = new Color[] {BROWN, YELLOW, BRIGHT_YELLOW};
+  private static final Color[] SELECTED = new Color[] {DARK_RED, RED, BRIGHT_RED};
+  // the colors of a point by its state (the selected ones taking precedence)
+  private static final Color[][] POINT_COLORS = new Color[][] {NORMAL, FOCUSED, SELECTED, SELECTED};
+  private Stroke originalStroke; // the stroke of the graphics rendered to
+  private static final Stroke selectedStroke = new BasicStroke( 3,
+	                                                        BasicStroke.CAP_BUTT,
+	                                                        BasicStroke.JOIN_ROUND );
+}
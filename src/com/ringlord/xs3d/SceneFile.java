@@ -0,0 +1,631 @@
+package com.ringlord.xs3d;
+
+import java.awt.Color;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+
+// This file is part of XS3D.
+//
+// XS3D is free software: you can redistribute it and/or modify it
+// under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// XS3D is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with XS3D. If not, see <http://www.gnu.org/licenses/>.
+
+/**
+ * <p>
+ * Reads and writes scenes in a compact binary file format whose blocks are
+ * laid out just as an {@link IndexedMesh} keeps them, so that
+ * {@link #read(File)} merely maps them into memory: opening a scene of several
+ * gigabytes is nearly instant, and the operating system reads its pages when
+ * they are first rendered (pages of meshes that lie out of view are not read
+ * at all).
+ * </p>
+ * 
+ * <p>
+ * All numbers are little-endian. The file starts with the bytes "XS3D", the
+ * format version (int, currently 1), and the number of meshes (int). Each
+ * mesh follows as a header and its blocks:
+ * </p>
+ * 
+ * <pre>
+ *   int      flags: EDGE_COLORING, FACE_COLORING, POINTS_SHOWN, BACK_FACE_CULLING
+ *            and, in bits 8 to 13, which of the six colors are present
+ *   int      number of vertices, edges, faces, and face corners
+ *   int[6]   ARGB of the edge coloring's normal, focused, selected color,
+ *            and then of the face coloring's
+ *   double[6] bounds of the vertices: minimum x, y, z, maximum x, y, z
+ *   float[]  x, y, z of each vertex
+ *   int[]    head, tail of each edge
+ *   int[]    index of the first corner of each face, then number of corners
+ *   int[]    vertex of each corner of each face
+ * </pre>
+ * 
+ * <p>
+ * To keep opening a scene fast, the vertex indices are not checked when it is
+ * read; those of a damaged file make rendering fail with an
+ * IndexOutOfBoundsException. Each block of a mesh must be smaller than 2 GB,
+ * as that is the most that a single buffer can map; larger scenes consist of
+ * several meshes.
+ * </p>
+ * 
+ * @author K. Udo Schuermann
+ **/
+public final class SceneFile
+{
+  /**
+   * Maps the meshes of a scene file into memory, read-only, so the vertices
+   * of the meshes cannot be moved.
+   * 
+   * @throws IOException
+   *           If the file cannot be read, or is not a scene file.
+   **/
+  public static IndexedMesh[] read( final File file )
+    throws IOException
+  {
+    final RandomAccessFile raf = new RandomAccessFile( file,
+	                                               "r" );
+    try
+      {
+	final FileChannel channel = raf.getChannel();
+	final ByteBuffer header = readHeader( channel,
+	                                      0,
+	                                      FILE_HEADER_SIZE );
+	if( (header.get() != 'X') || (header.get() != 'S') || (header.get() != '3') || (header.get() != 'D') )
+	  {
+	    throw new IOException( file + " is not an XS3D scene file" );
+	  }
+	final int version = header.getInt();
+	if( version != VERSION )
+	  {
+	    throw new IOException( file + " is of unsupported version " + version );
+	  }
+	final int meshCount = header.getInt();
+	if( meshCount < 0 )
+	  {
+	    throw new IOException( file + " is damaged" );
+	  }
+
+	final List<IndexedMesh> meshes = new ArrayList<IndexedMesh>();
+	// the Colorings of this file, each shared by the meshes of its colors
+	final Map<Mesh.Coloring,Mesh.Coloring> palette = new HashMap<Mesh.Coloring,Mesh.Coloring>();
+	long offset = FILE_HEADER_SIZE;
+	for( int m = 0; m < meshCount; m++ )
+	  {
+	    final ByteBuffer h = readHeader( channel,
+		                             offset,
+		                             MESH_HEADER_SIZE );
+	    offset += MESH_HEADER_SIZE;
+	    final int flags = h.getInt();
+	    final int vertexCount = h.getInt();
+	    final int edgeCount = h.getInt();
+	    final int faceCount = h.getInt();
+	    final int cornerCount = h.getInt();
+	    final Color[] colors = new Color[6];
+	    for( int i = 0; i < colors.length; i++ )
+	      {
+		final int argb = h.getInt();
+		if( (flags & (COLOR_PRESENT << i)) != 0 )
+		  {
+		    colors[i] = new Color( argb,
+			                   true );
+		  }
+	      }
+	    final double minX = h.getDouble();
+	    final double minY = h.getDouble();
+	    final double minZ = h.getDouble();
+	    final double maxX = h.getDouble();
+	    final double maxY = h.getDouble();
+	    final double maxZ = h.getDouble();
+	    final Mesh.Bounds bounds = new Mesh.Bounds();
+	    if( minX <= maxX )
+	      {
+		// not empty
+		bounds.include( minX,
+		                minY,
+		                minZ );
+		bounds.include( maxX,
+		                maxY,
+		                maxZ );
+	      }
+	    if( (vertexCount < 0) ||
+		(edgeCount < 0) ||
+		(faceCount < 0) ||
+		(cornerCount < 0) ||
+		(vertexCount > Integer.MAX_VALUE / 3) ||
+		(edgeCount > Integer.MAX_VALUE / 2) ||
+		(faceCount == Integer.MAX_VALUE) )
+	      {
+		throw new IOException( file + " is damaged" );
+	      }
+	    final long end = offset + (12L * vertexCount) + (8L * edgeCount) + (4L * (faceCount + 1)) + (4L * cornerCount);
+	    if( end > channel.size() )
+	      {
+		throw new IOException( file + " is truncated" );
+	      }
+
+	    final FloatBuffer coordinates = map( channel,
+		                                 offset,
+		                                 3L * vertexCount ).asFloatBuffer();
+	    offset += 12L * vertexCount;
+	    final IntBuffer edges = map( channel,
+		                         offset,
+		                         2L * edgeCount ).asIntBuffer();
+	    offset += 8L * edgeCount;
+	    final IntBuffer faceStart = map( channel,
+		                             offset,
+		                             faceCount + 1L ).asIntBuffer();
+	    offset += 4L * (faceCount + 1);
+	    final IntBuffer faceVertices = map( channel,
+		                                offset,
+		                                cornerCount ).asIntBuffer();
+	    offset += 4L * cornerCount;
+
+	    final IndexedMesh mesh = new IndexedMesh( ((flags & EDGE_COLORING) == 0
+		                                          ? null
+		                                          : coloring( palette,
+		                                                      colors[0],
+		                                                      colors[1],
+		                                                      colors[2] )),
+		                                      ((flags & FACE_COLORING) == 0
+		                                          ? null
+		                                          : coloring( palette,
+		                                                      colors[3],
+		                                                      colors[4],
+		                                                      colors[5] )),
+		                                      coordinates,
+		                                      edges,
+		                                      faceStart,
+		                                      faceVertices,
+		                                      bounds );
+	    mesh.setPointsShown( (flags & POINTS_SHOWN) != 0 );
+	    mesh.setBackFaceCulling( (flags & BACK_FACE_CULLING) != 0 );
+	    meshes.add( mesh );
+	  }
+	return meshes.toArray( new IndexedMesh[meshes.size()] );
+      }
+    finally
+      {
+	// the mappings remain valid after the file is closed
+	raf.close();
+      }
+  }
+
+
+  /**
+   * <p>
+   * Writes the given meshes as a scene file, replacing any file of the same
+   * name. The elements are streamed out as they are found in the meshes; only
+   * the numbering of the distinct vertices of each {@link Mesh} is kept in
+   * memory meanwhile.
+   * </p>
+   * 
+   * <p>
+   * A Mesh is written as an {@link IndexedMesh} would be: all its edges take
+   * the {@link Mesh.Coloring} of its first edge, all its faces that of its
+   * first face, and the vertices are shown as points if it has any points.
+   * The coordinates are written as floats.
+   * </p>
+   * 
+   * @param meshes
+   *          The {@link Mesh}es to write first, as from
+   *          {@link Renderer3d#meshes()}.
+   * @param indexedMeshes
+   *          The {@link IndexedMesh}es to write after them, as from
+   *          {@link Renderer3d#indexedMeshes()}.
+   * @throws IOException
+   *           If the file cannot be written.
+   **/
+  public static void write( final File file,
+	                    final Mesh[] meshes,
+	                    final IndexedMesh[] indexedMeshes )
+    throws IOException
+  {
+    final RandomAccessFile raf = new RandomAccessFile( file,
+	                                               "rw" );
+    try
+      {
+	raf.setLength( 0 );
+	final Output out = new Output( raf.getChannel() );
+	out.putByte( 'X' );
+	out.putByte( 'S' );
+	out.putByte( '3' );
+	out.putByte( 'D' );
+	out.putInt( VERSION );
+	out.putInt( meshes.length + indexedMeshes.length );
+	for( Mesh mesh : meshes )
+	  {
+	    write( out,
+	           mesh );
+	  }
+	for( IndexedMesh mesh : indexedMeshes )
+	  {
+	    write( out,
+	           mesh );
+	  }
+	out.flush();
+      }
+    finally
+      {
+	raf.close();
+      }
+  }
+
+
+  private static void write( final Output out,
+	                     final Mesh mesh )
+    throws IOException
+  {
+    // one version of the mesh, even if another thread edits it meanwhile;
+    // the edges of each face are taken once for the same reason
+    final Mesh.Snapshot snapshot = mesh.snapshot();
+    final Mesh.Point3d[] points = snapshot.points();
+    final Mesh.Edge[] edges = snapshot.edges();
+    final Mesh.Face[] faces = snapshot.faces();
+    final Mesh.Edge[][] faceEdges = new Mesh.Edge[faces.length][];
+    for( int i = 0; i < faces.length; i++ )
+      {
+	faceEdges[i] = faces[i].edges();
+      }
+
+    // Number the distinct vertices in the order in which the Renderer3d
+    // would come across them, and find their bounds as floats
+    final Map<Mesh.Point3d,Integer> numbers = new IdentityHashMap<Mesh.Point3d,Integer>();
+    final List<Mesh.Point3d> vertices = new ArrayList<Mesh.Point3d>();
+    final Mesh.Bounds bounds = new Mesh.Bounds();
+    for( Mesh.Point3d p : points )
+      {
+	number( p,
+	        numbers,
+	        vertices,
+	        bounds );
+      }
+    for( Mesh.Edge e : edges )
+      {
+	number( e.getHead(),
+	        numbers,
+	        vertices,
+	        bounds );
+	number( e.getTail(),
+	        numbers,
+	        vertices,
+	        bounds );
+      }
+    int cornerCount = 0;
+    for( Mesh.Edge[] sides : faceEdges )
+      {
+	for( Mesh.Edge e : sides )
+	  {
+	    number( e.getHead(),
+	            numbers,
+	            vertices,
+	            bounds );
+	  }
+	cornerCount += sides.length;
+      }
+
+    writeHeader( out,
+	         (edges.length == 0
+	             ? null
+	             : edges[0].getColoring()),
+	         (faces.length == 0
+	             ? null
+	             : faces[0].getColoring()),
+	         (points.length > 0),
+	         mesh.isBackFaceCulling(),
+	         vertices.size(),
+	         edges.length,
+	         faces.length,
+	         cornerCount,
+	         bounds );
+    for( Mesh.Point3d p : vertices )
+      {
+	out.putFloat( (float)p.getX() );
+	out.putFloat( (float)p.getY() );
+	out.putFloat( (float)p.getZ() );
+      }
+    for( Mesh.Edge e : edges )
+      {
+	out.putInt( numbers.get( e.getHead() ).intValue() );
+	out.putInt( numbers.get( e.getTail() ).intValue() );
+      }
+    int corner = 0;
+    for( Mesh.Edge[] sides : faceEdges )
+      {
+	out.putInt( corner );
+	corner += sides.length;
+      }
+    out.putInt( corner );
+    for( Mesh.Edge[] sides : faceEdges )
+      {
+	for( Mesh.Edge e : sides )
+	  {
+	    out.putInt( numbers.get( e.getHead() ).intValue() );
+	  }
+      }
+  }
+
+
+  private static void number( final Mesh.Point3d p,
+	                      final Map<Mesh.Point3d,Integer> numbers,
+	                      final List<Mesh.Point3d> vertices,
+	                      final Mesh.Bounds bounds )
+  {
+    if( !numbers.containsKey( p ) )
+      {
+	numbers.put( p,
+	             Integer.valueOf( vertices.size() ) );
+	vertices.add( p );
+	bounds.include( (float)p.getX(),
+	                (float)p.getY(),
+	                (float)p.getZ() );
+      }
+  }
+
+
+  private static void write( final Output out,
+	                     final IndexedMesh mesh )
+    throws IOException
+  {
+    final FloatBuffer coordinates = mesh.coordinates();
+    final IntBuffer edges = mesh.edges();
+    final IntBuffer faceStart = mesh.faceStart();
+    final IntBuffer faceVertices = mesh.faceVertices();
+    writeHeader( out,
+	         mesh.getEdgeColoring(),
+	         mesh.getFaceColoring(),
+	         mesh.isPointsShown(),
+	         mesh.isBackFaceCulling(),
+	         mesh.getVertexCount(),
+	         mesh.getEdgeCount(),
+	         mesh.getFaceCount(),
+	         faceVertices.limit(),
+	         mesh.getBounds() );
+    for( int i = 0; i < coordinates.limit(); i++ )
+      {
+	out.putFloat( coordinates.get( i ) );
+      }
+    for( IntBuffer b : new IntBuffer[] {edges, faceStart, faceVertices} )
+      {
+	for( int i = 0; i < b.limit(); i++ )
+	  {
+	    out.putInt( b.get( i ) );
+	  }
+      }
+  }
+
+
+  private static void writeHeader( final Output out,
+	                           final Mesh.Coloring edgeColoring,
+	                           final Mesh.Coloring faceColoring,
+	                           final boolean isPointsShown,
+	                           final boolean isBackFaceCulling,
+	                           final int vertexCount,
+	                           final int edgeCount,
+	                           final int faceCount,
+	                           final int cornerCount,
+	                           final Mesh.Bounds bounds )
+    throws IOException
+  {
+    final Color[] colors = new Color[6];
+    int flags = 0;
+    if( edgeColoring != null )
+      {
+	flags |= EDGE_COLORING;
+	colors[0] = edgeColoring.normal();
+	colors[1] = edgeColoring.focused();
+	colors[2] = edgeColoring.selected();
+      }
+    if( faceColoring != null )
+      {
+	flags |= FACE_COLORING;
+	colors[3] = faceColoring.normal();
+	colors[4] = faceColoring.focused();
+	colors[5] = faceColoring.selected();
+      }
+    if( isPointsShown )
+      {
+	flags |= POINTS_SHOWN;
+      }
+    if( isBackFaceCulling )
+      {
+	flags |= BACK_FACE_CULLING;
+      }
+    for( int i = 0; i < colors.length; i++ )
+      {
+	if( colors[i] != null )
+	  {
+	    flags |= COLOR_PRESENT << i;
+	  }
+      }
+
+    out.putInt( flags );
+    out.putInt( vertexCount );
+    out.putInt( edgeCount );
+    out.putInt( faceCount );
+    out.putInt( cornerCount );
+    for( Color c : colors )
+      {
+	out.putInt( (c == null
+	    ? 0
+	    : c.getRGB()) );
+      }
+    out.putDouble( bounds.getMinX() );
+    out.putDouble( bounds.getMinY() );
+    out.putDouble( bounds.getMinZ() );
+    out.putDouble( bounds.getMaxX() );
+    out.putDouble( bounds.getMaxY() );
+    out.putDouble( bounds.getMaxZ() );
+  }
+
+
+  private static ByteBuffer readHeader( final FileChannel channel,
+	                                final long offset,
+	                                final int size )
+    throws IOException
+  {
+    final ByteBuffer b = ByteBuffer.allocate( size ).order( ByteOrder.LITTLE_ENDIAN );
+    while (b.hasRemaining())
+      {
+	if( channel.read( b,
+	                  offset + b.position() ) < 0 )
+	  {
+	    throw new IOException( "Scene file is truncated" );
+	  }
+      }
+    b.flip();
+    return b;
+  }
+
+
+  /**
+   * @return The Coloring of the given colors from the palette of those read
+   *         before, or a new one (which is added to the palette).
+   **/
+  private static Mesh.Coloring coloring( final Map<Mesh.Coloring,Mesh.Coloring> palette,
+	                                 final Color normal,
+	                                 final Color focused,
+	                                 final Color selected )
+  {
+    final Mesh.Coloring c = new Mesh.Coloring( normal,
+	                                       focused,
+	                                       selected );
+    final Mesh.Coloring known = palette.get( c );
+    if( known != null )
+      {
+	return known;
+      }
+    palette.put( c,
+	         c );
+    return c;
+  }
+
+
+  /**
+   * Maps a block of the given number of 4-byte values.
+   **/
+  private static ByteBuffer map( final FileChannel channel,
+	                         final long offset,
+	                         final long count )
+    throws IOException
+  {
+    if( count == 0 )
+      {
+	return ByteBuffer.allocate( 0 ).order( ByteOrder.LITTLE_ENDIAN );
+      }
+    if( 4 * count > Integer.MAX_VALUE )
+      {
+	throw new IOException( "Scene file block too large to map" );
+      }
+    return channel.map( FileChannel.MapMode.READ_ONLY,
+	                offset,
+	                4 * count ).order( ByteOrder.LITTLE_ENDIAN );
+  }
+
+
+  /**
+   * Writes to a channel through a buffer that is reused, so that streaming a
+   * mesh out allocates nothing per element.
+   **/
+  private static final class Output
+  {
+    Output( final FileChannel channel )
+    {
+      super();
+      this.channel = channel;
+    }
+
+
+    void putByte( final int b )
+      throws IOException
+    {
+      ensure( 1 );
+      buffer.put( (byte)b );
+    }
+
+
+    void putInt( final int i )
+      throws IOException
+    {
+      ensure( 4 );
+      buffer.putInt( i );
+    }
+
+
+    void putFloat( final float f )
+      throws IOException
+    {
+      ensure( 4 );
+      buffer.putFloat( f );
+    }
+
+
+    void putDouble( final double d )
+      throws IOException
+    {
+      ensure( 8 );
+      buffer.putDouble( d );
+    }
+
+
+    private void ensure( final int size )
+      throws IOException
+    {
+      if( buffer.remaining() < size )
+	{
+	  flush();
+	}
+    }
+
+
+    void flush()
+      throws IOException
+    {
+      buffer.flip();
+      while (buffer.hasRemaining())
+	{
+	  channel.write( buffer );
+	}
+      buffer.clear();
+    }
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect( 65536 ).order( ByteOrder.LITTLE_ENDIAN );
+  }
+
+
+  private SceneFile()
+  {
+  }
+
+  private static final int VERSION = 1;
+  private static final int FILE_HEADER_SIZE = 12;
+  private static final int MESH_HEADER_SIZE = 4 * 11 + 8 * 6;
+  // the flags of each mesh
+  private static final int EDGE_COLORING = 1;
+  private static final int FACE_COLORING = 2;
+  private static final int POINTS_SHOWN = 4;
+  private static final int BACK_FACE_CULLING = 8;
+  private static final int COLOR_PRESENT = 0x100; // one bit per color
+}
@@ -0,0 +1,1502 @@
+package com.ringlord.xs3d;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.IdentityHashMap;
+
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+
+
+// This file is part of XS3D.
+//
+// XS3D is free software: you can redistribute it and/or modify it
+// under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// XS3D is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with XS3D. If not, see <http://www.gnu.org/licenses/>.
+
+/**
+ * <p>
+ * An index of where the points, edges, and faces of one or more {@link Mesh}es
+ * lie in space, which finds those near a location, within a box, within the
+ * view of a {@link Renderer3d}, or hit by a ray without looking at all of
+ * them. It is a bounding volume hierarchy: a binary tree with one element at
+ * each leaf, in which each node holds the axis-aligned box that bounds the
+ * elements below it, so that a query passes over every node whose box it
+ * misses, and over all that lies below.
+ * </p>
+ * 
+ * <p>
+ * The index keeps up with the meshes as they change. It hears of the elements
+ * added to and removed from a Mesh by its {@link MeshEvent}s, and fits them
+ * into (or takes them out of) the tree right away. Moving vertices merely
+ * changes the shape version of a Mesh, so the next query after they moved fits
+ * the boxes of all the nodes to the elements again, in one pass from the
+ * leaves up; the tree is built anew once that (or adding and removing many
+ * elements) has left it much looser than it was.
+ * </p>
+ * 
+ * <p>
+ * An element that belongs to more than one of the meshes is found once. The
+ * SpatialIndex may be used on any thread.
+ * </p>
+ * 
+ * @author K. Udo Schuermann
+ **/
+public class SpatialIndex
+  implements ChangeListener
+{
+  public SpatialIndex()
+  {
+    super();
+  }
+
+
+  /**
+   * Adds the elements of the Mesh to the index, which follows its changes from
+   * then on. The tree is built anew (with them) by the next query.
+   **/
+  public void add( final Mesh mesh )
+  {
+    // no edit can be under way while the elements are listed, so the
+    // MeshEventS that follow tell of what changed since
+    mesh.beginEdit();
+    try
+      {
+	synchronized( this )
+	  {
+	    if( meshes.containsKey( mesh ) )
+	      {
+		return;
+	      }
+	    meshes.put( mesh,
+	                mesh );
+	    meshArray = meshes.keySet().toArray( new Mesh[meshes.size()] );
+	    shapeVersions = new int[meshArray.length];
+	    // the shapes are fitted by the build
+	    isBuildPending = true;
+
+	    final Mesh.Snapshot s = mesh.snapshot();
+	    for( Mesh.Point3d p : s.points() )
+	      {
+		insert( p );
+	      }
+	    for( Mesh.Edge e : s.edges() )
+	      {
+		insert( e );
+	      }
+	    for( Mesh.Face f : s.faces() )
+	      {
+		insert( f );
+	      }
+	    mesh.addChangeListener( this );
+	  }
+      }
+    finally
+      {
+	mesh.endEdit();
+      }
+  }
+
+
+  /**
+   * Removes the elements of the Mesh from the index, but for those that belong
+   * to another of its meshes as well.
+   **/
+  public void remove( final Mesh mesh )
+  {
+    mesh.beginEdit();
+    try
+      {
+	synchronized( this )
+	  {
+	    if( meshes.remove( mesh ) == null )
+	      {
+		return;
+	      }
+	    mesh.removeChangeListener( this );
+	    meshArray = meshes.keySet().toArray( new Mesh[meshes.size()] );
+	    shapeVersions = new int[meshArray.length];
+	    // every shape is fitted again, as the versions were forgotten
+	    isShapeChanged = true;
+
+	    final Mesh.Snapshot s = mesh.snapshot();
+	    for( Mesh.Point3d p : s.points() )
+	      {
+		delete( p );
+	      }
+	    for( Mesh.Edge e : s.edges() )
+	      {
+		delete( e );
+	      }
+	    for( Mesh.Face f : s.faces() )
+	      {
+		delete( f );
+	      }
+	  }
+      }
+    finally
+      {
+	mesh.endEdit();
+      }
+  }
+
+
+  public synchronized Mesh[] meshes()
+  {
+    return meshArray.clone();
+  }
+
+
+  /**
+   * @return The number of distinct elements in the index.
+   **/
+  public synchronized int size()
+  {
+    return leaves.size();
+  }
+
+
+  /**
+   * Finds the elements that come within the given distance of a location: the
+   * points, edges, and faces ({@link Mesh.Point3d}, {@link Mesh.Edge},
+   * {@link Mesh.Face}) at least one location of which is that close. A face of
+   * more than three corners is taken to be the fan of triangles that share its
+   * first corner.
+   * 
+   * @param found
+   *          Receives the elements found, in no particular order.
+   **/
+  public synchronized void findNear( final double x,
+	                             final double y,
+	                             final double z,
+	                             final double distance,
+	                             final Collection<Object> found )
+  {
+    prepare();
+    if( root == NONE )
+      {
+	return;
+      }
+    final double limit = distance * distance;
+    int top = 0;
+    stack[top++] = root;
+    while (top > 0)
+      {
+	final int node = stack[--top];
+	final int b = 6 * node;
+	final double dx = Math.max( 0.0d,
+	                            Math.max( boxes[b] - x,
+	                                      x - boxes[b + 3] ) );
+	final double dy = Math.max( 0.0d,
+	                            Math.max( boxes[b + 1] - y,
+	                                      y - boxes[b + 4] ) );
+	final double dz = Math.max( 0.0d,
+	                            Math.max( boxes[b + 2] - z,
+	                                      z - boxes[b + 5] ) );
+	if( (dx * dx) + (dy * dy) + (dz * dz) > limit )
+	  {
+	    continue;
+	  }
+	final Object element = elements[node];
+	if( element == null )
+	  {
+	    top = push( top,
+	                node );
+	  }
+	else if( distanceSq( element,
+	                     x,
+	                     y,
+	                     z ) <= limit )
+	  {
+	    found.add( element );
+	  }
+      }
+  }
+
+
+  /**
+   * Finds the elements whose bounds overlap the given box: the points within
+   * it, and the edges and faces whose own axis-aligned boxes reach into it
+   * (which does not guarantee that they do).
+   * 
+   * @param found
+   *          Receives the elements found, in no particular order.
+   **/
+  public synchronized void findInBox( final double minX,
+	                              final double minY,
+	                              final double minZ,
+	                              final double maxX,
+	                              final double maxY,
+	                              final double maxZ,
+	                              final Collection<Object> found )
+  {
+    prepare();
+    if( root == NONE )
+      {
+	return;
+      }
+    int top = 0;
+    stack[top++] = root;
+    while (top > 0)
+      {
+	final int node = stack[--top];
+	final int b = 6 * node;
+	if( (boxes[b] > maxX) ||
+	    (boxes[b + 1] > maxY) ||
+	    (boxes[b + 2] > maxZ) ||
+	    (boxes[b + 3] < minX) ||
+	    (boxes[b + 4] < minY) ||
+	    (boxes[b + 5] < minZ) )
+	  {
+	    continue;
+	  }
+	final Object element = elements[node];
+	if( element == null )
+	  {
+	    top = push( top,
+	                node );
+	  }
+	else
+	  {
+	    found.add( element );
+	  }
+      }
+  }
+
+
+  /**
+   * Finds the elements that may lie within a convex region bounded by planes,
+   * such as the view of a {@link Renderer3d} (see
+   * {@link Renderer3d#getFrustum(int,int)}): the points on the inner side of
+   * every plane, and the edges and faces whose axis-aligned boxes are not
+   * entirely on the outer side of any of them.
+   * 
+   * @param planes
+   *          Four numbers a, b, c, and d for each plane, by which a location
+   *          (x,y,z) lies on its inner side if a*x + b*y + c*z + d >= 0.
+   * @param found
+   *          Receives the elements found, in no particular order.
+   **/
+  public synchronized void findInFrustum( final double[] planes,
+	                                  final Collection<Object> found )
+  {
+    prepare();
+    if( root == NONE )
+      {
+	return;
+      }
+    int top = 0;
+    stack[top++] = root;
+    while (top > 0)
+      {
+	final int node = stack[--top];
+	final int b = 6 * node;
+	boolean isInside = true;
+	boolean isOutside = false;
+	for( int i = 0; i < planes.length; i += 4 )
+	  {
+	    // the corner of the box farthest along the normal of the plane,
+	    // and the one farthest against it
+	    double far = planes[i + 3];
+	    double near = planes[i + 3];
+	    for( int j = 0; j < 3; j++ )
+	      {
+		final double min = planes[i + j] * boxes[b + j];
+		final double max = planes[i + j] * boxes[b + 3 + j];
+		far += Math.max( min,
+		                 max );
+		near += Math.min( min,
+		                  max );
+	      }
+	    if( far < 0 )
+	      {
+		isOutside = true;
+		break;
+	      }
+	    if( near < 0 )
+	      {
+		isInside = false;
+	      }
+	  }
+	if( isOutside )
+	  {
+	    continue;
+	  }
+	if( isInside )
+	  {
+	    collect( top,
+	             node,
+	             found );
+	  }
+	else if( elements[node] == null )
+	  {
+	    top = push( top,
+	                node );
+	  }
+	else
+	  {
+	    // a point has an empty box, so it was either inside or outside
+	    found.add( elements[node] );
+	  }
+      }
+  }
+
+
+  /**
+   * Casts a ray and finds the nearest face that it hits, from either side.
+   * Points and edges have no area, so they are not hit.
+   * 
+   * @param dx
+   *          The direction of the ray, which must not be (0,0,0).
+   * @param maxDistance
+   *          How far along the ray to look, which may be
+   *          {@link Double#POSITIVE_INFINITY}.
+   * @return The face hit, and where, or null if none is within the
+   *         distance.
+   **/
+  public synchronized Hit castRay( final double x,
+	                           final double y,
+	                           final double z,
+	                           final double dx,
+	                           final double dy,
+	                           final double dz,
+	                           final double maxDistance )
+  {
+    final double length = Math.sqrt( (dx * dx) + (dy * dy) + (dz * dz) );
+    if( !(length > 0) )
+      {
+	throw new IllegalArgumentException( "A ray needs a direction" );
+      }
+    prepare();
+    if( root == NONE )
+      {
+	return null;
+      }
+
+    ray[0] = x;
+    ray[1] = y;
+    ray[2] = z;
+    ray[3] = dx / length;
+    ray[4] = dy / length;
+    ray[5] = dz / length;
+    Mesh.Face nearest = null;
+    double nearestDistance = maxDistance;
+    int top = 0;
+    stack[top++] = root;
+    while (top > 0)
+      {
+	final int node = stack[--top];
+	if( !(entry( node ) <= nearestDistance) )
+	  {
+	    continue;
+	  }
+	final Object element = elements[node];
+	if( element == null )
+	  {
+	    top = push( top,
+	                node );
+	  }
+	else if( element instanceof Mesh.Face )
+	  {
+	    final double d = hit( (Mesh.Face)element );
+	    if( d <= nearestDistance )
+	      {
+		nearest = (Mesh.Face)element;
+		nearestDistance = d;
+	      }
+	  }
+      }
+    if( nearest == null )
+      {
+	return null;
+      }
+    return new Hit( nearest,
+	            nearestDistance,
+	            x + (ray[3] * nearestDistance),
+	            y + (ray[4] * nearestDistance),
+	            z + (ray[5] * nearestDistance) );
+  }
+
+
+  // ======================================================================
+  // ChangeListener
+  // ======================================================================
+  /**
+   * Implementation of the {@link ChangeListener}, called by a Mesh of the
+   * index at the end of each edit that changed it, which puts the elements
+   * that were added into the tree, takes those out that were removed, and
+   * fits the boxes of the faces that lost an edge to them.
+   **/
+  public synchronized void stateChanged( final ChangeEvent e )
+  {
+    if( !(e instanceof MeshEvent) || !meshes.containsKey( e.getSource() ) )
+      {
+	return;
+      }
+    final MeshEvent m = (MeshEvent)e;
+    for( Mesh.Point3d p : m.getRemovedPoints() )
+      {
+	delete( p );
+      }
+    for( Mesh.Edge edge : m.getRemovedEdges() )
+      {
+	delete( edge );
+      }
+    for( Mesh.Face f : m.getRemovedFaces() )
+      {
+	delete( f );
+      }
+    for( Mesh.Point3d p : m.getAddedPoints() )
+      {
+	insert( p );
+      }
+    for( Mesh.Edge edge : m.getAddedEdges() )
+      {
+	insert( edge );
+      }
+    for( Mesh.Face f : m.getAddedFaces() )
+      {
+	insert( f );
+      }
+    if( !isBuildPending )
+      {
+	for( Mesh.Face f : m.getReshapedFaces() )
+	  {
+	    final int[] leaf = leaves.get( f );
+	    if( leaf != null )
+	      {
+		fit( leaf[NODE] );
+		refitAncestors( parents[leaf[NODE]] );
+	      }
+	  }
+      }
+  }
+
+
+  /**
+   * Counts one more use of the element by a Mesh of the index, and puts it
+   * into the tree unless it is there already.
+   **/
+  private void insert( final Object element )
+  {
+    final int[] leaf = leaves.get( element );
+    if( leaf != null )
+      {
+	leaf[USES]++;
+	return;
+      }
+    final int node = allocate();
+    elements[node] = element;
+    leaves.put( element,
+	        new int[] {node, 1} );
+    changeCount++;
+    if( !isBuildPending )
+      {
+	fit( node );
+	link( node );
+      }
+  }
+
+
+  /**
+   * Counts one less use of the element by a Mesh of the index, and takes it
+   * out of the tree when none uses it any longer.
+   **/
+  private void delete( final Object element )
+  {
+    final int[] leaf = leaves.get( element );
+    if( leaf == null )
+      {
+	return;
+      }
+    if( --leaf[USES] > 0 )
+      {
+	return;
+      }
+    leaves.remove( element );
+    changeCount++;
+    if( !isBuildPending )
+      {
+	unlink( leaf[NODE] );
+      }
+    release( leaf[NODE] );
+  }
+
+
+  /**
+   * Brings the tree up to date before a query: builds it if it is due, or
+   * fits the boxes to the elements again if a vertex of a Mesh has moved.
+   **/
+  private void prepare()
+  {
+    final Mesh[] meshes = meshArray;
+    for( int i = 0; i < meshes.length; i++ )
+      {
+	// the version is taken first, so that a vertex moved meanwhile
+	// is seen by the next query
+	final int version = meshes[i].getShapeVersion();
+	if( version != shapeVersions[i] )
+	  {
+	    shapeVersions[i] = version;
+	    isShapeChanged = true;
+	  }
+      }
+
+    if( isBuildPending || (changeCount > Math.max( builtSize,
+	                                           MIN_REBUILD_CHANGES )) )
+      {
+	build();
+      }
+    else if( isShapeChanged )
+      {
+	refit();
+	if( looseness() > MAX_LOOSENESS * builtLooseness )
+	  {
+	    build();
+	  }
+      }
+    isShapeChanged = false;
+  }
+
+
+  /**
+   * <p>
+   * Builds the tree anew from the leaves, top down: the elements are split
+   * in half at the median of their centers along the axis in which the
+   * centers are spread the farthest, and each half in turn, so that the tree
+   * is balanced.
+   * </p>
+   * 
+   * <p>
+   * The leaves are given the first nodes, and the inner nodes follow.
+   * </p>
+   **/
+  private void build()
+  {
+    final int size = leaves.size();
+    final Object[] listed = new Object[size];
+    final int[][] leafNodes = new int[size][];
+    int n = 0;
+    for( Map.Entry<Object,int[]> e : leaves.entrySet() )
+      {
+	listed[n] = e.getKey();
+	leafNodes[n] = e.getValue();
+	leafNodes[n][NODE] = n;
+	n++;
+      }
+
+    final int capacity = Math.max( 1,
+	                           2 * size - 1 );
+    elements = Arrays.copyOf( listed,
+	                      capacity );
+    boxes = new double[6 * capacity];
+    parents = new int[capacity];
+    firstChildren = new int[capacity];
+    secondChildren = new int[capacity];
+    nodeCount = size;
+    freeNode = NONE;
+    centers = new double[3 * size];
+    final int[] order = new int[size];
+    for( int i = 0; i < size; i++ )
+      {
+	fit( i );
+	centers[3 * i] = (boxes[6 * i] + boxes[6 * i + 3]) / 2.0d;
+	centers[3 * i + 1] = (boxes[6 * i + 1] + boxes[6 * i + 4]) / 2.0d;
+	centers[3 * i + 2] = (boxes[6 * i + 2] + boxes[6 * i + 5]) / 2.0d;
+	order[i] = i;
+      }
+
+    root = ((size == 0)
+	? NONE
+	: build( order,
+	         0,
+	         size ));
+    if( root != NONE )
+      {
+	parents[root] = NONE;
+      }
+    centers = null;
+    isBuildPending = false;
+    changeCount = 0;
+    builtSize = size;
+    builtLooseness = looseness();
+  }
+
+
+  /**
+   * Builds the part of the tree over the leaves order[lo] to order[hi-1].
+   * 
+   * @return The node at the top of it.
+   **/
+  private int build( final int[] order,
+	             final int lo,
+	             final int hi )
+  {
+    if( hi - lo == 1 )
+      {
+	return order[lo];
+      }
+
+    double minX = Double.POSITIVE_INFINITY;
+    double minY = Double.POSITIVE_INFINITY;
+    double minZ = Double.POSITIVE_INFINITY;
+    double maxX = Double.NEGATIVE_INFINITY;
+    double maxY = Double.NEGATIVE_INFINITY;
+    double maxZ = Double.NEGATIVE_INFINITY;
+    for( int i = lo; i < hi; i++ )
+      {
+	final int c = 3 * order[i];
+	minX = Math.min( minX,
+	                 centers[c] );
+	minY = Math.min( minY,
+	                 centers[c + 1] );
+	minZ = Math.min( minZ,
+	                 centers[c + 2] );
+	maxX = Math.max( maxX,
+	                 centers[c] );
+	maxY = Math.max( maxY,
+	                 centers[c + 1] );
+	maxZ = Math.max( maxZ,
+	                 centers[c + 2] );
+      }
+    final double spreadX = maxX - minX;
+    final double spreadY = maxY - minY;
+    final double spreadZ = maxZ - minZ;
+    final int axis = (((spreadX >= spreadY) && (spreadX >= spreadZ))
+	? 0
+	: ((spreadY >= spreadZ)
+	    ? 1
+	    : 2));
+    final int mid = (lo + hi) >>> 1;
+    select( order,
+	    lo,
+	    hi - 1,
+	    mid,
+	    axis );
+
+    final int node = allocate();
+    final int first = build( order,
+	                     lo,
+	                     mid );
+    final int second = build( order,
+	                      mid,
+	                      hi );
+    elements[node] = null;
+    firstChildren[node] = first;
+    secondChildren[node] = second;
+    parents[first] = node;
+    parents[second] = node;
+    enclose( node );
+    return node;
+  }
+
+
+  /**
+   * Rearranges order[lo] to order[hi] so that the leaf at the given index is
+   * the one it would be if they were sorted by the given coordinate of their
+   * centers, with none greater before it and none less after it (Hoare's
+   * selection).
+   **/
+  private void select( final int[] order,
+	               final int lo,
+	               final int hi,
+	               final int k,
+	               final int axis )
+  {
+    int left = lo;
+    int right = hi;
+    while (left < right)
+      {
+	final double pivot = centers[3 * order[(left + right) >>> 1] + axis];
+	int i = left;
+	int j = right;
+	while (i <= j)
+	  {
+	    while (centers[3 * order[i] + axis] < pivot)
+	      {
+		i++;
+	      }
+	    while (centers[3 * order[j] + axis] > pivot)
+	      {
+		j--;
+	      }
+	    if( i <= j )
+	      {
+		final int t = order[i];
+		order[i] = order[j];
+		order[j] = t;
+		i++;
+		j--;
+	      }
+	  }
+	if( k <= j )
+	  {
+	    right = j;
+	  }
+	else if( k >= i )
+	  {
+	    left = i;
+	  }
+	else
+	  {
+	    return;
+	  }
+      }
+  }
+
+
+  /**
+   * Fits the boxes of all nodes to the elements, as they may have moved. The
+   * nodes are listed parents first, and fitted children first.
+   **/
+  private void refit()
+  {
+    if( root == NONE )
+      {
+	return;
+      }
+    if( order.length < nodeCount )
+      {
+	order = new int[nodeCount];
+      }
+    int count = 0;
+    order[count++] = root;
+    for( int i = 0; i < count; i++ )
+      {
+	final int node = order[i];
+	if( elements[node] == null )
+	  {
+	    order[count++] = firstChildren[node];
+	    order[count++] = secondChildren[node];
+	  }
+      }
+    for( int i = count - 1; i >= 0; i-- )
+      {
+	final int node = order[i];
+	if( elements[node] == null )
+	  {
+	    enclose( node );
+	  }
+	else
+	  {
+	    fit( node );
+	  }
+      }
+  }
+
+
+  /**
+   * <p>
+   * Puts a leaf into the tree, next to the node that least enlarges the
+   * boxes of the nodes above as it is joined with the leaf under a new one.
+   * It is found by descending from the root toward the child whose box grows
+   * the least, measured by its surface area, as in Box2D's dynamic tree.
+   * </p>
+   **/
+  private void link( final int leaf )
+  {
+    if( root == NONE )
+      {
+	root = leaf;
+	parents[leaf] = NONE;
+	return;
+      }
+
+    final int l = 6 * leaf;
+    int node = root;
+    while (elements[node] == null)
+      {
+	final double area = area( 6 * node );
+	final double joinedArea = joinedArea( 6 * node,
+	                                      l );
+	// joining the leaf here; or further down, which enlarges this
+	// node as much and the child it goes into as well
+	final double cost = 2.0d * joinedArea;
+	final double inherited = 2.0d * (joinedArea - area);
+	final int first = firstChildren[node];
+	final int second = secondChildren[node];
+	final double firstCost = growth( first,
+	                                 l ) + inherited;
+	final double secondCost = growth( second,
+	                                  l ) + inherited;
+	if( (cost < firstCost) && (cost < secondCost) )
+	  {
+	    break;
+	  }
+	node = ((firstCost < secondCost)
+	    ? first
+	    : second);
+      }
+
+    final int sibling = node;
+    final int oldParent = parents[sibling];
+    final int parent = allocate();
+    elements[parent] = null;
+    parents[parent] = oldParent;
+    firstChildren[parent] = sibling;
+    secondChildren[parent] = leaf;
+    parents[sibling] = parent;
+    parents[leaf] = parent;
+    if( oldParent == NONE )
+      {
+	root = parent;
+      }
+    else if( firstChildren[oldParent] == sibling )
+      {
+	firstChildren[oldParent] = parent;
+      }
+    else
+      {
+	secondChildren[oldParent] = parent;
+      }
+    refitAncestors( parent );
+  }
+
+
+  /**
+   * Takes a leaf out of the tree, whose parent gives way to the other child.
+   **/
+  private void unlink( final int leaf )
+  {
+    if( leaf == root )
+      {
+	root = NONE;
+	return;
+      }
+    final int parent = parents[leaf];
+    final int grandParent = parents[parent];
+    final int sibling = ((firstChildren[parent] == leaf)
+	? secondChildren[parent]
+	: firstChildren[parent]);
+    release( parent );
+    parents[sibling] = grandParent;
+    if( grandParent == NONE )
+      {
+	root = sibling;
+      }
+    else
+      {
+	if( firstChildren[grandParent] == parent )
+	  {
+	    firstChildren[grandParent] = sibling;
+	  }
+	else
+	  {
+	    secondChildren[grandParent] = sibling;
+	  }
+	refitAncestors( grandParent );
+      }
+  }
+
+
+  /**
+   * Fits the boxes of the node and those above it to their children.
+   **/
+  private void refitAncestors( int node )
+  {
+    while (node != NONE)
+      {
+	enclose( node );
+	node = parents[node];
+      }
+  }
+
+
+  /**
+   * @return How much the surface area of the node's box grows as it is joined
+   *         with the box at the given offset; for an inner node, the area of
+   *         the joined box.
+   **/
+  private double growth( final int node,
+	                 final int b )
+  {
+    final double joinedArea = joinedArea( 6 * node,
+	                                  b );
+    return ((elements[node] == null)
+	? joinedArea - area( 6 * node )
+	: joinedArea);
+  }
+
+
+  /**
+   * @return The area of the box of an inner node (half of its surface) for
+   *         the area of the box of the root, which grows as the boxes of
+   *         the nodes overlap one another more, or enclose empty space.
+   **/
+  private double looseness()
+  {
+    if( root == NONE )
+      {
+	return 0.0d;
+      }
+    final double rootArea = area( 6 * root );
+    if( !(rootArea > 0) )
+      {
+	return 0.0d;
+      }
+    double sum = 0.0d;
+    for( int i = 0; i < nodeCount; i++ )
+      {
+	if( (elements[i] == null) && (parents[i] != FREE) )
+	  {
+	    sum += area( 6 * i );
+	  }
+      }
+    return sum / rootArea;
+  }
+
+
+  private double area( final int b )
+  {
+    final double dx = boxes[b + 3] - boxes[b];
+    final double dy = boxes[b + 4] - boxes[b + 1];
+    final double dz = boxes[b + 5] - boxes[b + 2];
+    return (dx * dy) + (dy * dz) + (dz * dx);
+  }
+
+
+  private double joinedArea( final int b1,
+	                     final int b2 )
+  {
+    final double dx = Math.max( boxes[b1 + 3],
+	                        boxes[b2 + 3] ) - Math.min( boxes[b1],
+	                                                    boxes[b2] );
+    final double dy = Math.max( boxes[b1 + 4],
+	                        boxes[b2 + 4] ) - Math.min( boxes[b1 + 1],
+	                                                    boxes[b2 + 1] );
+    final double dz = Math.max( boxes[b1 + 5],
+	                        boxes[b2 + 5] ) - Math.min( boxes[b1 + 2],
+	                                                    boxes[b2 + 2] );
+    return (dx * dy) + (dy * dz) + (dz * dx);
+  }
+
+
+  /**
+   * Fits the box of an inner node to those of its children.
+   **/
+  private void enclose( final int node )
+  {
+    final int b = 6 * node;
+    final int b1 = 6 * firstChildren[node];
+    final int b2 = 6 * secondChildren[node];
+    for( int i = 0; i < 3; i++ )
+      {
+	boxes[b + i] = Math.min( boxes[b1 + i],
+	                         boxes[b2 + i] );
+	boxes[b + 3 + i] = Math.max( boxes[b1 + 3 + i],
+	                             boxes[b2 + 3 + i] );
+      }
+  }
+
+
+  /**
+   * Fits the box of a leaf to the vertices of its element, as they are now.
+   **/
+  private void fit( final int leaf )
+  {
+    final int b = 6 * leaf;
+    boxes[b] = boxes[b + 1] = boxes[b + 2] = Double.POSITIVE_INFINITY;
+    boxes[b + 3] = boxes[b + 4] = boxes[b + 5] = Double.NEGATIVE_INFINITY;
+    final Object element = elements[leaf];
+    if( element instanceof Mesh.Point3d )
+      {
+	include( b,
+	         (Mesh.Point3d)element );
+      }
+    else if( element instanceof Mesh.Edge )
+      {
+	include( b,
+	         ((Mesh.Edge)element).getHead() );
+	include( b,
+	         ((Mesh.Edge)element).getTail() );
+      }
+    else
+      {
+	for( Mesh.Edge e : ((Mesh.Face)element).edges() )
+	  {
+	    include( b,
+	             e.getHead() );
+	  }
+      }
+  }
+
+
+  private void include( final int b,
+	                final Mesh.Point3d p )
+  {
+    final double x = p.getX();
+    final double y = p.getY();
+    final double z = p.getZ();
+    boxes[b] = Math.min( boxes[b],
+	                 x );
+    boxes[b + 1] = Math.min( boxes[b + 1],
+	                     y );
+    boxes[b + 2] = Math.min( boxes[b + 2],
+	                     z );
+    boxes[b + 3] = Math.max( boxes[b + 3],
+	                     x );
+    boxes[b + 4] = Math.max( boxes[b + 4],
+	                     y );
+    boxes[b + 5] = Math.max( boxes[b + 5],
+	                     z );
+  }
+
+
+  /**
+   * Adds the elements at the leaves below the node (or that of the node
+   * itself), walking that part of the tree on top of the stack of the query.
+   **/
+  private void collect( final int bottom,
+	                final int node,
+	                final Collection<Object> found )
+  {
+    int top = bottom;
+    stack[top++] = node;
+    while (top > bottom)
+      {
+	final int n = stack[--top];
+	if( elements[n] == null )
+	  {
+	    top = push( top,
+	                n );
+	  }
+	else
+	  {
+	    found.add( elements[n] );
+	  }
+      }
+  }
+
+
+  /**
+   * Pushes the children of an inner node onto the stack of the query, which
+   * grows as deep as the tree.
+   * 
+   * @return The new top of the stack.
+   **/
+  private int push( int top,
+	            final int node )
+  {
+    if( top + 2 > stack.length )
+      {
+	stack = Arrays.copyOf( stack,
+	                       2 * stack.length );
+      }
+    stack[top++] = firstChildren[node];
+    stack[top++] = secondChildren[node];
+    return top;
+  }
+
+
+  /**
+   * @return A node taken from those given up, or a new one.
+   **/
+  private int allocate()
+  {
+    if( freeNode != NONE )
+      {
+	final int node = freeNode;
+	freeNode = firstChildren[node];
+	parents[node] = NONE;
+	return node;
+      }
+    if( nodeCount == parents.length )
+      {
+	final int capacity = Math.max( 16,
+	                               2 * nodeCount );
+	elements = Arrays.copyOf( elements,
+	                          capacity );
+	boxes = Arrays.copyOf( boxes,
+	                       6 * capacity );
+	parents = Arrays.copyOf( parents,
+	                         capacity );
+	firstChildren = Arrays.copyOf( firstChildren,
+	                               capacity );
+	secondChildren = Arrays.copyOf( secondChildren,
+	                                capacity );
+      }
+    parents[nodeCount] = NONE;
+    return nodeCount++;
+  }
+
+
+  /**
+   * Gives up a node, which is kept for the next one needed.
+   **/
+  private void release( final int node )
+  {
+    elements[node] = null;
+    parents[node] = FREE;
+    firstChildren[node] = freeNode;
+    freeNode = node;
+  }
+
+
+  /**
+   * @return The square of the distance from the location to the nearest
+   *         location of the element.
+   **/
+  private static double distanceSq( final Object element,
+	                            final double x,
+	                            final double y,
+	                            final double z )
+  {
+    if( element instanceof Mesh.Point3d )
+      {
+	final Mesh.Point3d p = (Mesh.Point3d)element;
+	final double dx = x - p.getX();
+	final double dy = y - p.getY();
+	final double dz = z - p.getZ();
+	return (dx * dx) + (dy * dy) + (dz * dz);
+      }
+    if( element instanceof Mesh.Edge )
+      {
+	final Mesh.Edge e = (Mesh.Edge)element;
+	return segmentDistanceSq( x,
+	                          y,
+	                          z,
+	                          e.getHead(),
+	                          e.getTail() );
+      }
+    final Mesh.Edge[] edges = ((Mesh.Face)element).edges();
+    final Mesh.Point3d a = edges[0].getHead();
+    double nearest = Double.POSITIVE_INFINITY;
+    for( int i = 1; i < edges.length - 1; i++ )
+      {
+	nearest = Math.min( nearest,
+	                    triangleDistanceSq( x,
+	                                        y,
+	                                        z,
+	                                        a,
+	                                        edges[i].getHead(),
+	                                        edges[i].getTail() ) );
+      }
+    return nearest;
+  }
+
+
+  private static double segmentDistanceSq( final double x,
+	                                   final double y,
+	                                   final double z,
+	                                   final Mesh.Point3d a,
+	                                   final Mesh.Point3d b )
+  {
+    final double abX = b.getX() - a.getX();
+    final double abY = b.getY() - a.getY();
+    final double abZ = b.getZ() - a.getZ();
+    final double apX = x - a.getX();
+    final double apY = y - a.getY();
+    final double apZ = z - a.getZ();
+    final double length = (abX * abX) + (abY * abY) + (abZ * abZ);
+    final double t = ((length > 0)
+	? Math.max( 0.0d,
+	            Math.min( 1.0d,
+	                      ((apX * abX) + (apY * abY) + (apZ * abZ)) / length ) )
+	: 0.0d);
+    final double dx = apX - (t * abX);
+    final double dy = apY - (t * abY);
+    final double dz = apZ - (t * abZ);
+    return (dx * dx) + (dy * dy) + (dz * dz);
+  }
+
+
+  /**
+   * Finds the nearest location of the triangle from where the location lies
+   * with respect to its corners and sides, as in Christer Ericson's
+   * <i>Real-Time Collision Detection</i>.
+   * 
+   * @return The square of the distance to it.
+   **/
+  private static double triangleDistanceSq( final double x,
+	                                    final double y,
+	                                    final double z,
+	                                    final Mesh.Point3d a,
+	                                    final Mesh.Point3d b,
+	                                    final Mesh.Point3d c )
+  {
+    final double abX = b.getX() - a.getX();
+    final double abY = b.getY() - a.getY();
+    final double abZ = b.getZ() - a.getZ();
+    final double acX = c.getX() - a.getX();
+    final double acY = c.getY() - a.getY();
+    final double acZ = c.getZ() - a.getZ();
+    final double apX = x - a.getX();
+    final double apY = y - a.getY();
+    final double apZ = z - a.getZ();
+    final double d1 = (abX * apX) + (abY * apY) + (abZ * apZ);
+    final double d2 = (acX * apX) + (acY * apY) + (acZ * apZ);
+    if( (d1 <= 0) && (d2 <= 0) )
+      {
+	// nearest to corner a
+	return (apX * apX) + (apY * apY) + (apZ * apZ);
+      }
+    final double bpX = x - b.getX();
+    final double bpY = y - b.getY();
+    final double bpZ = z - b.getZ();
+    final double d3 = (abX * bpX) + (abY * bpY) + (abZ * bpZ);
+    final double d4 = (acX * bpX) + (acY * bpY) + (acZ * bpZ);
+    if( (d3 >= 0) && (d4 <= d3) )
+      {
+	return (bpX * bpX) + (bpY * bpY) + (bpZ * bpZ);
+      }
+    final double cpX = x - c.getX();
+    final double cpY = y - c.getY();
+    final double cpZ = z - c.getZ();
+    final double d5 = (abX * cpX) + (abY * cpY) + (abZ * cpZ);
+    final double d6 = (acX * cpX) + (acY * cpY) + (acZ * cpZ);
+    if( (d6 >= 0) && (d5 <= d6) )
+      {
+	return (cpX * cpX) + (cpY * cpY) + (cpZ * cpZ);
+      }
+    final double vc = (d1 * d4) - (d3 * d2);
+    final double vb = (d5 * d2) - (d1 * d6);
+    final double va = (d3 * d6) - (d5 * d4);
+    if( ((vc <= 0) && (d1 >= 0) && (d3 <= 0)) ||
+	((vb <= 0) && (d2 >= 0) && (d6 <= 0)) ||
+	((va <= 0) && (d4 - d3 >= 0) && (d5 - d6 >= 0)) ||
+	!(va + vb + vc > 0) )
+      {
+	// nearest to a side (or the triangle has no area)
+	return Math.min( segmentDistanceSq( x,
+	                                    y,
+	                                    z,
+	                                    a,
+	                                    b ),
+	                 Math.min( segmentDistanceSq( x,
+	                                              y,
+	                                              z,
+	                                              b,
+	                                              c ),
+	                           segmentDistanceSq( x,
+	                                              y,
+	                                              z,
+	                                              c,
+	                                              a ) ) );
+      }
+    // nearest to a location within the triangle
+    final double v = vb / (va + vb + vc);
+    final double w = vc / (va + vb + vc);
+    final double dx = apX - (v * abX) - (w * acX);
+    final double dy = apY - (v * abY) - (w * acY);
+    final double dz = apZ - (v * abZ) - (w * acZ);
+    return (dx * dx) + (dy * dy) + (dz * dz);
+  }
+
+
+  /**
+   * @return How far along the ray it enters the box of the node, or NaN if it
+   *         misses the box.
+   **/
+  private double entry( final int node )
+  {
+    final int b = 6 * node;
+    double near = 0.0d;
+    double far = Double.POSITIVE_INFINITY;
+    for( int i = 0; i < 3; i++ )
+      {
+	final double origin = ray[i];
+	final double direction = ray[3 + i];
+	final double min = boxes[b + i];
+	final double max = boxes[b + 3 + i];
+	if( direction == 0 )
+	  {
+	    if( (origin < min) || (origin > max) )
+	      {
+		return Double.NaN;
+	      }
+	    continue;
+	  }
+	final double t1 = (min - origin) / direction;
+	final double t2 = (max - origin) / direction;
+	near = Math.max( near,
+	                 Math.min( t1,
+	                           t2 ) );
+	far = Math.min( far,
+	                Math.max( t1,
+	                          t2 ) );
+	if( near > far )
+	  {
+	    return Double.NaN;
+	  }
+      }
+    return near;
+  }
+
+
+  /**
+   * Intersects the ray with the fan of triangles of the face, as in Möller and
+   * Trumbore's algorithm.
+   * 
+   * @return How far along the ray it hits the face, or infinity if it does not.
+   **/
+  private double hit( final Mesh.Face face )
+  {
+    final Mesh.Edge[] edges = face.edges();
+    final Mesh.Point3d a = edges[0].getHead();
+    final double aX = a.getX();
+    final double aY = a.getY();
+    final double aZ = a.getZ();
+    final double rayDX = ray[3];
+    final double rayDY = ray[4];
+    final double rayDZ = ray[5];
+    double nearest = Double.POSITIVE_INFINITY;
+    for( int i = 1; i < edges.length - 1; i++ )
+      {
+	final Mesh.Point3d b = edges[i].getHead();
+	final Mesh.Point3d c = edges[i].getTail();
+	final double abX = b.getX() - aX;
+	final double abY = b.getY() - aY;
+	final double abZ = b.getZ() - aZ;
+	final double acX = c.getX() - aX;
+	final double acY = c.getY() - aY;
+	final double acZ = c.getZ() - aZ;
+	final double pX = (rayDY * acZ) - (rayDZ * acY);
+	final double pY = (rayDZ * acX) - (rayDX * acZ);
+	final double pZ = (rayDX * acY) - (rayDY * acX);
+	final double det = (abX * pX) + (abY * pY) + (abZ * pZ);
+	if( Math.abs( det ) < EPSILON )
+	  {
+	    // the ray runs along the triangle
+	    continue;
+	  }
+	final double tX = ray[0] - aX;
+	final double tY = ray[1] - aY;
+	final double tZ = ray[2] - aZ;
+	final double u = ((tX * pX) + (tY * pY) + (tZ * pZ)) / det;
+	if( (u < 0) || (u > 1) )
+	  {
+	    continue;
+	  }
+	final double qX = (tY * abZ) - (tZ * abY);
+	final double qY = (tZ * abX) - (tX * abZ);
+	final double qZ = (tX * abY) - (tY * abX);
+	final double v = ((rayDX * qX) + (rayDY * qY) + (rayDZ * qZ)) / det;
+	if( (v < 0) || (u + v > 1) )
+	  {
+	    continue;
+	  }
+	final double t = ((acX * qX) + (acY * qY) + (acZ * qZ)) / det;
+	if( t >= 0 )
+	  {
+	    nearest = Math.min( nearest,
+	                        t );
+	  }
+      }
+    return nearest;
+  }
+
+
+  /**
+   * The face that a ray hit first, and where, see
+   * {@link SpatialIndex#castRay(double,double,double,double,double,double,double)}.
+   **/
+  public static final class Hit
+  {
+    Hit( final Mesh.Face face,
+	 final double distance,
+	 final double x,
+	 final double y,
+	 final double z )
+    {
+      super();
+      this.face = face;
+      this.distance = distance;
+      this.x = x;
+      this.y = y;
+      this.z = z;
+    }
+
+
+    public Mesh.Face getFace()
+    {
+      return face;
+    }
+
+
+    /**
+     * @return How far from the start of the ray it hit the face.
+     **/
+    public double getDistance()
+    {
+      return distance;
+    }
+
+
+    public double getX()
+    {
+      return x;
+    }
+
+
+    public double getY()
+    {
+      return y;
+    }
+
+
+    public double getZ()
+    {
+      return z;
+    }
+    private final Mesh.Face face;
+    private final double distance;
+    private final double x, y, z;
+  }
+
+  // The meshes of the index, and the shape version of each (in the same
+  // order) when the boxes were last fitted to its elements
+  private final Map<Mesh,Mesh> meshes = new IdentityHashMap<Mesh,Mesh>();
+  private Mesh[] meshArray = new Mesh[0];
+  private int[] shapeVersions = new int[0];
+  private boolean isShapeChanged;
+  // The leaf node of each element, and how often the meshes list it
+  private final Map<Object,int[]> leaves = new IdentityHashMap<Object,int[]>();
+  private static final int NODE = 0;
+  private static final int USES = 1;
+  //
+  // The nodes of the tree: the box of each (min x, y, z, max x, y, z), its
+  // parent, and its two children for an inner node, or its element for a
+  // leaf. A node given up is FREE, and the first child of one lists the next
+  private Object[] elements = new Object[0];
+  private double[] boxes = new double[0];
+  private int[] parents = new int[0];
+  private int[] firstChildren = new int[0];
+  private int[] secondChildren = new int[0];
+  private int nodeCount;
+  private int freeNode = NONE;
+  private int root = NONE;
+  //
+  // Whether the tree is to be built before the next query; if not, the
+  // number of elements it was last built with and how loose it was then
+  // (see looseness()), and how many elements have been added or removed
+  // since
+  private boolean isBuildPending;
+  private int builtSize;
+  private double builtLooseness;
+  private int changeCount;
+  //
+  // used while walking the tree
+  private int[] stack = new int[4];
+  private int[] order = new int[0];
+  private double[] centers;
+  // the origin and (unit) direction of the ray being cast
+  private final double[] ray = new double[6];
+  private static final int NONE = -1;
+  private static final int FREE = -2;
+  // the tree is built anew once as many elements have been added or
+  // removed as it was built with (but no fewer than this many)
+  private static final int MIN_REBUILD_CHANGES = 64;
+  // or once it has grown this much looser than it was when it was built
+  private static final double MAX_LOOSENESS = 2.0d;
+  private static final double EPSILON = 1e-12;
+}
@@ -1,21 +1,26 @@
 package com.ringlord.xs3d;
 
-import java.awt.Rectangle;
 import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
 import java.awt.Color;
-import java.awt.RenderingHints;
-import java.awt.Stroke;
-import java.awt.BasicStroke;
+import java.awt.Rectangle;
+import java.awt.Shape;
 import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.image.BufferedImage;
+
+import java.io.IOException;
 
-import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
-import java.util.ArrayList;
+
+import java.util.concurrent.ForkJoinPool;
 
 import javax.swing.JComponent;
 import javax.swing.AbstractAction;
+import javax.swing.Timer;
 
 import javax.swing.event.ChangeListener;
 import javax.swing.event.ChangeEvent;
@@ -38,8 +43,10 @@ import javax.swing.event.ChangeEvent;
 
 /**
  * <p>
- * The 3D Viewer/Renderer for the elements defined by the {@link Mesh}. The
- * component's preferred (initial) size is 480x300 pixels.
+ * The 3D Viewer for the elements defined by the {@link Mesh}. The component's
+ * preferred (initial) size is 480x300 pixels. It shows what its
+ * {@link Renderer3d} draws, and repaints itself when the view or a Mesh
+ * changes.
  * </p>
  * 
  * <p>
@@ -55,31 +62,6 @@ class Viewer3d
 {
   private static final long serialVersionUID = -2883317371127403464L;
 
-  /**
-   * Indicates whether to render a numeric count (starting at 1) near points,
-   * edges, and faces as they are being rendered from the rear-most to the
-   * front, to help identify the drawing order of {@link Mesh} elements.
-   **/
-  public static final boolean RENDER_DRAWING_DEPTH = false;
-
-  /**
-   * Indicates whether to use anti-aliased rendering, which creates the illusion
-   * of smoother lines at the cost of filling pixels with a blend of color where
-   * the displayed element would only occupy a part of a pixel. Anti-aliased
-   * rendering is generally slower than non-AA rendering, but on modern 3D
-   * hardware the difference may be small enough that the gain in smoothness is
-   * worth it.
-   **/
-  public static final boolean RENDER_ANTI_ALIASED = true;
-
-  /**
-   * Indicates whether points are drawn as little spheres (true) or not at all
-   * (false). Setting this value to true makes for a less "realistic" visual
-   * representation but certainly has its uses.
-   **/
-  public static final boolean RENDER_POINTS = true;
-
-
   /**
    * <p>
    * Construct a Viewer3d Component whose initial viewing angle is
@@ -164,24 +146,18 @@ class Viewer3d
 
   public void reset()
   {
-    // a fudge factor to control distortion
-    this.modelScale = 1000;
-
-    // do not call setWorldCenterXYZ as that one repaints
-    worldCenterX = 0.0d;
-    worldCenterY = 0.0d;
-    worldCenterZ = 0.0d;
-
-    // do not call setScreenPosition as that one repaints
-    screenPositionX = 0.0d;
-    screenPositionY = 0.0d;
-    screenPositionZ = 50.d;
-
-    // this method call repaints, which we want LAST!
-    setViewAngle( new Vector3d( Math.toRadians( 192.5d ), // View toward 192½°
-	                        Math.toRadians( 30.0d ), // Positioned 30° above
-	                                                 // the "equator"
-	                        Math.PI ) ); // Z-axis perfectly straight
+    renderer.reset();
+    repaint();
+  }
+
+
+  /**
+   * @return The Renderer3d that draws the scene shown by this Viewer3d. Call
+   *         {@link #repaint()} after changing it directly.
+   **/
+  public Renderer3d getRenderer()
+  {
+    return renderer;
   }
 
 
@@ -196,8 +172,7 @@ class Viewer3d
    **/
   public void add( final Mesh mesh )
   {
-    meshes.add( mesh );
-    meshArray = null;
+    renderer.add( mesh );
     mesh.addChangeListener( this );
     repaint();
   }
@@ -214,22 +189,108 @@ class Viewer3d
    **/
   public void remove( final Mesh mesh )
   {
-    // we COULD null zbuf to force zbuf to shrink
     mesh.removeChangeListener( this );
-    meshes.remove( mesh );
-    meshArray = null;
+    renderer.remove( mesh );
     repaint();
   }
 
 
   public Mesh[] meshes()
   {
-    if( meshArray == null )
+    return renderer.meshes();
+  }
+
+
+  /**
+   * Add an {@link IndexedMesh} to the scene. The scene's display will be
+   * updated at once. An IndexedMesh does not notify anyone when its vertices
+   * are moved, so {@link #repaint()} to show that.
+   * 
+   * @param mesh
+   *          The IndexedMesh to add. It must not be null.
+   **/
+  public void add( final IndexedMesh mesh )
+  {
+    renderer.add( mesh );
+    repaint();
+  }
+
+
+  /**
+   * Remove a previously added {@link IndexedMesh} from the scene. The scene's
+   * display will be updated at once.
+   **/
+  public void remove( final IndexedMesh mesh )
+  {
+    renderer.remove( mesh );
+    repaint();
+  }
+
+
+  public IndexedMesh[] indexedMeshes()
+  {
+    return renderer.indexedMeshes();
+  }
+
+
+  /**
+   * <p>
+   * Adds the chunks of a {@link MeshImporter} to the scene as they are read,
+   * starting the MeshImporter if need be. The chunks are taken every
+   * {@link #LOAD_INTERVAL} milliseconds, but the scene is repainted no more
+   * than every {@link #LOAD_REPAINT_INTERVAL} milliseconds while they keep
+   * coming, so that a large file is not held up by painting what has been read
+   * of it so far. Chunks that the MeshImporter withdraws again are removed.
+   * Why a file could not be read is reported on System.err.
+   * </p>
+   * 
+   * <p>
+   * Must be called on the event dispatch thread.
+   * </p>
+   **/
+  public void load( final MeshImporter importer )
+  {
+    final Timer timer = new Timer( LOAD_INTERVAL,
+	                           null );
+    timer.addActionListener( new ActionListener()
+    {
+      public void actionPerformed( final ActionEvent e )
       {
-	meshArray = new Mesh[meshes.size()];
-	meshes.toArray( meshArray );
+	boolean isChanged = false;
+	IndexedMesh chunk;
+	while ((chunk = importer.poll()) != null)
+	  {
+	    renderer.add( chunk );
+	    isChanged = true;
+	  }
+	while ((chunk = importer.pollWithdrawn()) != null)
+	  {
+	    renderer.remove( chunk );
+	    isChanged = true;
+	  }
+
+	final long now = System.nanoTime();
+	if( importer.isFinished() )
+	  {
+	    timer.stop();
+	    final IOException failure = importer.getFailure();
+	    if( failure != null )
+	      {
+		System.err.println( failure.getMessage() );
+	      }
+	    repaint();
+	  }
+	else if( isChanged && ((now - lastRepaint) >= LOAD_REPAINT_INTERVAL * 1000000L) )
+	  {
+	    lastRepaint = now;
+	    repaint();
+	  }
       }
-    return meshArray;
+
+      private long lastRepaint = System.nanoTime();
+    } );
+    importer.start();
+    timer.start();
   }
 
 
@@ -249,30 +310,8 @@ class Viewer3d
   public FocusInfo getFocusedMesh( final int focusX,
 	                           final int focusY )
   {
-    if( zbuf == null )
-      {
-	return null;
-      }
-    // Move backwards through the zbuffer, checking front-most items
-    // before checking ones in the back (if we actually culled items
-    // that are totally obscured, we could do this quicker)
-    for( int i = zcount - 1; i >= 0; i-- )
-      {
-	final ZRef z = zbuf[i];
-	final FocusInfo n = z.getAt( focusX,
-	                             focusY );
-	if( n != null )
-	  {
-	    // We have a mesh that would be focused, but if this mesh
-	    // is not focusable we will return null, as anything else
-	    // would be obscured by this one and should not be
-	    // selected until it would be above the current one.
-	    return (n.getMesh().isFocusable()
-		? n
-		: null);
-	  }
-      }
-    return null;
+    return renderer.getFocusedMesh( focusX,
+	                            focusY );
   }
 
 
@@ -296,22 +335,8 @@ class Viewer3d
 
 
   /**
-   * Set the view angle which controls rotation around the vertical. It is the
-   * primary means of affecting the view, and is updated when the mouse is
-   * dragged with the left button held down.
-   * 
-   * @param x
-   *          The x-component of the view angle (in radians): which direction
-   *          along the "equator" are we looking. It defaults to 347½°
-   * @param y
-   *          The y-component of the view angle (in radians): How far above or
-   *          below the "equator" the camera is located. -180° is looking
-   *          straight up from the south pole, 0° is looking straight along the
-   *          flat of the equator, 180° is looking straight down from the north
-   *          pole. It defaults to 30° (above) the equator.
-   * @param z
-   *          The z-component of the view angle: How far is the Z-axis tilted.
-   *          It defaults to 180°, pointing the Z-Axis is perfectly straight up.
+   * Set the view angle which controls rotation around the vertical, see
+   * {@link Renderer3d#setViewAngle(double,double,double)}.
    * 
    * @see #setViewAngle(Vector3d)
    **/
@@ -319,60 +344,28 @@ class Viewer3d
 	                    final double y,
 	                    final double z )
   {
-    // precalculate the values needed by the 'project' method
-    this.cosTheta = Math.cos( x );
-    this.sinTheta = Math.sin( x );
-    this.cosPhi = Math.cos( y );
-    this.sinPhi = Math.sin( y );
-
-    this.sinThetaSinPhi = sinTheta * sinPhi;
-    this.cosThetaSinPhi = cosTheta * sinPhi;
-    this.sinThetaCosPhi = sinTheta * cosPhi;
-    this.cosThetaCosPhi = cosTheta * cosPhi;
-
-    this.viewAngleX = x;
-    this.viewAngleY = y;
-    this.viewAngleZ = z;
-
+    renderer.setViewAngle( x,
+	                   y,
+	                   z );
     repaint();
   }
 
 
-  /**
-   * Obtains the angle of rotation around the Z-axis.
-   * 
-   * @return The x-component of the view angle (in radians): which direction
-   *         along the "equator" are we looking.
-   */
   public double getViewAngleX()
   {
-    return viewAngleX;
+    return renderer.getViewAngleX();
   }
 
 
-  /**
-   * Obtains the angle of rotation above or below the XY-plane
-   * 
-   * @return The y-component view angle (in radians): How far above or below the
-   *         "equator" the camera is located. -180° is looking straight up from
-   *         the south pole, 0° is looking straight along the flat of the
-   *         equator, 180° is looking straight down from the north pole.
-   */
   public double getViewAngleY()
   {
-    return viewAngleY;
+    return renderer.getViewAngleY();
   }
 
 
-  /**
-   * Obtains the angle of rotation/tilt of the Z-axis.
-   * 
-   * @return The z-component of the view angle: How far is the Z-axis tilted. A
-   *         value of 180° points the Z axis straight up.
-   */
   public double getViewAngleZ()
   {
-    return viewAngleZ;
+    return renderer.getViewAngleZ();
   }
 
 
@@ -380,90 +373,149 @@ class Viewer3d
 	                         final double y,
 	                         final double z )
   {
-    this.worldCenterX = x;
-    this.worldCenterY = y;
-    this.worldCenterZ = z;
-
+    renderer.setWorldCenterXYZ( x,
+	                        y,
+	                        z );
     repaint();
   }
 
 
   /**
-   * Sets the position of the screen that is mapped to the display, onto which
-   * the 3D scene is projected. Changing the z-coordinate controls the zoom
-   * level. The x and y coordinates control panning.
-   * 
-   * @param screenPosition
-   *          Where the viewer / screen is positioned with respect to the scene.
-   *          The x and y coordinate should be centered at (0,&nbsp;0), whereas
-   *          the z-coordinate should be a positive value (it defaults to 50).
+   * Sets the position of the screen that is mapped to the display, see
+   * {@link Renderer3d#setScreenPosition(double,double,double)}.
    **/
   public void setScreenPosition( final Vector3d screenPosition )
   {
-    this.screenPositionX = screenPosition.x;
-    this.screenPositionY = screenPosition.y;
-    this.screenPositionZ = screenPosition.z;
-
+    renderer.setScreenPosition( screenPosition.x,
+	                        screenPosition.y,
+	                        screenPosition.z );
     repaint();
   }
 
 
   public double getScreenPositionZ()
   {
-    return screenPositionZ;
+    return renderer.getScreenPositionZ();
   }
 
 
   public void setScreenPositionZ( final double screenPositionZ )
   {
-    this.screenPositionZ = screenPositionZ;
+    renderer.setScreenPositionZ( screenPositionZ );
     repaint();
   }
 
 
   /**
-   * Project the given point in 3D space to a 2D coordinate on the screen. This
-   * is affected by the given screen center coordinate, the
-   * {@link #setViewAngle(Vector3d)} and the
-   * {@link #setScreenPosition(Vector3d)}.
-   * 
-   * @param xScreenCenter
-   *          The horizontal center offset of the physical screen, which should
-   *          be the horizontal bounds divided by 2.
-   * 
-   * @param yScreenCenter
-   *          The vertical center offset of the physical screen, which should be
-   *          the vertical bounds divided by 2.
+   * Sets the {@link ForkJoinPool} on which large scenes are rendered, see
+   * {@link Renderer3d#setForkJoinPool(ForkJoinPool)}.
+   **/
+  public void setForkJoinPool( final ForkJoinPool pool )
+  {
+    renderer.setForkJoinPool( pool );
+    repaint();
+  }
+
+
+  public ForkJoinPool getForkJoinPool()
+  {
+    return renderer.getForkJoinPool();
+  }
+
+
+  /**
+   * Sets whether the element in focus is found by looking up which one was
+   * drawn at the mouse location, see {@link Renderer3d#setPickBuffer(boolean)}.
+   **/
+  public void setPickBuffer( final boolean isPickBuffer )
+  {
+    renderer.setPickBuffer( isPickBuffer );
+    repaint();
+  }
+
+
+  public boolean isPickBuffer()
+  {
+    return renderer.isPickBuffer();
+  }
+
+
+  /**
+   * Finds the elements of the index that may be seen in the display, see
+   * {@link SpatialIndex#findInFrustum(double[],Collection)}.
    * 
-   * @param point
-   *          The point in 3D space to project.
+   * @param found
+   *          Receives the elements found, in no particular order.
+   **/
+  public void findVisible( final SpatialIndex index,
+	                   final Collection<Object> found )
+  {
+    index.findInFrustum( renderer.getFrustum( getWidth(),
+	                                      getHeight() ),
+	                 found );
+  }
+
+
+  /**
+   * Finds the elements shown within an area of the display, see
+   * {@link Renderer3d#getElementsWithin(Shape)}.
+   **/
+  public List<FocusInfo> getElementsWithin( final Shape area )
+  {
+    return renderer.getElementsWithin( area );
+  }
+
+
+  /**
+   * Shows the outline of an area over the frame, such as the band dragged
+   * out with the mouse, or none if it is null. The frame need not be drawn
+   * again for it, so only its image is shown again where the outline was
+   * and where it is now.
    * 
-   * @param p2d
-   *          A point in 2D space, representing the (x,y) location of the 3D
-   *          coordinate on the current display (it may be off-screen, though)
-   *          and its depth (distance from the viewer, where a positive depth
-   *          means that "in front of" and a negative depth means "behind the
-   *          viewer". This depth value is used to determine visibility as well
-   *          as drawing order.
+   * @param area
+   *          Which may be changed and given again as it grows.
+   **/
+  public void setSelectionArea( final Shape area )
+  {
+    final Rectangle old = selectionBounds;
+    selectionArea = area;
+    selectionBounds = ((area == null)
+	? null
+	: area.getBounds());
+    final Rectangle r = ((old == null)
+	? selectionBounds
+	: ((selectionBounds == null)
+	    ? old
+	    : old.union( selectionBounds )));
+    if( r != null )
+      {
+	// not noted as damage, as the frame is as it was
+	super.repaint( 0,
+	               r.x - 1,
+	               r.y - 1,
+	               r.width + 3,
+	               r.height + 3 );
+      }
+  }
+
+
+  /**
+   * Repaints only where the element in focus is drawn, for when nothing but
+   * its focus or selection changed; or the whole display if that is not
+   * known. Only that part of the last frame is drawn again, see
+   * {@link #paintComponent(Graphics)}.
    **/
-  private void project( final double xScreenCenter,
-	                final double yScreenCenter,
-	                final Mesh.Point3d point,
-	                final Point2d p2d )
+  public void repaintFocus( final FocusInfo info )
   {
-    final double px = point.getX() - worldCenterX;
-    final double py = point.getY() - worldCenterY;
-    final double pz = point.getZ() - worldCenterZ;
-
-    final double x = (screenPositionX + (px * cosTheta) - (py * sinTheta));
-    final double y = (screenPositionY + (px * sinThetaSinPhi) + (py * cosThetaSinPhi) + (pz * cosPhi));
-    final double z = ((screenPositionZ + (px * sinThetaCosPhi) + (py * cosThetaCosPhi) - (pz * sinPhi)));
-    final double temp = modelScale * (viewAngleZ / z);
-
-    // z is the distance from the viewer
-    p2d.set( (int)(xScreenCenter + (temp * x)),
-	     (int)(yScreenCenter - (temp * y)),
-	     z );
+    final Rectangle r = renderer.getBounds( info );
+    if( r == null )
+      {
+	repaint();
+      }
+    else
+      {
+	repaint( r );
+      }
   }
 
 
@@ -488,386 +540,181 @@ class Viewer3d
   // ----------------------------------------------------------------------
 
   /**
-   * This method is invoked by Swing whenever a repaint event is handled.
+   * Notes the part of the display that is to be drawn again when it is next
+   * painted, see {@link #paintComponent(Graphics)}. All the other repaint
+   * methods come here.
    **/
   @Override
-  public void paintComponent( final Graphics g )
+  public void repaint( final long tm,
+	               final int x,
+	               final int y,
+	               final int width,
+	               final int height )
   {
-    final long startTime = System.nanoTime();
-
-    final Graphics2D g2 = (Graphics2D)g;
-
-    final Rectangle bounds = getBounds();
-
-    g2.setColor( Color.black );
-    g2.fillRect( 0,
-	         0,
-	         bounds.width,
-	         bounds.height );
-    
-    // use anti-aliased drawing? (tends to be slower)
-    if( RENDER_ANTI_ALIASED )
+    // called by the JComponent constructor, before the fields are set
+    if( damageLock != null )
       {
-	g2.setRenderingHint( RenderingHints.KEY_ANTIALIASING,
-	                     RenderingHints.VALUE_ANTIALIAS_ON );
-      }
-
-    final Rectangle dim = getBounds();
-    final double xScreenCenter = dim.width / 2.0d;
-    final double yScreenCenter = dim.height / 2.0d;
-
-    // Collect ZRef objects which we can sort to ensure drawing from
-    // back to front, and therefore effect proper depth perception,
-    // especially when it comes to faces. It doesn't matter in
-    // which order we process the points, edges, and faces of a
-    // Mesh (in the loop below) but we'll do it in a "natural" order,
-    // points first, edges next, and faces last.
-    final List<ZRef> zref = new ArrayList<ZRef>();
-    for( Mesh mesh : meshes() )
-      {
-	if( mesh.isVisible() )
+	synchronized( damageLock )
 	  {
-
-	    // Points
-	    for( Mesh.Point3d p : mesh.points() )
+	    // Areas far apart (such as where the focus was, and where it is
+	    // now) are drawn again one by one, rather than all that lies
+	    // between them, unless there are many. The rectangles are kept
+	    // and filled anew, rather than made for each request.
+	    if( damageCount < MAX_DAMAGE )
 	      {
-		final Point2d p2d = new Point2d();
-		project( xScreenCenter,
-		         yScreenCenter,
-		         p,
-		         p2d );
-		if( p2d.depth > 0 )
-		  {
-		    // The ZRef will take the Point2d's z-coordinate to
-		    // determine the distance from the viewer.
-		    zref.add( new ZRef( mesh,
-			                p,
-			                p2d ) );
-		  }
+		damage[damageCount++].setBounds( x,
+		                                 y,
+		                                 width,
+		                                 height );
 	      }
-
-	    // Edges
-	    for( Mesh.Edge e : mesh.edges() )
+	    else
 	      {
-		final Point2d p2d1 = new Point2d();
-		project( xScreenCenter,
-		         yScreenCenter,
-		         e.getHead(),
-		         p2d1 );
-		final Point2d p2d2 = new Point2d();
-		project( xScreenCenter,
-		         yScreenCenter,
-		         e.getTail(),
-		         p2d2 );
-		if( p2d1.depth > 0 )
-		  {
-		    if( p2d2.depth > 0 )
-		      {
-			// The line is fully in front of the viewer; the
-			// average distance of each point's z-coordinate
-			// will determine how far this line is from the
-			// viewer.
-			zref.add( new ZRef( mesh,
-			                    e,
-			                    p2d1,
-			                    p2d2 ) );
-		      }
-		    else
-		      {
-			// The start of the line is in FRONT of the
-			// viewer, but the end of it is BEHIND
-
-			// @@@ find intersection in x,y space, construct a
-			// new Point2d and store that as the END point,
-			// instead (i.e. compute a clipped line)
-		      }
-		  }
-		else if( p2d2.depth > 0 )
-		  {
-		    // The start of the line is BEHIND the viewer, the end
-		    // of it is in FRONT
-
-		    // @@@ find intersection in x,y space, construct a new
-		    // Point2d and store that as the START point, instead
-		    // (i.e. compute a clipped line)
-		  }
-	      }
-
-	    // Faces
-	    nextFace: for( Mesh.Face f : mesh.faces() )
-	      {
-		// start with an empty list of points
-		points.clear();
-		for( Mesh.Edge e : f.edges() )
-		  {
-		    final Point2d p2d1 = new Point2d();
-		    project( xScreenCenter,
-			     yScreenCenter,
-			     e.getHead(),
-			     p2d1 );
-		    final Point2d p2d2 = new Point2d();
-		    project( xScreenCenter,
-			     yScreenCenter,
-			     e.getTail(),
-			     p2d2 );
-		    if( (p2d1.depth < 0) || (p2d2.depth < 0) )
-		      {
-			// One or both points of this edge lies behind the
-			// viewer, so let's not render any part of the
-			// face because it gets really complicated
-			// trying to determine intersection points, and
-			// render only subsections of the face.
-			continue nextFace;
-		      }
-		    // As our edges should be defining a CLOSED series of
-		    // points, we simply capture the first point of each
-		    // edge
-		    points.add( p2d1 );
-		  }
-		// If we got here then we didn't do a 'continue nextMesh'
-		// in the loop above, meaning that we have a full set of
-		// at least 3 points now to enclose the face.
-		final Point2d[] pointList = new Point2d[points.size()];
-		points.toArray( pointList );
-		zref.add( new ZRef( mesh,
-		                    f,
-		                    pointList ) );
+		final Rectangle last = damage[MAX_DAMAGE - 1];
+		last.add( x,
+		          y );
+		last.add( x + width,
+		          y + height );
 	      }
 	  }
       }
+    super.repaint( tm,
+	           x,
+	           y,
+	           width,
+	           height );
+  }
+
+
+  /**
+   * <p>
+   * This method is invoked by Swing whenever a repaint event is handled.
+   * </p>
+   * 
+   * <p>
+   * The last frame is kept in an image. It is only drawn again in full when
+   * the view or a Mesh has changed; when merely the focus or selection of an
+   * element has, only where that element is drawn (see
+   * {@link #repaintFocus(FocusInfo)}); and not at all when the display was
+   * only uncovered, so that it is shown at the cost of copying the image.
+   * </p>
+   **/
+  @Override
+  public void paintComponent( final Graphics g )
+  {
+    final long startTime = System.nanoTime();
 
-    // Time to sort the ZRef: The Comparator for the ZRef causes the
-    // elements farthest away to be ordered first in the list. We
-    // convert the list to an array and loop through that as it is
-    // generally much faster to process an array than a List (it has
-    // been observed to be about 3× faster, actually, but that may
-    // vary).
-    zcount = zref.size();
-    zbuf = zref.toArray( zbuf );
-    Arrays.sort( zbuf,
-	         0,
-	         zcount );
-
-    if( RENDER_DRAWING_DEPTH )
+    final Graphics2D g2 = (Graphics2D)g;
+
+    // getWidth() and getHeight() unlike getBounds() do not allocate
+    final int width = getWidth();
+    final int height = getHeight();
+    if( (width <= 0) || (height <= 0) )
       {
-	_counter = 0;
+	return;
       }
 
-    // Render each of the elements in the ZRef structure. The number
-    // of points referenced determines whether it's a point (1), an
-    // edge (2), or a face (3+).
-    for( int i = 0; i < zcount; i++ )
+    // the damage noted so far, copied into rectangles kept for the purpose
+    final int regionCount;
+    synchronized( damageLock )
       {
-	final ZRef z = zbuf[i];
-	final Point2d[] pointList = z.get();
-	if( pointList.length == 1 )
+	regionCount = damageCount;
+	for( int i = 0; i < regionCount; i++ )
 	  {
-	    // We have a single point
-	    if( RENDER_POINTS )
-	      {
-		paintPoint( g2,
-		            z.getPoint(),
-		            pointList[0] );
-	      }
-	  }
-	else if( pointList.length == 2 )
-	  {
-	    // We have an edge
-	    paintEdge( g2,
-		       z.getEdge(),
-		       pointList[0],
-		       pointList[1] );
-	  }
-	else
-	  {
-	    // We have 3+ so it's a face
-	    paintFace( g2,
-		       z.getFace(),
-		       pointList );
+	    regions[i].setBounds( damage[i] );
 	  }
+	damageCount = 0;
       }
-
-    long nanos = (System.nanoTime() - startTime);
-    System.err.print( String.format( "\r%1.2f FPS",
-	                             1000000000.0d / nanos ) );
-  }
-
-
-  /**
-   * Paints a point at the indicated Point2d (x,y) coordinate. Points are
-   * rendered to appear like small spheres using concentric rings of color from
-   * dark on the outer edge to white in the center.
-   * 
-   * @param g2
-   *          The graphics object into which to render
-   * @param p
-   *          Where to render the point
-   **/
-  private void paintPoint( final Graphics2D g2,
-	                   final Mesh.Point3d point,
-	                   final Point2d p )
-  {
-    final Color[] colors;
-    if( point.isSelected() )
+    boolean isRedrawn = false;
+    if( (frame == null) || (frame.getWidth() != width) || (frame.getHeight() != height) )
+      {
+	final GraphicsConfiguration gc = getGraphicsConfiguration();
+	frame = ((gc != null)
+	    ? gc.createCompatibleImage( width,
+	                                height )
+	    : new BufferedImage( width,
+	                         height,
+	                         BufferedImage.TYPE_INT_RGB ));
+	isRedrawn = true;
+      }
+    if( renderer.update( width,
+	                 height ) )
       {
-	colors = SELECTED;
+	isRedrawn = true;
       }
-    else if( point.isFocused() )
+    if( isRedrawn )
       {
-	colors = FOCUSED;
+	redraw( null );
       }
     else
       {
-	colors = NORMAL;
+	for( int i = 0; i < regionCount; i++ )
+	  {
+	    redraw( regions[i] );
+	  }
       }
-
-    g2.setColor( colors[0] );
-    g2.fillOval( p.x - 3,
-	         p.y - 3,
-	         7,
-	         7 );
-
-    g2.setColor( colors[1] );
-    g2.fillOval( p.x - 2,
-	         p.y - 2,
-	         5,
-	         5 );
-
-    g2.setColor( colors[2] );
-    g2.fillOval( p.x - 1,
-	         p.y - 1,
-	         3,
-	         3 );
-
-    if( RENDER_DRAWING_DEPTH )
+    g2.drawImage( frame,
+	          0,
+	          0,
+	          null );
+    final Shape area = selectionArea;
+    if( area != null )
       {
-	g2.drawString( String.valueOf( ++_counter ),
-	               p.x + 5,
-	               p.y );
+	g2.setColor( Color.white );
+	g2.draw( area );
       }
+
+    paintNanos = System.nanoTime() - startTime;
   }
 
 
   /**
-   * Paints a colored edge (a line between two coordinates).
+   * How long the display took to paint the last time, from which an
+   * application may work out and show the frame rate. Nothing is reported
+   * by the display itself.
    * 
-   * @param g2
-   *          The graphics object into which to render
-   * @param c
-   *          The color for the line
-   * @param head
-   *          The starting point of the edge
-   * @param tail
-   *          The ending point of the edge
+   * @return The time in nanoseconds, or 0 if it has not yet been painted.
    **/
-  private void paintEdge( final Graphics2D g2,
-	                  final Mesh.Edge edge,
-	                  final Point2d head,
-	                  final Point2d tail )
+  public long getPaintNanos()
   {
-    final Mesh.Coloring coloring = edge.getColoring();
-    if( coloring != null )
-      {
-	final Color color;
-	if( edge.isSelected() )
-	  {
-	    color = coloring.selected();
-	  }
-	else if( edge.isFocused() )
-	  {
-	    color = coloring.focused();
-	  }
-	else
-	  {
-	    color = coloring.normal();
-	  }
-
-	// no color, no rendering
-	if( color != null )
-	  {
-	    g2.setColor( color );
-	    if( originalStroke == null )
-	      {
-		originalStroke = g2.getStroke();
-	      }
-	    g2.setStroke( edge.isSelected()
-		? selectedStroke
-		: originalStroke );
-	    g2.drawLine( head.x,
-		         head.y,
-		         tail.x,
-		         tail.y );
-	    g2.setStroke( originalStroke );
-	    if( RENDER_DRAWING_DEPTH )
-	      {
-		g2.drawString( String.valueOf( ++_counter ),
-		               (head.x + tail.x) / 2 + 5,
-		               (head.y + tail.y) / 2 + 5 );
-	      }
-	  }
-      }
+    return paintNanos;
   }
 
 
   /**
-   * Paints a color-filled face using three or more points in 3D space.
-   * 
-   * @param g2
-   *          The graphics object into which to render
-   * @param c
-   *          The color for the face
-   * @param pN
-   *          Three or more points to define the face corners.
+   * Draws the frame anew in the given region of the image that holds it, or
+   * in all of it if the region is null.
    **/
-  private void paintFace( final Graphics2D g2,
-	                  final Mesh.Face face,
-	                  final Point2d[] pN )
+  private void redraw( final Rectangle region )
   {
-    final Mesh.Coloring coloring = face.getColoring();
-    if( coloring != null )
+    final Graphics2D g2 = frame.createGraphics();
+    try
       {
-	final Color color;
-
-	if( face.isSelected() )
+	if( region != null )
 	  {
-	    color = coloring.selected();
+	    g2.clip( region );
 	  }
-	else if( face.isFocused() )
-	  {
-	    color = coloring.focused();
-	  }
-	else
-	  {
-	    color = coloring.normal();
-	  }
-
-	if( color != null )
-	  {
-	    g2.setColor( color );
-
-	    final int size = pN.length;
-	    final int[] x = new int[size];
-	    final int[] y = new int[size];
-
-	    int n = 0;
-	    for( int i = 0; i < pN.length; i++ )
-	      {
-		x[n] = pN[i].x;
-		y[n] = pN[i].y;
-		n++;
-	      }
+	g2.setColor( Color.black );
+	g2.fillRect( 0,
+	             0,
+	             frame.getWidth(),
+	             frame.getHeight() );
+	renderer.draw( g2 );
+      }
+    finally
+      {
+	g2.dispose();
+      }
+  }
 
-	    g2.fillPolygon( x,
-		            y,
-		            size );
 
-	    if( RENDER_DRAWING_DEPTH )
-	      {
-		// find the center of the face, drawString ++_counter there
-		// (as in paintPoint and paintEdge above)
-	      }
-	  }
+  private static Rectangle[] newRectangles( final int count )
+  {
+    final Rectangle[] rectangles = new Rectangle[count];
+    for( int i = 0; i < count; i++ )
+      {
+	rectangles[i] = new Rectangle();
       }
+    return rectangles;
   }
 
 
@@ -887,329 +734,27 @@ class Viewer3d
     private final double x, y, z;
   }
 
-
-  /**
-   * A point in 2D space (on the screen) with associated distance from the
-   * viewer that allows for depth sorting.
-   **/
-  static class Point2d
-  {
-    void set( final int x,
-	      final int y,
-	      final double depth )
-    {
-      this.x = x;
-      this.y = y;
-      this.depth = depth;
-    }
-
-
-    int getX()
-    {
-      return x;
-    }
-
-
-    int getY()
-    {
-      return y;
-    }
-
-
-    double getDepth()
-    {
-      return depth;
-    }
-    private int x, y;
-    private double depth;
-  }
-
-
-  /**
-   * A ZRef references one or more coordinates (and associated color where
-   * applicable) for points, edges, and faces. The important feature here is
-   * that we've already calculated where on the screen these points are to be
-   * displayed, so we don't need to recalculate that information. If our Mesh
-   * elements (Point, Edge, Face) had more attributes, then we might want to
-   * reference them directly here, but for now capturing their color is all we
-   * need here.
-   **/
-  static class ZRef
-    implements Comparable<ZRef>
-  {
-    ZRef( final Mesh mesh,
-	  final Mesh.Point3d point,
-	  final Point2d ref )
-    {
-      this.refs = new Point2d[] {ref};
-      this.avgDepth = ref.depth;
-      //
-      this.mesh = mesh;
-      this.point = point;
-    }
-
-
-    ZRef( final Mesh mesh,
-	  final Mesh.Edge edge,
-	  final Point2d refHead,
-	  final Point2d refTail )
-    {
-      this.refs = new Point2d[] {refHead, refTail};
-      this.avgDepth = (refHead.depth + refTail.depth) / 2.0d;
-      //
-      this.mesh = mesh;
-      this.edge = edge;
-    }
-
-
-    ZRef( final Mesh mesh,
-	  final Mesh.Face face,
-	  final Point2d[] refs )
-    {
-      this.refs = refs;
-      fixDepth();
-      //
-      this.mesh = mesh;
-      this.face = face;
-    }
-
-
-    Point2d[] get()
-    {
-      return Arrays.copyOf( refs,
-	                    refs.length );
-    }
-
-
-    public Mesh getMesh()
-    {
-      return mesh;
-    }
-
-
-    public Mesh.Face getFace()
-    {
-      return face;
-    }
-
-
-    public Mesh.Edge getEdge()
-    {
-      return edge;
-    }
-
-
-    public Mesh.Point3d getPoint()
-    {
-      return point;
-    }
-
-
-    public FocusInfo getAt( final int focusX,
-	                    final int focusY )
-    {
-      if( face != null )
-	{
-	  boolean isInside = false;
-	  // last/previous one
-	  Point2d p = refs[refs.length - 1];
-	  for( Point2d v : refs )
-	    {
-	      final int x0 = p.getX();
-	      final int y0 = p.getY();
-
-	      final int x1 = v.getX();
-	      final int y1 = v.getY();
-
-	      if( (((y0 <= focusY) && (focusY < y1)) || ((y1 <= focusY) && (focusY < y0))) &&
-		  (focusX < (((x0 - x1) * (focusY - y1)) / (y0 - y1)) + x1) )
-		{
-		  isInside = !isInside;
-		}
-	      p = v;
-	    }
-	  if( isInside )
-	    {
-	      return new FocusInfo( mesh,
-		                    face );
-	    }
-	}
-      else if( edge != null )
-	{
-	  Point2d p1 = refs[0];
-	  Point2d p2 = refs[1];
-
-	  final int x1 = p1.getX();
-	  final int y1 = p1.getY();
-
-	  final int x2 = p2.getX();
-	  final int y2 = p2.getY();
-
-	  final int dX = x2 - x1;
-	  final int dY = y2 - y1;
-	  final float du = (dX * dX + dY * dY);
-	  if( du != 0.0f )
-	    {
-	      final float u = (((dX * (focusX - x1)) + (dY * (focusY - y1))) / du);
-
-	      // Check whether we have no perpendicular line through
-	      // the segment, i.e. we have something like the left
-	      // side vertical line that misses the segment ("whoops")
-	      // rather than crossing it ("yay")
-	      //
-	      // p + p +
-	      // | |
-	      // | p1 +-------+-----------+ p2
-	      // | |
-	      // : whoops |
-	      // + yay
-	      //
-	      // For what it's worth, the following holds:
-	      //
-	      // u < 0 : it misses on the x1/y1 side of the segment
-	      // u > 1 : it misses on the x2/y2 side of the segment
-	      //
-	      // But we don't care about that; all we really need to
-	      // know here is that we do NOT intercept the line
-	      // segment:
-	      if( (u >= 0.0f) && (u <= 1.0f) )
-		{
-		  // The perpendicular line intercepts the line segment
-		  // somewhere,
-		  // so let's find out the distance. if it's less than our
-		  // fuzziness
-		  // value, then the point is close enough to the line to be
-		  // considered "on" it:
-		  final float x3 = x1 + u * dX;
-		  final float y3 = y1 + u * dY;
-
-		  final float dist = (float)Math.hypot( (x3 - focusX),
-			                                (y3 - focusY) );
-		  if( dist <= 5.0f )
-		    {
-		      return new FocusInfo( mesh,
-			                    edge );
-		    }
-		}
-	    }
-	}
-      else if( point != null )
-	{
-	  Point2d p = refs[0];
-
-	  if( (Math.abs( p.getX() - focusX ) < 6) && (Math.abs( p.getY() - focusY ) < 6) )
-	    {
-	      return new FocusInfo( mesh,
-		                    point );
-	    }
-	}
-      return null;
-    }
-
-
-    public int compareTo( final ZRef other )
-    {
-      if( avgDepth > other.avgDepth )
-	{
-	  // we're farther away, so put us before the other ZRef
-	  return -1;
-	}
-      if( avgDepth < other.avgDepth )
-	{
-	  // we're nearer, so put us after the other ZRef
-	  return 1;
-	}
-      // same distance
-      return 0;
-    }
-
-
-    /**
-     * Convenience method for calculating the average depth of the referenced
-     * points. We call this only when we have 2 or more, as it's easy enough
-     * with 2 points to calculate the average directly.
-     **/
-    private void fixDepth()
-    {
-      double d = 0.0d;
-      for( Point2d p : refs )
-	{
-	  d += p.depth;
-	}
-      avgDepth = d / refs.length;
-    }
-    private final Point2d[] refs;
-    private double avgDepth;
-    //
-    private Mesh mesh;
-    private Mesh.Face face;
-    private Mesh.Edge edge;
-    private Mesh.Point3d point;
-  }
-
-  // values controlling the 3D projection
-  private double screenPositionX, screenPositionY, screenPositionZ;
-  private double viewAngleX, viewAngleY, viewAngleZ;
-  private double worldCenterX, worldCenterY, worldCenterZ;
-  private int modelScale;
-  // values that are changed only when the viewangle is altered, and
-  // are therefore pre-computed and cached for optimal performance
-  private double cosTheta, sinTheta, cosPhi, sinPhi;
-  private double sinThetaSinPhi, cosThetaSinPhi, sinThetaCosPhi, cosThetaCosPhi;
-  // when RENDER_DRAWING_DEPTH is set to true, this counter is reset
-  // during each drawing cycle, incremented for each Mesh element that
-  // is drawn, and its value painted next to that element to provide
-  // visual feedback for the drawing order
-  private int _counter;
-  //
   /**
-   * Reused structure for collecting the edge points of a face.
+   * How often (in milliseconds) {@link #load(MeshImporter)} takes the chunks
+   * that have been read.
    **/
-  private final List<Point2d> points = new ArrayList<Point2d>();
+  public static final int LOAD_INTERVAL = 40;
   /**
-   * The {@link Mesh}es to be rendered.
+   * How often (in milliseconds) {@link #load(MeshImporter)} at most repaints
+   * the scene while chunks keep coming.
    **/
-  private Mesh[] meshArray;
-  private int zcount; // how many in zbuf are actually used
-  private ZRef[] zbuf = new ZRef[0]; // quicker than a List<ZBuf>, never shrinks
-  private final List<Mesh> meshes = new ArrayList<Mesh>();
-  //
-  // colors for drawing the little spheres to represent points
-  private static final Color GRAY = new Color( 127,
-	                                       127,
-	                                       127 );
-  private static final Color LGRAY = new Color( 191,
-	                                        191,
-	                                        191 );
-  private static final Color WHITE = new Color( 255,
-	                                        255,
-	                                        255 );
-  //
-  private static final Color BROWN = new Color( 127,
-	                                        127,
-	                                        0 );
-  private static final Color YELLOW = new Color( 191,
-	                                         191,
-	                                         0 );
-  private static final Color BRIGHT_YELLOW = new Color( 255,
-	                                                255,
-	                                                0 );
-  //
-  private static final Color DARK_RED = new Color( 127,
-	                                           0,
-	                                           0 );
-  private static final Color RED = new Color( 191,
-	                                      0,
-	                                      0 );
-  private static final Color BRIGHT_RED = new Color( 255,
-	                                             0,
-	                                             0 );
-  //
-  private static final Color[] NORMAL = new Color[] {GRAY, LGRAY, WHITE};
-  private static final Color[] FOCUSED = new Color[] {BROWN, YELLOW, BRIGHT_YELLOW};
-  private static final Color[] SELECTED = new Color[] {DARK_RED, RED, BRIGHT_RED};
-  private static Stroke originalStroke;
-  private static final Stroke selectedStroke = new BasicStroke( 3,
-	                                                        BasicStroke.CAP_BUTT,
-	                                                        BasicStroke.JOIN_ROUND );
+  public static final int LOAD_REPAINT_INTERVAL = 250;
+
+  private final Renderer3d renderer = new Renderer3d();
+  // the last frame, and the parts of it to be drawn again
+  private BufferedImage frame;
+  private static final int MAX_DAMAGE = 8;
+  private final Rectangle[] damage = newRectangles( MAX_DAMAGE );
+  private int damageCount; // how many of damage are noted
+  private final Object damageLock = new Object();
+  private final Rectangle[] regions = newRectangles( MAX_DAMAGE ); // see paintComponent()
+  private volatile long paintNanos; // see getPaintNanos()
+  // the outline shown over the frame, see setSelectionArea()
+  private Shape selectionArea;
+  private Rectangle selectionBounds;
 }
@@ -0,0 +1,413 @@
+package com.ringlord.xs3d;
+
+import java.awt.Color;
+
+import java.lang.management.ManagementFactory;
+
+import java.lang.reflect.Field;
+
+import java.util.Random;
+
+
+// This file is part of XS3D.
+//
+// XS3D is free software: you can redistribute it and/or modify it
+// under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// XS3D is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with XS3D. If not, see <http://www.gnu.org/licenses/>.
+
+/**
+ * <p>
+ * Checks that the {@link Renderer3d} allocates nothing to bring a frame up to
+ * date and draw it once the scene has been drawn a few times: not as the view
+ * turns, not as only part of the frame is drawn again (as for a change of
+ * focus), not as the vertices of a Mesh are given new positions, not as the
+ * pick buffer is drawn, not as the view jumps (or turns too far for the last
+ * order to be repaired) so that the elements are sorted from scratch, and not
+ * once most meshes have been removed. The bytes that the thread allocates are
+ * counted with the {@link com.sun.management.ThreadMXBean} of the JVM.
+ * </p>
+ * 
+ * <p>
+ * The frames are drawn into a {@link NullGraphics2D}, as what Java2D allocates
+ * to rasterize them is beyond XS3D, and without a ForkJoinPool, so that all
+ * the work is done (and counted) on this thread. Run it with
+ * <code>ant test</code>; it exits with status 1 if anything is allocated, or
+ * if the renderer keeps what it pooled for the meshes that were removed.
+ * </p>
+ * 
+ * @author K. Udo Schuermann
+ **/
+final class AllocationTest
+{
+  public static void main( final String[] args )
+  {
+    final AllocationTest test = new AllocationTest();
+    test.run( "turning view",
+	      new Frame()
+	      {
+		public void draw( final int f )
+		{
+		  test.turn( f,
+		             TURN );
+		  test.renderer.render( test.graphics,
+		                        WIDTH,
+		                        HEIGHT );
+		}
+	      } );
+    test.run( "focus change",
+	      new Frame()
+	      {
+		public void draw( final int f )
+		{
+		  test.focus( f );
+		}
+	      } );
+    test.run( "moved vertices",
+	      new Frame()
+	      {
+		public void draw( final int f )
+		{
+		  test.move( f );
+		  test.renderer.render( test.graphics,
+		                        WIDTH,
+		                        HEIGHT );
+		}
+	      } );
+    test.renderer.setPickBuffer( true );
+    test.run( "pick buffer",
+	      new Frame()
+	      {
+		public void draw( final int f )
+		{
+		  test.turn( f,
+		             TURN );
+		  test.renderer.render( test.graphics,
+		                        WIDTH,
+		                        HEIGHT );
+		}
+	      } );
+    test.renderer.setPickBuffer( false );
+    test.run( "camera jump",
+	      new Frame()
+	      {
+		public void draw( final int f )
+		{
+		  test.turn( f,
+		             JUMP );
+		  test.renderer.render( test.graphics,
+		                        WIDTH,
+		                        HEIGHT );
+		}
+	      } );
+    test.run( "order not repaired",
+	      new Frame()
+	      {
+		public void draw( final int f )
+		{
+		  test.turn( f,
+		             WIDE_TURN );
+		  test.renderer.render( test.graphics,
+		                        WIDTH,
+		                        HEIGHT );
+		}
+	      } );
+    test.shrink();
+    test.run( "removed meshes",
+	      new Frame()
+	      {
+		public void draw( final int f )
+		{
+		  test.turn( f,
+		             TURN );
+		  test.renderer.render( test.graphics,
+		                        WIDTH,
+		                        HEIGHT );
+		}
+	      } );
+
+    if( test.failures > 0 )
+      {
+	System.exit( 1 );
+      }
+  }
+
+
+  private AllocationTest()
+  {
+    super();
+    renderer.setForkJoinPool( null );
+    final Random random = new Random( 42 );
+    final Mesh.Coloring edgeColoring = new Mesh.Coloring( Color.red,
+	                                                  Color.yellow,
+	                                                  Color.green );
+    final Mesh.Coloring faceColoring = new Mesh.Coloring( Color.blue,
+	                                                  Color.yellow,
+	                                                  Color.green );
+    for( int m = 0; m < MESHES; m++ )
+      {
+	final Mesh mesh = new Mesh();
+	final double x = random.nextGaussian() * 20;
+	final double y = random.nextGaussian() * 20;
+	final double z = random.nextGaussian() * 20;
+	final Mesh.Point3d p0 = new Mesh.Point3d( x,
+	                                          y,
+	                                          z );
+	final Mesh.Point3d p1 = new Mesh.Point3d( x + 1,
+	                                          y,
+	                                          z );
+	final Mesh.Point3d p2 = new Mesh.Point3d( x,
+	                                          y + 1,
+	                                          z + 1 );
+	final Mesh.Edge e0 = new Mesh.Edge( edgeColoring,
+	                                    p0,
+	                                    p1 );
+	final Mesh.Edge e1 = new Mesh.Edge( edgeColoring,
+	                                    p1,
+	                                    p2 );
+	final Mesh.Edge e2 = new Mesh.Edge( edgeColoring,
+	                                    p2,
+	                                    p0 );
+	mesh.add( p0 );
+	mesh.add( e0 );
+	mesh.add( new Mesh.Face( faceColoring,
+	                         e0,
+	                         e1,
+	                         e2 ) );
+	renderer.add( mesh );
+	if( m == 0 )
+	  {
+	    moved = mesh;
+	    movedVertices = new Mesh.Point3d[] {p0, p1, p2};
+	    movedCoordinates = new double[9];
+	  }
+      }
+
+    // a grid of squares, each with its edges
+    final int n = 32;
+    final float[] coordinates = new float[3 * (n + 1) * (n + 1)];
+    for( int i = 0; i <= n; i++ )
+      {
+	for( int j = 0; j <= n; j++ )
+	  {
+	    final int v = 3 * ((i * (n + 1)) + j);
+	    coordinates[v] = i - (n / 2);
+	    coordinates[v + 1] = j - (n / 2);
+	    coordinates[v + 2] = -30;
+	  }
+      }
+    final int[] edges = new int[4 * n * (n + 1)];
+    int e = 0;
+    for( int i = 0; i <= n; i++ )
+      {
+	for( int j = 0; j < n; j++ )
+	  {
+	    edges[e++] = (i * (n + 1)) + j;
+	    edges[e++] = (i * (n + 1)) + j + 1;
+	    edges[e++] = (j * (n + 1)) + i;
+	    edges[e++] = ((j + 1) * (n + 1)) + i;
+	  }
+      }
+    final int[] faceStart = new int[(n * n) + 1];
+    final int[] faceVertices = new int[4 * n * n];
+    int c = 0;
+    for( int i = 0; i < n; i++ )
+      {
+	for( int j = 0; j < n; j++ )
+	  {
+	    faceStart[(i * n) + j] = c;
+	    final int v = (i * (n + 1)) + j;
+	    faceVertices[c++] = v;
+	    faceVertices[c++] = v + n + 1;
+	    faceVertices[c++] = v + n + 2;
+	    faceVertices[c++] = v + 1;
+	  }
+      }
+    faceStart[n * n] = c;
+    renderer.add( new IndexedMesh( edgeColoring,
+	                           faceColoring,
+	                           coordinates,
+	                           edges,
+	                           faceStart,
+	                           faceVertices ) );
+  }
+
+
+  /**
+   * Draws the warm-up frames, and then counts the bytes allocated by the
+   * frames after them, and reports whether there were any. The frames are
+   * counted in a few rounds, and any round that allocates fails the test.
+   * What the JVM itself allocates when it compiles a method anew (and
+   * throws away what escape analysis had made of it) would be counted, too,
+   * which is why <code>ant test</code> runs this with the client compiler
+   * only.
+   **/
+  private void run( final String name,
+	            final Frame frame )
+  {
+    final com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+    final long thread = Thread.currentThread().getId();
+    int f = 0;
+    while (f < WARM_UP_FRAMES)
+      {
+	frame.draw( f++ );
+      }
+
+    long bytes = 0;
+    final long[] counts = new long[3];
+    for( int round = 0; round < ROUNDS; round++ )
+      {
+	// the second count tells what asking for the count allocates itself
+	counts[0] = bean.getThreadAllocatedBytes( thread );
+	counts[1] = bean.getThreadAllocatedBytes( thread );
+	for( int i = 0; i < FRAMES; i++ )
+	  {
+	    frame.draw( f++ );
+	  }
+	counts[2] = bean.getThreadAllocatedBytes( thread );
+	bytes = Math.max( bytes,
+	                  (counts[2] - counts[1]) - (counts[1] - counts[0]) );
+      }
+
+    if( bytes > 0 )
+      {
+	failures++;
+	System.err.println( "FAILED " + name + ": " + bytes + " bytes allocated by " + FRAMES + " frames" );
+      }
+    else
+      {
+	System.err.println( "passed " + name );
+      }
+  }
+
+
+  /**
+   * Turns the view by the given angle (in radians) per frame.
+   **/
+  private void turn( final int f,
+	             final double step )
+  {
+    renderer.setViewAngle( step * f,
+	                   0.3,
+	                   Math.PI );
+  }
+
+
+  /**
+   * Moves the focus from one element to the next, and draws only the part of
+   * the frame where it was and where it is now.
+   **/
+  private void focus( final int f )
+  {
+    final Mesh[] meshes = renderer.meshes();
+    final Mesh.Face old = meshes[f % meshes.length].faces()[0];
+    final Mesh.Face now = meshes[(f + 1) % meshes.length].faces()[0];
+    old.setFocused( false );
+    now.setFocused( true );
+    graphics.setClip( WIDTH / 4,
+	              HEIGHT / 4,
+	              WIDTH / 2,
+	              HEIGHT / 2 );
+    renderer.render( graphics,
+	             WIDTH,
+	             HEIGHT );
+    graphics.setClip( null );
+  }
+
+
+  /**
+   * Gives the vertices of one Mesh new positions, which it takes on the next
+   * frame.
+   **/
+  private void move( final int f )
+  {
+    for( int i = 0; i < movedCoordinates.length; i++ )
+      {
+	movedCoordinates[i] = (i % 3) + (0.01 * f);
+      }
+    moved.setPositions( movedVertices,
+	                movedCoordinates,
+	                0 );
+  }
+
+
+  /**
+   * Removes all but a tenth of the meshes and draws the smaller scene, for
+   * which the renderer must give up the ZRefs that it pooled for the larger
+   * one.
+   **/
+  private void shrink()
+  {
+    final int pooled = pooledZRefs();
+    final Mesh[] meshes = renderer.meshes();
+    for( int m = MESHES / 10; m < meshes.length; m++ )
+      {
+	renderer.remove( meshes[m] );
+      }
+    renderer.render( graphics,
+	             WIDTH,
+	             HEIGHT );
+    final int kept = pooledZRefs();
+    if( kept > (pooled / 4) )
+      {
+	failures++;
+	System.err.println( "FAILED removed meshes: " + kept + " of " + pooled + " ZRefs kept" );
+      }
+  }
+
+
+  /**
+   * @return The number of ZRefs that the renderer has pooled, which it does
+   *         not otherwise tell.
+   **/
+  private int pooledZRefs()
+  {
+    try
+      {
+	final Field zbuf = Renderer3d.class.getDeclaredField( "zbuf" );
+	zbuf.setAccessible( true );
+	return ((Object[])zbuf.get( renderer )).length;
+      }
+    catch( final ReflectiveOperationException x )
+      {
+	throw new IllegalStateException( "Renderer3d.zbuf cannot be read",
+	                                 x );
+      }
+  }
+
+
+  /**
+   * One frame (or part of one) to draw.
+   **/
+  private interface Frame
+  {
+    void draw( int f );
+  }
+
+  private static final int WIDTH = 640;
+  private static final int HEIGHT = 400;
+  private static final int MESHES = 2000;
+  private static final int WARM_UP_FRAMES = 500;
+  private static final int FRAMES = 200;
+  private static final int ROUNDS = 5;
+  // radians per frame: a drag, a turn just short of where the renderer no
+  // longer repairs the last order (and often gives it up), and a jump
+  private static final double TURN = 0.01;
+  private static final double WIDE_TURN = 0.09;
+  private static final double JUMP = 0.5;
+
+  private final Renderer3d renderer = new Renderer3d();
+  private final NullGraphics2D graphics = new NullGraphics2D();
+  private Mesh moved;
+  private Mesh.Point3d[] movedVertices;
+  private double[] movedCoordinates;
+  private int failures;
+}
@@ -0,0 +1,639 @@
+package com.ringlord.xs3d;
+
+import java.awt.AlphaComposite;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Composite;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
+import java.awt.Paint;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.Stroke;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.awt.image.BufferedImageOp;
+import java.awt.image.ImageObserver;
+import java.awt.image.RenderedImage;
+import java.awt.image.renderable.RenderableImage;
+
+import java.text.AttributedCharacterIterator;
+
+import java.util.Map;
+
+
+// This file is part of XS3D.
+//
+// XS3D is free software: you can redistribute it and/or modify it
+// under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// XS3D is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with XS3D. If not, see <http://www.gnu.org/licenses/>.
+
+/**
+ * <p>
+ * A Graphics2D that draws nothing, so that {@link AllocationTest} counts only
+ * what XS3D allocates to draw a frame, and not what Java2D allocates to
+ * rasterize it.
+ * </p>
+ * 
+ * <p>
+ * It keeps its color, stroke, and clip, and returns the clip itself (rather
+ * than a copy) from {@link #getClipBounds()}, so that asking for it does not
+ * allocate either.
+ * </p>
+ * 
+ * @author K. Udo Schuermann
+ **/
+class NullGraphics2D
+  extends Graphics2D
+{
+  @Override
+  public AffineTransform getTransform()
+  {
+    return new AffineTransform();
+  }
+
+
+  @Override
+  public Color getBackground()
+  {
+    return background;
+  }
+
+
+  @Override
+  public Color getColor()
+  {
+    return color;
+  }
+
+
+  @Override
+  public Composite getComposite()
+  {
+    return AlphaComposite.SrcOver;
+  }
+
+
+  @Override
+  public Font getFont()
+  {
+    return null;
+  }
+
+
+  @Override
+  public FontMetrics getFontMetrics( final Font f )
+  {
+    return null;
+  }
+
+
+  @Override
+  public FontRenderContext getFontRenderContext()
+  {
+    return new FontRenderContext( null,
+	                          false,
+	                          false );
+  }
+
+
+  @Override
+  public Graphics create()
+  {
+    return new NullGraphics2D();
+  }
+
+
+  @Override
+  public GraphicsConfiguration getDeviceConfiguration()
+  {
+    return null;
+  }
+
+
+  @Override
+  public Object getRenderingHint( final RenderingHints.Key hintKey )
+  {
+    return null;
+  }
+
+
+  @Override
+  public Paint getPaint()
+  {
+    return color;
+  }
+
+
+  @Override
+  public Rectangle getClipBounds()
+  {
+    return clip;
+  }
+
+
+  @Override
+  public RenderingHints getRenderingHints()
+  {
+    return new RenderingHints( null );
+  }
+
+
+  @Override
+  public Shape getClip()
+  {
+    return clip;
+  }
+
+
+  @Override
+  public Stroke getStroke()
+  {
+    return stroke;
+  }
+
+
+  @Override
+  public boolean drawImage( final Image img,
+	                    final AffineTransform xform,
+	                    final ImageObserver obs )
+  {
+    return true;
+  }
+
+
+  @Override
+  public boolean drawImage( final Image img,
+	                    final int x,
+	                    final int y,
+	                    final Color bgcolor,
+	                    final ImageObserver observer )
+  {
+    return true;
+  }
+
+
+  @Override
+  public boolean drawImage( final Image img,
+	                    final int x,
+	                    final int y,
+	                    final ImageObserver observer )
+  {
+    return true;
+  }
+
+
+  @Override
+  public boolean drawImage( final Image img,
+	                    final int x,
+	                    final int y,
+	                    final int width,
+	                    final int height,
+	                    final Color bgcolor,
+	                    final ImageObserver observer )
+  {
+    return true;
+  }
+
+
+  @Override
+  public boolean drawImage( final Image img,
+	                    final int x,
+	                    final int y,
+	                    final int width,
+	                    final int height,
+	                    final ImageObserver observer )
+  {
+    return true;
+  }
+
+
+  @Override
+  public boolean drawImage( final Image img,
+	                    final int dx1,
+	                    final int dy1,
+	                    final int dx2,
+	                    final int dy2,
+	                    final int sx1,
+	                    final int sy1,
+	                    final int sx2,
+	                    final int sy2,
+	                    final Color bgcolor,
+	                    final ImageObserver observer )
+  {
+    return true;
+  }
+
+
+  @Override
+  public boolean drawImage( final Image img,
+	                    final int dx1,
+	                    final int dy1,
+	                    final int dx2,
+	                    final int dy2,
+	                    final int sx1,
+	                    final int sy1,
+	                    final int sx2,
+	                    final int sy2,
+	                    final ImageObserver observer )
+  {
+    return true;
+  }
+
+
+  @Override
+  public boolean hit( final Rectangle rect,
+	              final Shape s,
+	              final boolean onStroke )
+  {
+    return false;
+  }
+
+
+  @Override
+  public void addRenderingHints( final Map<?,?> hints )
+  {
+  }
+
+
+  @Override
+  public void clearRect( final int x,
+	                 final int y,
+	                 final int width,
+	                 final int height )
+  {
+  }
+
+
+  @Override
+  public void clip( final Shape s )
+  {
+  }
+
+
+  @Override
+  public void clipRect( final int x,
+	                final int y,
+	                final int width,
+	                final int height )
+  {
+  }
+
+
+  @Override
+  public void copyArea( final int x,
+	                final int y,
+	                final int width,
+	                final int height,
+	                final int dx,
+	                final int dy )
+  {
+  }
+
+
+  @Override
+  public void dispose()
+  {
+  }
+
+
+  @Override
+  public void draw( final Shape s )
+  {
+  }
+
+
+  @Override
+  public void drawArc( final int x,
+	               final int y,
+	               final int width,
+	               final int height,
+	               final int startAngle,
+	               final int arcAngle )
+  {
+  }
+
+
+  @Override
+  public void drawGlyphVector( final GlyphVector g,
+	                       final float x,
+	                       final float y )
+  {
+  }
+
+
+  @Override
+  public void drawImage( final BufferedImage img,
+	                 final BufferedImageOp op,
+	                 final int x,
+	                 final int y )
+  {
+  }
+
+
+  @Override
+  public void drawLine( final int x1,
+	                final int y1,
+	                final int x2,
+	                final int y2 )
+  {
+  }
+
+
+  @Override
+  public void drawOval( final int x,
+	                final int y,
+	                final int width,
+	                final int height )
+  {
+  }
+
+
+  @Override
+  public void drawPolygon( final int[] xPoints,
+	                   final int[] yPoints,
+	                   final int nPoints )
+  {
+  }
+
+
+  @Override
+  public void drawPolyline( final int[] xPoints,
+	                    final int[] yPoints,
+	                    final int nPoints )
+  {
+  }
+
+
+  @Override
+  public void drawRenderableImage( final RenderableImage img,
+	                           final AffineTransform xform )
+  {
+  }
+
+
+  @Override
+  public void drawRenderedImage( final RenderedImage img,
+	                         final AffineTransform xform )
+  {
+  }
+
+
+  @Override
+  public void drawRoundRect( final int x,
+	                     final int y,
+	                     final int width,
+	                     final int height,
+	                     final int arcWidth,
+	                     final int arcHeight )
+  {
+  }
+
+
+  @Override
+  public void drawString( final AttributedCharacterIterator iterator,
+	                  final float x,
+	                  final float y )
+  {
+  }
+
+
+  @Override
+  public void drawString( final AttributedCharacterIterator iterator,
+	                  final int x,
+	                  final int y )
+  {
+  }
+
+
+  @Override
+  public void drawString( final String str,
+	                  final float x,
+	                  final float y )
+  {
+  }
+
+
+  @Override
+  public void drawString( final String str,
+	                  final int x,
+	                  final int y )
+  {
+  }
+
+
+  @Override
+  public void fill( final Shape s )
+  {
+  }
+
+
+  @Override
+  public void fillArc( final int x,
+	               final int y,
+	               final int width,
+	               final int height,
+	               final int startAngle,
+	               final int arcAngle )
+  {
+  }
+
+
+  @Override
+  public void fillOval( final int x,
+	                final int y,
+	                final int width,
+	                final int height )
+  {
+  }
+
+
+  @Override
+  public void fillPolygon( final int[] xPoints,
+	                   final int[] yPoints,
+	                   final int nPoints )
+  {
+  }
+
+
+  @Override
+  public void fillRect( final int x,
+	                final int y,
+	                final int width,
+	                final int height )
+  {
+  }
+
+
+  @Override
+  public void fillRoundRect( final int x,
+	                     final int y,
+	                     final int width,
+	                     final int height,
+	                     final int arcWidth,
+	                     final int arcHeight )
+  {
+  }
+
+
+  @Override
+  public void rotate( final double theta )
+  {
+  }
+
+
+  @Override
+  public void rotate( final double theta,
+	              final double x,
+	              final double y )
+  {
+  }
+
+
+  @Override
+  public void scale( final double sx,
+	             final double sy )
+  {
+  }
+
+
+  @Override
+  public void setBackground( final Color color )
+  {
+    background = color;
+  }
+
+
+  @Override
+  public void setClip( final Shape clip )
+  {
+    this.clip = ((clip == null)
+	? null
+	: clip.getBounds());
+  }
+
+
+  @Override
+  public void setClip( final int x,
+	               final int y,
+	               final int width,
+	               final int height )
+  {
+    clipArea.setBounds( x,
+	                y,
+	                width,
+	                height );
+    clip = clipArea;
+  }
+
+
+  @Override
+  public void setColor( final Color c )
+  {
+    color = c;
+  }
+
+
+  @Override
+  public void setComposite( final Composite comp )
+  {
+  }
+
+
+  @Override
+  public void setFont( final Font font )
+  {
+  }
+
+
+  @Override
+  public void setPaint( final Paint paint )
+  {
+  }
+
+
+  @Override
+  public void setPaintMode()
+  {
+  }
+
+
+  @Override
+  public void setRenderingHint( final RenderingHints.Key hintKey,
+	                        final Object hintValue )
+  {
+  }
+
+
+  @Override
+  public void setRenderingHints( final Map<?,?> hints )
+  {
+  }
+
+
+  @Override
+  public void setStroke( final Stroke s )
+  {
+    stroke = s;
+  }
+
+
+  @Override
+  public void setTransform( final AffineTransform tx )
+  {
+  }
+
+
+  @Override
+  public void setXORMode( final Color c1 )
+  {
+  }
+
+
+  @Override
+  public void shear( final double shx,
+	             final double shy )
+  {
+  }
+
+
+  @Override
+  public void transform( final AffineTransform tx )
+  {
+  }
+
+
+  @Override
+  public void translate( final double tx,
+	                 final double ty )
+  {
+  }
+
+
+  @Override
+  public void translate( final int x,
+	                 final int y )
+  {
+  }
+  private Color color = Color.white;
+  private Color background = Color.black;
+  private Stroke stroke = new BasicStroke();
+  private Rectangle clip;
+  private final Rectangle clipArea = new Rectangle();
+}